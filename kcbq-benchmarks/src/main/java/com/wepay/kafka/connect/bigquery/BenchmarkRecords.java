@@ -0,0 +1,208 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery;
+
+import com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig;
+import com.wepay.kafka.connect.bigquery.config.BigQuerySinkTaskConfig;
+import org.apache.kafka.connect.data.Date;
+import org.apache.kafka.connect.data.Decimal;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.data.Time;
+import org.apache.kafka.connect.data.Timestamp;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Schemas, records and configurations shared by the benchmarks. Each schema is built once and
+ * shared by every record created for it, as is the case for records produced by a converter.
+ */
+public class BenchmarkRecords {
+  public static final String TOPIC = "kcbq-benchmark";
+  public static final String DATASET = "benchmark";
+
+  public static final String FLAT = "flat";
+  public static final String NESTED = "nested";
+  public static final String LOGICAL = "logical";
+
+  private static final Schema FLAT_SCHEMA = SchemaBuilder.struct()
+      .field("id", Schema.INT64_SCHEMA)
+      .field("name", Schema.STRING_SCHEMA)
+      .field("description", Schema.OPTIONAL_STRING_SCHEMA)
+      .field("count", Schema.INT32_SCHEMA)
+      .field("score", Schema.FLOAT64_SCHEMA)
+      .field("active", Schema.BOOLEAN_SCHEMA)
+      .field("payload", Schema.BYTES_SCHEMA)
+      .build();
+
+  private static final Schema ADDRESS_SCHEMA = SchemaBuilder.struct()
+      .field("street", Schema.STRING_SCHEMA)
+      .field("city", Schema.STRING_SCHEMA)
+      .field("zip", Schema.OPTIONAL_STRING_SCHEMA)
+      .build();
+
+  private static final Schema NESTED_SCHEMA = SchemaBuilder.struct()
+      .field("id", Schema.INT64_SCHEMA)
+      .field("address", ADDRESS_SCHEMA)
+      .field("tags", SchemaBuilder.array(Schema.STRING_SCHEMA).build())
+      .field("attributes", SchemaBuilder.map(Schema.STRING_SCHEMA, Schema.STRING_SCHEMA).build())
+      .field("history", SchemaBuilder.array(ADDRESS_SCHEMA).build())
+      .build();
+
+  private static final Schema LOGICAL_SCHEMA = SchemaBuilder.struct()
+      .field("id", Schema.INT64_SCHEMA)
+      .field("created", Timestamp.SCHEMA)
+      .field("updated", Timestamp.SCHEMA)
+      .field("day", Date.SCHEMA)
+      .field("time", Time.SCHEMA)
+      .field("amount", Decimal.schema(2))
+      .field("balance", Decimal.schema(4))
+      .build();
+
+  private static final Schema KEY_SCHEMA = SchemaBuilder.struct()
+      .field("id", Schema.INT64_SCHEMA)
+      .build();
+
+  /**
+   * @param shape one of {@link #FLAT}, {@link #NESTED} or {@link #LOGICAL}
+   * @return the value schema for records of the given shape
+   */
+  public static Schema schema(String shape) {
+    switch (shape) {
+      case FLAT:
+        return FLAT_SCHEMA;
+      case NESTED:
+        return NESTED_SCHEMA;
+      case LOGICAL:
+        return LOGICAL_SCHEMA;
+      default:
+        throw new IllegalArgumentException("Unknown record shape: " + shape);
+    }
+  }
+
+  /**
+   * @param shape one of {@link #FLAT}, {@link #NESTED} or {@link #LOGICAL}
+   * @param id used to vary the contents of the record
+   * @return a value for a record of the given shape
+   */
+  public static Struct value(String shape, long id) {
+    switch (shape) {
+      case FLAT:
+        return new Struct(FLAT_SCHEMA)
+            .put("id", id)
+            .put("name", "name-" + id)
+            .put("description", id % 2 == 0 ? null : "description of record " + id)
+            .put("count", (int) id)
+            .put("score", id / 3.0)
+            .put("active", id % 3 == 0)
+            .put("payload", new byte[] {(byte) id, 1, 2, 3, 4, 5, 6, 7});
+      case NESTED:
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("source", "benchmark");
+        attributes.put("sequence", Long.toString(id));
+        return new Struct(NESTED_SCHEMA)
+            .put("id", id)
+            .put("address", address(id))
+            .put("tags", Arrays.asList("alpha", "beta", "tag-" + id))
+            .put("attributes", attributes)
+            .put("history", Arrays.asList(address(id - 1), address(id - 2)));
+      case LOGICAL:
+        long millis = 1600000000000L + id * 1000;
+        return new Struct(LOGICAL_SCHEMA)
+            .put("id", id)
+            .put("created", new java.util.Date(millis))
+            .put("updated", new java.util.Date(millis + 123))
+            .put("day", new java.util.Date(millis - millis % 86400000L))
+            .put("time", new java.util.Date(millis % 86400000L))
+            .put("amount", BigDecimal.valueOf(id * 100 + 99, 2))
+            .put("balance", BigDecimal.valueOf(id * 10000 + 1234, 4));
+      default:
+        throw new IllegalArgumentException("Unknown record shape: " + shape);
+    }
+  }
+
+  private static Struct address(long id) {
+    return new Struct(ADDRESS_SCHEMA)
+        .put("street", id + " Main Street")
+        .put("city", "Springfield")
+        .put("zip", id % 2 == 0 ? "12345" : null);
+  }
+
+  /**
+   * @param shape one of {@link #FLAT}, {@link #NESTED} or {@link #LOGICAL}
+   * @param topic the topic of the record
+   * @param partition the partition of the record
+   * @param offset the offset of the record, also used to vary its contents
+   * @return a keyed record of the given shape
+   */
+  public static SinkRecord record(String shape, String topic, int partition, long offset) {
+    Struct key = new Struct(KEY_SCHEMA).put("id", offset % 1000);
+    return new SinkRecord(
+        topic, partition, KEY_SCHEMA, key, schema(shape), value(shape, offset), offset);
+  }
+
+  /**
+   * @param shape one of {@link #FLAT}, {@link #NESTED} or {@link #LOGICAL}
+   * @param count how many records to create
+   * @param partitions how many partitions of {@link #TOPIC} to spread the records across
+   * @return the records, in the order that they would be consumed in
+   */
+  public static List<SinkRecord> records(String shape, int count, int partitions) {
+    List<SinkRecord> result = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      result.add(record(shape, TOPIC, i % partitions, i / partitions));
+    }
+    return result;
+  }
+
+  /**
+   * @return a minimal configuration for a task that reads from {@link #TOPIC} and writes to
+   *         {@link #DATASET} with the insertAll API
+   */
+  public static Map<String, String> properties() {
+    Map<String, String> properties = new HashMap<>();
+    properties.put(BigQuerySinkConfig.TOPICS_CONFIG, TOPIC);
+    properties.put(BigQuerySinkConfig.PROJECT_CONFIG, "benchmark-project");
+    properties.put(BigQuerySinkConfig.DEFAULT_DATASET_CONFIG, DATASET);
+    properties.put(BigQuerySinkConfig.KEYFILE_CONFIG, "key.json");
+    properties.put(BigQuerySinkConfig.TABLE_CREATE_CONFIG, "false");
+    properties.put(BigQuerySinkConfig.SANITIZE_TOPICS_CONFIG, "false");
+    properties.put(BigQuerySinkTaskConfig.TASK_ID_CONFIG, "0");
+    return properties;
+  }
+
+  /**
+   * @return {@link #properties()}, with upsert enabled and no merge flushes triggered by batch size
+   */
+  public static Map<String, String> upsertProperties() {
+    Map<String, String> properties = properties();
+    properties.put(BigQuerySinkConfig.UPSERT_ENABLED_CONFIG, "true");
+    properties.put(BigQuerySinkConfig.KAFKA_KEY_FIELD_NAME_CONFIG, "kafkaKey");
+    properties.put(BigQuerySinkConfig.MERGE_RECORDS_THRESHOLD_CONFIG, "-1");
+    return properties;
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.InsertAllResponse;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.storage.Storage;
+import com.wepay.kafka.connect.bigquery.api.SchemaRetriever;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.apache.kafka.connect.sink.SinkTaskContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures a full put and flush of a batch of records through the task, against a BigQuery client
+ * that accepts every write. This covers routing, conversion, batching and the handoff to the write
+ * thread pool, without any network I/O.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BigQuerySinkTaskBenchmark {
+
+  @Param({BenchmarkRecords.FLAT, BenchmarkRecords.NESTED, BenchmarkRecords.LOGICAL})
+  public String shape;
+
+  @Param({"500"})
+  public int batchSize;
+
+  @Param({"8"})
+  public int partitions;
+
+  private BigQuerySinkTask task;
+  private List<SinkRecord> records;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    // Mocks are stub-only so that they do not record every invocation made during the benchmark
+    BigQuery bigQuery = mock(BigQuery.class, withSettings().stubOnly());
+    InsertAllResponse response = mock(InsertAllResponse.class, withSettings().stubOnly());
+    when(response.hasErrors()).thenReturn(false);
+    when(bigQuery.insertAll(any(InsertAllRequest.class))).thenReturn(response);
+    when(bigQuery.getTable(any(TableId.class)))
+        .thenReturn(mock(Table.class, withSettings().stubOnly()));
+
+    task = new BigQuerySinkTask(
+        bigQuery,
+        mock(SchemaRetriever.class, withSettings().stubOnly()),
+        mock(Storage.class, withSettings().stubOnly()),
+        mock(SchemaManager.class, withSettings().stubOnly()),
+        new HashMap<>()
+    );
+    task.initialize(mock(SinkTaskContext.class, withSettings().stubOnly()));
+    task.start(BenchmarkRecords.properties());
+
+    records = BenchmarkRecords.records(shape, batchSize, partitions);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    task.stop();
+  }
+
+  @Benchmark
+  public void putAndFlush() {
+    task.put(records);
+    task.flush(Collections.emptyMap());
+  }
+}
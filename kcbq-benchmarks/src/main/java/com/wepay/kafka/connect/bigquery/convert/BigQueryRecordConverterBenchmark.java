@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.convert;
+
+import com.wepay.kafka.connect.bigquery.BenchmarkRecords;
+import com.wepay.kafka.connect.bigquery.api.KafkaSchemaRecordType;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of a single record value into the map that is sent to BigQuery, for
+ * flat, nested, and logical-type-heavy schemas.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BigQueryRecordConverterBenchmark {
+
+  @Param({BenchmarkRecords.FLAT, BenchmarkRecords.NESTED, BenchmarkRecords.LOGICAL})
+  public String shape;
+
+  private BigQueryRecordConverter converter;
+  private SinkRecord record;
+
+  @Setup
+  public void setUp() {
+    converter = new BigQueryRecordConverter(false);
+    record = BenchmarkRecords.record(shape, BenchmarkRecords.TOPIC, 0, 42);
+  }
+
+  @Benchmark
+  public Map<String, Object> convertValue() {
+    return converter.convertRecord(record, KafkaSchemaRecordType.VALUE);
+  }
+
+  @Benchmark
+  public Map<String, Object> convertKey() {
+    return converter.convertRecord(record, KafkaSchemaRecordType.KEY);
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures field name sanitization, both for names that are already valid (the common case) and
+ * for names that need to be rewritten, and for a whole converted row with nested maps.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FieldNameSanitizerBenchmark {
+
+  private Map<String, Object> validRow;
+  private Map<String, Object> invalidRow;
+
+  @Setup
+  public void setUp() {
+    validRow = row("customer_id", "shipping_address", "street_name");
+    invalidRow = row("customer-id", "shipping.address", "1street name");
+  }
+
+  private static Map<String, Object> row(String idField, String nestedField, String innerField) {
+    Map<String, Object> inner = new HashMap<>();
+    inner.put(innerField, "1 Main Street");
+    inner.put("city", "Springfield");
+    Map<String, Object> row = new HashMap<>();
+    row.put(idField, 42L);
+    row.put(nestedField, inner);
+    row.put("status", "active");
+    row.put("updated_at", "2020-09-13 12:26:40.123");
+    return row;
+  }
+
+  @Benchmark
+  public String sanitizeValidName() {
+    return FieldNameSanitizer.sanitizeName("shipping_address");
+  }
+
+  @Benchmark
+  public String sanitizeInvalidName() {
+    return FieldNameSanitizer.sanitizeName("shipping.address");
+  }
+
+  @Benchmark
+  public Map<String, Object> replaceValidKeys() {
+    return FieldNameSanitizer.replaceInvalidKeys(validRow);
+  }
+
+  @Benchmark
+  public Map<String, Object> replaceInvalidKeys() {
+    return FieldNameSanitizer.replaceInvalidKeys(invalidRow);
+  }
+}
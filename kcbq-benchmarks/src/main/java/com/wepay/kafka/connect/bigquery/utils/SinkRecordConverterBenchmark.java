@@ -0,0 +1,87 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.utils;
+
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.BenchmarkRecords;
+import com.wepay.kafka.connect.bigquery.config.BigQuerySinkTaskConfig;
+import com.wepay.kafka.connect.bigquery.write.batch.MergeBatches;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversion of a record into a row to insert, including the Kafka key and metadata
+ * fields, sanitization, and (in upsert mode) the bookkeeping for the record's merge batch.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SinkRecordConverterBenchmark {
+
+  @Param({"regular", "upsert"})
+  public String mode;
+
+  @Param({BenchmarkRecords.FLAT, BenchmarkRecords.NESTED, BenchmarkRecords.LOGICAL})
+  public String shape;
+
+  private SinkRecordConverter converter;
+  private SinkRecord record;
+  private TableId table;
+
+  @Setup
+  public void setUp() {
+    boolean upsert = "upsert".equals(mode);
+    Map<String, String> properties = upsert
+        ? BenchmarkRecords.upsertProperties()
+        : BenchmarkRecords.properties();
+    properties.put(BigQuerySinkTaskConfig.SANITIZE_FIELD_NAME_CONFIG, "true");
+    BigQuerySinkTaskConfig config = new BigQuerySinkTaskConfig(properties);
+
+    MergeBatches mergeBatches = new MergeBatches(
+        config.getString(BigQuerySinkTaskConfig.INTERMEDIATE_TABLE_SUFFIX_CONFIG));
+    TableId destination = TableId.of(BenchmarkRecords.DATASET, BenchmarkRecords.TOPIC);
+    table = upsert ? mergeBatches.intermediateTableFor(destination) : destination;
+    // The record threshold is disabled, so no merge flushes (and no MergeQueries) are needed
+    converter = new SinkRecordConverter(config, mergeBatches, null);
+    record = BenchmarkRecords.record(shape, BenchmarkRecords.TOPIC, 0, 42);
+  }
+
+  @Benchmark
+  public RowToInsert getRecordRow() {
+    return converter.getRecordRow(record, table);
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.BenchmarkRecords;
+import com.wepay.kafka.connect.bigquery.MergeQueries;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the merge batch bookkeeping done for every record in upsert/delete mode while writes
+ * for the same intermediate table complete on other threads, which is how the task thread and the
+ * write thread pool contend for it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class MergeBatchesBenchmark {
+
+  private static final int ROWS_PER_WRITE = 100;
+
+  private MergeBatches mergeBatches;
+  private TableId intermediateTable;
+  private SinkRecord record;
+  private List<RowToInsert> writtenRows;
+
+  @Setup
+  public void setUp() {
+    mergeBatches = new MergeBatches("_tmp");
+    intermediateTable = mergeBatches.intermediateTableFor(
+        TableId.of(BenchmarkRecords.DATASET, BenchmarkRecords.TOPIC));
+    record = BenchmarkRecords.record(BenchmarkRecords.FLAT, BenchmarkRecords.TOPIC, 0, 42);
+    // Make sure the first batch exists before any writes for it are reported
+    mergeBatches.addToBatch(record, intermediateTable, new HashMap<>());
+    writtenRows = new ArrayList<>(ROWS_PER_WRITE);
+    for (int i = 0; i < ROWS_PER_WRITE; i++) {
+      writtenRows.add(RowToInsert.of(
+          Collections.singletonMap(MergeQueries.INTERMEDIATE_TABLE_BATCH_NUMBER_FIELD, 0)));
+    }
+  }
+
+  @Benchmark
+  public long addToBatch() {
+    return mergeBatches.addToBatch(record, intermediateTable, new HashMap<>());
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(1)
+  public long contendedAddToBatch() {
+    return mergeBatches.addToBatch(record, intermediateTable, new HashMap<>());
+  }
+
+  @Benchmark
+  @Group("contended")
+  @GroupThreads(3)
+  public void contendedOnRowWrites() {
+    mergeBatches.onRowWrites(intermediateTable, writtenRows);
+  }
+}
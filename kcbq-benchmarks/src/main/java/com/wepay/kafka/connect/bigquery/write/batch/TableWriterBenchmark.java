@@ -0,0 +1,104 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.BenchmarkRecords;
+import com.wepay.kafka.connect.bigquery.config.BigQuerySinkTaskConfig;
+import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
+import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
+import com.wepay.kafka.connect.bigquery.write.row.BigQueryWriter;
+import com.wepay.kafka.connect.bigquery.write.row.RowBatch;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building and running a table writer for a batch of records: converting and collecting
+ * the rows, estimating their sizes, and splitting them into write requests. Requests are handed to
+ * a writer that accepts them without sending anything, so only the connector's own work is timed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TableWriterBenchmark {
+
+  @Param({BenchmarkRecords.FLAT, BenchmarkRecords.NESTED, BenchmarkRecords.LOGICAL})
+  public String shape;
+
+  @Param({"500", "5000"})
+  public int batchSize;
+
+  private BigQueryWriter writer;
+  private SinkRecordConverter converter;
+  private PartitionedTableId table;
+  private List<SinkRecord> records;
+
+  @Setup
+  public void setUp() {
+    writer = new NoOpBigQueryWriter();
+    converter = new SinkRecordConverter(
+        new BigQuerySinkTaskConfig(BenchmarkRecords.properties()), null, null);
+    table = new PartitionedTableId.Builder(
+        TableId.of(BenchmarkRecords.DATASET, BenchmarkRecords.TOPIC)).build();
+    records = BenchmarkRecords.records(shape, batchSize, 4);
+  }
+
+  @Benchmark
+  public TableWriter buildAndRun() {
+    TableWriter.Builder builder = new TableWriter.Builder(writer, table, converter);
+    for (SinkRecord record : records) {
+      builder.addRow(record, table.getBaseTableId());
+    }
+    TableWriter tableWriter = builder.build();
+    tableWriter.run();
+    return tableWriter;
+  }
+
+  private static class NoOpBigQueryWriter extends BigQueryWriter {
+    NoOpBigQueryWriter() {
+      super(0, 0);
+    }
+
+    @Override
+    protected Map<Long, List<BigQueryError>> performWriteRequest(PartitionedTableId tableId,
+                                                                 RowBatch rows) {
+      return Collections.emptyMap();
+    }
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.BenchmarkRecords;
+import com.wepay.kafka.connect.bigquery.config.BigQuerySinkTaskConfig;
+import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the serialization of a batch of converted rows into the newline delimited JSON that is
+ * uploaded to GCS.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GCSToBQWriterBenchmark {
+
+  @Param({BenchmarkRecords.FLAT, BenchmarkRecords.NESTED, BenchmarkRecords.LOGICAL})
+  public String shape;
+
+  @Param({"1000"})
+  public int batchSize;
+
+  private List<RowToInsert> rows;
+
+  @Setup
+  public void setUp() {
+    SinkRecordConverter converter = new SinkRecordConverter(
+        new BigQuerySinkTaskConfig(BenchmarkRecords.properties()), null, null);
+    TableId table = TableId.of(BenchmarkRecords.DATASET, BenchmarkRecords.TOPIC);
+    rows = new ArrayList<>(batchSize);
+    BenchmarkRecords.records(shape, batchSize, 1)
+        .forEach(record -> rows.add(converter.getRecordRow(record, table)));
+  }
+
+  @Benchmark
+  public byte[] toJson() {
+    return GCSToBQWriter.toJson(rows);
+  }
+}
@@ -88,8 +88,9 @@ public class BigQuerySinkConnector extends SinkConnector {
     List<Map<String, String>> taskConfigs = new ArrayList<>();
     for (int i = 0; i < maxTasks; i++) {
       HashMap<String, String> taskConfig = new HashMap<>(configProperties);
-      if (i == 0 && !config.getList(BigQuerySinkConfig.ENABLE_BATCH_CONFIG).isEmpty()) {
-        // if batch loading is enabled, configure first task to do the GCS -> BQ loading
+      if (i == 0 && !config.getList(BigQuerySinkConfig.ENABLE_BATCH_CONFIG).isEmpty()
+          && !config.getBoolean(BigQuerySinkConfig.USE_STORAGE_WRITE_API_CONFIG)) {
+        // if batch loading through GCS is enabled, configure first task to do the GCS -> BQ loading
         taskConfig.put(BigQuerySinkTaskConfig.GCS_BQ_TASK_CONFIG, "true");
       }
       taskConfig.put(BigQuerySinkTaskConfig.TASK_ID_CONFIG, Integer.toString(i));
@@ -27,6 +27,7 @@ import com.google.cloud.bigquery.Table;
 import com.google.cloud.bigquery.TableId;
 import com.google.cloud.bigquery.TimePartitioning;
 import com.google.cloud.bigquery.TimePartitioning.Type;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
 import com.google.cloud.storage.Bucket;
 import com.google.cloud.storage.BucketInfo;
 import com.google.cloud.storage.Storage;
@@ -35,6 +36,7 @@ import com.wepay.kafka.connect.bigquery.api.SchemaRetriever;
 import com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig;
 import com.wepay.kafka.connect.bigquery.config.BigQuerySinkTaskConfig;
 import com.wepay.kafka.connect.bigquery.convert.SchemaConverter;
+import com.wepay.kafka.connect.bigquery.metrics.BigQuerySinkTaskMetrics;
 import com.wepay.kafka.connect.bigquery.utils.FieldNameSanitizer;
 import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
 import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
@@ -42,20 +44,30 @@ import com.wepay.kafka.connect.bigquery.utils.TableNameUtils;
 import com.wepay.kafka.connect.bigquery.utils.Version;
 import com.wepay.kafka.connect.bigquery.write.batch.GCSBatchTableWriter;
 import com.wepay.kafka.connect.bigquery.write.batch.KCBQThreadPoolExecutor;
+import com.wepay.kafka.connect.bigquery.write.batch.MemoryBudget;
 import com.wepay.kafka.connect.bigquery.write.batch.MergeBatches;
+import com.wepay.kafka.connect.bigquery.write.batch.OffsetTracker;
+import com.wepay.kafka.connect.bigquery.write.batch.StorageWriteApiBatchTableWriter;
+import com.wepay.kafka.connect.bigquery.write.batch.TableBacklog;
 import com.wepay.kafka.connect.bigquery.write.batch.TableWriter;
+import com.wepay.kafka.connect.bigquery.write.batch.TableWriterAccumulator;
 import com.wepay.kafka.connect.bigquery.write.batch.TableWriterBuilder;
 import com.wepay.kafka.connect.bigquery.write.row.AdaptiveBigQueryWriter;
 import com.wepay.kafka.connect.bigquery.write.row.BigQueryErrorResponses;
 import com.wepay.kafka.connect.bigquery.write.row.BigQueryWriter;
+import com.wepay.kafka.connect.bigquery.write.row.ConcurrencyLimiter;
 import com.wepay.kafka.connect.bigquery.write.row.GCSToBQWriter;
 import com.wepay.kafka.connect.bigquery.write.row.SimpleBigQueryWriter;
+import com.wepay.kafka.connect.bigquery.write.row.StorageWriteApiBatchWriter;
+import com.wepay.kafka.connect.bigquery.write.row.StorageWriteApiBigQueryWriter;
 import com.wepay.kafka.connect.bigquery.write.row.UpsertDeleteBigQueryWriter;
+import com.wepay.kafka.connect.bigquery.write.row.WriteRateLimiter;
 import java.io.IOException;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.config.ConfigException;
 import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.connect.errors.ConnectException;
 import org.apache.kafka.connect.errors.RetriableException;
 import org.apache.kafka.connect.sink.SinkRecord;
@@ -87,6 +99,8 @@ public class BigQuerySinkTask extends SinkTask {
   private SchemaRetriever schemaRetriever;
   private BigQueryWriter bigQueryWriter;
   private GCSToBQWriter gcsToBQWriter;
+  private StorageWriteApiBatchWriter storageWriteApiBatchWriter;
+  private BigQueryWriteClient bigQueryWriteClient;
   private BigQuerySinkTaskConfig config;
   private SinkRecordConverter recordConverter;
 
@@ -101,7 +115,15 @@ public class BigQuerySinkTask extends SinkTask {
   private TopicPartitionManager topicPartitionManager;
 
   private KCBQThreadPoolExecutor executor;
+  private ExecutorService conversionExecutor;
+  private TableWriterAccumulator tableWriterAccumulator;
+  private RecordSchemaTracker recordSchemaTracker;
+  private OffsetTracker offsetTracker;
+  private MemoryBudget memoryBudget;
+  private TableBacklog tableBacklog;
+  private BigQuerySinkTaskMetrics metrics;
   private static final int EXECUTOR_SHUTDOWN_TIMEOUT_SEC = 30;
+  private static final String CONNECTOR_NAME_CONFIG = "name";
   
   private final BigQuery testBigQuery;
   private final Storage testGcs;
@@ -153,15 +175,26 @@ public class BigQuerySinkTask extends SinkTask {
       // Still have to check for errors in order to prevent offsets being committed for records that
       // we've failed to write
       executor.maybeThrowEncounteredError();
+      if (offsetTracker.hasPending()) {
+        throw new ConnectException("Task was stopped before all buffered rows could be written to BigQuery");
+      }
       return;
     }
 
+    // Buffered rows have to be written before their offsets can be committed
+    tableWriterAccumulator.dispatchAll();
+
     try {
       executor.awaitCurrentTasks();
     } catch (InterruptedException err) {
       throw new ConnectException("Interrupted while waiting for write tasks to complete.", err);
     }
 
+    if (storageWriteApiBatchWriter != null) {
+      // Every row handed to the task so far has been written to a pending stream; make them all visible at once
+      storageWriteApiBatchWriter.commit();
+    }
+
     topicPartitionManager.resumeAll();
   }
 
@@ -173,8 +206,45 @@ public class BigQuerySinkTask extends SinkTask {
       return result;
     }
 
-    flush(offsets);
-    return offsets;
+    // Periodically poll for errors here instead of doing a stop-the-world check in flush()
+    executor.maybeThrowEncounteredError();
+    if (!stopped) {
+      // Get buffered rows on their way to BigQuery; their offsets will be committed once they have been written
+      tableWriterAccumulator.dispatchAll();
+    }
+    if (storageWriteApiBatchWriter != null) {
+      // Make rows already written to pending streams visible; offsets for batch loaded topics are held back until
+      // the streams their rows were written to have been committed
+      storageWriteApiBatchWriter.commit();
+    }
+    checkQueueSize();
+    return offsetTracker.safeOffsets(offsets);
+  }
+
+  @Override
+  public void close(Collection<TopicPartition> partitions) {
+    if (stopped || tableWriterAccumulator == null) {
+      return;
+    }
+
+    // The new owner of the partitions will read their records again from the last committed offset, so rows for them
+    // that have not been handed off to be written yet are dropped
+    Set<TopicPartition> revoked = new HashSet<>(partitions);
+    tableWriterAccumulator.discard(revoked);
+
+    if (offsetTracker.hasPending(revoked)) {
+      // Rows that have already been handed off cannot be taken back; wait for them to be written, instead of having
+      // them land after the new owner has written them too
+      try {
+        executor.awaitCurrentTasks();
+      } catch (InterruptedException err) {
+        throw new ConnectException("Interrupted while waiting for write tasks to complete.", err);
+      }
+      if (storageWriteApiBatchWriter != null) {
+        storageWriteApiBatchWriter.commit();
+      }
+    }
+    offsetTracker.forget(revoked);
   }
 
   private PartitionedTableId getRecordTable(SinkRecord record) {
@@ -251,51 +321,73 @@ public class BigQuerySinkTask extends SinkTask {
 
     logger.debug("Putting {} records in the sink.", records.size());
 
-    // create tableWriters
-    Map<PartitionedTableId, TableWriterBuilder> tableWriterBuilders = new HashMap<>();
-
+    PartitionedTableId[] tables = new PartitionedTableId[records.size()];
+    int index = 0;
     for (SinkRecord record : records) {
+      offsetTracker.received(record);
       if (record.value() != null || config.getBoolean(BigQuerySinkConfig.DELETE_ENABLED_CONFIG)) {
         PartitionedTableId table = getRecordTable(record);
-        if (!tableWriterBuilders.containsKey(table)) {
-          TableWriterBuilder tableWriterBuilder;
-          if (config.getList(BigQuerySinkConfig.ENABLE_BATCH_CONFIG).contains(record.topic())) {
-            String topic = record.topic();
-            String gcsBlobName = topic + "_" + uuid + "_" + Instant.now().toEpochMilli();
-            String gcsFolderName = config.getString(BigQuerySinkConfig.GCS_FOLDER_NAME_CONFIG);
-            if (gcsFolderName != null && !"".equals(gcsFolderName)) {
-              gcsBlobName = gcsFolderName + "/" + gcsBlobName;
-            }
-            tableWriterBuilder = new GCSBatchTableWriter.Builder(
-                gcsToBQWriter,
-                table.getBaseTableId(),
-                config.getString(BigQuerySinkConfig.GCS_BUCKET_NAME_CONFIG),
-                gcsBlobName,
-                recordConverter);
-          } else {
-            TableWriter.Builder simpleTableWriterBuilder =
-                new TableWriter.Builder(bigQueryWriter, table, recordConverter);
-            if (upsertDelete) {
-              simpleTableWriterBuilder.onFinish(rows ->
-                  mergeBatches.onRowWrites(table.getBaseTableId(), rows));
-            }
-            tableWriterBuilder = simpleTableWriterBuilder;
-          }
-          tableWriterBuilders.put(table, tableWriterBuilder);
+        tables[index] = table;
+        if (recordSchemaTracker != null
+            && !config.getList(BigQuerySinkConfig.ENABLE_BATCH_CONFIG).contains(record.topic())) {
+          recordSchemaTracker.add(table.getBaseTableId(), record);
         }
-        tableWriterBuilders.get(table).addRow(record, table.getBaseTableId());
       }
+      index++;
+    }
+
+    // Create or update tables for records with new schemas before any of those records are dispatched
+    if (recordSchemaTracker != null) {
+      recordSchemaTracker.prepareTables();
     }
 
-    // add tableWriters to the executor work queue
-    for (TableWriterBuilder builder : tableWriterBuilders.values()) {
-      executor.execute(builder.build());
+    index = 0;
+    for (SinkRecord record : records) {
+      if (tables[index] != null) {
+        tableWriterAccumulator.add(tables[index], record);
+      }
+      index++;
     }
 
+    // add tableWriters whose rows have lingered long enough to the executor work queue
+    tableWriterAccumulator.dispatchExpired();
+
     // check if we should pause topics
     checkQueueSize();
   }
 
+  private TableWriterBuilder newTableWriterBuilder(PartitionedTableId table, SinkRecord record) {
+    if (storageWriteApiBatchWriter != null
+        && config.getList(BigQuerySinkConfig.ENABLE_BATCH_CONFIG).contains(record.topic())) {
+      return new StorageWriteApiBatchTableWriter.Builder(
+          storageWriteApiBatchWriter,
+          table.getBaseTableId(),
+          recordConverter);
+    } else if (config.getList(BigQuerySinkConfig.ENABLE_BATCH_CONFIG).contains(record.topic())) {
+      String topic = record.topic();
+      String gcsBlobName = topic + "_" + uuid + "_" + Instant.now().toEpochMilli();
+      String gcsFolderName = config.getString(BigQuerySinkConfig.GCS_FOLDER_NAME_CONFIG);
+      if (gcsFolderName != null && !"".equals(gcsFolderName)) {
+        gcsBlobName = gcsFolderName + "/" + gcsBlobName;
+      }
+      return new GCSBatchTableWriter.Builder(
+          gcsToBQWriter,
+          table.getBaseTableId(),
+          config.getString(BigQuerySinkConfig.GCS_BUCKET_NAME_CONFIG),
+          gcsBlobName,
+          recordConverter);
+    } else {
+      TableWriter.Builder simpleTableWriterBuilder =
+          new TableWriter.Builder(bigQueryWriter, table, recordConverter);
+      simpleTableWriterBuilder.metrics(metrics);
+      if (upsertDelete) {
+        simpleTableWriterBuilder.onFinish(rows ->
+            mergeBatches.onRowWrites(table.getBaseTableId(), rows));
+      }
+      return simpleTableWriterBuilder;
+    }
+  }
+
   // Important: this method is only safe to call during put(), flush(), or preCommit(); otherwise,
   // a ConcurrentModificationException may be triggered if the Connect framework is in the middle of
   // a method invocation on the consumer for this task. This becomes especially likely if all topics
@@ -305,16 +397,8 @@ public class BigQuerySinkTask extends SinkTask {
   // really have no choice but to wait for the framework to call a method on this task that implies
   // that it's safe to pause or resume partitions on the consumer.
   private void checkQueueSize() {
-    long queueSoftLimit = config.getLong(BigQuerySinkConfig.QUEUE_SIZE_CONFIG);
-    if (queueSoftLimit != -1) {
-      int currentQueueSize = executor.getQueue().size();
-      if (currentQueueSize > queueSoftLimit) {
-        topicPartitionManager.pauseAll();
-      } else if (currentQueueSize <= queueSoftLimit / 2) {
-        // resume only if there is a reasonable chance we won't immediately have to pause again.
-        topicPartitionManager.resumeAll();
-      }
-    }
+    // Only the partitions feeding tables that are falling behind are paused, so that other tables can keep going
+    topicPartitionManager.pauseOnly(tableBacklog.backedUpPartitions());
   }
 
   private BigQuery getBigQuery() {
@@ -370,6 +454,15 @@ public class BigQuerySinkTask extends SinkTask {
         .build();
   }
 
+  private synchronized BigQueryWriteClient getBigQueryWriteClient() {
+    if (bigQueryWriteClient == null) {
+      bigQueryWriteClient = new GcpClientBuilder.BigQueryWriteBuilder()
+          .withConfig(config)
+          .build();
+    }
+    return bigQueryWriteClient;
+  }
+
   private SchemaManager getSchemaManager() {
     if (testSchemaManager != null) {
       return testSchemaManager;
@@ -391,11 +484,13 @@ public class BigQuerySinkTask extends SinkTask {
     boolean allowReqFieldRelaxation = config.getBoolean(BigQuerySinkConfig.ALLOW_BIGQUERY_REQUIRED_FIELD_RELAXATION_CONFIG);
     boolean allowSchemaUnionization = config.getBoolean(BigQuerySinkConfig.ALLOW_SCHEMA_UNIONIZATION_CONFIG);
     boolean sanitizeFieldNames = config.getBoolean(BigQuerySinkConfig.SANITIZE_FIELD_NAME_CONFIG);
+    long tableMetadataCacheTtlMs = config.getLong(BigQuerySinkConfig.TABLE_METADATA_CACHE_TTL_MS_CONFIG);
     return new SchemaManager(schemaRetriever, schemaConverter, getBigQuery(),
                              allowNewBQFields, allowReqFieldRelaxation, allowSchemaUnionization,
                              sanitizeFieldNames,
                              kafkaKeyFieldName, kafkaDataFieldName,
-                             timestampPartitionFieldName, partitionExpiration, clusteringFieldName, timePartitioningType);
+                             timestampPartitionFieldName, partitionExpiration, clusteringFieldName, timePartitioningType,
+                             tableMetadataCacheTtlMs);
   }
 
   private BigQueryWriter getBigQueryWriter() {
@@ -404,23 +499,46 @@ public class BigQuerySinkTask extends SinkTask {
     boolean allowRequiredFieldRelaxation = config.getBoolean(BigQuerySinkConfig.ALLOW_BIGQUERY_REQUIRED_FIELD_RELAXATION_CONFIG);
     int retry = config.getInt(BigQuerySinkConfig.BIGQUERY_RETRY_CONFIG);
     long retryWait = config.getLong(BigQuerySinkConfig.BIGQUERY_RETRY_WAIT_CONFIG);
-    BigQuery bigQuery = getBigQuery();
-    if (upsertDelete) {
-      return new UpsertDeleteBigQueryWriter(bigQuery,
-                                            getSchemaManager(),
-                                            retry,
-                                            retryWait,
-                                            autoCreateTables,
-                                            mergeBatches.intermediateToDestinationTables());
+    BigQueryWriter adaptiveWriter;
+    if (config.getBoolean(BigQuerySinkConfig.USE_STORAGE_WRITE_API_CONFIG)) {
+      adaptiveWriter = new StorageWriteApiBigQueryWriter(getBigQueryWriteClient(),
+                                                         getSchemaManager(),
+                                                         config.getString(BigQuerySinkConfig.PROJECT_CONFIG),
+                                                         retry,
+                                                         retryWait,
+                                                         autoCreateTables,
+                                                         allowNewBigQueryFields || allowRequiredFieldRelaxation);
+    } else if (upsertDelete) {
+      BigQuery bigQuery = getBigQuery();
+      adaptiveWriter = new UpsertDeleteBigQueryWriter(bigQuery,
+                                                      getSchemaManager(),
+                                                      retry,
+                                                      retryWait,
+                                                      autoCreateTables,
+                                                      mergeBatches.intermediateToDestinationTables());
     } else if (autoCreateTables || allowNewBigQueryFields || allowRequiredFieldRelaxation) {
-      return new AdaptiveBigQueryWriter(bigQuery,
-                                        getSchemaManager(),
-                                        retry,
-                                        retryWait,
-                                        autoCreateTables);
+      adaptiveWriter = new AdaptiveBigQueryWriter(getBigQuery(),
+                                                  getSchemaManager(),
+                                                  retry,
+                                                  retryWait,
+                                                  autoCreateTables);
     } else {
-      return new SimpleBigQueryWriter(bigQuery, retry, retryWait);
+      return new SimpleBigQueryWriter(getBigQuery(), retry, retryWait);
     }
+    // Table writers are run on the executor, which parks them while tables they write to are not ready yet
+    adaptiveWriter.setParkUntilTableReady(true);
+    return adaptiveWriter;
+  }
+
+  private RecordSchemaTracker getRecordSchemaTracker() {
+    boolean autoCreateTables = config.getBoolean(BigQuerySinkConfig.TABLE_CREATE_CONFIG);
+    boolean allowSchemaUpdates = config.getBoolean(BigQuerySinkConfig.ALLOW_NEW_BIGQUERY_FIELDS_CONFIG)
+        || config.getBoolean(BigQuerySinkConfig.ALLOW_BIGQUERY_REQUIRED_FIELD_RELAXATION_CONFIG);
+    // Intermediate tables in upsert/delete mode are still created and updated by the writer
+    if (upsertDelete || !(autoCreateTables || allowSchemaUpdates)) {
+      return null;
+    }
+    return new RecordSchemaTracker(getSchemaManager(), autoCreateTables, allowSchemaUpdates);
   }
 
   private Storage getGcs() {
@@ -448,6 +566,21 @@ public class BigQuerySinkTask extends SinkTask {
                          autoCreateTables);
   }
 
+  private StorageWriteApiBatchWriter getStorageWriteApiBatchWriter() {
+    int retry = config.getInt(BigQuerySinkConfig.BIGQUERY_RETRY_CONFIG);
+    long retryWait = config.getLong(BigQuerySinkConfig.BIGQUERY_RETRY_WAIT_CONFIG);
+    boolean autoCreateTables = config.getBoolean(BigQuerySinkConfig.TABLE_CREATE_CONFIG);
+    boolean allowSchemaUpdates = config.getBoolean(BigQuerySinkConfig.ALLOW_NEW_BIGQUERY_FIELDS_CONFIG)
+        || config.getBoolean(BigQuerySinkConfig.ALLOW_BIGQUERY_REQUIRED_FIELD_RELAXATION_CONFIG);
+    return new StorageWriteApiBatchWriter(getBigQueryWriteClient(),
+                                          getSchemaManager(),
+                                          config.getString(BigQuerySinkConfig.PROJECT_CONFIG),
+                                          retry,
+                                          retryWait,
+                                          autoCreateTables,
+                                          allowSchemaUpdates);
+  }
+
   private SinkRecordConverter getConverter(BigQuerySinkTaskConfig config) {
     return new SinkRecordConverter(config, mergeBatches, mergeQueries);
   }
@@ -465,6 +598,9 @@ public class BigQuerySinkTask extends SinkTask {
     logger.trace("task.start()");
     stopped = false;
     config = new BigQuerySinkTaskConfig(properties);
+    // The name of the connector is included in every task's configuration by the Connect framework
+    metrics = new BigQuerySinkTaskMetrics(
+        properties.get(CONNECTOR_NAME_CONFIG), config.getInt(BigQuerySinkTaskConfig.TASK_ID_CONFIG));
 
     upsertDelete = config.getBoolean(BigQuerySinkConfig.UPSERT_ENABLED_CONFIG)
         || config.getBoolean(BigQuerySinkConfig.DELETE_ENABLED_CONFIG);
@@ -484,9 +620,72 @@ public class BigQuerySinkTask extends SinkTask {
 
     cache = getCache();
     bigQueryWriter = getBigQueryWriter();
-    gcsToBQWriter = getGcsWriter();
-    executor = new KCBQThreadPoolExecutor(config, new LinkedBlockingQueue<>());
+    recordSchemaTracker = getRecordSchemaTracker();
+    bigQueryWriter.setMetrics(metrics);
+    boolean useVirtualThreads = config.getBoolean(BigQuerySinkConfig.USE_VIRTUAL_THREADS_CONFIG);
+    int maxConcurrentWrites = config.getInt(BigQuerySinkConfig.THREAD_POOL_SIZE_CONFIG);
+    ConcurrencyLimiter concurrencyLimiter = null;
+    if (config.getBoolean(BigQuerySinkConfig.ADAPTIVE_WRITE_CONCURRENCY_CONFIG)) {
+      concurrencyLimiter = new ConcurrencyLimiter(maxConcurrentWrites, Time.SYSTEM);
+    } else if (useVirtualThreads) {
+      // The number of write threads is unbounded, so the number of requests they can make at once has to be bounded
+      concurrencyLimiter = ConcurrencyLimiter.fixed(maxConcurrentWrites);
+    }
+    if (concurrencyLimiter != null) {
+      bigQueryWriter.setConcurrencyLimiter(concurrencyLimiter);
+      metrics.registerConcurrencyLimit(concurrencyLimiter::limit, concurrencyLimiter::inFlight);
+    }
+    long tableRowsPerSecond = config.getLong(BigQuerySinkConfig.MAX_WRITE_ROWS_PER_SECOND_PER_TABLE_CONFIG);
+    long tableBytesPerSecond = config.getLong(BigQuerySinkConfig.MAX_WRITE_BYTES_PER_SECOND_PER_TABLE_CONFIG);
+    long projectRowsPerSecond = config.getLong(BigQuerySinkConfig.MAX_WRITE_ROWS_PER_SECOND_CONFIG);
+    long projectBytesPerSecond = config.getLong(BigQuerySinkConfig.MAX_WRITE_BYTES_PER_SECOND_CONFIG);
+    if (tableRowsPerSecond != -1 || tableBytesPerSecond != -1
+        || projectRowsPerSecond != -1 || projectBytesPerSecond != -1) {
+      bigQueryWriter.setRateLimiter(new WriteRateLimiter(
+          tableRowsPerSecond, tableBytesPerSecond, projectRowsPerSecond, projectBytesPerSecond, Time.SYSTEM));
+    }
+    if (!config.getBoolean(BigQuerySinkConfig.USE_STORAGE_WRITE_API_CONFIG)) {
+      gcsToBQWriter = getGcsWriter();
+    } else if (!config.getList(BigQuerySinkConfig.ENABLE_BATCH_CONFIG).isEmpty()) {
+      // Batch loaded topics are written to pending streams instead of being staged in GCS
+      storageWriteApiBatchWriter = getStorageWriteApiBatchWriter();
+    }
+    executor = useVirtualThreads
+        ? KCBQThreadPoolExecutor.withVirtualThreads()
+        : new KCBQThreadPoolExecutor(config, new LinkedBlockingQueue<>());
+    metrics.registerWriteQueue(executor::waitingTaskCount);
+    offsetTracker = new OffsetTracker();
+    long memoryLimit = config.getLong(BigQuerySinkConfig.QUEUE_SIZE_BYTES_CONFIG);
+    memoryBudget = memoryLimit != -1 ? new MemoryBudget(memoryLimit) : null;
+    if (memoryBudget != null) {
+      metrics.registerMemoryBudget(memoryBudget::used, memoryLimit);
+    }
+    tableBacklog = new TableBacklog(
+        executor::waitingTaskCount,
+        config.getLong(BigQuerySinkConfig.QUEUE_SIZE_CONFIG),
+        config.getLong(BigQuerySinkConfig.QUEUE_SIZE_PER_TABLE_CONFIG),
+        memoryBudget);
+    // Rows are converted here as soon as their table writer is dispatched, so that queued table writers don't hold on
+    // to the full records while they wait for a write thread
+    conversionExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+      Thread thread = new Thread(runnable, "kcbq-record-converter");
+      thread.setDaemon(true);
+      return thread;
+    });
+    tableWriterAccumulator = new TableWriterAccumulator(
+        this::newTableWriterBuilder,
+        executor::execute,
+        conversionExecutor,
+        offsetTracker,
+        memoryBudget,
+        tableBacklog,
+        config.getInt(BigQuerySinkConfig.WRITE_BATCH_MAX_ROWS_CONFIG),
+        config.getLong(BigQuerySinkConfig.WRITE_BATCH_MAX_BYTES_CONFIG),
+        // Rows have to be written promptly in upsert/delete mode so that merge flushes are not held up
+        upsertDelete ? 0 : config.getLong(BigQuerySinkConfig.WRITE_BATCH_LINGER_MS_CONFIG),
+        Time.SYSTEM);
     topicPartitionManager = new TopicPartitionManager();
+    metrics.registerPausedPartitions(topicPartitionManager::pausedPartitions);
     useMessageTimeDatePartitioning =
         config.getBoolean(BigQuerySinkConfig.BIGQUERY_MESSAGE_TIME_PARTITIONING_CONFIG);
     usePartitionDecorator = 
@@ -549,6 +748,22 @@ public class BigQuerySinkTask extends SinkTask {
     try {
       maybeStopExecutor(loadExecutor, "load executor");
       maybeStopExecutor(executor, "table write executor");
+      maybeStopExecutor(conversionExecutor, "record conversion executor");
+      if (tableWriterAccumulator != null) {
+        // Buffered rows will never be written now; their offsets are not committed either
+        tableWriterAccumulator.clear();
+      }
+      if (bigQueryWriter != null) {
+        bigQueryWriter.close();
+      }
+      if (storageWriteApiBatchWriter != null) {
+        // Uncommitted rows are discarded; their offsets have not been committed either
+        storageWriteApiBatchWriter.close();
+      }
+      if (bigQueryWriteClient != null) {
+        bigQueryWriteClient.close();
+        bigQueryWriteClient = null;
+      }
       if (upsertDelete) {
         mergeBatches.intermediateTables().forEach(table -> {
           logger.debug("Deleting {}", intTable(table));
@@ -556,6 +771,9 @@ public class BigQuerySinkTask extends SinkTask {
         });
       }
     } finally {
+      if (metrics != null) {
+        metrics.close();
+      }
       stopped = true;
     }
 
@@ -597,34 +815,65 @@ public class BigQuerySinkTask extends SinkTask {
 
   private class TopicPartitionManager {
 
-    private Long lastChangeMs;
-    private boolean isPaused;
+    // The time at which each currently paused partition was paused
+    private final Map<TopicPartition, Long> pausedSinceMs;
+    // Updated by the task thread and read by metrics reporters
+    private volatile int pausedPartitions;
 
     public TopicPartitionManager() {
-      this.lastChangeMs = System.currentTimeMillis();
-      this.isPaused = false;
+      this.pausedSinceMs = new HashMap<>();
     }
 
-    public void pauseAll() {
-      if (!isPaused) {
-        long now = System.currentTimeMillis();
-        logger.warn("Paused all partitions after {}ms", now - lastChangeMs);
-        isPaused = true;
-        lastChangeMs = now;
+    /**
+     * Pause the given partitions, and resume every other partition that was paused previously.
+     * @param partitions the partitions that should be paused; those that are not assigned to the task are ignored
+     */
+    public void pauseOnly(Set<TopicPartition> partitions) {
+      if (partitions.isEmpty() && pausedSinceMs.isEmpty()) {
+        return;
       }
       Set<TopicPartition> assignment = context.assignment();
-      context.pause(assignment.toArray(new TopicPartition[assignment.size()]));
+      long now = System.currentTimeMillis();
+
+      List<TopicPartition> toResume = new ArrayList<>();
+      Iterator<Map.Entry<TopicPartition, Long>> paused = pausedSinceMs.entrySet().iterator();
+      while (paused.hasNext()) {
+        Map.Entry<TopicPartition, Long> entry = paused.next();
+        if (!partitions.contains(entry.getKey()) || !assignment.contains(entry.getKey())) {
+          logger.info("Resumed partition {} after {}ms", entry.getKey(), now - entry.getValue());
+          metrics.recordPartitionPause(now - entry.getValue());
+          toResume.add(entry.getKey());
+          paused.remove();
+        }
+      }
+      toResume.retainAll(assignment);
+      if (!toResume.isEmpty()) {
+        context.resume(toResume.toArray(new TopicPartition[0]));
+      }
+
+      List<TopicPartition> toPause = new ArrayList<>();
+      for (TopicPartition partition : partitions) {
+        if (!assignment.contains(partition)) {
+          continue;
+        }
+        if (pausedSinceMs.putIfAbsent(partition, now) == null) {
+          logger.warn("Paused partition {} as a table it feeds has fallen behind", partition);
+        }
+        toPause.add(partition);
+      }
+      pausedPartitions = pausedSinceMs.size();
+      if (!toPause.isEmpty()) {
+        // Paused partitions are re-paused on every check, in case the framework has resumed them in the meantime
+        context.pause(toPause.toArray(new TopicPartition[0]));
+      }
     }
 
     public void resumeAll() {
-      if (isPaused) {
-        long now = System.currentTimeMillis();
-        logger.info("Resumed all partitions after {}ms", now - lastChangeMs);
-        isPaused = false;
-        lastChangeMs = now;
-      }
-      Set<TopicPartition> assignment = context.assignment();
-      context.resume(assignment.toArray(new TopicPartition[assignment.size()]));
+      pauseOnly(Collections.emptySet());
+    }
+
+    public int pausedPartitions() {
+      return pausedPartitions;
     }
   }
 }
@@ -19,11 +19,14 @@
 
 package com.wepay.kafka.connect.bigquery;
 
+import com.google.api.gax.core.FixedCredentialsProvider;
 import com.google.api.gax.rpc.FixedHeaderProvider;
 import com.google.api.gax.rpc.HeaderProvider;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.bigquery.BigQuery;
 import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteSettings;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
 import com.google.common.annotations.VisibleForTesting;
@@ -173,6 +176,28 @@ public abstract class GcpClientBuilder<Client> {
     }
   }
 
+  public static class BigQueryWriteBuilder extends GcpClientBuilder<BigQueryWriteClient> {
+    @Override
+    protected BigQueryWriteClient doBuild(String project, GoogleCredentials credentials, HeaderProvider headerProvider) {
+      // Write streams are addressed by fully-qualified table names, so unlike the other clients there is no
+      // default project to configure here
+      BigQueryWriteSettings.Builder builder = BigQueryWriteSettings.newBuilder()
+          .setHeaderProvider(headerProvider);
+
+      if (credentials != null) {
+        builder.setCredentialsProvider(FixedCredentialsProvider.create(credentials));
+      } else {
+        logger.debug("Attempting to access the BigQuery Storage Write API without authentication");
+      }
+
+      try {
+        return BigQueryWriteClient.create(builder.build());
+      } catch (IOException e) {
+        throw new BigQueryConnectException("Failed to create BigQuery Storage Write API client", e);
+      }
+    }
+  }
+
   @VisibleForTesting
   HeaderProvider getHeaderProvider() {
     return this.headerProvider;
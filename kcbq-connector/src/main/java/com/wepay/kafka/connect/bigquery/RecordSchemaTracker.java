@@ -0,0 +1,155 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery;
+
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps track of the record schemas that each table is known to accept, so that when records with a
+ * new schema arrive, their table can be created or have its schema updated before any of them are
+ * written. Otherwise, the first write of those records would fail, and would have to be retried
+ * until the new table or schema took effect in BigQuery, tying up a writer thread all the while.
+ *
+ * <p>Schemas are told apart by the key and value schemas of the records themselves. Tables that
+ * cannot be prepared ahead of time are left to the writers to create or update as before.
+ *
+ * <p>Not thread safe; meant to be used by {@link BigQuerySinkTask#put(java.util.Collection)} only.
+ */
+class RecordSchemaTracker {
+  private static final Logger logger = LoggerFactory.getLogger(RecordSchemaTracker.class);
+
+  // The most schemas remembered for a table before they are all forgotten; there should be far
+  // fewer distinct key and value schemas than this unless they are generated per record.
+  private static final int MAX_SCHEMAS_PER_TABLE = 1_000;
+
+  private final SchemaManager schemaManager;
+  private final boolean autoCreateTables;
+  private final boolean allowSchemaUpdates;
+  // The key and value schemas of records that each table is known to accept
+  private final Map<TableId, Set<List<Schema>>> acceptedSchemas;
+  // One record for each key and value schema not yet known to be accepted, per table
+  private final Map<TableId, Map<List<Schema>, SinkRecord>> newSchemas;
+
+  // Consecutive records very often go to the same table with the very same schema instances
+  private TableId lastTable;
+  private Schema lastKeySchema;
+  private Schema lastValueSchema;
+
+  /**
+   * @param schemaManager Used to check, create, and update tables.
+   * @param autoCreateTables Whether tables that do not exist yet should be created.
+   * @param allowSchemaUpdates Whether the schemas of existing tables should be updated.
+   */
+  RecordSchemaTracker(SchemaManager schemaManager, boolean autoCreateTables, boolean allowSchemaUpdates) {
+    this.schemaManager = schemaManager;
+    this.autoCreateTables = autoCreateTables;
+    this.allowSchemaUpdates = allowSchemaUpdates;
+    this.acceptedSchemas = new HashMap<>();
+    this.newSchemas = new HashMap<>();
+  }
+
+  /**
+   * Note a record that is about to be written to a table.
+   * @param table The table the record will be written to.
+   * @param record The record.
+   */
+  void add(TableId table, SinkRecord record) {
+    Schema keySchema = record.keySchema();
+    Schema valueSchema = record.valueSchema();
+    if (valueSchema == null) {
+      // Tombstone or schemaless record; neither contributes to the schema of a table
+      return;
+    }
+    if (keySchema == lastKeySchema && valueSchema == lastValueSchema && table.equals(lastTable)) {
+      return;
+    }
+    List<Schema> schemas = Arrays.asList(keySchema, valueSchema);
+    if (!acceptedSchemas.getOrDefault(table, Collections.emptySet()).contains(schemas)) {
+      newSchemas.computeIfAbsent(table, t -> new LinkedHashMap<>()).putIfAbsent(schemas, record);
+    }
+    lastTable = table;
+    lastKeySchema = keySchema;
+    lastValueSchema = valueSchema;
+  }
+
+  /**
+   * Create or update the tables that records with new schemas have been noted for since the last
+   * call, as far as is needed and allowed, before those records are written.
+   */
+  void prepareTables() {
+    for (Map.Entry<TableId, Map<List<Schema>, SinkRecord>> tableSchemas : newSchemas.entrySet()) {
+      TableId table = tableSchemas.getKey();
+      if (prepareTable(table, new ArrayList<>(tableSchemas.getValue().values()))) {
+        Set<List<Schema>> accepted = acceptedSchemas.computeIfAbsent(table, t -> new HashSet<>());
+        if (accepted.size() >= MAX_SCHEMAS_PER_TABLE) {
+          accepted.clear();
+        }
+        accepted.addAll(tableSchemas.getValue().keySet());
+      }
+    }
+    newSchemas.clear();
+    // Records with schemas that are still not accepted have to be checked again next time
+    lastTable = null;
+    lastKeySchema = null;
+    lastValueSchema = null;
+  }
+
+  private boolean prepareTable(TableId table, List<SinkRecord> records) {
+    try {
+      if (schemaManager.isCompatible(table, records)) {
+        return true;
+      }
+      if (!schemaManager.tableExists(table)) {
+        if (!autoCreateTables) {
+          return false;
+        }
+        logger.debug("Creating {} before writing records to it", table);
+        schemaManager.createTable(table, records);
+      } else {
+        if (!allowSchemaUpdates) {
+          return false;
+        }
+        logger.debug("Updating schema of {} before writing records with new schemas to it", table);
+        schemaManager.updateSchema(table, records);
+      }
+      return schemaManager.isCompatible(table, records);
+    } catch (BigQueryException | BigQueryConnectException e) {
+      logger.warn("Failed to prepare {} for records with new schemas; will try again if writing them fails",
+          table, e);
+      return false;
+    }
+  }
+}
@@ -37,20 +37,34 @@ import com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig;
 import com.wepay.kafka.connect.bigquery.convert.KafkaDataBuilder;
 import com.wepay.kafka.connect.bigquery.convert.SchemaConverter;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
+import com.wepay.kafka.connect.bigquery.exception.ExpectedInterruptException;
+import com.wepay.kafka.connect.bigquery.metrics.FlightRecorderEvents;
+import com.wepay.kafka.connect.bigquery.metrics.FlightRecorderEvents.Span;
 import com.wepay.kafka.connect.bigquery.utils.FieldNameSanitizer;
 import com.wepay.kafka.connect.bigquery.utils.TableNameUtils;
+import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiFunction;
 
 import static com.google.common.base.Preconditions.checkState;
 
@@ -61,6 +75,10 @@ public class SchemaManager {
 
   private static final Logger logger = LoggerFactory.getLogger(SchemaManager.class);
 
+  // The most converted schemas that are remembered before they are all forgotten; there should be
+  // far fewer distinct key and value schemas than this unless they are generated per record.
+  private static final int MAX_CONVERTED_SCHEMAS = 1_000;
+
   private final SchemaRetriever schemaRetriever;
   private final SchemaConverter<com.google.cloud.bigquery.Schema> schemaConverter;
   private final BigQuery bigQuery;
@@ -77,7 +95,11 @@ public class SchemaManager {
   private final boolean intermediateTables;
   private final ConcurrentMap<TableId, Object> tableCreateLocks;
   private final ConcurrentMap<TableId, Object> tableUpdateLocks;
-  private final ConcurrentMap<TableId, com.google.cloud.bigquery.Schema> schemaCache;
+  private final Map<TableId, SchemaChange> pendingTableCreates;
+  private final Map<TableId, SchemaChange> pendingSchemaUpdates;
+  private final TableMetadataCache tableMetadataCache;
+  // BigQuery schemas keyed by the Kafka Connect key and value schemas they were converted from
+  private final ConcurrentMap<List<Schema>, com.google.cloud.bigquery.Schema> convertedSchemas;
 
   /**
    * @param schemaRetriever Used to determine the Kafka Connect Schema that should be used for a
@@ -113,6 +135,45 @@ public class SchemaManager {
       Optional<Long> partitionExpiration,
       Optional<List<String>> clusteringFieldName,
       Optional<TimePartitioning.Type> timePartitioningType) {
+    this(
+        schemaRetriever,
+        schemaConverter,
+        bigQuery,
+        allowNewBQFields,
+        allowBQRequiredFieldRelaxation,
+        allowSchemaUnionization,
+        sanitizeFieldNames,
+        kafkaKeyFieldName,
+        kafkaDataFieldName,
+        timestampPartitionFieldName,
+        partitionExpiration,
+        clusteringFieldName,
+        timePartitioningType,
+        0L);
+  }
+
+  /**
+   * @param tableMetadataCacheTtlMs How long the existence and schema of a table read from BigQuery
+   *                                may be remembered; if 0, tables are read every time they are
+   *                                needed.
+   * @see #SchemaManager(SchemaRetriever, SchemaConverter, BigQuery, boolean, boolean, boolean,
+   *      boolean, Optional, Optional, Optional, Optional, Optional, Optional)
+   */
+  public SchemaManager(
+      SchemaRetriever schemaRetriever,
+      SchemaConverter<com.google.cloud.bigquery.Schema> schemaConverter,
+      BigQuery bigQuery,
+      boolean allowNewBQFields,
+      boolean allowBQRequiredFieldRelaxation,
+      boolean allowSchemaUnionization,
+      boolean sanitizeFieldNames,
+      Optional<String> kafkaKeyFieldName,
+      Optional<String> kafkaDataFieldName,
+      Optional<String> timestampPartitionFieldName,
+      Optional<Long> partitionExpiration,
+      Optional<List<String>> clusteringFieldName,
+      Optional<TimePartitioning.Type> timePartitioningType,
+      long tableMetadataCacheTtlMs) {
     this(
         schemaRetriever,
         schemaConverter,
@@ -130,7 +191,9 @@ public class SchemaManager {
         false,
         new ConcurrentHashMap<>(),
         new ConcurrentHashMap<>(),
-        new ConcurrentHashMap<>());
+        new HashMap<>(),
+        new HashMap<>(),
+        new TableMetadataCache(bigQuery, tableMetadataCacheTtlMs, Time.SYSTEM));
   }
 
   private SchemaManager(
@@ -150,7 +213,9 @@ public class SchemaManager {
       boolean intermediateTables,
       ConcurrentMap<TableId, Object> tableCreateLocks,
       ConcurrentMap<TableId, Object> tableUpdateLocks,
-      ConcurrentMap<TableId, com.google.cloud.bigquery.Schema> schemaCache) {
+      Map<TableId, SchemaChange> pendingTableCreates,
+      Map<TableId, SchemaChange> pendingSchemaUpdates,
+      TableMetadataCache tableMetadataCache) {
     this.schemaRetriever = schemaRetriever;
     this.schemaConverter = schemaConverter;
     this.bigQuery = bigQuery;
@@ -167,7 +232,10 @@ public class SchemaManager {
     this.intermediateTables = intermediateTables;
     this.tableCreateLocks = tableCreateLocks;
     this.tableUpdateLocks = tableUpdateLocks;
-    this.schemaCache = schemaCache;
+    this.pendingTableCreates = pendingTableCreates;
+    this.pendingSchemaUpdates = pendingSchemaUpdates;
+    this.tableMetadataCache = tableMetadataCache;
+    this.convertedSchemas = new ConcurrentHashMap<>();
   }
 
   public SchemaManager forIntermediateTables() {
@@ -188,19 +256,30 @@ public class SchemaManager {
         true,
         tableCreateLocks,
         tableUpdateLocks,
-        schemaCache
+        pendingTableCreates,
+        pendingSchemaUpdates,
+        tableMetadataCache
     );
   }
 
   /**
-   * Fetch the most recent schema for the given table, assuming it has been created and/or updated
-   * over the lifetime of this schema manager.
-   * @param table the table to fetch the schema for; may be null
-   * @return the latest schema for that table; may be null if the table does not exist or has not
-   * been created or updated by this schema manager
+   * Fetch the most recent schema for the given table. The schema may be remembered from an earlier
+   * read for a while, unless the table has been created or updated by this schema manager since then.
+   * @param table the table to fetch the schema for
+   * @return the latest schema for that table; may be null if the table does not exist
    */
   public com.google.cloud.bigquery.Schema cachedSchema(TableId table) {
-    return schemaCache.get(table);
+    return readTableSchema(table);
+  }
+
+  /**
+   * Check whether a table exists in BigQuery. The answer may be remembered from an earlier check for
+   * a while, unless the table has been created by this schema manager since then.
+   * @param table the table to check
+   * @return whether the table exists
+   */
+  public boolean tableExists(TableId table) {
+    return tableMetadataCache.exists(table);
   }
 
   /**
@@ -210,12 +289,10 @@ public class SchemaManager {
    * @param records The sink records used to determine the schema.
    */
   public void createOrUpdateTable(TableId table, List<SinkRecord> records) {
-    synchronized (lock(tableCreateLocks, table)) {
-      if (bigQuery.getTable(table) == null) {
-        logger.debug("{} doesn't exist; creating instead of updating", table(table));
-        if (createTable(table, records)) {
-          return;
-        }
+    if (!tableExists(table)) {
+      logger.debug("{} doesn't exist; creating instead of updating", table(table));
+      if (createTable(table, records)) {
+        return;
       }
     }
 
@@ -225,59 +302,194 @@ public class SchemaManager {
   }
 
   /**
-   * Create a new table in BigQuery.
+   * Create a new table in BigQuery. Callers that want to create the same table while another
+   * caller is waiting to do so have their records included in that one table creation, instead
+   * of each attempting a table creation of their own in turn.
    * @param table The BigQuery table to create.
    * @param records The sink records used to determine the schema.
    * @return whether the table had to be created; if the table already existed, will return false
    */
   public boolean createTable(TableId table, List<SinkRecord> records) {
-    synchronized (lock(tableCreateLocks, table)) {
-      if (schemaCache.containsKey(table)) {
-        // Table already exists; noop
-        logger.debug("Skipping create of {} as it should already exist or appear very soon", table(table));
-        return false;
+    Span span = FlightRecorderEvents.get().schemaChange(table, "create", records.size());
+    String outcome = FlightRecorderEvents.ERROR;
+    try {
+      outcome = coalesce(pendingTableCreates, tableCreateLocks, table, records, span, this::doCreateTable);
+      return FlightRecorderEvents.SUCCESS.equals(outcome);
+    } finally {
+      span.end(outcome);
+    }
+  }
+
+  /**
+   * Update an existing table in BigQuery. Callers that want to update the same table while another
+   * caller is waiting to do so have their records included in that one schema update, instead of
+   * each attempting a schema update of their own in turn.
+   * @param table The BigQuery table to update.
+   * @param records The sink records used to update the schema.
+   */
+  public void updateSchema(TableId table, List<SinkRecord> records) {
+    Span span = FlightRecorderEvents.get().schemaChange(table, "update", records.size());
+    String outcome = FlightRecorderEvents.ERROR;
+    try {
+      outcome = coalesce(pendingSchemaUpdates, tableUpdateLocks, table, records, span, this::doUpdateSchema);
+    } finally {
+      span.end(outcome);
+    }
+  }
+
+  private String doCreateTable(TableId table, List<SinkRecord> records) {
+    if (tableExists(table)) {
+      // Table already exists; noop
+      logger.debug("Skipping create of {} as it should already exist or appear very soon", table(table));
+      return FlightRecorderEvents.SKIPPED;
+    }
+    TableInfo tableInfo = getTableInfo(table, records, true);
+    logger.info("Attempting to create {} with schema {}",
+        table(table), tableInfo.getDefinition().getSchema());
+    try {
+      bigQuery.create(tableInfo);
+      logger.debug("Successfully created {}", table(table));
+      tableMetadataCache.put(table, tableInfo.getDefinition().getSchema());
+      return FlightRecorderEvents.SUCCESS;
+    } catch (BigQueryException e) {
+      // What we last saw of the table may be out of date, so read it again next time
+      tableMetadataCache.invalidate(table);
+      if (e.getCode() == 409) {
+        logger.debug("Failed to create {} as it already exists (possibly created by another task)", table(table));
+        return FlightRecorderEvents.SKIPPED;
+      }
+      throw e;
+    }
+  }
+
+  private String doUpdateSchema(TableId table, List<SinkRecord> records) {
+    TableInfo tableInfo = getTableInfo(table, records, false);
+    if (tableInfo.getDefinition().getSchema().equals(readTableSchema(table))) {
+      logger.debug("Skipping update of {} since current schema should be compatible", table(table));
+      return FlightRecorderEvents.SKIPPED;
+    }
+    logger.info("Attempting to update {} with schema {}",
+        table(table), tableInfo.getDefinition().getSchema());
+    try {
+      bigQuery.update(tableInfo);
+    } catch (BigQueryException e) {
+      tableMetadataCache.invalidate(table);
+      throw e;
+    }
+    logger.debug("Successfully updated {}", table(table));
+    tableMetadataCache.put(table, tableInfo.getDefinition().getSchema());
+    return FlightRecorderEvents.SUCCESS;
+  }
+
+  /**
+   * Perform a table creation or schema update, or join one for the same table that another caller
+   * is already waiting to perform. The first caller to ask for a change waits for any change to the
+   * table that is already under way to finish, and then performs a single change for the records of
+   * every caller that joined it in the meantime. Those callers wait for that change to finish
+   * instead of performing one of their own.
+   *
+   * <p>Without schema unionization, only the schema of a single record is used for a change, so
+   * callers only join changes for records with exactly the same schemas as theirs.
+   * @return the outcome of the change, as reported to {@link FlightRecorderEvents}
+   */
+  private String coalesce(Map<TableId, SchemaChange> pendingChanges,
+                          ConcurrentMap<TableId, Object> locks,
+                          TableId table,
+                          List<SinkRecord> records,
+                          Span span,
+                          BiFunction<TableId, List<SinkRecord>, String> change) {
+    Set<List<Schema>> schemas = allowSchemaUnionization ? null : new HashSet<>(distinctRecordSchemas(records));
+    SchemaChange pendingChange;
+    boolean performChange = false;
+    synchronized (pendingChanges) {
+      pendingChange = pendingChanges.get(table);
+      if (pendingChange == null) {
+        pendingChange = new SchemaChange(schemas);
+        pendingChanges.put(table, pendingChange);
+        performChange = true;
+      } else if (!Objects.equals(pendingChange.schemas, schemas)) {
+        pendingChange = null;
+      }
+      if (pendingChange != null) {
+        pendingChange.records.addAll(records);
+      }
+    }
+
+    if (pendingChange == null) {
+      // The pending change is for other schemas; make this one separately
+      synchronized (lock(locks, table)) {
+        span.lockAcquired();
+        return change.apply(table, records);
+      }
+    } else if (!performChange) {
+      return pendingChange.await(table);
+    }
+
+    synchronized (lock(locks, table)) {
+      span.lockAcquired();
+      List<SinkRecord> changeRecords;
+      synchronized (pendingChanges) {
+        // Callers that show up from now on have to wait for the next change
+        pendingChanges.remove(table);
+        changeRecords = pendingChange.records;
       }
-      TableInfo tableInfo = getTableInfo(table, records, true);
-      logger.info("Attempting to create {} with schema {}",
-          table(table), tableInfo.getDefinition().getSchema());
       try {
-        bigQuery.create(tableInfo);
-        logger.debug("Successfully created {}", table(table));
-        schemaCache.put(table, tableInfo.getDefinition().getSchema());
-        return true;
-      } catch (BigQueryException e) {
-        if (e.getCode() == 409) {
-          logger.debug("Failed to create {} as it already exists (possibly created by another task)", table(table));
-          schemaCache.put(table, readTableSchema(table));
-          return false;
-        }
+        String outcome = change.apply(table, changeRecords);
+        pendingChange.result.complete(outcome);
+        return outcome;
+      } catch (RuntimeException | Error e) {
+        pendingChange.result.completeExceptionally(e);
         throw e;
       }
     }
   }
 
   /**
-   * Update an existing table in BigQuery.
-   * @param table The BigQuery table to update.
-   * @param records The sink records used to update the schema.
+   * Check whether rows with the schemas of the given records can be written to a table as it is,
+   * without creating the table or updating its schema first. The table may be remembered from an
+   * earlier read instead of being read from BigQuery again.
+   * @param table The BigQuery table to check.
+   * @param records The sink records whose schemas should be checked.
+   * @return whether the table exists, has a field for every field in the records' schemas, and has
+   * no required fields that are missing from or optional in those schemas
    */
-  public void updateSchema(TableId table, List<SinkRecord> records) {
-    synchronized (lock(tableUpdateLocks, table)) {
-      TableInfo tableInfo = getTableInfo(table, records, false);
-      if (!schemaCache.containsKey(table)) {
-        schemaCache.put(table, readTableSchema(table));
+  public boolean isCompatible(TableId table, List<SinkRecord> records) {
+    com.google.cloud.bigquery.Schema tableSchema = tableMetadataCache.schema(table);
+    if (tableSchema == null) {
+      return false;
+    }
+    Map<String, Field> tableFields = schemaFields(tableSchema);
+    for (List<Schema> kafkaSchemas : distinctRecordSchemas(records)) {
+      if (!isCompatible(tableFields, schemaFields(convertSchemas(kafkaSchemas)))) {
+        return false;
       }
+    }
+    return true;
+  }
 
-      if (!schemaCache.get(table).equals(tableInfo.getDefinition().getSchema())) {
-        logger.info("Attempting to update {} with schema {}",
-            table(table), tableInfo.getDefinition().getSchema());
-        bigQuery.update(tableInfo);
-        logger.debug("Successfully updated {}", table(table));
-        schemaCache.put(table, tableInfo.getDefinition().getSchema());
-      } else {
-        logger.debug("Skipping update of {} since current schema should be compatible", table(table));
+  private boolean isCompatible(Map<String, Field> tableFields, Map<String, Field> recordFields) {
+    for (Field recordField : recordFields.values()) {
+      Field tableField = tableFields.get(recordField.getName());
+      if (tableField == null || !tableField.getType().equals(recordField.getType())) {
+        return false;
+      }
+      if (tableField.getMode() != recordField.getMode() && tableField.getMode() != Mode.NULLABLE) {
+        return false;
+      }
+      if ((tableField.getMode() == Mode.REPEATED) != (recordField.getMode() == Mode.REPEATED)) {
+        return false;
+      }
+      if (LegacySQLTypeName.RECORD.equals(tableField.getType())
+          && !isCompatible(subFields(tableField), subFields(recordField))) {
+        return false;
       }
     }
+    for (Field tableField : tableFields.values()) {
+      if (tableField.getMode() == Mode.REQUIRED && !recordFields.containsKey(tableField.getName())) {
+        return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -335,16 +547,14 @@ public class SchemaManager {
    * @return List of BigQuery schemas
    */
   private List<com.google.cloud.bigquery.Schema> getSchemasList(TableId table, List<SinkRecord> records) {
-    List<com.google.cloud.bigquery.Schema> bigQuerySchemas = new ArrayList<>();
+    // Unionizing a schema with one it already contains changes nothing, so each distinct schema is
+    // only added once, in the order in which it first appears
+    Set<com.google.cloud.bigquery.Schema> bigQuerySchemas = new LinkedHashSet<>();
     Optional.ofNullable(readTableSchema(table)).ifPresent(bigQuerySchemas::add);
-    for (SinkRecord record : records) {
-      Schema kafkaValueSchema = schemaRetriever.retrieveValueSchema(record);
-      if (kafkaValueSchema == null) {
-        continue;
-      }
-      bigQuerySchemas.add(convertRecordSchema(record));
+    for (List<Schema> kafkaSchemas : distinctRecordSchemas(records)) {
+      bigQuerySchemas.add(convertSchemas(kafkaSchemas));
     }
-    return bigQuerySchemas;
+    return new ArrayList<>(bigQuerySchemas);
   }
 
   /**
@@ -364,10 +574,78 @@ public class SchemaManager {
     return null;
   }
 
+  /**
+   * Convert the schemas of a batch of records into a single BigQuery schema that describes every
+   * record in the batch, without reading or altering the schema of any table. If the records in
+   * the batch do not all share the same schema, the distinct schemas are unionized.
+   * @param records The sink records whose schemas should be converted.
+   * @return The resulting BigQuery schema; may be null if every record in the batch is a tombstone
+   */
+  public com.google.cloud.bigquery.Schema convertRecordSchemas(List<SinkRecord> records) {
+    com.google.cloud.bigquery.Schema result = null;
+    for (List<Schema> kafkaSchemas : distinctRecordSchemas(records)) {
+      com.google.cloud.bigquery.Schema recordSchema = convertSchemas(kafkaSchemas);
+      if (recordSchema.equals(result)) {
+        continue;
+      }
+      try {
+        result = result == null ? recordSchema : unionizeSchemas(result, recordSchema);
+      } catch (IllegalStateException e) {
+        throw new BigQueryConnectException("Failed to unionize schemas of records in batch", e);
+      }
+    }
+    return result;
+  }
+
   private com.google.cloud.bigquery.Schema convertRecordSchema(SinkRecord record) {
     Schema kafkaValueSchema = schemaRetriever.retrieveValueSchema(record);
     Schema kafkaKeySchema = kafkaKeyFieldName.isPresent() ? schemaRetriever.retrieveKeySchema(record) : null;
-    com.google.cloud.bigquery.Schema result = getBigQuerySchema(kafkaKeySchema, kafkaValueSchema);
+    return convertSchemas(Arrays.asList(kafkaKeySchema, kafkaValueSchema));
+  }
+
+  /**
+   * Collects the distinct key and value schemas of a batch of records, in the order in which they
+   * first appear, skipping tombstone records. Runs of records that share the very same schema
+   * instances are common, and are skipped without comparing the schemas themselves.
+   * @param records The sink records whose schemas should be collected.
+   * @return The distinct pairs of Kafka Connect key and value schemas; the key schema is null if
+   * no key field is configured
+   */
+  private Collection<List<Schema>> distinctRecordSchemas(List<SinkRecord> records) {
+    Set<List<Schema>> result = new LinkedHashSet<>();
+    Schema lastKeySchema = null;
+    Schema lastValueSchema = null;
+    for (SinkRecord record : records) {
+      Schema kafkaValueSchema = schemaRetriever.retrieveValueSchema(record);
+      if (kafkaValueSchema == null) {
+        continue;
+      }
+      Schema kafkaKeySchema = kafkaKeyFieldName.isPresent() ? schemaRetriever.retrieveKeySchema(record) : null;
+      if (kafkaValueSchema == lastValueSchema && kafkaKeySchema == lastKeySchema) {
+        continue;
+      }
+      result.add(Arrays.asList(kafkaKeySchema, kafkaValueSchema));
+      lastKeySchema = kafkaKeySchema;
+      lastValueSchema = kafkaValueSchema;
+    }
+    return result;
+  }
+
+  /**
+   * Converts a pair of Kafka Connect key and value schemas into a BigQuery schema, reusing the
+   * result of an earlier conversion of the same schemas if there was one.
+   * @param kafkaSchemas The key schema, which may be null, followed by the value schema.
+   * @return The resulting BigQuery schema
+   */
+  private com.google.cloud.bigquery.Schema convertSchemas(List<Schema> kafkaSchemas) {
+    com.google.cloud.bigquery.Schema result = convertedSchemas.get(kafkaSchemas);
+    if (result == null) {
+      if (convertedSchemas.size() >= MAX_CONVERTED_SCHEMAS) {
+        convertedSchemas.clear();
+      }
+      result = getBigQuerySchema(kafkaSchemas.get(0), kafkaSchemas.get(1));
+      convertedSchemas.put(kafkaSchemas, result);
+    }
     return result;
   }
 
@@ -703,12 +981,42 @@ public class SchemaManager {
 
   private com.google.cloud.bigquery.Schema readTableSchema(TableId table) {
     logger.trace("Reading schema for {}", table(table));
-    return Optional.ofNullable(bigQuery.getTable(table))
-        .map(t -> t.getDefinition().getSchema())
-        .orElse(null);
+    return tableMetadataCache.schema(table);
   }
 
   private Object lock(ConcurrentMap<TableId, Object> locks, TableId table) {
     return locks.computeIfAbsent(table, t -> new Object());
   }
+
+  /**
+   * A table creation or schema update that callers can join until it starts.
+   */
+  private static class SchemaChange {
+    // The distinct schemas of the records, if only records with those schemas may join
+    private final Set<List<Schema>> schemas;
+    private final List<SinkRecord> records;
+    private final CompletableFuture<String> result;
+
+    SchemaChange(Set<List<Schema>> schemas) {
+      this.schemas = schemas;
+      this.records = new ArrayList<>();
+      this.result = new CompletableFuture<>();
+    }
+
+    String await(TableId table) {
+      try {
+        return result.get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new BigQueryConnectException("Failed to create or update " + table, cause);
+      } catch (InterruptedException e) {
+        throw new ExpectedInterruptException("Interrupted while waiting for " + table + " to be created or updated");
+      }
+    }
+  }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import org.apache.kafka.common.utils.Time;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers whether BigQuery tables exist and what their schemas are, so that they do not have to
+ * be read from BigQuery again for every batch of rows. Entries expire after a fixed amount of time,
+ * so that changes made to a table outside of the connector are picked up eventually, and are
+ * replaced as soon as the connector creates or updates a table itself.
+ */
+class TableMetadataCache {
+
+  private final BigQuery bigQuery;
+  private final long ttlMs;
+  private final Time time;
+  private final ConcurrentMap<TableId, Metadata> tables;
+
+  /**
+   * @param bigQuery Used to read tables that are not cached, or whose entries have expired.
+   * @param ttlMs How long a table read from BigQuery is remembered; if 0, tables are always read.
+   * @param time Used to expire entries.
+   */
+  TableMetadataCache(BigQuery bigQuery, long ttlMs, Time time) {
+    this.bigQuery = bigQuery;
+    this.ttlMs = ttlMs;
+    this.time = time;
+    this.tables = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * @param table The table to look up.
+   * @return whether the table exists
+   */
+  boolean exists(TableId table) {
+    return metadata(table).exists;
+  }
+
+  /**
+   * @param table The table to look up.
+   * @return the schema of the table; may be null if the table does not exist
+   */
+  Schema schema(TableId table) {
+    return metadata(table).schema;
+  }
+
+  /**
+   * Record the schema of a table that has just been created or updated.
+   * @param table The table that was created or updated.
+   * @param schema The schema the table now has.
+   */
+  void put(TableId table, Schema schema) {
+    if (ttlMs > 0) {
+      tables.put(table, new Metadata(true, schema, time.milliseconds()));
+    }
+  }
+
+  /**
+   * Forget what is known about a table, so that it is read from BigQuery the next time it is
+   * looked up.
+   * @param table The table to forget.
+   */
+  void invalidate(TableId table) {
+    tables.remove(table);
+  }
+
+  private Metadata metadata(TableId table) {
+    long now = time.milliseconds();
+    Metadata result = tables.get(table);
+    if (result == null || now - result.readAtMs >= ttlMs) {
+      Table bigQueryTable = bigQuery.getTable(table);
+      result = bigQueryTable != null
+          ? new Metadata(true, bigQueryTable.getDefinition().getSchema(), now)
+          : new Metadata(false, null, now);
+      if (ttlMs > 0) {
+        tables.put(table, result);
+      }
+    }
+    return result;
+  }
+
+  private static class Metadata {
+    private final boolean exists;
+    private final Schema schema;
+    private final long readAtMs;
+
+    Metadata(boolean exists, Schema schema, long readAtMs) {
+      this.exists = exists;
+      this.schema = schema;
+      this.readAtMs = readAtMs;
+    }
+  }
+}
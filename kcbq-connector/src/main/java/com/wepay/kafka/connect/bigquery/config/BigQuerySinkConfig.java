@@ -79,7 +79,8 @@ public class BigQuerySinkConfig extends AbstractConfig {
   private static final List<String> ENABLE_BATCH_DEFAULT =                 Collections.emptyList();
   private static final ConfigDef.Importance ENABLE_BATCH_IMPORTANCE =      ConfigDef.Importance.LOW;
   private static final String ENABLE_BATCH_DOC =
-      "Beta Feature; use with caution: The sublist of topics to be batch loaded through GCS";
+      "Beta Feature; use with caution: The sublist of topics to be batch loaded through GCS, or through "
+          + "Storage Write API pending streams if useStorageWriteApi is enabled";
 
   public static final String BATCH_LOAD_INTERVAL_SEC_CONFIG =             "batchLoadIntervalSec";
   private static final ConfigDef.Type BATCH_LOAD_INTERVAL_SEC_TYPE =      ConfigDef.Type.INT;
@@ -406,6 +407,78 @@ public class BigQuerySinkConfig extends AbstractConfig {
       "The size of the BigQuery write thread pool. This establishes the maximum number of "
           + "concurrent writes to BigQuery.";
 
+  public static final String USE_VIRTUAL_THREADS_CONFIG =                    "useVirtualThreads";
+  private static final ConfigDef.Type USE_VIRTUAL_THREADS_TYPE =             ConfigDef.Type.BOOLEAN;
+  public static final boolean USE_VIRTUAL_THREADS_DEFAULT =                  false;
+  private static final ConfigDef.Importance USE_VIRTUAL_THREADS_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String USE_VIRTUAL_THREADS_DOC =
+      "Whether to write to BigQuery on virtual threads instead of a fixed pool of platform threads. Requires "
+          + "Java 21 or later. Every batch of rows is then written on its own thread, so writes to any number of "
+          + "tables can make progress at once, and " + THREAD_POOL_SIZE_CONFIG + " instead limits how many write "
+          + "requests can be in flight at once; writes waiting to retry a request do not count towards it.";
+
+  public static final String ADAPTIVE_WRITE_CONCURRENCY_CONFIG =                    "adaptiveWriteConcurrency";
+  private static final ConfigDef.Type ADAPTIVE_WRITE_CONCURRENCY_TYPE =             ConfigDef.Type.BOOLEAN;
+  public static final boolean ADAPTIVE_WRITE_CONCURRENCY_DEFAULT =                  false;
+  private static final ConfigDef.Importance ADAPTIVE_WRITE_CONCURRENCY_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String ADAPTIVE_WRITE_CONCURRENCY_DOC =
+      "Whether to adjust the number of concurrent write requests to BigQuery based on how it responds. If "
+          + "enabled, concurrency is gradually raised while request latency stays stable and halved whenever "
+          + "BigQuery reports exceeded quotas or rate limits or backend errors, up to a maximum of "
+          + THREAD_POOL_SIZE_CONFIG + ". If disabled, up to " + THREAD_POOL_SIZE_CONFIG + " requests are "
+          + "always sent at once.";
+
+  private static final ConfigDef.Validator WRITE_RATE_VALIDATOR = ConfigDef.LambdaValidator.with(
+      (name, value) -> {
+        if (value == null) {
+          return;
+        }
+        long parsedValue = (long) ConfigDef.parseType(name, value, ConfigDef.Type.LONG);
+
+        if (parsedValue == 0) {
+          throw new ConfigException(name, value, "Cannot be zero");
+        } else if (parsedValue < -1) {
+          throw new ConfigException(name, value, "Cannot be less than -1");
+        }
+      },
+      () -> "Either a positive integer or -1 to disable the limit"
+  );
+
+  public static final String MAX_WRITE_ROWS_PER_SECOND_PER_TABLE_CONFIG = "maxWriteRowsPerSecondPerTable";
+  private static final ConfigDef.Type MAX_WRITE_ROWS_PER_SECOND_PER_TABLE_TYPE = ConfigDef.Type.LONG;
+  public static final long MAX_WRITE_ROWS_PER_SECOND_PER_TABLE_DEFAULT = -1;
+  private static final ConfigDef.Importance MAX_WRITE_ROWS_PER_SECOND_PER_TABLE_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String MAX_WRITE_ROWS_PER_SECOND_PER_TABLE_DOC =
+      "The maximum number of rows per second to write to any single BigQuery table, or -1 for no limit. "
+          + "Writes wait until they can be made without going over the limit, instead of being sent and rejected "
+          + "for exceeding BigQuery's quotas. The limit applies to each task separately.";
+
+  public static final String MAX_WRITE_BYTES_PER_SECOND_PER_TABLE_CONFIG = "maxWriteBytesPerSecondPerTable";
+  private static final ConfigDef.Type MAX_WRITE_BYTES_PER_SECOND_PER_TABLE_TYPE = ConfigDef.Type.LONG;
+  public static final long MAX_WRITE_BYTES_PER_SECOND_PER_TABLE_DEFAULT = -1;
+  private static final ConfigDef.Importance MAX_WRITE_BYTES_PER_SECOND_PER_TABLE_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String MAX_WRITE_BYTES_PER_SECOND_PER_TABLE_DOC =
+      "The maximum estimated number of bytes per second to write to any single BigQuery table, or -1 for no "
+          + "limit. The limit applies to each task separately.";
+
+  public static final String MAX_WRITE_ROWS_PER_SECOND_CONFIG = "maxWriteRowsPerSecond";
+  private static final ConfigDef.Type MAX_WRITE_ROWS_PER_SECOND_TYPE = ConfigDef.Type.LONG;
+  public static final long MAX_WRITE_ROWS_PER_SECOND_DEFAULT = -1;
+  private static final ConfigDef.Importance MAX_WRITE_ROWS_PER_SECOND_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String MAX_WRITE_ROWS_PER_SECOND_DOC =
+      "The maximum number of rows per second to write across all BigQuery tables, or -1 for no limit. The "
+          + "limit applies to each task separately, so it should be divided by the number of tasks to stay under "
+          + "a project-wide quota.";
+
+  public static final String MAX_WRITE_BYTES_PER_SECOND_CONFIG = "maxWriteBytesPerSecond";
+  private static final ConfigDef.Type MAX_WRITE_BYTES_PER_SECOND_TYPE = ConfigDef.Type.LONG;
+  public static final long MAX_WRITE_BYTES_PER_SECOND_DEFAULT = -1;
+  private static final ConfigDef.Importance MAX_WRITE_BYTES_PER_SECOND_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String MAX_WRITE_BYTES_PER_SECOND_DOC =
+      "The maximum estimated number of bytes per second to write across all BigQuery tables, or -1 for no "
+          + "limit. The limit applies to each task separately, so it should be divided by the number of tasks to "
+          + "stay under a project-wide quota.";
+
   public static final String QUEUE_SIZE_CONFIG =                    "queueSize";
   private static final ConfigDef.Type QUEUE_SIZE_TYPE =             ConfigDef.Type.LONG;
   // should this even have a default?
@@ -414,9 +487,36 @@ public class BigQuerySinkConfig extends AbstractConfig {
   private static final ConfigDef.Importance QUEUE_SIZE_IMPORTANCE = ConfigDef.Importance.HIGH;
   private static final String QUEUE_SIZE_DOC =
       "The maximum size (or -1 for no maximum size) of the worker queue for bigQuery write "
-          + "requests before all topics are paused. This is a soft limit; the size of the queue can "
-          + "go over this before topics are paused. All topics will be resumed once a flush is "
-          + "requested or the size of the queue drops under half of the maximum size.";
+          + "requests. Once it is exceeded, the topic partitions feeding any table with more than an even "
+          + "share of it queued or running are paused. This is a soft limit; the size of the queue can go "
+          + "over this before partitions are paused. A table's partitions will be resumed once a flush is "
+          + "requested, the size of the queue drops under half of the maximum size, or the number of "
+          + "requests for the table drops under half of its share.";
+
+  public static final String QUEUE_SIZE_PER_TABLE_CONFIG =                    "queueSizePerTable";
+  private static final ConfigDef.Type QUEUE_SIZE_PER_TABLE_TYPE =             ConfigDef.Type.LONG;
+  public static final Long QUEUE_SIZE_PER_TABLE_DEFAULT =                     -1L;
+  private static final ConfigDef.Validator QUEUE_SIZE_PER_TABLE_VALIDATOR =   ConfigDef.Range.atLeast(-1);
+  private static final ConfigDef.Importance QUEUE_SIZE_PER_TABLE_IMPORTANCE = ConfigDef.Importance.MEDIUM;
+  private static final String QUEUE_SIZE_PER_TABLE_DOC =
+      "The maximum number (or -1 for no maximum) of bigQuery write requests that can be queued or "
+          + "running for a single table before the topic partitions feeding that table are paused. This "
+          + "is a soft limit; the number of requests can go over this before partitions are paused. "
+          + "The partitions will be resumed once a flush is requested or the number of requests for the "
+          + "table drops under half of the maximum.";
+
+  public static final String QUEUE_SIZE_BYTES_CONFIG =                    "queueSizeBytes";
+  private static final ConfigDef.Type QUEUE_SIZE_BYTES_TYPE =             ConfigDef.Type.LONG;
+  public static final Long QUEUE_SIZE_BYTES_DEFAULT =                     -1L;
+  private static final ConfigDef.Validator QUEUE_SIZE_BYTES_VALIDATOR =   ConfigDef.Range.atLeast(-1);
+  private static final ConfigDef.Importance QUEUE_SIZE_BYTES_IMPORTANCE = ConfigDef.Importance.MEDIUM;
+  private static final String QUEUE_SIZE_BYTES_DOC =
+      "The maximum estimated size in bytes (or -1 for no maximum size) of the records that have been received by "
+          + "the task but not yet written to BigQuery, based on the size of their keys and values. Once it is "
+          + "exceeded, the topic partitions feeding any table holding more than an even share of it are paused. "
+          + "This is a soft limit; the size of the rows can go over this before partitions are paused. A table's "
+          + "partitions will be resumed once the total size of the rows drops under half of the maximum size, or "
+          + "the size of the table's rows drops under half of its share.";
 
   public static final String BIGQUERY_RETRY_CONFIG =                    "bigQueryRetry";
   private static final ConfigDef.Type BIGQUERY_RETRY_TYPE =             ConfigDef.Type.INT;
@@ -522,6 +622,88 @@ public class BigQuerySinkConfig extends AbstractConfig {
           + "older than the specified partition expiration time will be permanently deleted. "
           + "Existing tables will not be altered to use this partition expiration time.";
 
+  public static final String USE_STORAGE_WRITE_API_CONFIG =              "useStorageWriteApi";
+  private static final ConfigDef.Type USE_STORAGE_WRITE_API_TYPE =         ConfigDef.Type.BOOLEAN;
+  public static final Boolean USE_STORAGE_WRITE_API_DEFAULT =              false;
+  private static final ConfigDef.Importance USE_STORAGE_WRITE_API_IMPORTANCE =
+      ConfigDef.Importance.MEDIUM;
+  private static final String USE_STORAGE_WRITE_API_DOC =
+      "Whether to write rows to BigQuery using the Storage Write API instead of the legacy insertAll streaming "
+          + "API. Rows are encoded as protocol buffers and appended to the default stream of each table; rows for "
+          + "topics listed in " + ENABLE_BATCH_CONFIG + " are instead appended to pending streams that are "
+          + "committed atomically per table on each offset commit, without staging them in GCS. "
+          + "Cannot be used in conjunction with upsert/delete mode or with " + BIGQUERY_MESSAGE_TIME_PARTITIONING_CONFIG
+          + ".";
+
+  public static final String WRITE_BATCH_LINGER_MS_CONFIG =                    "writeBatchLingerMs";
+  private static final ConfigDef.Type WRITE_BATCH_LINGER_MS_TYPE =             ConfigDef.Type.LONG;
+  public static final long WRITE_BATCH_LINGER_MS_DEFAULT =                     0;
+  private static final ConfigDef.Validator WRITE_BATCH_LINGER_MS_VALIDATOR =   ConfigDef.Range.atLeast(0);
+  private static final ConfigDef.Importance WRITE_BATCH_LINGER_MS_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String WRITE_BATCH_LINGER_MS_DOC =
+      "How long (in milliseconds) rows for a table may be buffered across calls to put() in order to write "
+      + "them to BigQuery in fewer, larger batches. Buffered rows are always dispatched before offsets are "
+      + "committed. With the default of 0, the rows from each call to put() are dispatched at the end of that "
+      + "call. Ignored if upsert/delete is enabled.";
+
+  public static final String WRITE_BATCH_MAX_ROWS_CONFIG =                    "writeBatchMaxRows";
+  private static final ConfigDef.Type WRITE_BATCH_MAX_ROWS_TYPE =             ConfigDef.Type.INT;
+  public static final int WRITE_BATCH_MAX_ROWS_DEFAULT =                      -1;
+  private static final ConfigDef.Validator WRITE_BATCH_MAX_ROWS_VALIDATOR =   ConfigDef.LambdaValidator.with(
+      (name, value) -> {
+        if (value == null) {
+          return;
+        }
+        int parsedValue = (int) ConfigDef.parseType(name, value, WRITE_BATCH_MAX_ROWS_TYPE);
+
+        if (parsedValue == 0) {
+          throw new ConfigException(name, value, "Cannot be zero");
+        } else if (parsedValue < -1) {
+          throw new ConfigException(name, value, "Cannot be less than -1");
+        }
+      },
+      () -> "Either a positive integer or -1 to disable row count-based dispatching"
+  );
+  private static final ConfigDef.Importance WRITE_BATCH_MAX_ROWS_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String WRITE_BATCH_MAX_ROWS_DOC =
+      "How many rows to buffer for a single table before dispatching them to BigQuery in one write, regardless "
+      + "of " + WRITE_BATCH_LINGER_MS_CONFIG + ". Can be set to -1 to disable row count-based dispatching.";
+
+  public static final String WRITE_BATCH_MAX_BYTES_CONFIG =                    "writeBatchMaxBytes";
+  private static final ConfigDef.Type WRITE_BATCH_MAX_BYTES_TYPE =             ConfigDef.Type.LONG;
+  public static final long WRITE_BATCH_MAX_BYTES_DEFAULT =                     -1;
+  private static final ConfigDef.Validator WRITE_BATCH_MAX_BYTES_VALIDATOR =   ConfigDef.LambdaValidator.with(
+      (name, value) -> {
+        if (value == null) {
+          return;
+        }
+        long parsedValue = (long) ConfigDef.parseType(name, value, WRITE_BATCH_MAX_BYTES_TYPE);
+
+        if (parsedValue == 0) {
+          throw new ConfigException(name, value, "Cannot be zero");
+        } else if (parsedValue < -1) {
+          throw new ConfigException(name, value, "Cannot be less than -1");
+        }
+      },
+      () -> "Either a positive integer or -1 to disable size-based dispatching"
+  );
+  private static final ConfigDef.Importance WRITE_BATCH_MAX_BYTES_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String WRITE_BATCH_MAX_BYTES_DOC =
+      "The estimated size, in bytes, of the records to buffer for a single table before dispatching them to "
+      + "BigQuery in one write, regardless of " + WRITE_BATCH_LINGER_MS_CONFIG + ". Can be set to -1 to disable "
+      + "size-based dispatching.";
+
+  public static final String TABLE_METADATA_CACHE_TTL_MS_CONFIG =                    "tableMetadataCacheTtlMs";
+  private static final ConfigDef.Type TABLE_METADATA_CACHE_TTL_MS_TYPE =             ConfigDef.Type.LONG;
+  public static final long TABLE_METADATA_CACHE_TTL_MS_DEFAULT =                     60_000;
+  private static final ConfigDef.Validator TABLE_METADATA_CACHE_TTL_MS_VALIDATOR =   ConfigDef.Range.atLeast(0);
+  private static final ConfigDef.Importance TABLE_METADATA_CACHE_TTL_MS_IMPORTANCE = ConfigDef.Importance.LOW;
+  private static final String TABLE_METADATA_CACHE_TTL_MS_DOC =
+      "How long (in milliseconds) the existence and schema of a BigQuery table may be remembered before it is "
+      + "read from BigQuery again when creating tables or updating their schemas. Tables created or updated by "
+      + "the connector itself are remembered right away. Changes made to a table outside of the connector may "
+      + "go unnoticed for up to this long. Can be set to 0 to read tables from BigQuery every time.";
+
   //This config determines where the connector is hosted (Confluent Cloud or Confluent Platform).
   //This is not enforced and defaulted to "Confluent Platform". Currently, it is only used for user-agent tracking in GCP.
   public static final String CONNECTOR_RUNTIME_PROVIDER_CONFIG = "runtimeProvider";
@@ -734,6 +916,46 @@ public class BigQuerySinkConfig extends AbstractConfig {
             THREAD_POOL_SIZE_VALIDATOR,
             THREAD_POOL_SIZE_IMPORTANCE,
             THREAD_POOL_SIZE_DOC
+        ).define(
+            USE_VIRTUAL_THREADS_CONFIG,
+            USE_VIRTUAL_THREADS_TYPE,
+            USE_VIRTUAL_THREADS_DEFAULT,
+            USE_VIRTUAL_THREADS_IMPORTANCE,
+            USE_VIRTUAL_THREADS_DOC
+        ).define(
+            ADAPTIVE_WRITE_CONCURRENCY_CONFIG,
+            ADAPTIVE_WRITE_CONCURRENCY_TYPE,
+            ADAPTIVE_WRITE_CONCURRENCY_DEFAULT,
+            ADAPTIVE_WRITE_CONCURRENCY_IMPORTANCE,
+            ADAPTIVE_WRITE_CONCURRENCY_DOC
+        ).define(
+            MAX_WRITE_ROWS_PER_SECOND_PER_TABLE_CONFIG,
+            MAX_WRITE_ROWS_PER_SECOND_PER_TABLE_TYPE,
+            MAX_WRITE_ROWS_PER_SECOND_PER_TABLE_DEFAULT,
+            WRITE_RATE_VALIDATOR,
+            MAX_WRITE_ROWS_PER_SECOND_PER_TABLE_IMPORTANCE,
+            MAX_WRITE_ROWS_PER_SECOND_PER_TABLE_DOC
+        ).define(
+            MAX_WRITE_BYTES_PER_SECOND_PER_TABLE_CONFIG,
+            MAX_WRITE_BYTES_PER_SECOND_PER_TABLE_TYPE,
+            MAX_WRITE_BYTES_PER_SECOND_PER_TABLE_DEFAULT,
+            WRITE_RATE_VALIDATOR,
+            MAX_WRITE_BYTES_PER_SECOND_PER_TABLE_IMPORTANCE,
+            MAX_WRITE_BYTES_PER_SECOND_PER_TABLE_DOC
+        ).define(
+            MAX_WRITE_ROWS_PER_SECOND_CONFIG,
+            MAX_WRITE_ROWS_PER_SECOND_TYPE,
+            MAX_WRITE_ROWS_PER_SECOND_DEFAULT,
+            WRITE_RATE_VALIDATOR,
+            MAX_WRITE_ROWS_PER_SECOND_IMPORTANCE,
+            MAX_WRITE_ROWS_PER_SECOND_DOC
+        ).define(
+            MAX_WRITE_BYTES_PER_SECOND_CONFIG,
+            MAX_WRITE_BYTES_PER_SECOND_TYPE,
+            MAX_WRITE_BYTES_PER_SECOND_DEFAULT,
+            WRITE_RATE_VALIDATOR,
+            MAX_WRITE_BYTES_PER_SECOND_IMPORTANCE,
+            MAX_WRITE_BYTES_PER_SECOND_DOC
         ).define(
             QUEUE_SIZE_CONFIG,
             QUEUE_SIZE_TYPE,
@@ -741,6 +963,20 @@ public class BigQuerySinkConfig extends AbstractConfig {
             QUEUE_SIZE_VALIDATOR,
             QUEUE_SIZE_IMPORTANCE,
             QUEUE_SIZE_DOC
+        ).define(
+            QUEUE_SIZE_PER_TABLE_CONFIG,
+            QUEUE_SIZE_PER_TABLE_TYPE,
+            QUEUE_SIZE_PER_TABLE_DEFAULT,
+            QUEUE_SIZE_PER_TABLE_VALIDATOR,
+            QUEUE_SIZE_PER_TABLE_IMPORTANCE,
+            QUEUE_SIZE_PER_TABLE_DOC
+        ).define(
+            QUEUE_SIZE_BYTES_CONFIG,
+            QUEUE_SIZE_BYTES_TYPE,
+            QUEUE_SIZE_BYTES_DEFAULT,
+            QUEUE_SIZE_BYTES_VALIDATOR,
+            QUEUE_SIZE_BYTES_IMPORTANCE,
+            QUEUE_SIZE_BYTES_DOC
         ).define(
             BIGQUERY_RETRY_CONFIG,
             BIGQUERY_RETRY_TYPE,
@@ -818,6 +1054,40 @@ public class BigQuerySinkConfig extends AbstractConfig {
             BIGQUERY_PARTITION_EXPIRATION_VALIDATOR,
             BIGQUERY_PARTITION_EXPIRATION_IMPORTANCE,
             BIGQUERY_PARTITION_EXPIRATION_DOC
+        ).define(
+            USE_STORAGE_WRITE_API_CONFIG,
+            USE_STORAGE_WRITE_API_TYPE,
+            USE_STORAGE_WRITE_API_DEFAULT,
+            USE_STORAGE_WRITE_API_IMPORTANCE,
+            USE_STORAGE_WRITE_API_DOC
+        ).define(
+            WRITE_BATCH_MAX_ROWS_CONFIG,
+            WRITE_BATCH_MAX_ROWS_TYPE,
+            WRITE_BATCH_MAX_ROWS_DEFAULT,
+            WRITE_BATCH_MAX_ROWS_VALIDATOR,
+            WRITE_BATCH_MAX_ROWS_IMPORTANCE,
+            WRITE_BATCH_MAX_ROWS_DOC
+        ).define(
+            WRITE_BATCH_MAX_BYTES_CONFIG,
+            WRITE_BATCH_MAX_BYTES_TYPE,
+            WRITE_BATCH_MAX_BYTES_DEFAULT,
+            WRITE_BATCH_MAX_BYTES_VALIDATOR,
+            WRITE_BATCH_MAX_BYTES_IMPORTANCE,
+            WRITE_BATCH_MAX_BYTES_DOC
+        ).define(
+            WRITE_BATCH_LINGER_MS_CONFIG,
+            WRITE_BATCH_LINGER_MS_TYPE,
+            WRITE_BATCH_LINGER_MS_DEFAULT,
+            WRITE_BATCH_LINGER_MS_VALIDATOR,
+            WRITE_BATCH_LINGER_MS_IMPORTANCE,
+            WRITE_BATCH_LINGER_MS_DOC
+        ).define(
+            TABLE_METADATA_CACHE_TTL_MS_CONFIG,
+            TABLE_METADATA_CACHE_TTL_MS_TYPE,
+            TABLE_METADATA_CACHE_TTL_MS_DEFAULT,
+            TABLE_METADATA_CACHE_TTL_MS_VALIDATOR,
+            TABLE_METADATA_CACHE_TTL_MS_IMPORTANCE,
+            TABLE_METADATA_CACHE_TTL_MS_DOC
         ).defineInternal(
                     CONNECTOR_RUNTIME_PROVIDER_CONFIG,
                     CONNECTOR_RUNTIME_PROVIDER_TYPE,
@@ -841,6 +1111,7 @@ public class BigQuerySinkConfig extends AbstractConfig {
     MULTI_PROPERTY_VALIDATIONS.add(new PartitioningTypeValidator());
     MULTI_PROPERTY_VALIDATIONS.add(new UpsertDeleteValidator.UpsertValidator());
     MULTI_PROPERTY_VALIDATIONS.add(new UpsertDeleteValidator.DeleteValidator());
+    MULTI_PROPERTY_VALIDATIONS.add(new StorageWriteApiValidator());
   }
 
   /**
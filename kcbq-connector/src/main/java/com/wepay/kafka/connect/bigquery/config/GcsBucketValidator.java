@@ -33,6 +33,7 @@ import java.util.Optional;
 import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.AUTO_CREATE_BUCKET_CONFIG;
 import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.ENABLE_BATCH_CONFIG;
 import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.GCS_BUCKET_NAME_CONFIG;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.USE_STORAGE_WRITE_API_CONFIG;
 
 public class GcsBucketValidator extends MultiPropertyValidator<BigQuerySinkConfig> {
 
@@ -41,7 +42,7 @@ public class GcsBucketValidator extends MultiPropertyValidator<BigQuerySinkConfi
   }
 
   private static final Collection<String> DEPENDENTS = Collections.unmodifiableCollection(Arrays.asList(
-      ENABLE_BATCH_CONFIG, AUTO_CREATE_BUCKET_CONFIG
+      ENABLE_BATCH_CONFIG, AUTO_CREATE_BUCKET_CONFIG, USE_STORAGE_WRITE_API_CONFIG
   ));
 
   @Override
@@ -73,6 +74,11 @@ public class GcsBucketValidator extends MultiPropertyValidator<BigQuerySinkConfi
       return Optional.empty();
     }
 
+    if (config.getBoolean(USE_STORAGE_WRITE_API_CONFIG)) {
+      // Batch loaded topics are written to pending streams instead of GCS; no need to validate the GCS bucket
+      return Optional.empty();
+    }
+
     String bucketName = config.getString(GCS_BUCKET_NAME_CONFIG);
     if (bucketName == null || bucketName.trim().isEmpty()) {
       return Optional.of("When GCS batch loading is enabled, a bucket must be provided");
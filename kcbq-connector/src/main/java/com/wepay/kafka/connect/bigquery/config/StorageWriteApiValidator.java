@@ -0,0 +1,73 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.config;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Optional;
+
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.BIGQUERY_MESSAGE_TIME_PARTITIONING_CONFIG;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.DELETE_ENABLED_CONFIG;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.UPSERT_ENABLED_CONFIG;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.USE_STORAGE_WRITE_API_CONFIG;
+
+public class StorageWriteApiValidator extends MultiPropertyValidator<BigQuerySinkConfig> {
+  public StorageWriteApiValidator() {
+    super(USE_STORAGE_WRITE_API_CONFIG);
+  }
+
+  private static final Collection<String> DEPENDENTS = Collections.unmodifiableCollection(Arrays.asList(
+      UPSERT_ENABLED_CONFIG, DELETE_ENABLED_CONFIG, BIGQUERY_MESSAGE_TIME_PARTITIONING_CONFIG
+  ));
+
+  @Override
+  protected Collection<String> dependents() {
+    return DEPENDENTS;
+  }
+
+  @Override
+  protected Optional<String> doValidate(BigQuerySinkConfig config) {
+    if (!config.getBoolean(USE_STORAGE_WRITE_API_CONFIG)) {
+      return Optional.empty();
+    }
+
+    if (config.isUpsertDeleteEnabled()) {
+      return Optional.of(String.format(
+          "%s cannot be used in conjunction with %s or %s",
+          USE_STORAGE_WRITE_API_CONFIG,
+          UPSERT_ENABLED_CONFIG,
+          DELETE_ENABLED_CONFIG
+      ));
+    }
+
+    // The default stream always writes to the partition for the current time; there is no way to address a
+    // specific partition of the table with it
+    if (config.getBoolean(BIGQUERY_MESSAGE_TIME_PARTITIONING_CONFIG)) {
+      return Optional.of(String.format(
+          "%s cannot be used in conjunction with %s",
+          USE_STORAGE_WRITE_API_CONFIG,
+          BIGQUERY_MESSAGE_TIME_PARTITIONING_CONFIG
+      ));
+    }
+
+    return Optional.empty();
+  }
+}
@@ -40,11 +40,16 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
  * Class for converting from {@link SinkRecord SinkRecords} and BigQuery rows, which are represented
  * as {@link Map Maps} from {@link String Strings} to {@link Object Objects}.
+ *
+ * <p>Records with a schema are converted with a plan that is compiled once for each distinct schema instance: a tree
+ * of converters with the logical type, field positions and nested schemas of every field already resolved, so that
+ * the schema does not have to be walked again for every record.
  */
 public class BigQueryRecordConverter implements RecordConverter<Map<String, Object>> {
 
@@ -53,7 +58,14 @@ public class BigQueryRecordConverter implements RecordConverter<Map<String, Obje
             Boolean.class, Character.class, Byte.class, Short.class,
                   Integer.class, Long.class, Float.class, Double.class, String.class)
           );
+  /**
+   * The most plans that are cached before the cache is cleared; far more than the number of distinct schemas any one
+   * task should see, unless schemas are being created anew for every record.
+   */
+  private static final int MAX_CACHED_PLANS = 1000;
+
   private final boolean shouldConvertSpecialDouble;
+  private final Map<SchemaIdentity, ValueConverter> plans;
 
   static {
     // force registration
@@ -63,6 +75,7 @@ public class BigQueryRecordConverter implements RecordConverter<Map<String, Obje
 
   public BigQueryRecordConverter(boolean shouldConvertDoubleSpecial) {
     this.shouldConvertSpecialDouble = shouldConvertDoubleSpecial;
+    this.plans = new ConcurrentHashMap<>();
   }
 
   /**
@@ -88,7 +101,7 @@ public class BigQueryRecordConverter implements RecordConverter<Map<String, Obje
       throw new
           ConversionConnectException("Top-level Kafka Connect schema must be of type 'struct'");
     }
-    return convertStruct(kafkaConnectStruct, kafkaConnectSchema);
+    return (Map<String, Object>) plan(kafkaConnectSchema).convert(kafkaConnectStruct);
   }
 
   @SuppressWarnings("unchecked")
@@ -130,31 +143,59 @@ public class BigQueryRecordConverter implements RecordConverter<Map<String, Obje
         " found in schemaless record data. Can't convert record to bigQuery format");
   }
 
-  private Object convertObject(Object kafkaConnectObject, Schema kafkaConnectSchema) {
-    if (kafkaConnectObject == null) {
-      if (kafkaConnectSchema.isOptional()) {
-        // short circuit converting the object
-        return null;
-      } else {
-        throw new ConversionConnectException(
-            kafkaConnectSchema.name() + " is not optional, but converting object had null value");
+  /**
+   * Get the plan for converting values of the given schema, compiling it if this is the first value seen with that
+   * schema instance.
+   */
+  private ValueConverter plan(Schema kafkaConnectSchema) {
+    SchemaIdentity key = new SchemaIdentity(kafkaConnectSchema);
+    ValueConverter result = plans.get(key);
+    if (result == null) {
+      if (plans.size() >= MAX_CACHED_PLANS) {
+        // Schemas are not being reused across records; start over rather than grow without bound
+        plans.clear();
       }
+      result = compileStruct(kafkaConnectSchema);
+      plans.put(key, result);
     }
+    return result;
+  }
+
+  private ValueConverter compile(Schema kafkaConnectSchema) {
+    ValueConverter converter = compileNonNull(kafkaConnectSchema);
+    boolean optional = kafkaConnectSchema.isOptional();
+    String schemaName = kafkaConnectSchema.name();
+    return kafkaConnectObject -> {
+      if (kafkaConnectObject == null) {
+        if (optional) {
+          // short circuit converting the object
+          return null;
+        } else {
+          throw new ConversionConnectException(
+              schemaName + " is not optional, but converting object had null value");
+        }
+      }
+      return converter.convert(kafkaConnectObject);
+    };
+  }
+
+  private ValueConverter compileNonNull(Schema kafkaConnectSchema) {
     if (LogicalConverterRegistry.isRegisteredLogicalType(kafkaConnectSchema.name())) {
-      return convertLogical(kafkaConnectObject, kafkaConnectSchema);
+      LogicalTypeConverter converter = LogicalConverterRegistry.getConverter(kafkaConnectSchema.name());
+      return converter::convert;
     }
     Schema.Type kafkaConnectSchemaType = kafkaConnectSchema.type();
     switch (kafkaConnectSchemaType) {
       case ARRAY:
-        return convertArray(kafkaConnectObject, kafkaConnectSchema);
+        return compileArray(kafkaConnectSchema);
       case MAP:
-        return convertMap(kafkaConnectObject, kafkaConnectSchema);
+        return compileMap(kafkaConnectSchema);
       case STRUCT:
-        return convertStruct(kafkaConnectObject, kafkaConnectSchema);
+        return compileStruct(kafkaConnectSchema);
       case BYTES:
-        return convertBytes(kafkaConnectObject);
+        return this::convertBytes;
       case FLOAT64:
-        return convertDouble((Double)kafkaConnectObject);
+        return kafkaConnectObject -> convertDouble((Double) kafkaConnectObject);
       case BOOLEAN:
       case FLOAT32:
       case INT8:
@@ -162,75 +203,77 @@ public class BigQueryRecordConverter implements RecordConverter<Map<String, Obje
       case INT32:
       case INT64:
       case STRING:
-        return kafkaConnectObject;
+        return kafkaConnectObject -> kafkaConnectObject;
       default:
-        throw new ConversionConnectException("Unrecognized schema type: " + kafkaConnectSchemaType);
+        return kafkaConnectObject -> {
+          throw new ConversionConnectException("Unrecognized schema type: " + kafkaConnectSchemaType);
+        };
     }
   }
 
-  private Map<String, Object> convertStruct(Object kafkaConnectObject, Schema kafkaConnectSchema) {
-    Map<String, Object> bigQueryRecord = new HashMap<>();
-    List<Field> kafkaConnectSchemaFields = kafkaConnectSchema.fields();
-    Struct kafkaConnectStruct = (Struct) kafkaConnectObject;
-    for (Field kafkaConnectField : kafkaConnectSchemaFields) {
+  private ValueConverter compileStruct(Schema kafkaConnectSchema) {
+    List<Field> convertedFields = new ArrayList<>();
+    List<ValueConverter> fieldConverters = new ArrayList<>();
+    for (Field kafkaConnectField : kafkaConnectSchema.fields()) {
       // ignore empty structures
       boolean isEmptyStruct = kafkaConnectField.schema().type() == Schema.Type.STRUCT &&
           kafkaConnectField.schema().fields().isEmpty();
       if (!isEmptyStruct) {
-        Object bigQueryObject = convertObject(
-            kafkaConnectStruct.get(kafkaConnectField.name()),
-            kafkaConnectField.schema()
-        );
+        convertedFields.add(kafkaConnectField);
+        fieldConverters.add(compile(kafkaConnectField.schema()));
+      }
+    }
+    Field[] fields = convertedFields.toArray(new Field[0]);
+    ValueConverter[] converters = fieldConverters.toArray(new ValueConverter[0]);
+
+    return kafkaConnectObject -> {
+      Struct kafkaConnectStruct = (Struct) kafkaConnectObject;
+      // Fields can only be read by position if the struct was built with the schema the plan was compiled for
+      boolean sameSchema = kafkaConnectStruct.schema() == kafkaConnectSchema;
+      Map<String, Object> bigQueryRecord = new HashMap<>();
+      for (int i = 0; i < fields.length; i++) {
+        Object kafkaConnectValue = sameSchema
+            ? kafkaConnectStruct.get(fields[i])
+            : kafkaConnectStruct.get(fields[i].name());
+        Object bigQueryObject = converters[i].convert(kafkaConnectValue);
         if (bigQueryObject != null) {
-          bigQueryRecord.put(kafkaConnectField.name(), bigQueryObject);
+          bigQueryRecord.put(fields[i].name(), bigQueryObject);
         }
       }
-    }
-    return bigQueryRecord;
+      return bigQueryRecord;
+    };
   }
 
   @SuppressWarnings("unchecked")
-  private List<Object> convertArray(Object kafkaConnectObject,
-                                    Schema kafkaConnectSchema) {
-    Schema kafkaConnectValueSchema = kafkaConnectSchema.valueSchema();
-    List<Object> bigQueryList = new ArrayList<>();
-    List<Object> kafkaConnectList = (List<Object>) kafkaConnectObject;
-    for (Object kafkaConnectElement : kafkaConnectList) {
-      Object bigQueryValue = convertObject(kafkaConnectElement, kafkaConnectValueSchema);
-      bigQueryList.add(bigQueryValue);
-    }
-    return bigQueryList;
+  private ValueConverter compileArray(Schema kafkaConnectSchema) {
+    ValueConverter elementConverter = compile(kafkaConnectSchema.valueSchema());
+    return kafkaConnectObject -> {
+      List<Object> kafkaConnectList = (List<Object>) kafkaConnectObject;
+      List<Object> bigQueryList = new ArrayList<>(kafkaConnectList.size());
+      for (Object kafkaConnectElement : kafkaConnectList) {
+        bigQueryList.add(elementConverter.convert(kafkaConnectElement));
+      }
+      return bigQueryList;
+    };
   }
 
   @SuppressWarnings("unchecked")
-  private List<Map<String, Object>> convertMap(Object kafkaConnectObject,
-                                               Schema kafkaConnectSchema) {
-    Schema kafkaConnectKeySchema = kafkaConnectSchema.keySchema();
-    Schema kafkaConnectValueSchema = kafkaConnectSchema.valueSchema();
-    List<Map<String, Object>> bigQueryEntryList = new ArrayList<>();
-    Map<Object, Object> kafkaConnectMap = (Map<Object, Object>) kafkaConnectObject;
-    for (Map.Entry<Object, Object> kafkaConnectMapEntry : kafkaConnectMap.entrySet()) {
-      Map<String, Object> bigQueryEntry = new HashMap<>();
-      Object bigQueryKey = convertObject(
-          kafkaConnectMapEntry.getKey(),
-          kafkaConnectKeySchema
-      );
-      Object bigQueryValue = convertObject(
-          kafkaConnectMapEntry.getValue(),
-          kafkaConnectValueSchema
-      );
-      bigQueryEntry.put(BigQuerySchemaConverter.MAP_KEY_FIELD_NAME, bigQueryKey);
-      bigQueryEntry.put(BigQuerySchemaConverter.MAP_VALUE_FIELD_NAME, bigQueryValue);
-      bigQueryEntryList.add(bigQueryEntry);
-    }
-    return bigQueryEntryList;
-  }
-
-  private Object convertLogical(Object kafkaConnectObject,
-                                Schema kafkaConnectSchema) {
-    LogicalTypeConverter converter =
-        LogicalConverterRegistry.getConverter(kafkaConnectSchema.name());
-    return converter.convert(kafkaConnectObject);
+  private ValueConverter compileMap(Schema kafkaConnectSchema) {
+    ValueConverter keyConverter = compile(kafkaConnectSchema.keySchema());
+    ValueConverter valueConverter = compile(kafkaConnectSchema.valueSchema());
+    return kafkaConnectObject -> {
+      Map<Object, Object> kafkaConnectMap = (Map<Object, Object>) kafkaConnectObject;
+      List<Map<String, Object>> bigQueryEntryList = new ArrayList<>(kafkaConnectMap.size());
+      for (Map.Entry<Object, Object> kafkaConnectMapEntry : kafkaConnectMap.entrySet()) {
+        Map<String, Object> bigQueryEntry = new HashMap<>();
+        bigQueryEntry.put(
+            BigQuerySchemaConverter.MAP_KEY_FIELD_NAME, keyConverter.convert(kafkaConnectMapEntry.getKey()));
+        bigQueryEntry.put(
+            BigQuerySchemaConverter.MAP_VALUE_FIELD_NAME, valueConverter.convert(kafkaConnectMapEntry.getValue()));
+        bigQueryEntryList.add(bigQueryEntry);
+      }
+      return bigQueryEntryList;
+    };
   }
 
   /**
@@ -266,4 +309,33 @@ public class BigQueryRecordConverter implements RecordConverter<Map<String, Obje
     }
     return Base64.getEncoder().encodeToString(bytes);
   }
+
+  /**
+   * Converts a non-null value of a schema that was resolved when the converter was compiled.
+   */
+  @FunctionalInterface
+  private interface ValueConverter {
+    Object convert(Object kafkaConnectObject);
+  }
+
+  /**
+   * Compares schemas by identity; comparing them by value would mean walking them again for every record.
+   */
+  private static class SchemaIdentity {
+    private final Schema schema;
+
+    SchemaIdentity(Schema schema) {
+      this.schema = schema;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof SchemaIdentity && ((SchemaIdentity) o).schema == schema;
+    }
+
+    @Override
+    public int hashCode() {
+      return System.identityHashCode(schema);
+    }
+  }
 }
@@ -30,10 +30,6 @@ import io.debezium.time.ZonedTimestamp;
 
 import org.apache.kafka.connect.data.Schema;
 
-import java.text.SimpleDateFormat;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeFormatterBuilder;
-import java.time.temporal.TemporalAccessor;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -70,8 +66,7 @@ public class DebeziumLogicalConverters {
     public String convert(Object kafkaConnectObject) {
       Integer daysSinceEpoch = (Integer) kafkaConnectObject;
       long msSinceEpoch = TimeUnit.DAYS.toMillis(daysSinceEpoch);
-      java.util.Date date = new java.util.Date(msSinceEpoch);
-      return getBQDateFormat().format(date);
+      return TemporalEncoder.date(msSinceEpoch);
     }
   }
 
@@ -93,14 +88,10 @@ public class DebeziumLogicalConverters {
       // We want to maintain the micro second info, but date only supports up to milli.
       Long microTimestamp = (Long) kafkaConnectObject;
 
-      Long milliTimestamp = microTimestamp / MICROS_IN_MILLI;
-      java.util.Date date = new java.util.Date(milliTimestamp);
+      long milliTimestamp = microTimestamp / MICROS_IN_MILLI;
+      String formattedSecondsTimestamp = TemporalEncoder.secondsTime(milliTimestamp);
 
-      SimpleDateFormat bqTimeSecondsFormat = new SimpleDateFormat("HH:mm:ss");
-      bqTimeSecondsFormat.setTimeZone(LogicalTypeConverter.utcTimeZone);
-      String formattedSecondsTimestamp = bqTimeSecondsFormat.format(date);
-
-      Long microRemainder = microTimestamp % MICROS_IN_SEC;
+      long microRemainder = microTimestamp % MICROS_IN_SEC;
 
       return formattedSecondsTimestamp + "." + microRemainder;
     }
@@ -124,14 +115,10 @@ public class DebeziumLogicalConverters {
       // We want to maintain the micro second info, but date only supports up to milli.
       Long microTimestamp = (Long) kafkaConnectObject;
 
-      Long milliTimestamp = microTimestamp / MICROS_IN_MILLI;
-      java.util.Date date = new java.util.Date(milliTimestamp);
-
-      SimpleDateFormat bqDatetimeSecondsFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-      bqDatetimeSecondsFormat.setTimeZone(LogicalTypeConverter.utcTimeZone);
-      String formattedSecondsTimestamp = bqDatetimeSecondsFormat.format(date);
+      long milliTimestamp = microTimestamp / MICROS_IN_MILLI;
+      String formattedSecondsTimestamp = TemporalEncoder.secondsTimestamp(milliTimestamp);
 
-      Long microRemainder = microTimestamp % MICROS_IN_SEC;
+      long microRemainder = microTimestamp % MICROS_IN_SEC;
 
       return formattedSecondsTimestamp + "." + microRemainder;
     }
@@ -152,8 +139,7 @@ public class DebeziumLogicalConverters {
 
     @Override
     public String convert(Object kafkaConnectObject) {
-      java.util.Date date = new java.util.Date((Integer) kafkaConnectObject);
-      return getBQTimeFormat().format(date);
+      return TemporalEncoder.millisTime((Integer) kafkaConnectObject);
     }
   }
 
@@ -172,8 +158,7 @@ public class DebeziumLogicalConverters {
 
     @Override
     public String convert(Object kafkaConnectObject) {
-      java.util.Date date = new java.util.Date((Long) kafkaConnectObject);
-      return getBqTimestampFormat().format(date);
+      return TemporalEncoder.millisTimestamp((Long) kafkaConnectObject);
     }
   }
 
@@ -192,14 +177,7 @@ public class DebeziumLogicalConverters {
 
     @Override
     public String convert(Object kafkaConnectObject) {
-      TemporalAccessor parsedTime = ZonedTimestamp.FORMATTER.parse((String) kafkaConnectObject);
-      DateTimeFormatter bqZonedTimestampFormat =
-          new DateTimeFormatterBuilder()
-              .append(DateTimeFormatter.ISO_LOCAL_DATE)
-              .appendLiteral(' ')
-              .append(DateTimeFormatter.ISO_TIME)
-              .toFormatter();
-      return bqZonedTimestampFormat.format(parsedTime);
+      return TemporalEncoder.zonedTimestamp((String) kafkaConnectObject);
     }
   }
 }
@@ -56,7 +56,7 @@ public class KafkaLogicalConverters {
 
     @Override
     public String convert(Object kafkaConnectObject) {
-      return getBQDateFormat().format((java.util.Date) kafkaConnectObject);
+      return TemporalEncoder.date(((java.util.Date) kafkaConnectObject).getTime());
     }
   }
 
@@ -95,7 +95,7 @@ public class KafkaLogicalConverters {
 
     @Override
     public String convert(Object kafkaConnectObject) {
-      return getBqTimestampFormat().format((java.util.Date) kafkaConnectObject);
+      return TemporalEncoder.millisTimestamp(((java.util.Date) kafkaConnectObject).getTime());
     }
   }
 
@@ -115,7 +115,7 @@ public class KafkaLogicalConverters {
 
     @Override
     public String convert(Object kafkaConnectObject) {
-      return getBqTimeFormat().format((java.util.Date) kafkaConnectObject);
+      return TemporalEncoder.millisTime(((java.util.Date) kafkaConnectObject).getTime());
     }
   }
 }
@@ -34,7 +34,11 @@ import java.util.TimeZone;
  */
 public abstract class LogicalTypeConverter {
 
-  // BigQuery uses UTC timezone by default
+  /**
+   * BigQuery uses UTC timezone by default.
+   * @deprecated the built-in converters no longer use this; kept for converters that extend this class
+   */
+  @Deprecated
   protected static final TimeZone utcTimeZone = TimeZone.getTimeZone("UTC");
 
   private String logicalName;
@@ -82,24 +86,44 @@ public abstract class LogicalTypeConverter {
    */
   public abstract Object convert(Object kafkaConnectObject);
 
+  /**
+   * @deprecated the built-in converters no longer format dates and times with {@link SimpleDateFormat},
+   *             which has to be allocated per value; kept for converters that extend this class
+   */
+  @Deprecated
   protected static SimpleDateFormat getBqTimestampFormat() {
     SimpleDateFormat bqTimestampFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
     bqTimestampFormat.setTimeZone(utcTimeZone);
     return bqTimestampFormat;
   }
 
+  /**
+   * @deprecated the built-in converters no longer format dates and times with {@link SimpleDateFormat},
+   *             which has to be allocated per value; kept for converters that extend this class
+   */
+  @Deprecated
   protected SimpleDateFormat getBqTimeFormat() {
     SimpleDateFormat bqTimestampFormat = new SimpleDateFormat("HH:mm:ss.SSS");
     bqTimestampFormat.setTimeZone(utcTimeZone);
     return bqTimestampFormat;
   }
 
+  /**
+   * @deprecated the built-in converters no longer format dates and times with {@link SimpleDateFormat},
+   *             which has to be allocated per value; kept for converters that extend this class
+   */
+  @Deprecated
   protected static SimpleDateFormat getBQDateFormat() {
     SimpleDateFormat bqDateFormat = new SimpleDateFormat("yyyy-MM-dd");
     bqDateFormat.setTimeZone(utcTimeZone);
     return bqDateFormat;
   }
 
+  /**
+   * @deprecated the built-in converters no longer format dates and times with {@link SimpleDateFormat},
+   *             which has to be allocated per value; kept for converters that extend this class
+   */
+  @Deprecated
   protected static SimpleDateFormat getBQTimeFormat() {
     SimpleDateFormat bqTimeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
     bqTimeFormat.setTimeZone(utcTimeZone);
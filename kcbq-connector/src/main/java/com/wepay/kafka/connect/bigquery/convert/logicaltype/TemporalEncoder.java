@@ -0,0 +1,280 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.convert.logicaltype;
+
+import io.debezium.time.ZonedTimestamp;
+
+import java.text.SimpleDateFormat;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.TemporalAccessor;
+import java.util.TimeZone;
+
+/**
+ * Thread safe encoders for the date, time and timestamp text that logical type converters send
+ * to BigQuery. Epoch based values are written straight into a char buffer, rather than going
+ * through a {@link java.util.Date} and a new {@link SimpleDateFormat} for every value, and
+ * produce exactly the same text as the formats used previously (all in UTC).
+ *
+ * <p>{@link SimpleDateFormat} uses the Julian calendar before the Gregorian cutover in October
+ * 1582, and years past 9999 take more than four digits; values outside of that range are still
+ * formatted with it.
+ */
+final class TemporalEncoder {
+
+  private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+  private static final long MILLIS_PER_DAY = 86_400_000L;
+  // 1582-10-15T00:00:00Z, the first day of the Gregorian calendar
+  private static final long MIN_ENCODED_MILLIS = -12_219_292_800_000L;
+  // 10000-01-01T00:00:00Z, the first instant whose year has more than four digits
+  private static final long MAX_ENCODED_MILLIS = 253_402_300_800_000L;
+
+  private static final int DATE_LENGTH = "yyyy-MM-dd".length();
+  private static final int SECONDS_TIME_LENGTH = "HH:mm:ss".length();
+  private static final int MILLIS_TIME_LENGTH = "HH:mm:ss.SSS".length();
+
+  private static final DateTimeFormatter ZONED_TIMESTAMP_FORMAT =
+      new DateTimeFormatterBuilder()
+          .append(DateTimeFormatter.ISO_LOCAL_DATE)
+          .appendLiteral(' ')
+          .append(DateTimeFormatter.ISO_TIME)
+          .toFormatter();
+
+  private TemporalEncoder() {
+  }
+
+  /**
+   * @param epochMillis milliseconds since the epoch
+   * @return the UTC date, formatted as yyyy-MM-dd
+   */
+  static String date(long epochMillis) {
+    if (!isEncodable(epochMillis)) {
+      return format("yyyy-MM-dd", epochMillis);
+    }
+    char[] buffer = new char[DATE_LENGTH];
+    writeDate(buffer, 0, Math.floorDiv(epochMillis, MILLIS_PER_DAY));
+    return new String(buffer);
+  }
+
+  /**
+   * @param epochMillis milliseconds since the epoch
+   * @return the UTC time of day, formatted as HH:mm:ss
+   */
+  static String secondsTime(long epochMillis) {
+    if (!isEncodable(epochMillis)) {
+      return format("HH:mm:ss", epochMillis);
+    }
+    char[] buffer = new char[SECONDS_TIME_LENGTH];
+    writeTime(buffer, 0, Math.floorMod(epochMillis, MILLIS_PER_DAY), false);
+    return new String(buffer);
+  }
+
+  /**
+   * @param epochMillis milliseconds since the epoch
+   * @return the UTC time of day, formatted as HH:mm:ss.SSS
+   */
+  static String millisTime(long epochMillis) {
+    if (!isEncodable(epochMillis)) {
+      return format("HH:mm:ss.SSS", epochMillis);
+    }
+    char[] buffer = new char[MILLIS_TIME_LENGTH];
+    writeTime(buffer, 0, Math.floorMod(epochMillis, MILLIS_PER_DAY), true);
+    return new String(buffer);
+  }
+
+  /**
+   * @param epochMillis milliseconds since the epoch
+   * @return the UTC date and time, formatted as yyyy-MM-dd HH:mm:ss
+   */
+  static String secondsTimestamp(long epochMillis) {
+    if (!isEncodable(epochMillis)) {
+      return format("yyyy-MM-dd HH:mm:ss", epochMillis);
+    }
+    return timestamp(epochMillis, SECONDS_TIME_LENGTH, false);
+  }
+
+  /**
+   * @param epochMillis milliseconds since the epoch
+   * @return the UTC date and time, formatted as yyyy-MM-dd HH:mm:ss.SSS
+   */
+  static String millisTimestamp(long epochMillis) {
+    if (!isEncodable(epochMillis)) {
+      return format("yyyy-MM-dd HH:mm:ss.SSS", epochMillis);
+    }
+    return timestamp(epochMillis, MILLIS_TIME_LENGTH, true);
+  }
+
+  /**
+   * @param isoOffsetDateTime a date and time with an offset, in ISO-8601 format
+   * @return the same date, time and offset, formatted as ISO-8601 local date, a space, and then
+   *         ISO-8601 time
+   * @throws java.time.format.DateTimeParseException if the text cannot be parsed
+   */
+  static String zonedTimestamp(String isoOffsetDateTime) {
+    if (isCanonicalOffsetDateTime(isoOffsetDateTime)) {
+      // Formatting the parsed value would give back the same text, except for the separator
+      return isoOffsetDateTime.replace('T', ' ');
+    }
+    TemporalAccessor parsedTime = ZonedTimestamp.FORMATTER.parse(isoOffsetDateTime);
+    return ZONED_TIMESTAMP_FORMAT.format(parsedTime);
+  }
+
+  private static boolean isEncodable(long epochMillis) {
+    return epochMillis >= MIN_ENCODED_MILLIS && epochMillis < MAX_ENCODED_MILLIS;
+  }
+
+  private static String format(String pattern, long epochMillis) {
+    SimpleDateFormat format = new SimpleDateFormat(pattern);
+    format.setTimeZone(UTC);
+    return format.format(new java.util.Date(epochMillis));
+  }
+
+  private static String timestamp(long epochMillis, int timeLength, boolean millis) {
+    char[] buffer = new char[DATE_LENGTH + 1 + timeLength];
+    writeDate(buffer, 0, Math.floorDiv(epochMillis, MILLIS_PER_DAY));
+    buffer[DATE_LENGTH] = ' ';
+    writeTime(buffer, DATE_LENGTH + 1, Math.floorMod(epochMillis, MILLIS_PER_DAY), millis);
+    return new String(buffer);
+  }
+
+  // Converts days since the epoch to a proleptic Gregorian date; see
+  // http://howardhinnant.github.io/date_algorithms.html#civil_from_days
+  private static void writeDate(char[] buffer, int offset, long epochDay) {
+    long shiftedDay = epochDay + 719_468;
+    long era = Math.floorDiv(shiftedDay, 146_097L);
+    long dayOfEra = shiftedDay - era * 146_097L;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long shiftedMonth = (5 * dayOfYear + 2) / 153;
+    int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+    int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+    int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+    writeDigits(buffer, offset, year / 100);
+    writeDigits(buffer, offset + 2, year % 100);
+    buffer[offset + 4] = '-';
+    writeDigits(buffer, offset + 5, month);
+    buffer[offset + 7] = '-';
+    writeDigits(buffer, offset + 8, day);
+  }
+
+  private static void writeTime(char[] buffer, int offset, long millisOfDay, boolean millis) {
+    int secondOfDay = (int) (millisOfDay / 1000);
+    writeDigits(buffer, offset, secondOfDay / 3600);
+    buffer[offset + 2] = ':';
+    writeDigits(buffer, offset + 3, secondOfDay / 60 % 60);
+    buffer[offset + 5] = ':';
+    writeDigits(buffer, offset + 6, secondOfDay % 60);
+    if (millis) {
+      int milliOfSecond = (int) (millisOfDay % 1000);
+      buffer[offset + 8] = '.';
+      buffer[offset + 9] = (char) ('0' + milliOfSecond / 100);
+      writeDigits(buffer, offset + 10, milliOfSecond % 100);
+    }
+  }
+
+  private static void writeDigits(char[] buffer, int offset, int twoDigitValue) {
+    buffer[offset] = (char) ('0' + twoDigitValue / 10);
+    buffer[offset + 1] = (char) ('0' + twoDigitValue % 10);
+  }
+
+  /**
+   * Whether the text is a valid ISO-8601 date and time with an offset, written exactly the way
+   * {@link #ZONED_TIMESTAMP_FORMAT} would write it (apart from the 'T' separator): with seconds,
+   * with no trailing zeros in any fraction of a second, and with an offset that is either 'Z' or
+   * a non-zero number of hours and minutes.
+   */
+  private static boolean isCanonicalOffsetDateTime(String text) {
+    int length = text.length();
+    if (length < 20
+        || text.charAt(4) != '-' || text.charAt(7) != '-' || text.charAt(10) != 'T'
+        || text.charAt(13) != ':' || text.charAt(16) != ':') {
+      return false;
+    }
+    int year = digits(text, 0, 4);
+    int month = digits(text, 5, 2);
+    int day = digits(text, 8, 2);
+    int hour = digits(text, 11, 2);
+    int minute = digits(text, 14, 2);
+    int second = digits(text, 17, 2);
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+        || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+      return false;
+    }
+
+    int position = 19;
+    if (text.charAt(position) == '.') {
+      int fractionStart = ++position;
+      while (position < length && isDigit(text.charAt(position))) {
+        position++;
+      }
+      int fractionLength = position - fractionStart;
+      if (fractionLength < 1 || fractionLength > 9 || text.charAt(position - 1) == '0') {
+        return false;
+      }
+    }
+
+    if (position == length - 1) {
+      return text.charAt(position) == 'Z';
+    }
+    if (position != length - 6
+        || (text.charAt(position) != '+' && text.charAt(position) != '-')
+        || text.charAt(position + 3) != ':') {
+      return false;
+    }
+    int offsetHours = digits(text, position + 1, 2);
+    int offsetMinutes = digits(text, position + 4, 2);
+    return offsetHours >= 0 && offsetMinutes >= 0 && offsetMinutes <= 59
+        && (offsetHours < 18 || (offsetHours == 18 && offsetMinutes == 0))
+        && (offsetHours != 0 || offsetMinutes != 0);
+  }
+
+  // Returns -1 if any of the characters are not ASCII digits
+  private static int digits(String text, int offset, int count) {
+    int value = 0;
+    for (int i = offset; i < offset + count; i++) {
+      char c = text.charAt(i);
+      if (!isDigit(c)) {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static int lengthOfMonth(int year, int month) {
+    switch (month) {
+      case 2:
+        boolean leapYear = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        return leapYear ? 29 : 28;
+      case 4:
+      case 6:
+      case 9:
+      case 11:
+        return 30;
+      default:
+        return 31;
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.exception;
+
+import com.google.cloud.bigquery.TableId;
+
+/**
+ * Thrown when rows could not be written to a table because a table creation or schema update for it has not taken
+ * effect yet. Instead of holding on to a write thread until it does, the rows can be set aside and written again once
+ * the wait time has elapsed, as long as that has not already been attempted the maximum number of times.
+ */
+public class TableNotReadyException extends BigQueryConnectException {
+
+  private final TableId table;
+  private final long retryWaitMs;
+  private final int retryLimit;
+
+  /**
+   * @param table the table that is not ready yet
+   * @param retryWaitMs how long to wait before writing to the table again
+   * @param retryLimit the maximum number of times to attempt the write before giving up on the table
+   */
+  public TableNotReadyException(TableId table, long retryWaitMs, int retryLimit) {
+    super("Table creation or schema update has not taken effect yet for: " + table);
+    this.table = table;
+    this.retryWaitMs = retryWaitMs;
+    this.retryLimit = retryLimit;
+  }
+
+  public TableId getTable() {
+    return table;
+  }
+
+  public long getRetryWaitMs() {
+    return retryWaitMs;
+  }
+
+  public int getRetryLimit() {
+    return retryLimit;
+  }
+}
@@ -0,0 +1,404 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.metrics;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.utils.TableNameUtils;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.metrics.Gauge;
+import org.apache.kafka.common.metrics.JmxReporter;
+import org.apache.kafka.common.metrics.MetricConfig;
+import org.apache.kafka.common.metrics.Metrics;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.common.metrics.stats.Avg;
+import org.apache.kafka.common.metrics.stats.CumulativeCount;
+import org.apache.kafka.common.metrics.stats.CumulativeSum;
+import org.apache.kafka.common.metrics.stats.Max;
+import org.apache.kafka.common.metrics.stats.Percentile;
+import org.apache.kafka.common.metrics.stats.Percentiles;
+import org.apache.kafka.common.metrics.stats.Percentiles.BucketSizing;
+import org.apache.kafka.common.metrics.stats.Rate;
+import org.apache.kafka.common.utils.Time;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics for a single task of the connector, registered with JMX under the
+ * {@value #JMX_PREFIX} domain and tagged with the name of the connector and the ID of the task.
+ * Metrics for each table the task writes to are kept in a separate {@value #TABLE_GROUP} group,
+ * which is additionally tagged with the name of the table; see {@link #table(TableId)}.
+ */
+public class BigQuerySinkTaskMetrics implements AutoCloseable {
+
+  public static final String JMX_PREFIX = "kafka.connect.bigquery";
+  public static final String TASK_GROUP = "bigquery-sink-task-metrics";
+  public static final String TABLE_GROUP = "bigquery-sink-table-metrics";
+
+  // Write request latencies are tracked in a histogram of 1,500 linear buckets of 20ms each;
+  // anything slower than the upper bound is counted in the last bucket
+  private static final int LATENCY_HISTOGRAM_BYTES = 4 * 1500;
+  private static final double LATENCY_HISTOGRAM_MAX_MS = 30_000;
+
+  /**
+   * The reasons for which a write request may be retried, as classified by
+   * {@link com.wepay.kafka.connect.bigquery.write.row.BigQueryErrorResponses}.
+   */
+  public enum RetryReason {
+    BACKEND_ERROR("backend-error"),
+    QUOTA_EXCEEDED("quota-exceeded"),
+    RATE_LIMIT_EXCEEDED("rate-limit-exceeded"),
+    IO_ERROR("io-error"),
+    PARTIAL_FAILURE("partial-failure");
+
+    private final String metricName;
+
+    RetryReason(String metricName) {
+      this.metricName = metricName;
+    }
+
+    @Override
+    public String toString() {
+      return metricName;
+    }
+  }
+
+  private final Metrics metrics;
+  private final Map<String, String> tags;
+  private final ConcurrentMap<TableId, TableMetrics> tables;
+
+  private final Sensor writeRequestRows;
+  private final Sensor writeRequestBytes;
+  private final Sensor writeRequestFillRatio;
+  private final Sensor batchSizeErrors;
+  private final Sensor partitionPauseTime;
+
+  /**
+   * @param connectorName the name of the connector the task belongs to; may be null
+   * @param taskId the ID of the task
+   */
+  public BigQuerySinkTaskMetrics(String connectorName, int taskId) {
+    this(new Metrics(
+        new MetricConfig(),
+        Collections.singletonList(new JmxReporter(JMX_PREFIX)),
+        Time.SYSTEM
+    ), connectorName, taskId);
+  }
+
+  // Visible for testing
+  BigQuerySinkTaskMetrics(Metrics metrics, String connectorName, int taskId) {
+    this.metrics = metrics;
+    this.tags = new LinkedHashMap<>();
+    tags.put("connector", connectorName != null ? connectorName : "unknown");
+    tags.put("task", Integer.toString(taskId));
+    this.tables = new ConcurrentHashMap<>();
+
+    writeRequestRows = metrics.sensor("write-request-rows");
+    writeRequestRows.add(
+        metricName("write-request-rows-avg", "The average number of rows in each write request"), new Avg());
+    writeRequestRows.add(
+        metricName("write-request-rows-max", "The maximum number of rows in a write request"), new Max());
+    writeRequestRows.add(
+        metricName("write-request-total", "The total number of write requests sent"), new CumulativeCount());
+
+    writeRequestBytes = metrics.sensor("write-request-bytes");
+    writeRequestBytes.add(
+        metricName("write-request-bytes-avg", "The average estimated size of each write request, in bytes"),
+        new Avg());
+    writeRequestBytes.add(
+        metricName("write-request-bytes-max", "The maximum estimated size of a write request, in bytes"),
+        new Max());
+
+    writeRequestFillRatio = metrics.sensor("write-request-fill-ratio");
+    writeRequestFillRatio.add(
+        metricName("write-request-fill-ratio-avg",
+            "The average estimated size of each write request as a fraction of the maximum request size"),
+        new Avg());
+    writeRequestFillRatio.add(
+        metricName("write-request-fill-ratio-max",
+            "The maximum estimated size of a write request as a fraction of the maximum request size"),
+        new Max());
+
+    batchSizeErrors = metrics.sensor("write-request-batch-size-errors");
+    batchSizeErrors.add(
+        metricName("write-request-batch-size-error-total",
+            "The total number of write requests rejected by BigQuery for being too large"),
+        new CumulativeCount());
+
+    partitionPauseTime = metrics.sensor("partition-pause-time");
+    partitionPauseTime.add(
+        metricName("partition-pause-time-ms-total",
+            "The total time that partitions have spent paused because a table they feed fell behind, "
+                + "counted once a partition is resumed"),
+        new CumulativeSum());
+    partitionPauseTime.add(
+        metricName("partition-pause-time-ms-max",
+            "The longest time that a partition has spent paused because a table it feeds fell behind"),
+        new Max());
+  }
+
+  /**
+   * Record a successful write request.
+   * @param rows the number of rows in the request
+   * @param estimatedBytes the estimated size of the request
+   * @param maxBytes the maximum size of a request
+   */
+  public void recordWriteRequest(int rows, long estimatedBytes, long maxBytes) {
+    writeRequestRows.record(rows);
+    writeRequestBytes.record(estimatedBytes);
+    writeRequestFillRatio.record((double) estimatedBytes / maxBytes);
+  }
+
+  /**
+   * Report how much of a memory budget is in use.
+   * @param used supplies the estimated size of the rows held by the task that have not been written yet
+   * @param limit the soft limit on the estimated size of unwritten rows
+   */
+  public void registerMemoryBudget(LongSupplier used, long limit) {
+    metrics.addMetric(
+        metricName("unwritten-bytes", "The estimated size of the rows held by the task that have not been written"),
+        (Gauge<Long>) (config, now) -> used.getAsLong());
+    metrics.addMetric(
+        metricName("unwritten-bytes-budget-ratio",
+            "The estimated size of the rows held by the task that have not been written, as a fraction of "
+                + "the configured limit"),
+        (Gauge<Double>) (config, now) -> (double) used.getAsLong() / limit);
+  }
+
+  /**
+   * Report the state of a limit on concurrent write requests.
+   * @param limit supplies the current limit on the number of write requests in flight at once
+   * @param inFlight supplies the number of write requests currently in flight
+   */
+  public void registerConcurrencyLimit(IntSupplier limit, IntSupplier inFlight) {
+    metrics.addMetric(
+        metricName("write-concurrency-limit", "The current limit on the number of write requests in flight at once"),
+        (Gauge<Integer>) (config, now) -> limit.getAsInt());
+    metrics.addMetric(
+        metricName("write-requests-in-flight", "The number of write requests currently in flight"),
+        (Gauge<Integer>) (config, now) -> inFlight.getAsInt());
+  }
+
+  /**
+   * Report how many write tasks are waiting for a thread to run on.
+   * @param queued supplies the number of table writers that have been submitted but are not running, including those
+   *               parked until their table is ready
+   */
+  public void registerWriteQueue(IntSupplier queued) {
+    metrics.addMetric(
+        metricName("write-queue-depth",
+            "The number of table writers waiting for a thread to run on, or for their table to be ready"),
+        (Gauge<Integer>) (config, now) -> queued.getAsInt());
+  }
+
+  /**
+   * Report how many partitions are paused.
+   * @param paused supplies the number of partitions that are currently paused because a table they
+   *               feed has fallen behind
+   */
+  public void registerPausedPartitions(IntSupplier paused) {
+    metrics.addMetric(
+        metricName("paused-partitions",
+            "The number of partitions that are currently paused because a table they feed has fallen behind"),
+        (Gauge<Integer>) (config, now) -> paused.getAsInt());
+  }
+
+  /**
+   * Record a write request that was rejected for being too large, and will be retried with fewer rows.
+   */
+  public void recordBatchSizeError() {
+    batchSizeErrors.record();
+  }
+
+  /**
+   * Record that a partition was resumed after having been paused.
+   * @param pausedMs how long the partition was paused for
+   */
+  public void recordPartitionPause(long pausedMs) {
+    partitionPauseTime.record(pausedMs);
+  }
+
+  /**
+   * @param table the table to get metrics for; partition decorators should already be stripped
+   * @return the metrics for writes to the table, which are registered the first time they are
+   *         requested
+   */
+  public TableMetrics table(TableId table) {
+    TableMetrics result = tables.get(table);
+    return result != null ? result : tables.computeIfAbsent(table, TableMetrics::new);
+  }
+
+  // Visible for testing
+  Metrics metrics() {
+    return metrics;
+  }
+
+  // Visible for testing
+  MetricName metricName(String name, String description) {
+    return metrics.metricName(name, TASK_GROUP, description, tags);
+  }
+
+  // Visible for testing
+  MetricName tableMetricName(TableId table, String name, String description) {
+    Map<String, String> tableTags = new LinkedHashMap<>(tags);
+    tableTags.put("table", TableNameUtils.qualifiedName(table));
+    return metrics.metricName(name, TABLE_GROUP, description, tableTags);
+  }
+
+  @Override
+  public void close() {
+    metrics.close();
+  }
+
+  /**
+   * Metrics for writes to a single table, registered under the {@value #TABLE_GROUP} group.
+   */
+  public class TableMetrics {
+    private final Sensor rows;
+    private final Sensor bytes;
+    private final Sensor latency;
+    private final Sensor lag;
+    private final Sensor batchSizeErrors;
+    private final Map<RetryReason, Sensor> retries;
+
+    private TableMetrics(TableId table) {
+      // Sensor names have to be unique across all tables, unlike metric names which are also tagged
+      String prefix = "table." + TableNameUtils.qualifiedName(table) + ".";
+
+      rows = metrics.sensor(prefix + "write-rows");
+      rows.add(
+          tableMetricName(table, "write-rows-rate", "The number of rows written to the table per second"),
+          new Rate());
+      rows.add(
+          tableMetricName(table, "write-rows-total", "The total number of rows written to the table"),
+          new CumulativeSum());
+
+      bytes = metrics.sensor(prefix + "write-bytes");
+      bytes.add(
+          tableMetricName(table, "write-bytes-rate",
+              "The estimated size of the rows written to the table per second, in bytes"),
+          new Rate());
+      bytes.add(
+          tableMetricName(table, "write-bytes-total",
+              "The estimated total size of the rows written to the table, in bytes"),
+          new CumulativeSum());
+
+      latency = metrics.sensor(prefix + "write-request-latency");
+      latency.add(
+          tableMetricName(table, "write-request-latency-ms-avg",
+              "The average time taken by a write request to the table, in milliseconds"),
+          new Avg());
+      latency.add(
+          tableMetricName(table, "write-request-latency-ms-max",
+              "The maximum time taken by a write request to the table, in milliseconds"),
+          new Max());
+      latency.add(new Percentiles(
+          LATENCY_HISTOGRAM_BYTES,
+          LATENCY_HISTOGRAM_MAX_MS,
+          BucketSizing.LINEAR,
+          percentile(table, 50),
+          percentile(table, 95),
+          percentile(table, 99)
+      ));
+
+      lag = metrics.sensor(prefix + "record-lag");
+      lag.add(
+          tableMetricName(table, "record-lag-ms-avg",
+              "The average time from the timestamp of the oldest record in each write request to the table "
+                  + "to the completion of that request, in milliseconds"),
+          new Avg());
+      lag.add(
+          tableMetricName(table, "record-lag-ms-max",
+              "The maximum time from the timestamp of a record to the completion of the write request for it, "
+                  + "in milliseconds"),
+          new Max());
+
+      batchSizeErrors = metrics.sensor(prefix + "write-request-batch-size-errors");
+      batchSizeErrors.add(
+          tableMetricName(table, "write-request-batch-size-error-total",
+              "The total number of write requests to the table that were rejected for being too large and "
+                  + "retried with half as many rows"),
+          new CumulativeCount());
+
+      retries = new LinkedHashMap<>();
+      for (RetryReason reason : RetryReason.values()) {
+        Sensor sensor = metrics.sensor(prefix + "write-retries-" + reason.metricName);
+        sensor.add(
+            tableMetricName(table, "write-retry-" + reason.metricName + "-total",
+                "The total number of write requests to the table that were retried because of a "
+                    + reason.metricName.replace('-', ' ')),
+            new CumulativeCount());
+        retries.put(reason, sensor);
+      }
+    }
+
+    private Percentile percentile(TableId table, int percentile) {
+      return new Percentile(
+          tableMetricName(table, "write-request-latency-ms-p" + percentile,
+              "The " + percentile + "th percentile of the time taken by write requests to the table, "
+                  + "in milliseconds"),
+          percentile);
+    }
+
+    /**
+     * Record a successful write request.
+     * @param rows the number of rows written
+     * @param estimatedBytes the estimated size of the rows written
+     * @param oldestTimestampMs the earliest Kafka timestamp of the records written, or a negative
+     *                          number if none of them had a timestamp
+     * @param nowMs the time at which the request completed
+     */
+    public void recordWrite(int rows, long estimatedBytes, long oldestTimestampMs, long nowMs) {
+      this.rows.record(rows, nowMs);
+      bytes.record(estimatedBytes, nowMs);
+      if (oldestTimestampMs >= 0) {
+        lag.record(Math.max(0, nowMs - oldestTimestampMs), nowMs);
+      }
+    }
+
+    /**
+     * Record the time taken by a single write request, whether it succeeded or not.
+     * @param latencyMs the time taken by the request
+     */
+    public void recordRequestLatency(long latencyMs) {
+      latency.record(latencyMs);
+    }
+
+    /**
+     * Record a write request that will be retried.
+     * @param reason why the request is being retried
+     */
+    public void recordRetry(RetryReason reason) {
+      retries.get(reason).record();
+    }
+
+    /**
+     * Record a write request that was rejected for being too large, and will be retried with
+     * fewer rows.
+     */
+    public void recordBatchSizeError() {
+      batchSizeErrors.record();
+    }
+  }
+}
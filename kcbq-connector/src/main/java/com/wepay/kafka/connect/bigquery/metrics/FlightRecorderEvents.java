@@ -0,0 +1,151 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.metrics;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.write.row.RowBatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emits Java Flight Recorder events at the points where the connector's threads are most likely to
+ * stall: write requests to BigQuery, waits before retrying them, table creation and schema updates
+ * (including time spent waiting for another thread to finish one), and waits before merge flushes.
+ * A continuous recording can then attribute drops in throughput to one of them without having to
+ * enable debug logging.
+ *
+ * <p>The events themselves can only be compiled for Java 11 or later, so they live in a separate
+ * source directory that is compiled for Java 11 while the rest of the connector is compiled for
+ * Java 8, and are loaded reflectively. If the JVM does not support Flight Recorder, every method
+ * returns a span that does nothing.
+ */
+public abstract class FlightRecorderEvents {
+
+  private static final Logger logger = LoggerFactory.getLogger(FlightRecorderEvents.class);
+
+  public static final String SUCCESS = "success";
+  public static final String PARTIAL_FAILURE = "partial-failure";
+  public static final String ERROR = "error";
+  public static final String SKIPPED = "skipped";
+
+  private static final String JFR_EVENTS_CLASS =
+      "com.wepay.kafka.connect.bigquery.metrics.JfrFlightRecorderEvents";
+
+  /**
+   * An operation that an event is recorded for, from the time it began to the time it ended.
+   */
+  public interface Span {
+    Span NO_OP = outcome -> { };
+
+    /**
+     * Record that the lock guarding the operation has been acquired, so that the time spent
+     * waiting for it can be told apart from the time spent on the operation itself. Has no effect
+     * for operations that are not guarded by a lock.
+     */
+    default void lockAcquired() {
+    }
+
+    /**
+     * @param rows the number of rows covered by the operation, for operations where it is not
+     *             known up front
+     */
+    default void rows(long rows) {
+    }
+
+    /**
+     * End the operation and record its event, if enabled.
+     * @param outcome how the operation ended; usually one of {@link #SUCCESS},
+     *                {@link #PARTIAL_FAILURE}, {@link #ERROR}, or {@link #SKIPPED}
+     */
+    void end(String outcome);
+  }
+
+  private static final FlightRecorderEvents INSTANCE = load();
+
+  /**
+   * @return the events for this JVM
+   */
+  public static FlightRecorderEvents get() {
+    return INSTANCE;
+  }
+
+  private static FlightRecorderEvents load() {
+    try {
+      return (FlightRecorderEvents) Class.forName(JFR_EVENTS_CLASS).getConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      logger.debug("Flight Recorder events are not available on this JVM; none will be emitted", e);
+      return new NoOp();
+    }
+  }
+
+  /**
+   * @param table the table being written to
+   * @param rows the rows in the request
+   * @param attempt the number of the attempt to write the rows, starting at 1
+   * @return a span for the write request
+   */
+  public abstract Span writeRequest(TableId table, RowBatch rows, int attempt);
+
+  /**
+   * @param table the table for the request that will be retried
+   * @param attempt the number of the attempt that will be made after waiting, starting at 2
+   * @param reason why the request is being retried
+   * @return a span for the wait
+   */
+  public abstract Span retryWait(TableId table, int attempt, String reason);
+
+  /**
+   * @param table the table being created or updated
+   * @param operation what is being done to the table, such as "create" or "update"
+   * @param records the number of records the schema is derived from
+   * @return a span for the schema change, which should be told when the lock for the table has
+   *         been acquired
+   */
+  public abstract Span schemaChange(TableId table, String operation, int records);
+
+  /**
+   * @param intermediateTable the intermediate table whose batch will be merge flushed
+   * @param batchNumber the batch that will be merge flushed
+   * @return a span for preparing the merge flush, which should be told the number of rows in the
+   *         batch once known
+   */
+  public abstract Span mergeFlushPrepare(TableId intermediateTable, int batchNumber);
+
+  private static class NoOp extends FlightRecorderEvents {
+    @Override
+    public Span writeRequest(TableId table, RowBatch rows, int attempt) {
+      return Span.NO_OP;
+    }
+
+    @Override
+    public Span retryWait(TableId table, int attempt, String reason) {
+      return Span.NO_OP;
+    }
+
+    @Override
+    public Span schemaChange(TableId table, String operation, int records) {
+      return Span.NO_OP;
+    }
+
+    @Override
+    public Span mergeFlushPrepare(TableId intermediateTable, int batchNumber) {
+      return Span.NO_OP;
+    }
+  }
+}
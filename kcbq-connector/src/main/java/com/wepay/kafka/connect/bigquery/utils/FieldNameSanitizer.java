@@ -21,35 +21,100 @@ package com.wepay.kafka.connect.bigquery.utils;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 public class FieldNameSanitizer {
 
+  // The most sanitized names that are remembered before they are all forgotten; names come from
+  // schemas and topics, so there should be far fewer than this unless they are generated per record.
+  private static final int MAX_CACHED_NAMES = 10_000;
+
+  // Only names that actually had to change are cached, since valid names are returned as-is.
+  private static final ConcurrentMap<String, String> SANITIZED_NAMES = new ConcurrentHashMap<>();
+
   // Replace all non-letter, non-digit characters with underscore. Append underscore in front of
   // name if it does not begin with alphabet or underscore.
   public static String sanitizeName(String name) {
-    String sanitizedName = name.replaceAll("[^a-zA-Z0-9_]", "_");
-    if (sanitizedName.matches("^[^a-zA-Z_].*")) {
-      sanitizedName = "_" + sanitizedName;
+    if (isValidName(name)) {
+      return name;
+    }
+    String sanitizedName = SANITIZED_NAMES.get(name);
+    if (sanitizedName == null) {
+      if (SANITIZED_NAMES.size() >= MAX_CACHED_NAMES) {
+        SANITIZED_NAMES.clear();
+      }
+      sanitizedName = doSanitizeName(name);
+      SANITIZED_NAMES.put(name, sanitizedName);
     }
     return sanitizedName;
   }
 
+  private static boolean isValidName(String name) {
+    if (!name.isEmpty() && isDigit(name.charAt(0))) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      if (!isValidChar(name.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String doSanitizeName(String name) {
+    StringBuilder sanitizedName = new StringBuilder(name.length() + 1);
+    if (isDigit(name.charAt(0))) {
+      sanitizedName.append('_');
+    }
+    // Iterate by code point, so that a character outside the BMP becomes a single underscore
+    for (int i = 0; i < name.length(); ) {
+      int codePoint = name.codePointAt(i);
+      sanitizedName.append(codePoint < 128 && isValidChar((char) codePoint) ? (char) codePoint : '_');
+      i += Character.charCount(codePoint);
+    }
+    return sanitizedName.toString();
+  }
+
+  private static boolean isValidChar(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c) || c == '_';
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
 
   // Big Query specifies field name must begin with a alphabet or underscore and can only contain
   // letters, numbers, and underscores.
   // Note: a.b and a/b will have the same value after sanitization which will cause Duplicate key
   // Exception.
+  // The map is returned as-is if none of its keys, or the keys of any maps nested in it, have to
+  // be changed.
   @SuppressWarnings("unchecked")
   public static Map<String, Object> replaceInvalidKeys(Map<String, Object> map) {
-    Map<String, Object> result = new HashMap<>();
-    map.forEach((key, value) -> {
+    Map<String, Object> result = null;
+    for (Map.Entry<String, Object> entry : map.entrySet()) {
+      String key = entry.getKey();
+      Object value = entry.getValue();
       String sanitizedKey = sanitizeName(key);
-      if (value instanceof Map) {
-        result.put(sanitizedKey, replaceInvalidKeys((Map<String, Object>) value));
-      } else {
-        result.put(sanitizedKey, value);
+      Object sanitizedValue = value instanceof Map
+          ? replaceInvalidKeys((Map<String, Object>) value)
+          : value;
+      if (result == null && (sanitizedKey != key || sanitizedValue != value)) {
+        // Something has to change; copy over everything before this entry, which was left as-is
+        result = new HashMap<>();
+        for (Map.Entry<String, Object> previous : map.entrySet()) {
+          if (previous.getKey().equals(key)) {
+            break;
+          }
+          result.put(previous.getKey(), previous.getValue());
+        }
       }
-    });
-    return result;
+      if (result != null) {
+        result.put(sanitizedKey, sanitizedValue);
+      }
+    }
+    return result != null ? result : map;
   }
 }
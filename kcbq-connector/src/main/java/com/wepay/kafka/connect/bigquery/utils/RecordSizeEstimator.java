@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.utils;
+
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import org.apache.kafka.connect.data.Field;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Cheaply estimates how large a value will be once serialized as JSON for a BigQuery write request, without actually
+ * serializing it. Estimates are approximate: multi-byte characters are counted once, and numbers are assumed to be of
+ * a fixed width.
+ */
+public class RecordSizeEstimator {
+
+  private static final int NUMBER_SIZE = 8;
+  private static final int NULL_SIZE = 4;
+  // Quotes, colons, commas, and braces surrounding a single value
+  private static final int VALUE_OVERHEAD = 3;
+  // The insert ID and the JSON surrounding each row in an insertAll request
+  private static final int ROW_OVERHEAD = 32;
+
+  private RecordSizeEstimator() {
+  }
+
+  /**
+   * @param record the record to estimate the size of
+   * @return the estimated serialized size of the record's key and value, in bytes
+   */
+  public static long estimate(SinkRecord record) {
+    return estimate(record.key()) + estimate(record.value());
+  }
+
+  /**
+   * @param row the row to estimate the size of
+   * @return the estimated serialized size of the row as part of an insertAll request, in bytes
+   */
+  public static long estimate(RowToInsert row) {
+    long result = ROW_OVERHEAD + estimate(row.getContent());
+    if (row.getId() != null) {
+      result += row.getId().length();
+    }
+    return result;
+  }
+
+  /**
+   * @param value a Kafka Connect value or a converted BigQuery row; may be null
+   * @return the estimated serialized size of the value, in bytes
+   */
+  public static long estimate(Object value) {
+    if (value == null) {
+      return NULL_SIZE;
+    } else if (value instanceof String) {
+      return ((String) value).length() + 2;
+    } else if (value instanceof Struct) {
+      Struct struct = (Struct) value;
+      long result = 2;
+      for (Field field : struct.schema().fields()) {
+        result += field.name().length() + VALUE_OVERHEAD + estimate(struct.get(field));
+      }
+      return result;
+    } else if (value instanceof Map) {
+      long result = 2;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        result += estimate(entry.getKey()) + 1 + estimate(entry.getValue());
+      }
+      return result;
+    } else if (value instanceof Collection) {
+      long result = 2;
+      for (Object element : (Collection<?>) value) {
+        result += estimate(element) + 1;
+      }
+      return result;
+    } else if (value instanceof byte[]) {
+      return base64Size(((byte[]) value).length);
+    } else if (value instanceof ByteBuffer) {
+      return base64Size(((ByteBuffer) value).remaining());
+    } else {
+      // Numbers, booleans, and logical types such as dates, which are all serialized as short scalars
+      return NUMBER_SIZE;
+    }
+  }
+
+  private static long base64Size(int bytes) {
+    return 4L * ((bytes + 2) / 3) + 2;
+  }
+}
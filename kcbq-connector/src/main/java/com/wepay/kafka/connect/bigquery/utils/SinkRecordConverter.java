@@ -68,6 +68,15 @@ public class SinkRecordConverter {
 
     }
 
+    /**
+     * @return whether records must be converted on the task thread in the order they were received, which is the case
+     *         when upsert/delete is enabled since each converted row is assigned to a merge batch. Otherwise, records
+     *         can be converted independently of one another and on any thread.
+     */
+    public boolean requiresOrderedConversion() {
+        return config.isUpsertDeleteEnabled();
+    }
+
     public InsertAllRequest.RowToInsert getRecordRow(SinkRecord record, TableId table) {
         Map<String, Object> convertedRecord = config.isUpsertDeleteEnabled()
             ? getUpsertDeleteRow(record, table)
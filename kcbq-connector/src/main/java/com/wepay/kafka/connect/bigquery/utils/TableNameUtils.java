@@ -34,4 +34,15 @@ public class TableNameUtils {
   public static String destTable(TableId table) {
     return "destination " + table(table);
   }
+
+  /**
+   * @param table the table to name
+   * @return the fully qualified name of the table, without the project if it is not known; suitable
+   *         for tagging metrics and events with
+   */
+  public static String qualifiedName(TableId table) {
+    return table.getProject() != null
+        ? table.getProject() + "." + table.getDataset() + "." + table.getTable()
+        : table.getDataset() + "." + table.getTable();
+  }
 }
@@ -19,7 +19,6 @@
 
 package com.wepay.kafka.connect.bigquery.write.batch;
 
-import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
 import com.google.cloud.bigquery.TableId;
 
 import com.wepay.kafka.connect.bigquery.convert.RecordConverter;
@@ -32,10 +31,6 @@ import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Comparator;
-import java.util.SortedMap;
-import java.util.TreeMap;
-
 /**
  * Batch Table Writer that uploads records to GCS as a blob
  * and then triggers a load job from that GCS file to BigQuery.
@@ -48,7 +43,7 @@ public class GCSBatchTableWriter implements Runnable {
   private final String bucketName;
   private final String blobName;
 
-  private final SortedMap<SinkRecord, RowToInsert> rows;
+  private final TableRows rows;
   private final GCSToBQWriter writer;
 
   /**
@@ -59,7 +54,7 @@ public class GCSBatchTableWriter implements Runnable {
    * @param baseBlobName the base name of the blob in which the serialized rows should be uploaded.
    *                     The full name is [baseBlobName]_[writerId]_
    */
-  private GCSBatchTableWriter(SortedMap<SinkRecord, RowToInsert> rows,
+  private GCSBatchTableWriter(TableRows rows,
                               GCSToBQWriter writer,
                               TableId tableId,
                               String bucketName,
@@ -75,7 +70,7 @@ public class GCSBatchTableWriter implements Runnable {
   @Override
   public void run() {
     try {
-      writer.writeRows(rows, tableId, bucketName, blobName);
+      writer.writeRows(rows.rows(), tableId, bucketName, blobName);
     } catch (ConnectException ex) {
       throw new ConnectException("Failed to write rows to GCS", ex);
     } catch (InterruptedException ex) {
@@ -91,8 +86,7 @@ public class GCSBatchTableWriter implements Runnable {
     private String blobName;
     private final TableId tableId;
 
-    private final SortedMap<SinkRecord, RowToInsert> rows;
-    private final SinkRecordConverter recordConverter;
+    private final TableRows rows;
     private final GCSToBQWriter writer;
 
     /**
@@ -114,15 +108,18 @@ public class GCSBatchTableWriter implements Runnable {
       this.blobName = gcsBlobName;
       this.tableId = tableId;
 
-      this.rows = new TreeMap<>(Comparator.comparing(SinkRecord::kafkaPartition)
-              .thenComparing(SinkRecord::kafkaOffset));
-      this.recordConverter = recordConverter;
+      this.rows = new TableRows(recordConverter);
       this.writer = writer;
     }
 
     @Override
     public void addRow(SinkRecord record, TableId table) {
-      rows.put(record, recordConverter.getRecordRow(record, table));
+      rows.add(record, table);
+    }
+
+    @Override
+    public void convertRows() {
+      rows.rows();
     }
 
     @Override
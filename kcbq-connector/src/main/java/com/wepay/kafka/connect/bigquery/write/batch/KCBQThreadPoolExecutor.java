@@ -19,24 +19,42 @@
 
 package com.wepay.kafka.connect.bigquery.write.batch;
 
+import com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig;
 import com.wepay.kafka.connect.bigquery.config.BigQuerySinkTaskConfig;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
 import com.wepay.kafka.connect.bigquery.exception.ExpectedInterruptException;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import org.apache.kafka.common.config.ConfigException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Optional;
+import java.util.TreeSet;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * ThreadPoolExecutor for writing Rows to BigQuery.
  *
  * <p>Keeps track of the number of threads actively writing for each topic.
  * Keeps track of the number of failed threads in each batch of requests.
+ *
+ * <p>Can either run on a fixed number of platform threads, or {@link #withVirtualThreads() start a new virtual thread}
+ * for every task, in which case the number of tasks that can run at once is not bounded by the executor.
+ *
+ * <p>A task that fails with a {@link TableNotReadyException} is parked instead of being treated as failed, and run
+ * again once the wait time given by the exception has elapsed. Its thread is free to run other tasks in the meantime,
+ * so that waiting for a table creation or schema update to take effect does not hold up writes to other tables. Parked
+ * tasks still count as pending until they finish, so they are waited for by {@link #awaitCurrentTasks()}.
  */
 public class KCBQThreadPoolExecutor extends ThreadPoolExecutor {
 
@@ -44,6 +62,20 @@ public class KCBQThreadPoolExecutor extends ThreadPoolExecutor {
 
   private final AtomicReference<Throwable> encounteredError = new AtomicReference<>();
 
+  // IDs of tasks that have been submitted but have not finished yet, in order of submission
+  private final TreeSet<Long> pendingTasks = new TreeSet<>();
+  private final ReentrantLock pendingTasksLock = new ReentrantLock();
+  private final Condition taskFinished = pendingTasksLock.newCondition();
+  private long nextTaskId = 0;
+  // Number of pending tasks that are currently running on a thread
+  private int runningTasks = 0;
+
+  private final ScheduledExecutorService parkedTaskScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "kcbq-parked-write-scheduler");
+    thread.setDaemon(true);
+    return thread;
+  });
+
   /**
    * @param config the {@link BigQuerySinkTaskConfig}
    * @param workQueue the queue for storing tasks.
@@ -57,16 +89,109 @@ public class KCBQThreadPoolExecutor extends ThreadPoolExecutor {
           workQueue);
   }
 
+  private KCBQThreadPoolExecutor(ThreadFactory threadFactory) {
+    // Tasks are never queued; each is handed straight to a new (or recently idle) thread
+    super(0, Integer.MAX_VALUE, 1, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory);
+  }
+
+  /**
+   * Create an executor that runs each task on its own virtual thread. Requires Java 21 or later.
+   *
+   * @return the executor
+   * @throws ConfigException if virtual threads are not supported by the JVM
+   */
+  public static KCBQThreadPoolExecutor withVirtualThreads() {
+    return new KCBQThreadPoolExecutor(virtualThreadFactory());
+  }
+
+  private static ThreadFactory virtualThreadFactory() {
+    // Looked up reflectively so that the connector can still be built for and run on older versions of Java
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "kcbq-writer-", 0L);
+      return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+    } catch (ReflectiveOperationException e) {
+      throw new ConfigException(
+          BigQuerySinkConfig.USE_VIRTUAL_THREADS_CONFIG + " requires Java 21 or later, but this worker is running Java "
+          + System.getProperty("java.version"));
+    }
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    long taskId;
+    pendingTasksLock.lock();
+    try {
+      taskId = nextTaskId++;
+      pendingTasks.add(taskId);
+    } finally {
+      pendingTasksLock.unlock();
+    }
+    try {
+      super.execute(new PendingTask(taskId, command));
+    } catch (RejectedExecutionException e) {
+      finished(taskId);
+      throw e;
+    }
+  }
+
+  @Override
+  protected void beforeExecute(Thread thread, Runnable runnable) {
+    super.beforeExecute(thread, runnable);
+    if (runnable instanceof PendingTask) {
+      pendingTasksLock.lock();
+      try {
+        runningTasks++;
+      } finally {
+        pendingTasksLock.unlock();
+      }
+    }
+  }
+
   @Override
   protected void afterExecute(Runnable runnable, Throwable throwable) {
     super.afterExecute(runnable, throwable);
 
+    if (runnable instanceof PendingTask) {
+      pendingTasksLock.lock();
+      try {
+        runningTasks--;
+      } finally {
+        pendingTasksLock.unlock();
+      }
+    }
+
+    if (runnable instanceof PendingTask && ((PendingTask) runnable).notReady != null) {
+      park((PendingTask) runnable);
+      return;
+    }
+
     if (throwable != null && !(throwable instanceof ExpectedInterruptException)) {
       // Log at debug level since this will be shown to the user at error level by the Connect framework if it causes
       // the task to fail, and will otherwise just pollute logs and potentially mislead users
       logger.debug("A write thread has failed with an unrecoverable error", throwable);
       encounteredError.compareAndSet(null, throwable);
     }
+
+    // Only once any error has been recorded, so that awaitCurrentTasks() is guaranteed to see it
+    if (runnable instanceof PendingTask) {
+      finished(((PendingTask) runnable).id);
+    }
+  }
+
+  @Override
+  protected void terminated() {
+    super.terminated();
+    // Parked tasks can no longer be run again
+    parkedTaskScheduler.shutdownNow();
+    // Wake up anyone waiting on tasks that were discarded during shutdown and will now never run
+    pendingTasksLock.lock();
+    try {
+      taskFinished.signalAll();
+    } finally {
+      pendingTasksLock.unlock();
+    }
   }
 
   /**
@@ -76,20 +201,41 @@ public class KCBQThreadPoolExecutor extends ThreadPoolExecutor {
    * @throws InterruptedException if interrupted while waiting.
    */
   public void awaitCurrentTasks() throws InterruptedException, BigQueryConnectException {
-    /*
-     * create CountDownRunnables equal to the number of threads in the pool and add them to the
-     * queue. Then wait for all CountDownRunnables to complete. This way we can be sure that all
-     * tasks added before this method was called are complete.
-     */
-    int maximumPoolSize = getMaximumPoolSize();
-    CountDownLatch countDownLatch = new CountDownLatch(maximumPoolSize);
-    for (int i = 0; i < maximumPoolSize; i++) {
-      execute(new CountDownRunnable(countDownLatch));
-    }
-    countDownLatch.await();
+    pendingTasksLock.lock();
+    try {
+      if (isShutdown()) {
+        throw new RejectedExecutionException("Cannot wait for tasks after the executor has been shut down");
+      }
+      long lastTaskId = nextTaskId;
+      // Tasks submitted after this method was called are not waited for
+      while (!pendingTasks.isEmpty() && pendingTasks.first() < lastTaskId) {
+        if (isTerminated()) {
+          throw new BigQueryConnectException("Executor was shut down before all write tasks could complete");
+        }
+        taskFinished.await();
+      }
+    } finally {
+      pendingTasksLock.unlock();
+    }
     maybeThrowEncounteredError();
   }
 
+  /**
+   * Unlike the size of {@link #getQueue()}, this includes parked tasks, and is meaningful when running on
+   * {@link #withVirtualThreads() virtual threads}, where tasks are never queued.
+   *
+   * @return the number of tasks that have been submitted but are not running, either because they are waiting for a
+   *         thread or because they are parked
+   */
+  public int waitingTaskCount() {
+    pendingTasksLock.lock();
+    try {
+      return pendingTasks.size() - runningTasks;
+    } finally {
+      pendingTasksLock.unlock();
+    }
+  }
+
   /**
    * Immediately throw an exception if any unrecoverable errors were encountered by any of the write
    * tasks.
@@ -101,4 +247,55 @@ public class KCBQThreadPoolExecutor extends ThreadPoolExecutor {
       throw new BigQueryConnectException("A write thread has failed with an unrecoverable error", t);
     });
   }
+
+  private void park(PendingTask task) {
+    TableNotReadyException notReady = task.notReady;
+    logger.debug("Writing to {} again in {} ms, once its creation or schema update has had time to take effect",
+        notReady.getTable(), notReady.getRetryWaitMs());
+    try {
+      parkedTaskScheduler.schedule(() -> resume(task), notReady.getRetryWaitMs(), TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      finished(task.id);
+    }
+  }
+
+  private void resume(PendingTask task) {
+    try {
+      super.execute(task);
+    } catch (RejectedExecutionException e) {
+      logger.debug("Discarding parked write to {} since the executor has been shut down", task.notReady.getTable());
+      finished(task.id);
+    }
+  }
+
+  private void finished(long taskId) {
+    pendingTasksLock.lock();
+    try {
+      pendingTasks.remove(taskId);
+      taskFinished.signalAll();
+    } finally {
+      pendingTasksLock.unlock();
+    }
+  }
+
+  private static class PendingTask implements Runnable {
+    private final long id;
+    private final Runnable task;
+    private volatile TableNotReadyException notReady;
+
+    PendingTask(long id, Runnable task) {
+      this.id = id;
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      notReady = null;
+      try {
+        task.run();
+      } catch (TableNotReadyException e) {
+        notReady = e;
+      }
+    }
+  }
 }
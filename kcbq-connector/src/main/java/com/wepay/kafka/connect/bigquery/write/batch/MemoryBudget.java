@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the estimated size of the records held by the task that have not been written to BigQuery yet, against a soft
+ * limit. Each record is accounted for by the estimated size of its key and value from the time it is buffered until
+ * its table writer has finished, even though it is converted to a smaller row once its table writer is dispatched. Once
+ * the limit is exceeded, it is not considered to be relieved until usage drops to half of the limit, so that callers do
+ * not rapidly alternate between applying and lifting backpressure.
+ */
+public class MemoryBudget {
+
+  private final long limit;
+  private final AtomicLong used;
+
+  /**
+   * @param limit the soft limit on the estimated size of unwritten rows, in bytes
+   */
+  public MemoryBudget(long limit) {
+    this.limit = limit;
+    this.used = new AtomicLong();
+  }
+
+  /**
+   * @param bytes the estimated size of rows that have been received
+   */
+  public void reserve(long bytes) {
+    used.addAndGet(bytes);
+  }
+
+  /**
+   * @param bytes the estimated size of rows that have been written or discarded
+   */
+  public void release(long bytes) {
+    used.addAndGet(-bytes);
+  }
+
+  /**
+   * @return the estimated size of the rows that have not been written yet, in bytes
+   */
+  public long used() {
+    return used.get();
+  }
+
+  /**
+   * @return the soft limit on the estimated size of unwritten rows, in bytes
+   */
+  public long limit() {
+    return limit;
+  }
+
+  /**
+   * @return whether the estimated size of unwritten rows is over the limit
+   */
+  public boolean isExceeded() {
+    return used.get() > limit;
+  }
+
+  /**
+   * @return whether the estimated size of unwritten rows is low enough to lift any backpressure applied after the
+   *         limit was exceeded
+   */
+  public boolean isRelieved() {
+    return used.get() <= limit / 2;
+  }
+}
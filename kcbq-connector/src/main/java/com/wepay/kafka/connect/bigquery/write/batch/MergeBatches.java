@@ -27,6 +27,8 @@ import com.google.common.collect.HashBiMap;
 import com.google.common.collect.Maps;
 import com.wepay.kafka.connect.bigquery.MergeQueries;
 import com.wepay.kafka.connect.bigquery.exception.ExpectedInterruptException;
+import com.wepay.kafka.connect.bigquery.metrics.FlightRecorderEvents;
+import com.wepay.kafka.connect.bigquery.metrics.FlightRecorderEvents.Span;
 import com.wepay.kafka.connect.bigquery.utils.FieldNameSanitizer;
 import org.apache.kafka.clients.consumer.OffsetAndMetadata;
 import org.apache.kafka.common.TopicPartition;
@@ -211,6 +213,18 @@ public class MergeBatches {
    * @return whether a flush is necessary (will be false if no rows were present in the given batch)
    */
   public boolean prepareToFlush(TableId intermediateTable, int batchNumber) {
+    Span span = FlightRecorderEvents.get().mergeFlushPrepare(intermediateTable, batchNumber);
+    String outcome = FlightRecorderEvents.ERROR;
+    try {
+      boolean result = waitToFlush(intermediateTable, batchNumber, span);
+      outcome = result ? FlightRecorderEvents.SUCCESS : FlightRecorderEvents.SKIPPED;
+      return result;
+    } finally {
+      span.end(outcome);
+    }
+  }
+
+  private boolean waitToFlush(TableId intermediateTable, int batchNumber, Span span) {
     final ConcurrentMap<Integer, Batch> allBatchesForTable = batches.get(intermediateTable);
     if (batchNumber != 0) {
       final int priorBatchNumber = batchNumber - 1;
@@ -239,6 +253,7 @@ public class MergeBatches {
       logger.trace("No rows to write in batch {} for {}", batchNumber, intTable(intermediateTable));
       return false;
     }
+    span.rows(currentBatch.total());
 
     synchronized (currentBatch) {
       logger.debug("{} rows currently remaining for batch {} for {}",
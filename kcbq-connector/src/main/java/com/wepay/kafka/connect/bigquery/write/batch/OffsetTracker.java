@@ -0,0 +1,188 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tracks, for each topic partition, the offset up to which every record given to the task has been written, so that
+ * offsets can be committed without waiting for all in-flight writes to complete.
+ *
+ * <p>Records are tracked in {@link Batch batches}, each of which corresponds to a single table writer. Only the lowest
+ * offset of each partition in a batch is recorded, since none of the batch's records for that partition are written
+ * until all of them are. The safe offset to commit for a partition is then the lowest offset of any batch that has not
+ * been written yet or, if there are no such batches, one past the highest offset received for that partition.
+ */
+public class OffsetTracker {
+
+  private final Map<TopicPartition, Long> highestOffsets;
+  // The lowest offset for each partition of every unwritten batch, with the number of batches it is the lowest for
+  private final Map<TopicPartition, TreeMap<Long, Integer>> pendingOffsets;
+
+  public OffsetTracker() {
+    this.highestOffsets = new HashMap<>();
+    this.pendingOffsets = new HashMap<>();
+  }
+
+  /**
+   * Record that a record has been received by the task. Must be invoked for every record, including those that will
+   * not be written to BigQuery, before it is added to a batch.
+   * @param record the record
+   */
+  public synchronized void received(SinkRecord record) {
+    highestOffsets.merge(partition(record), record.kafkaOffset(), Math::max);
+  }
+
+  /**
+   * @return a new batch of records that have yet to be written
+   */
+  public Batch newBatch() {
+    return new Batch();
+  }
+
+  /**
+   * @param currentOffsets the offsets of the records that have been received by the task so far
+   * @return the offsets that can safely be committed for the given partitions; partitions for which nothing has been
+   *         received are omitted
+   */
+  public synchronized Map<TopicPartition, OffsetAndMetadata> safeOffsets(
+      Map<TopicPartition, OffsetAndMetadata> currentOffsets) {
+    Map<TopicPartition, OffsetAndMetadata> result = new HashMap<>();
+    currentOffsets.forEach((partition, current) -> {
+      Long highestOffset = highestOffsets.get(partition);
+      if (highestOffset == null) {
+        return;
+      }
+      TreeMap<Long, Integer> pending = pendingOffsets.get(partition);
+      long safeOffset = pending != null && !pending.isEmpty() ? pending.firstKey() : highestOffset + 1;
+      safeOffset = Math.min(safeOffset, current.offset());
+      result.put(partition, new OffsetAndMetadata(safeOffset, current.metadata()));
+    });
+    return result;
+  }
+
+  /**
+   * @return whether any record added to a batch has not been written yet
+   */
+  public synchronized boolean hasPending() {
+    return pendingOffsets.values().stream().anyMatch(pending -> !pending.isEmpty());
+  }
+
+  /**
+   * @param partitions the partitions to check
+   * @return whether any record from the given partitions that was added to a batch has not been written yet
+   */
+  public synchronized boolean hasPending(Collection<TopicPartition> partitions) {
+    for (TopicPartition partition : partitions) {
+      TreeMap<Long, Integer> pending = pendingOffsets.get(partition);
+      if (pending != null && !pending.isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Stop tracking the given partitions, for instance once they have been revoked from the task. Batches that still
+   * contain records from them no longer hold back their offsets.
+   * @param partitions the partitions to forget about
+   */
+  public synchronized void forget(Collection<TopicPartition> partitions) {
+    for (TopicPartition partition : partitions) {
+      highestOffsets.remove(partition);
+      pendingOffsets.remove(partition);
+    }
+  }
+
+  private TreeMap<Long, Integer> addPending(TopicPartition partition, long offset) {
+    TreeMap<Long, Integer> pending = pendingOffsets.computeIfAbsent(partition, p -> new TreeMap<>());
+    pending.merge(offset, 1, Integer::sum);
+    return pending;
+  }
+
+  // Takes the offsets that were added to instead of looking them up by partition, so that batches outstanding when a
+  // partition was forgotten about cannot affect the offsets tracked for it if it is reassigned later
+  private static void removePending(TreeMap<Long, Integer> pending, long offset) {
+    if (pending.merge(offset, -1, Integer::sum) == 0) {
+      pending.remove(offset);
+    }
+  }
+
+  private static TopicPartition partition(SinkRecord record) {
+    return new TopicPartition(record.topic(), record.kafkaPartition());
+  }
+
+  /**
+   * A group of records that are written together.
+   */
+  public class Batch {
+    private final Map<TopicPartition, Long> lowestOffsets = new HashMap<>();
+    // The pending offsets that each partition's lowest offset was added to
+    private final Map<TopicPartition, TreeMap<Long, Integer>> partitionOffsets = new HashMap<>();
+    private boolean written;
+
+    /**
+     * Add a record to this batch; its offset (and all later ones) will not be considered safe to commit until
+     * {@link #written()} is invoked.
+     * @param record the record
+     */
+    public void add(SinkRecord record) {
+      TopicPartition partition = partition(record);
+      long offset = record.kafkaOffset();
+      synchronized (OffsetTracker.this) {
+        Long lowestOffset = lowestOffsets.get(partition);
+        if (lowestOffset == null || offset < lowestOffset) {
+          if (lowestOffset != null) {
+            removePending(partitionOffsets.get(partition), lowestOffset);
+          }
+          partitionOffsets.put(partition, addPending(partition, offset));
+          lowestOffsets.put(partition, offset);
+        }
+      }
+    }
+
+    /**
+     * Stop tracking the records in this batch without them having been written, because they will be tracked in
+     * another batch instead or their partitions are about to be {@link #forget(Collection) forgotten}.
+     */
+    public void discard() {
+      written();
+    }
+
+    /**
+     * Record that every record in this batch has been written.
+     */
+    public void written() {
+      synchronized (OffsetTracker.this) {
+        if (written) {
+          return;
+        }
+        lowestOffsets.forEach((partition, offset) -> removePending(partitionOffsets.get(partition), offset));
+        written = true;
+      }
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.TableId;
+
+import com.wepay.kafka.connect.bigquery.convert.RecordConverter;
+
+import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
+import com.wepay.kafka.connect.bigquery.write.row.RowBatch;
+import com.wepay.kafka.connect.bigquery.write.row.StorageWriteApiBatchWriter;
+import org.apache.kafka.connect.errors.ConnectException;
+
+import org.apache.kafka.connect.sink.SinkRecord;
+
+/**
+ * Batch Table Writer that appends records to a Storage Write API pending stream,
+ * which is later committed to BigQuery all at once.
+ */
+public class StorageWriteApiBatchTableWriter implements Runnable {
+
+  private final TableId tableId;
+
+  private final TableRows rows;
+  private final StorageWriteApiBatchWriter writer;
+  private final Runnable onCommit;
+
+  // Progress through the rows is kept across runs, so that a run that was cut short because the table was not ready
+  // yet can be resumed from the first row that has not been written
+  private RowBatch pendingRows;
+  private int writtenRows;
+  private int notReadyCount;
+
+  /**
+   * @param rows The list of rows that should be written to the pending stream
+   * @param writer {@link StorageWriteApiBatchWriter} to use
+   * @param tableId the BigQuery table id of the table to write to
+   * @param onCommit invoked once the rows have been committed
+   */
+  private StorageWriteApiBatchTableWriter(TableRows rows,
+                                          StorageWriteApiBatchWriter writer,
+                                          TableId tableId,
+                                          Runnable onCommit) {
+    this.tableId = tableId;
+    this.rows = rows;
+    this.writer = writer;
+    this.onCommit = onCommit;
+  }
+
+  /**
+   * Write all rows that have not been written yet.
+   * @throws TableNotReadyException if the rows cannot be written until a schema update takes effect; this table
+   *         writer can be run again later to write the remaining rows
+   */
+  @Override
+  public void run() {
+    if (pendingRows == null) {
+      pendingRows = rows.rows();
+    }
+    try {
+      writer.writeRows(
+          pendingRows.slice(writtenRows, pendingRows.size()), tableId, onCommit, appended -> writtenRows += appended);
+    } catch (TableNotReadyException err) {
+      notReadyCount++;
+      if (notReadyCount >= err.getRetryLimit()) {
+        throw new BigQueryConnectException(
+            "Failed to write rows after BQ schema update within "
+                + err.getRetryLimit() + " attempts for: " + err.getTable(), err);
+      }
+      throw err;
+    } catch (ConnectException ex) {
+      throw new ConnectException("Failed to write rows to pending stream", ex);
+    } catch (InterruptedException ex) {
+      throw new ConnectException("Thread interrupted while batch writing", ex);
+    }
+  }
+
+  /**
+   * A Builder for constructing StorageWriteApiBatchTableWriters.
+   */
+  public static class Builder implements TableWriterBuilder {
+    private final TableId tableId;
+
+    private final TableRows rows;
+    private final StorageWriteApiBatchWriter writer;
+    private Runnable onCommit;
+
+    /**
+     * Create a {@link StorageWriteApiBatchTableWriter.Builder}.
+     *
+     * @param writer the {@link StorageWriteApiBatchWriter} to use.
+     * @param tableId The bigquery table to be written to.
+     * @param recordConverter the {@link RecordConverter} to use.
+     */
+    public Builder(StorageWriteApiBatchWriter writer,
+                   TableId tableId,
+                   SinkRecordConverter recordConverter) {
+      this.tableId = tableId;
+
+      this.rows = new TableRows(recordConverter);
+      this.writer = writer;
+      this.onCommit = () -> { };
+    }
+
+    @Override
+    public void addRow(SinkRecord record, TableId table) {
+      rows.add(record, table);
+    }
+
+    /**
+     * Rows written to pending streams are only visible once the streams have been committed.
+     */
+    @Override
+    public boolean onVisible(Runnable onVisible) {
+      this.onCommit = onVisible;
+      return true;
+    }
+
+    @Override
+    public void convertRows() {
+      rows.rows();
+    }
+
+    @Override
+    public StorageWriteApiBatchTableWriter build() {
+      return new StorageWriteApiBatchTableWriter(rows, writer, tableId, onCommit);
+    }
+  }
+}
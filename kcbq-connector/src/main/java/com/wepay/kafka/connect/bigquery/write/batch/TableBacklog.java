@@ -0,0 +1,165 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.TableId;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Tracks the work that has yet to be completed for each destination table, along with the topic partitions that the
+ * work came from, so that backpressure can be applied only to the partitions feeding a table that is falling behind.
+ *
+ * <p>A table is considered backed up once it has more table writers queued or running than the per-table maximum.
+ * The task-wide limits are enforced per table as well: once more writes are queued across all tables than the
+ * maximum, or once the {@link MemoryBudget} has been exceeded, a table is considered backed up if it holds more than
+ * its share of the limit (the limit divided evenly between all tables with unwritten rows), so that only the tables
+ * doing the most to exceed it are held back. As with the memory budget, a backed up table is not considered to have recovered until it
+ * has dropped to half of whichever limit it went over.
+ *
+ * <p>Table writers may report that they have finished from any thread; all other methods are expected to be invoked
+ * from the task thread.
+ */
+public class TableBacklog {
+
+  private final IntSupplier queuedWrites;
+  private final long maxQueuedWrites;
+  private final long maxPendingWriters;
+  private final MemoryBudget memoryBudget;
+  private final Map<TableId, Backlog> backlogs;
+
+  /**
+   * @param queuedWrites supplies the number of writes across all tables that are waiting to be run
+   * @param maxQueuedWrites the number of queued writes across all tables past which the tables with the most
+   *                        queued or running table writers are considered backed up, or -1 for no limit
+   * @param maxPendingWriters the number of queued or running table writers for a single table past which it is
+   *                          considered backed up, or -1 for no limit
+   * @param memoryBudget the budget for the estimated size of unwritten rows across all tables; may be null
+   */
+  public TableBacklog(IntSupplier queuedWrites,
+                      long maxQueuedWrites,
+                      long maxPendingWriters,
+                      MemoryBudget memoryBudget) {
+    this.queuedWrites = queuedWrites;
+    this.maxQueuedWrites = maxQueuedWrites;
+    this.maxPendingWriters = maxPendingWriters;
+    this.memoryBudget = memoryBudget;
+    this.backlogs = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Record that a row has been buffered for a table.
+   * @param table the table the row will be written to
+   * @param source the topic partition the row was read from
+   * @param bytes the estimated size of the row, or zero if it has not been estimated
+   */
+  public void buffered(TableId table, TopicPartition source, long bytes) {
+    Backlog backlog = backlogs.computeIfAbsent(table, t -> new Backlog());
+    backlog.sources.add(source);
+    backlog.rows.incrementAndGet();
+    backlog.bytes.addAndGet(bytes);
+  }
+
+  /**
+   * Record that a table writer has been handed off to be run.
+   * @param table the table the writer will write to
+   */
+  public void dispatched(TableId table) {
+    backlogs.get(table).pendingWriters.incrementAndGet();
+  }
+
+  /**
+   * Record that a dispatched table writer has finished, whether or not it succeeded.
+   * @param table the table the writer wrote to
+   * @param rows the number of rows given to the writer
+   * @param bytes the estimated size of those rows
+   */
+  public void finished(TableId table, int rows, long bytes) {
+    Backlog backlog = backlogs.get(table);
+    backlog.bytes.addAndGet(-bytes);
+    backlog.pendingWriters.decrementAndGet();
+    // Updated last, since a table with no rows left is assumed to have nothing else in flight either
+    backlog.rows.addAndGet(-rows);
+  }
+
+  /**
+   * Record that rows buffered for a table have been discarded without being dispatched.
+   * @param table the table the rows were buffered for
+   * @param rows the number of discarded rows
+   * @param bytes the estimated size of those rows
+   */
+  public void discarded(TableId table, int rows, long bytes) {
+    Backlog backlog = backlogs.get(table);
+    backlog.bytes.addAndGet(-bytes);
+    backlog.rows.addAndGet(-rows);
+  }
+
+  /**
+   * Re-evaluate which tables are backed up, and forget about tables that no longer have any outstanding work.
+   * @return the topic partitions that feed a table that is currently backed up
+   */
+  public Set<TopicPartition> backedUpPartitions() {
+    int tables = Math.max(backlogs.size(), 1);
+    long fairShare = memoryBudget != null ? memoryBudget.limit() / tables : -1;
+    long queued = maxQueuedWrites != -1 ? queuedWrites.getAsInt() : 0;
+    long fairQueueShare = maxQueuedWrites != -1 ? maxQueuedWrites / tables : -1;
+    Set<TopicPartition> result = new HashSet<>();
+    Iterator<Backlog> iterator = backlogs.values().iterator();
+    while (iterator.hasNext()) {
+      Backlog backlog = iterator.next();
+      long pendingWriters = backlog.pendingWriters.get();
+      long bytes = backlog.bytes.get();
+      boolean tooManyWriters = maxPendingWriters != -1 && pendingWriters > maxPendingWriters;
+      boolean tooManyQueued = maxQueuedWrites != -1 && queued > maxQueuedWrites && pendingWriters > fairQueueShare;
+      boolean tooManyBytes = memoryBudget != null && memoryBudget.isExceeded() && bytes > fairShare;
+      if (tooManyWriters || tooManyQueued || tooManyBytes) {
+        backlog.backedUp = true;
+      } else if ((maxPendingWriters == -1 || pendingWriters <= maxPendingWriters / 2)
+          && (maxQueuedWrites == -1 || queued <= maxQueuedWrites / 2 || pendingWriters <= fairQueueShare / 2)
+          && (memoryBudget == null || memoryBudget.isRelieved() || bytes <= fairShare / 2)) {
+        backlog.backedUp = false;
+      }
+
+      if (backlog.backedUp) {
+        result.addAll(backlog.sources);
+      } else if (backlog.rows.get() == 0) {
+        iterator.remove();
+      }
+    }
+    return result;
+  }
+
+  private static class Backlog {
+    // Only accessed from the task thread
+    private final Set<TopicPartition> sources = new HashSet<>();
+    private boolean backedUp;
+
+    private final AtomicInteger pendingWriters = new AtomicInteger();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+  }
+}
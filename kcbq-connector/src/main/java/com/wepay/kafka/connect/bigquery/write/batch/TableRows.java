@@ -0,0 +1,92 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
+import com.wepay.kafka.connect.bigquery.write.row.RowBatch;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The rows to be written by a single table writer. Unless the record converter requires records to be converted in
+ * order on the task thread, conversion is deferred until {@link #rows()} is invoked, so that it takes place on the
+ * thread running the table writer, or on a thread that converts the rows ahead of time while the table writer waits to
+ * run, instead of the thread calling {@link TableWriterBuilder#addRow(SinkRecord, TableId)}.
+ *
+ * <p>Once converted, the records are reduced to the offsets and per-schema records kept by a {@link RowBatch}, and are
+ * no longer held on to.
+ */
+class TableRows {
+
+  private final SinkRecordConverter recordConverter;
+  private RowBatch.Builder rows;
+  private List<SinkRecord> unconvertedRecords;
+  private List<TableId> unconvertedTables;
+  private int converted;
+  private RowBatch batch;
+
+  /**
+   * @param recordConverter the record converter used to convert records to rows
+   */
+  TableRows(SinkRecordConverter recordConverter) {
+    this.recordConverter = recordConverter;
+    this.rows = RowBatch.builder();
+    this.unconvertedRecords = new ArrayList<>();
+    this.unconvertedTables = new ArrayList<>();
+  }
+
+  /**
+   * Add a record, converting it immediately only if the record converter requires it. Must not be invoked once
+   * {@link #rows()} has been.
+   * @param record the record to add
+   * @param table the BigQuery table the record will be written to
+   */
+  void add(SinkRecord record, TableId table) {
+    if (recordConverter.requiresOrderedConversion()) {
+      rows.add(record, recordConverter.getRecordRow(record, table));
+    } else {
+      unconvertedRecords.add(record);
+      unconvertedTables.add(table);
+    }
+  }
+
+  /**
+   * Convert any records that have not been converted yet. May be invoked more than once, including concurrently; if
+   * converting a record fails, conversion resumes from that record the next time around.
+   * @return all rows added, ordered by Kafka partition and offset
+   */
+  synchronized RowBatch rows() {
+    if (batch == null) {
+      for (; converted < unconvertedRecords.size(); converted++) {
+        SinkRecord record = unconvertedRecords.get(converted);
+        rows.add(record, recordConverter.getRecordRow(record, unconvertedTables.get(converted)));
+        // Let go of each record as soon as it has been converted
+        unconvertedRecords.set(converted, null);
+      }
+      batch = rows.build();
+      rows = null;
+      unconvertedRecords = null;
+      unconvertedTables = null;
+    }
+    return batch;
+  }
+}
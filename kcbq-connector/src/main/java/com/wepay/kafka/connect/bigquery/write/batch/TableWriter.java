@@ -26,35 +26,51 @@ import com.google.cloud.bigquery.TableId;
 import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
 import com.wepay.kafka.connect.bigquery.exception.ExpectedInterruptException;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import com.wepay.kafka.connect.bigquery.metrics.BigQuerySinkTaskMetrics;
+import com.wepay.kafka.connect.bigquery.metrics.BigQuerySinkTaskMetrics.TableMetrics;
 import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
 import com.wepay.kafka.connect.bigquery.write.row.BigQueryErrorResponses;
 import com.wepay.kafka.connect.bigquery.write.row.BigQueryWriter;
+import com.wepay.kafka.connect.bigquery.write.row.RowBatch;
 
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.Objects;
 import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 /**
- * Simple Table Writer that attempts to write all the rows it is given at once.
+ * Simple Table Writer that attempts to write all the rows it is given in as few requests as possible, splitting them
+ * up ahead of time based on their estimated size so that no request exceeds BigQuery's limits.
  */
 public class TableWriter implements Runnable {
 
   private static final Logger logger = LoggerFactory.getLogger(TableWriter.class);
 
+  // BigQuery rejects streaming insert requests larger than 10MB; leave some headroom since row sizes are estimates
+  static final long MAX_REQUEST_BYTES = 9 * 1024 * 1024;
+  // BigQuery rejects streaming insert requests with more than 50,000 rows
+  static final int MAX_REQUEST_ROWS = 50_000;
+
   private final BigQueryWriter writer;
   private final PartitionedTableId table;
-  private final SortedMap<SinkRecord, RowToInsert> rows;
+  private final Supplier<RowBatch> rows;
   private final Consumer<Collection<RowToInsert>> onFinish;
+  private final BigQuerySinkTaskMetrics metrics;
+
+  // Progress through the rows is kept across runs, so that a run that was cut short because the table was not ready
+  // yet can be resumed from the first row that has not been written
+  private RowBatch pendingRows;
+  private long[] rowSizes;
+  private int currentIndex;
+  private int currentBatchSize;
+  private int successCount;
+  private int failureCount;
+  private int notReadyCount;
 
   /**
    * @param writer the {@link BigQueryWriter} to use.
@@ -65,42 +81,78 @@ public class TableWriter implements Runnable {
    */
   public TableWriter(BigQueryWriter writer,
                      PartitionedTableId table,
-                     SortedMap<SinkRecord, RowToInsert> rows,
+                     RowBatch rows,
                      Consumer<Collection<RowToInsert>> onFinish) {
+    this(writer, table, () -> rows, onFinish, null);
+  }
+
+  private TableWriter(BigQueryWriter writer,
+                      PartitionedTableId table,
+                      Supplier<RowBatch> rows,
+                      Consumer<Collection<RowToInsert>> onFinish,
+                      BigQuerySinkTaskMetrics metrics) {
     this.writer = writer;
     this.table = table;
     this.rows = rows;
     this.onFinish = onFinish;
+    this.metrics = metrics;
   }
 
+  /**
+   * Write all rows that have not been written yet.
+   * @throws TableNotReadyException if the rows cannot be written until a table creation or schema update takes
+   *         effect; this table writer can be run again later to write the remaining rows
+   */
   @Override
   public void run() {
-    int currentIndex = 0;
-    int currentBatchSize = rows.size();
-    int successCount = 0;
-    int failureCount = 0;
+    if (pendingRows == null) {
+      pendingRows = this.rows.get();
+      currentBatchSize = pendingRows.size();
+      rowSizes = new long[pendingRows.size()];
+      for (int i = 0; i < rowSizes.length; i++) {
+        rowSizes[i] = pendingRows.estimatedSize(i);
+      }
+    }
+    RowBatch rows = pendingRows;
 
-    List<Map.Entry<SinkRecord, RowToInsert>> rowsList = new ArrayList<>(rows.entrySet());
+    TableMetrics tableMetrics = metrics != null ? metrics.table(table.getBaseTableId()) : null;
     try {
       while (currentIndex < rows.size()) {
-        List<Map.Entry<SinkRecord, RowToInsert>> currentBatchList =
-                rowsList.subList(currentIndex, Math.min(currentIndex + currentBatchSize, rows.size()));
+        int currentBatchEnd = nextBatchEnd(rowSizes, currentIndex, currentBatchSize);
+        RowBatch currentBatch = rows.slice(currentIndex, currentBatchEnd);
         try {
-          SortedMap<SinkRecord, RowToInsert> currentBatch = new TreeMap<>(rows.comparator());
-          for (Map.Entry<SinkRecord, RowToInsert> record: currentBatchList) {
-            currentBatch.put(record.getKey(), record.getValue());
-          }
           writer.writeRows(table, currentBatch);
-          currentIndex += currentBatchSize;
+          if (metrics != null) {
+            long currentBatchBytes = currentBatch.estimatedSize();
+            metrics.recordWriteRequest(currentBatch.size(), currentBatchBytes, MAX_REQUEST_BYTES);
+            tableMetrics.recordWrite(
+                currentBatch.size(), currentBatchBytes, currentBatch.oldestTimestamp(), System.currentTimeMillis());
+          }
+          currentIndex = currentBatchEnd;
           successCount++;
+        } catch (TableNotReadyException err) {
+          notReadyCount++;
+          if (notReadyCount >= err.getRetryLimit()) {
+            throw new BigQueryConnectException(
+                "Failed to write rows after BQ table creation or schema update within "
+                    + err.getRetryLimit() + " attempts for: " + err.getTable(), err);
+          }
+          logger.debug("{} is not ready yet; {} of {} rows remain to be written",
+              err.getTable(), rows.size() - currentIndex, rows.size());
+          throw err;
         } catch (BigQueryException err) {
           logger.warn(
               "Could not write batch of size {} to BigQuery. "
                   + "Error code: {}, underlying error (if present): {}",
-              currentBatchList.size(), err.getCode(), err.getError(), err);
+              currentBatch.size(), err.getCode(), err.getError(), err);
           if (isBatchSizeError(err)) {
             failureCount++;
-            currentBatchSize = getNewBatchSize(currentBatchSize, err);
+            if (metrics != null) {
+              metrics.recordBatchSizeError();
+              tableMetrics.recordBatchSizeError();
+            }
+            // Row sizes are only estimates; fall back on halving the batch until BigQuery accepts it
+            currentBatchSize = getNewBatchSize(currentBatch.size(), err);
           } else {
             // Throw exception on write errors such as 403.
             throw new BigQueryConnectException("Failed to write to table", err);
@@ -121,9 +173,28 @@ public class TableWriter implements Runnable {
       logger.debug(logMessage, rows.size(), successCount, failureCount);
     }
 
-    onFinish.accept(rows.values());
+    onFinish.accept(rows.rows());
+  }
+
+  /**
+   * @param rowSizes the estimated size of each row to be written
+   * @param start the index of the first row of the next batch
+   * @param maxBatchSize the maximum number of rows to include in the batch
+   * @return the (exclusive) index of the last row of the largest batch starting at {@code start} that does not exceed
+   *         {@code maxBatchSize} or BigQuery's request limits; always contains at least one row
+   */
+  static int nextBatchEnd(long[] rowSizes, int start, int maxBatchSize) {
+    int limit = (int) Math.min(rowSizes.length, (long) start + Math.min(maxBatchSize, MAX_REQUEST_ROWS));
+    int end = start + 1;
+    long batchBytes = rowSizes[start];
+    while (end < limit && batchBytes + rowSizes[end] <= MAX_REQUEST_BYTES) {
+      batchBytes += rowSizes[end];
+      end++;
+    }
+    return end;
   }
 
+
   private static int getNewBatchSize(int currentBatchSize, Throwable err) {
     if (currentBatchSize == 1) {
       logger.error("Attempted to reduce batch size below 1");
@@ -171,9 +242,9 @@ public class TableWriter implements Runnable {
     private final BigQueryWriter writer;
     private final PartitionedTableId table;
 
-    private SortedMap<SinkRecord, RowToInsert> rows;
-    private SinkRecordConverter recordConverter;
+    private final TableRows rows;
     private Consumer<Collection<RowToInsert>> onFinish;
+    private BigQuerySinkTaskMetrics metrics;
 
     /**
      * @param writer the BigQueryWriter to use
@@ -184,16 +255,14 @@ public class TableWriter implements Runnable {
       this.writer = writer;
       this.table = table;
 
-      this.rows = new TreeMap<>(Comparator.comparing(SinkRecord::kafkaPartition)
-              .thenComparing(SinkRecord::kafkaOffset));
-      this.recordConverter = recordConverter;
+      this.rows = new TableRows(recordConverter);
 
       this.onFinish = null;
     }
 
     @Override
     public void addRow(SinkRecord record, TableId table) {
-      rows.put(record, recordConverter.getRecordRow(record, table));
+      rows.add(record, table);
     }
 
     /**
@@ -209,9 +278,22 @@ public class TableWriter implements Runnable {
       this.onFinish = Objects.requireNonNull(onFinish, "Finish callback cannot be null");
     }
 
+    /**
+     * Specify the metrics to record the size of each write request with.
+     * @param metrics the metrics for the task; may not be null
+     */
+    public void metrics(BigQuerySinkTaskMetrics metrics) {
+      this.metrics = Objects.requireNonNull(metrics, "Metrics cannot be null");
+    }
+
+    @Override
+    public void convertRows() {
+      rows.rows();
+    }
+
     @Override
     public TableWriter build() {
-      return new TableWriter(writer, table, rows, onFinish != null ? onFinish : n -> { });
+      return new TableWriter(writer, table, rows::rows, onFinish != null ? onFinish : n -> { }, metrics);
     }
   }
 }
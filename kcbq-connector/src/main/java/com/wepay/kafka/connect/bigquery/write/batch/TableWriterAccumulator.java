@@ -0,0 +1,285 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
+import com.wepay.kafka.connect.bigquery.utils.RecordSizeEstimator;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Buffers records for each table across calls to {@link org.apache.kafka.connect.sink.SinkTask#put(java.util.Collection)}
+ * so that they can be written to BigQuery in fewer, larger batches. The records for a table are dispatched as a single
+ * table writer once they reach a maximum number of rows or estimated size, or once the oldest of them has been buffered
+ * for longer than a linger time.
+ *
+ * <p>Every buffered record is tracked in an {@link OffsetTracker} batch, which is marked as written once the table
+ * writer for it has run successfully, or later if its builder {@link TableWriterBuilder#onVisible(Runnable) defers}
+ * that until the rows are visible. If a {@link MemoryBudget} is given, the estimated size of every record is reserved
+ * against it from the time the record is buffered until its table writer has finished running. The same lifecycle is
+ * reported to a {@link TableBacklog} for each destination table. A table writer that stops with a
+ * {@link TableNotReadyException} is expected to be run again by the dispatcher, so its batch stays outstanding until
+ * that run finishes.
+ *
+ * <p>If a converter is given, the rows of each table writer are converted on it as soon as the table writer has been
+ * dispatched, so that a table writer waiting to run holds on to converted rows only, rather than the full records they
+ * were converted from. Otherwise, they are converted once the table writer runs.
+ *
+ * <p>Not thread safe; all methods are expected to be invoked from the task thread.
+ */
+public class TableWriterAccumulator {
+
+  private static final Logger logger = LoggerFactory.getLogger(TableWriterAccumulator.class);
+
+  private final BiFunction<PartitionedTableId, SinkRecord, TableWriterBuilder> builderFactory;
+  private final Consumer<Runnable> dispatcher;
+  private final Executor converter;
+  private final OffsetTracker offsetTracker;
+  private final MemoryBudget memoryBudget;
+  private final TableBacklog tableBacklog;
+  private final int maxRows;
+  private final long maxBytes;
+  private final long lingerMs;
+  private final Time time;
+  private final Map<PartitionedTableId, Batch> batches;
+
+  /**
+   * @param builderFactory creates a new table writer builder for a table, given the first record to be written to it
+   * @param dispatcher invoked with each table writer once it is ready to be run
+   * @param converter used to convert the rows of each table writer while it waits to run; may be null, in which case
+   *                  they are converted by the table writer itself
+   * @param offsetTracker used to track which records have been written
+   * @param memoryBudget used to track the size of records that have not been written yet; may be null
+   * @param tableBacklog used to track the outstanding work for each table
+   * @param maxRows the number of rows at which to dispatch a table's batch, or -1 for no limit
+   * @param maxBytes the estimated size at which to dispatch a table's batch, or -1 for no limit
+   * @param lingerMs how long to buffer rows for a table before dispatching them
+   * @param time used to determine how long rows have been buffered for
+   */
+  public TableWriterAccumulator(BiFunction<PartitionedTableId, SinkRecord, TableWriterBuilder> builderFactory,
+                                Consumer<Runnable> dispatcher,
+                                Executor converter,
+                                OffsetTracker offsetTracker,
+                                MemoryBudget memoryBudget,
+                                TableBacklog tableBacklog,
+                                int maxRows,
+                                long maxBytes,
+                                long lingerMs,
+                                Time time) {
+    this.builderFactory = builderFactory;
+    this.dispatcher = dispatcher;
+    this.converter = converter;
+    this.offsetTracker = offsetTracker;
+    this.memoryBudget = memoryBudget;
+    this.tableBacklog = tableBacklog;
+    this.maxRows = maxRows;
+    this.maxBytes = maxBytes;
+    this.lingerMs = lingerMs;
+    this.time = time;
+    this.batches = new LinkedHashMap<>();
+  }
+
+  /**
+   * Buffer a record, dispatching the batch for its table if it has become full as a result.
+   * @param table the table the record will be written to
+   * @param record the record to buffer
+   */
+  public void add(PartitionedTableId table, SinkRecord record) {
+    Batch batch = batches.get(table);
+    if (batch == null) {
+      batch = new Batch(
+          table, builderFactory.apply(table, record), offsetTracker.newBatch(), time.milliseconds());
+      batches.put(table, batch);
+    }
+    batch.builder.addRow(record, table.getBaseTableId());
+    batch.records.add(record);
+    batch.offsets.add(record);
+    batch.rows++;
+    long bytes = 0;
+    if (maxBytes != -1 || memoryBudget != null) {
+      bytes = RecordSizeEstimator.estimate(record);
+      batch.bytes += bytes;
+      if (memoryBudget != null) {
+        memoryBudget.reserve(bytes);
+      }
+    }
+    tableBacklog.buffered(table.getBaseTableId(), partition(record), bytes);
+
+    if ((maxRows != -1 && batch.rows >= maxRows) || (maxBytes != -1 && batch.bytes >= maxBytes)) {
+      logger.trace("Dispatching full batch of {} rows (~{} bytes) for {}", batch.rows, batch.bytes, table);
+      batches.remove(table);
+      dispatch(batch);
+    }
+  }
+
+  /**
+   * Dispatch the batches for all tables whose oldest buffered row has lingered for at least the linger time.
+   */
+  public void dispatchExpired() {
+    long now = time.milliseconds();
+    Iterator<Map.Entry<PartitionedTableId, Batch>> iterator = batches.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<PartitionedTableId, Batch> entry = iterator.next();
+      Batch batch = entry.getValue();
+      if (now - batch.createdMs >= lingerMs) {
+        logger.trace("Dispatching batch of {} rows for {} after lingering", batch.rows, entry.getKey());
+        iterator.remove();
+        dispatch(batch);
+      }
+    }
+  }
+
+  /**
+   * Dispatch the batches for all tables, regardless of how long their rows have been buffered for.
+   */
+  public void dispatchAll() {
+    batches.values().forEach(this::dispatch);
+    batches.clear();
+  }
+
+  /**
+   * Discard all buffered rows without dispatching them.
+   */
+  public void clear() {
+    batches.values().forEach(batch -> {
+      release(batch);
+      tableBacklog.discarded(batch.table.getBaseTableId(), batch.rows, batch.bytes);
+    });
+    batches.clear();
+  }
+
+  /**
+   * Discard buffered rows from the given topic partitions without dispatching them, for instance because the partitions
+   * have been revoked from the task. Rows from other partitions that were buffered alongside them are buffered again.
+   * @param partitions the partitions whose rows to discard
+   */
+  public void discard(Set<TopicPartition> partitions) {
+    List<Batch> affected = new ArrayList<>();
+    Iterator<Batch> iterator = batches.values().iterator();
+    while (iterator.hasNext()) {
+      Batch batch = iterator.next();
+      if (batch.records.stream().anyMatch(record -> partitions.contains(partition(record)))) {
+        iterator.remove();
+        affected.add(batch);
+      }
+    }
+    for (Batch batch : affected) {
+      release(batch);
+      tableBacklog.discarded(batch.table.getBaseTableId(), batch.rows, batch.bytes);
+      batch.offsets.discard();
+      for (SinkRecord record : batch.records) {
+        if (!partitions.contains(partition(record))) {
+          add(batch.table, record);
+        }
+      }
+    }
+  }
+
+  /**
+   * @return whether there are no buffered rows
+   */
+  public boolean isEmpty() {
+    return batches.isEmpty();
+  }
+
+  private void dispatch(Batch batch) {
+    // Some rows are only written once they become visible, which may be after the table writer has finished
+    boolean writtenLater = batch.builder.onVisible(batch.offsets::written);
+    Runnable tableWriter = batch.builder.build();
+    // Only needed while the rows are buffered
+    batch.records = null;
+    tableBacklog.dispatched(batch.table.getBaseTableId());
+    dispatcher.accept(() -> {
+      boolean parked = false;
+      try {
+        tableWriter.run();
+        if (!writtenLater) {
+          batch.offsets.written();
+        }
+      } catch (TableNotReadyException e) {
+        // The table writer will be run again later to write the rest of the batch, which is still outstanding
+        parked = true;
+        throw e;
+      } finally {
+        if (!parked) {
+          release(batch);
+          tableBacklog.finished(batch.table.getBaseTableId(), batch.rows, batch.bytes);
+        }
+      }
+    });
+    if (converter != null) {
+      try {
+        converter.execute(() -> convertRows(batch));
+      } catch (RejectedExecutionException e) {
+        logger.debug("Rows for {} will be converted once their table writer runs", batch.table, e);
+      }
+    }
+  }
+
+  private static void convertRows(Batch batch) {
+    try {
+      batch.builder.convertRows();
+    } catch (RuntimeException e) {
+      // Conversion is attempted again by the table writer, which reports the failure
+      logger.debug("Failed to convert rows for {} ahead of time", batch.table, e);
+    }
+  }
+
+  private void release(Batch batch) {
+    if (memoryBudget != null) {
+      memoryBudget.release(batch.bytes);
+    }
+  }
+
+  private static TopicPartition partition(SinkRecord record) {
+    return new TopicPartition(record.topic(), record.kafkaPartition());
+  }
+
+  private static class Batch {
+    private final PartitionedTableId table;
+    private final TableWriterBuilder builder;
+    private final OffsetTracker.Batch offsets;
+    private final long createdMs;
+    private List<SinkRecord> records = new ArrayList<>();
+    private int rows;
+    private long bytes;
+
+    Batch(PartitionedTableId table, TableWriterBuilder builder, OffsetTracker.Batch offsets, long createdMs) {
+      this.table = table;
+      this.builder = builder;
+      this.offsets = offsets;
+      this.createdMs = createdMs;
+    }
+  }
+}
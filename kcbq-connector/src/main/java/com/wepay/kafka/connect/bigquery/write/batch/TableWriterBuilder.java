@@ -34,6 +34,26 @@ public interface TableWriterBuilder {
    */
   void addRow(SinkRecord sinkRecord, TableId table);
 
+  /**
+   * Specify a callback to be invoked once the added rows are visible in BigQuery, for table writers whose rows only
+   * become visible some time after they have finished running.
+   * @param onVisible the callback to invoke
+   * @return whether the callback will be invoked; if not, the rows are visible as soon as the table writer has
+   *         finished running
+   */
+  default boolean onVisible(Runnable onVisible) {
+    return false;
+  }
+
+  /**
+   * Convert the added rows ahead of time, so that the table writer only holds on to converted rows while it waits to
+   * run, instead of the records they are converted from. Invoked at most once, after {@link #build()}, possibly on
+   * another thread and at the same time as the table writer runs; rows that have already been converted by then are
+   * not converted again.
+   */
+  default void convertRows() {
+  }
+
   /**
    * Create a {@link TableWriter} from this builder.
    * @return a TableWriter containing the given writer, table, topic, and all added rows.
@@ -30,17 +30,16 @@ import com.wepay.kafka.connect.bigquery.SchemaManager;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
 
 import com.wepay.kafka.connect.bigquery.exception.ExpectedInterruptException;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
 import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
 
 import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
 
 /**
  * A {@link BigQueryWriter} capable of updating BigQuery table schemas and creating non-existed tables automatically.
@@ -52,6 +51,7 @@ public class AdaptiveBigQueryWriter extends BigQueryWriter {
   private static final int RETRY_LIMIT = 30;
   // Wait for about 30s between each retry to avoid hammering BigQuery with requests
   private static final int RETRY_WAIT_TIME = 30000;
+  private static final String RETRY_REASON = "schema-change";
 
   private final BigQuery bigQuery;
   private final SchemaManager schemaManager;
@@ -79,29 +79,33 @@ public class AdaptiveBigQueryWriter extends BigQueryWriter {
    * Sends the request to BigQuery, then checks the response to see if any errors have occurred. If
    * any have, and all errors can be blamed upon invalid columns in the rows sent, attempts to
    * update the schema of the table in BigQuery and then performs the same write request.
-   * @see BigQueryWriter#performWriteRequest(PartitionedTableId, SortedMap)
+   * @see BigQueryWriter#performWriteRequest(PartitionedTableId, RowBatch)
    */
   @Override
   public Map<Long, List<BigQueryError>> performWriteRequest(
           PartitionedTableId tableId,
-          SortedMap<SinkRecord, InsertAllRequest.RowToInsert> rows) {
+          RowBatch rows) {
     InsertAllResponse writeResponse = null;
     InsertAllRequest request = null;
+    boolean tableChanged = false;
 
     try {
-      request = createInsertAllRequest(tableId, rows.values());
+      request = createInsertAllRequest(tableId, rows.rows());
       writeResponse = bigQuery.insertAll(request);
       // Should only perform one schema update attempt.
       if (writeResponse.hasErrors()
               && onlyContainsInvalidSchemaErrors(writeResponse.getInsertErrors())) {
-        attemptSchemaUpdate(tableId, new ArrayList<>(rows.keySet()));
+        attemptSchemaUpdate(tableId, rows.schemaRecords());
+        tableChanged = true;
       }
     } catch (BigQueryException exception) {
       // Should only perform one table creation attempt.
       if (BigQueryErrorResponses.isNonExistentTableError(exception) && autoCreateTables) {
-        attemptTableCreate(tableId.getBaseTableId(), new ArrayList<>(rows.keySet()));
+        attemptTableCreate(tableId.getBaseTableId(), rows.schemaRecords());
+        tableChanged = true;
       } else if (BigQueryErrorResponses.isTableMissingSchemaError(exception)) {
-        attemptSchemaUpdate(tableId, new ArrayList<>(rows.keySet()));
+        attemptSchemaUpdate(tableId, rows.schemaRecords());
+        tableChanged = true;
       } else {
         throw exception;
       }
@@ -109,6 +113,11 @@ public class AdaptiveBigQueryWriter extends BigQueryWriter {
 
     // Creating tables or updating table schemas in BigQuery takes up to 2~3 minutes to take affect,
     // so multiple insertion attempts may be necessary.
+    if (tableChanged && parkUntilTableReady()) {
+      // Writing the rows again right away would almost certainly fail the same way; free up this thread instead,
+      // and let the caller write them again once the change has had time to take effect
+      throw new TableNotReadyException(tableId.getBaseTableId(), RETRY_WAIT_TIME, RETRY_LIMIT);
+    }
     int attemptCount = 0;
     while (writeResponse == null || writeResponse.hasErrors()) {
       logger.trace("insertion failed");
@@ -138,7 +147,7 @@ public class AdaptiveBigQueryWriter extends BigQueryWriter {
                 + RETRY_LIMIT + " attempts for: " + tableId.getBaseTableId());
       }
       try {
-        Thread.sleep(RETRY_WAIT_TIME);
+        sleepBeforeRetry(tableId.getBaseTableId(), attemptCount + 1, RETRY_REASON, RETRY_WAIT_TIME);
       } catch (InterruptedException e) {
         throw new ExpectedInterruptException("Interrupted while waiting to retry write");
       }
@@ -22,11 +22,17 @@ package com.wepay.kafka.connect.bigquery.write.row;
 import com.google.cloud.bigquery.BigQueryError;
 import com.google.cloud.bigquery.BigQueryException;
 import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.TableId;
 
 import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import com.wepay.kafka.connect.bigquery.metrics.BigQuerySinkTaskMetrics;
+import com.wepay.kafka.connect.bigquery.metrics.FlightRecorderEvents;
+import com.wepay.kafka.connect.bigquery.metrics.FlightRecorderEvents.Span;
+import com.wepay.kafka.connect.bigquery.metrics.BigQuerySinkTaskMetrics.RetryReason;
+import com.wepay.kafka.connect.bigquery.metrics.BigQuerySinkTaskMetrics.TableMetrics;
 import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
 
-import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -35,8 +41,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A class for writing lists of rows to a BigQuery table.
@@ -50,6 +55,10 @@ public abstract class BigQueryWriter {
   private final int retries;
   private final long retryWaitMs;
   private final Random random;
+  private ConcurrencyLimiter concurrencyLimiter;
+  private WriteRateLimiter rateLimiter;
+  private BigQuerySinkTaskMetrics metrics;
+  private boolean parkUntilTableReady;
 
   /**
    * @param retries the number of times to retry a request if BQ returns an internal service error
@@ -64,6 +73,48 @@ public abstract class BigQueryWriter {
     this.random = new Random();
   }
 
+  /**
+   * @param concurrencyLimiter used to limit how many write requests are sent to BigQuery at once across all writes
+   *                           made by this writer; may be null, in which case requests are not limited
+   */
+  public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+    this.concurrencyLimiter = concurrencyLimiter;
+  }
+
+  /**
+   * @param rateLimiter used to limit the rate at which rows are written to BigQuery across all writes made by this
+   *                    writer; may be null, in which case the rate is not limited
+   */
+  public void setRateLimiter(WriteRateLimiter rateLimiter) {
+    this.rateLimiter = rateLimiter;
+  }
+
+  /**
+   * @param metrics used to record the latency of each write request and the reasons that requests are retried for;
+   *                may be null, in which case nothing is recorded
+   */
+  public void setMetrics(BigQuerySinkTaskMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  /**
+   * @param parkUntilTableReady whether to throw a {@link TableNotReadyException} once a table has been created or
+   *                            its schema updated, so that the caller can write the rows again later, instead of
+   *                            waiting on the current thread for the change to take effect; only honored by writers
+   *                            that create tables or update schemas
+   */
+  public void setParkUntilTableReady(boolean parkUntilTableReady) {
+    this.parkUntilTableReady = parkUntilTableReady;
+  }
+
+  /**
+   * @return whether to throw a {@link TableNotReadyException} instead of waiting for a table creation or schema update
+   *         to take effect
+   */
+  protected boolean parkUntilTableReady() {
+    return parkUntilTableReady;
+  }
+
   /**
    * Handle the actual transmission of the write request to BigQuery, including any exceptions or
    * errors that happen as a result.
@@ -73,7 +124,7 @@ public abstract class BigQueryWriter {
    */
   protected abstract Map<Long, List<BigQueryError>> performWriteRequest(
           PartitionedTableId tableId,
-          SortedMap<SinkRecord, InsertAllRequest.RowToInsert> rows)
+          RowBatch rows)
       throws BigQueryException, BigQueryConnectException;
 
   /**
@@ -96,20 +147,22 @@ public abstract class BigQueryWriter {
    * @throws InterruptedException if interrupted.
    */
   public void writeRows(PartitionedTableId table,
-                        SortedMap<SinkRecord, InsertAllRequest.RowToInsert> rows)
+                        RowBatch rows)
       throws BigQueryConnectException, BigQueryException, InterruptedException {
     logger.debug("writing {} row{} to table {}", rows.size(), rows.size() != 1 ? "s" : "", table);
 
     Exception mostRecentException = null;
     Map<Long, List<BigQueryError>> failedRowsMap = null;
+    TableMetrics tableMetrics = metrics != null ? metrics.table(table.getBaseTableId()) : null;
+    RetryReason retryReason = null;
 
     int retryCount = 0;
     do {
       if (retryCount > 0) {
-        waitRandomTime();
+        waitRandomTime(table, retryCount + 1, retryReason);
       }
       try {
-        failedRowsMap = performWriteRequest(table, rows);
+        failedRowsMap = performLimitedWriteRequest(table, rows, retryCount + 1, tableMetrics);
         if (failedRowsMap.isEmpty()) {
           // table insertion completed with no reported errors
           return;
@@ -119,6 +172,7 @@ public abstract class BigQueryWriter {
           // update insert rows and retry in case of partial failure
           rows = getFailedRows(rows, failedRowsMap.keySet(), table);
           mostRecentException = new BigQueryConnectException(table.toString(), failedRowsMap);
+          retryReason = recordRetry(tableMetrics, RetryReason.PARTIAL_FAILURE);
           retryCount++;
         } else {
           // throw an exception in case of complete failure
@@ -128,15 +182,19 @@ public abstract class BigQueryWriter {
         mostRecentException = err;
         if (BigQueryErrorResponses.isBackendError(err)) {
           logger.warn("BQ backend error: {}, attempting retry", err.getCode());
+          retryReason = recordRetry(tableMetrics, RetryReason.BACKEND_ERROR);
           retryCount++;
         } else if (BigQueryErrorResponses.isQuotaExceededError(err)) {
           logger.warn("Quota exceeded for table {}, attempting retry", table);
+          retryReason = recordRetry(tableMetrics, RetryReason.QUOTA_EXCEEDED);
           retryCount++;
         } else if (BigQueryErrorResponses.isRateLimitExceededError(err)) {
           logger.warn("Rate limit exceeded for table {}, attempting retry", table);
+          retryReason = recordRetry(tableMetrics, RetryReason.RATE_LIMIT_EXCEEDED);
           retryCount++;
         } else if (BigQueryErrorResponses.isIOError(err)){
           logger.warn("IO Exception: {}, attempting retry", err.getCause().getMessage());
+          retryReason = recordRetry(tableMetrics, RetryReason.IO_ERROR);
           retryCount++;
         } else {
           throw err;
@@ -148,13 +206,82 @@ public abstract class BigQueryWriter {
         mostRecentException);
   }
 
+  private static RetryReason recordRetry(TableMetrics tableMetrics, RetryReason reason) {
+    if (tableMetrics != null) {
+      tableMetrics.recordRetry(reason);
+    }
+    return reason;
+  }
+
+  private Map<Long, List<BigQueryError>> performLimitedWriteRequest(
+      PartitionedTableId table,
+      RowBatch rows,
+      int attempt,
+      TableMetrics tableMetrics) throws InterruptedException {
+    if (rateLimiter != null) {
+      // Wait for the rate limiter before the concurrency limiter, so that no request slot is held while waiting
+      rateLimiter.acquire(table.getBaseTableId(), rows.size(), rows.estimatedSize());
+    }
+
+    if (concurrencyLimiter == null) {
+      return performTimedWriteRequest(table, rows, attempt, tableMetrics);
+    }
+
+    long acquiredNs = concurrencyLimiter.acquire();
+    boolean completed = false;
+    try {
+      Map<Long, List<BigQueryError>> result = performTimedWriteRequest(table, rows, attempt, tableMetrics);
+      concurrencyLimiter.onSuccess(acquiredNs);
+      completed = true;
+      return result;
+    } catch (BigQueryException err) {
+      if (BigQueryErrorResponses.isBackendError(err)
+          || BigQueryErrorResponses.isQuotaExceededError(err)
+          || BigQueryErrorResponses.isRateLimitExceededError(err)) {
+        concurrencyLimiter.onOverload(acquiredNs);
+        completed = true;
+      }
+      throw err;
+    } finally {
+      if (!completed) {
+        concurrencyLimiter.onIgnore();
+      }
+    }
+  }
+
+  private Map<Long, List<BigQueryError>> performTimedWriteRequest(
+      PartitionedTableId table,
+      RowBatch rows,
+      int attempt,
+      TableMetrics tableMetrics) {
+    Span span = FlightRecorderEvents.get().writeRequest(table.getBaseTableId(), rows, attempt);
+    String outcome = FlightRecorderEvents.ERROR;
+    long startNs = System.nanoTime();
+    try {
+      Map<Long, List<BigQueryError>> result = performWriteRequest(table, rows);
+      outcome = result.isEmpty() ? FlightRecorderEvents.SUCCESS : FlightRecorderEvents.PARTIAL_FAILURE;
+      return result;
+    } finally {
+      if (tableMetrics != null) {
+        tableMetrics.recordRequestLatency(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs));
+      }
+      span.end(outcome);
+    }
+  }
+
+  /**
+   * Release any resources held by this writer. Rows should not be written with it afterward.
+   */
+  public void close() {
+  }
+
   /**
    * Decide whether the failure is a partial failure or complete failure
    * @param rows The rows to write.
    * @param failedRowsMap A map from failed row index to the BigQueryError.
    * @return isPartialFailure.
    */
-  private boolean isPartialFailure(SortedMap<SinkRecord, InsertAllRequest.RowToInsert> rows,
+  private boolean isPartialFailure(RowBatch rows,
                                    Map<Long, List<BigQueryError>> failedRowsMap) {
     return failedRowsMap.size() < rows.size();
   }
@@ -165,18 +292,9 @@ public abstract class BigQueryWriter {
    * @param failRowsSet A set of failed row index.
    * @return A list of failed rows.
    */
-  private SortedMap<SinkRecord, InsertAllRequest.RowToInsert> getFailedRows(SortedMap<SinkRecord, InsertAllRequest.RowToInsert> rows,
-                                                           Set<Long> failRowsSet,
-                                                           PartitionedTableId table) {
-    SortedMap<SinkRecord, InsertAllRequest.RowToInsert> failRows = new TreeMap<>(rows.comparator());
-    int index = 0;
-    for (Map.Entry<SinkRecord, InsertAllRequest.RowToInsert> row: rows.entrySet()) {
-      if (failRowsSet.contains((long)index)) {
-        failRows.put(row.getKey(), row.getValue());
-      }
-      index++;
-    }
-    logger.debug("{} rows failed to be written to table {}.", rows.size(), table.getFullTableName());
+  private RowBatch getFailedRows(RowBatch rows, Set<Long> failRowsSet, PartitionedTableId table) {
+    RowBatch failRows = rows.select(failRowsSet);
+    logger.debug("{} rows failed to be written to table {}.", failRows.size(), table.getFullTableName());
     return failRows;
   }
 
@@ -184,8 +302,29 @@ public abstract class BigQueryWriter {
    * Wait at least {@link #retryWaitMs}, with up to an additional 1 second of random jitter.
    * @throws InterruptedException if interrupted.
    */
-  private void waitRandomTime() throws InterruptedException {
-    // wait
-    Thread.sleep(retryWaitMs + random.nextInt(WAIT_MAX_JITTER));
+  private void waitRandomTime(PartitionedTableId table, int attempt, RetryReason reason)
+      throws InterruptedException {
+    sleepBeforeRetry(
+        table.getBaseTableId(), attempt, String.valueOf(reason), retryWaitMs + random.nextInt(WAIT_MAX_JITTER));
+  }
+
+  /**
+   * Sleep before retrying a write request, recording the wait as a Flight Recorder event.
+   * @param table the table the request is for
+   * @param attempt the number of the attempt that will be made after waiting
+   * @param reason why the request is being retried
+   * @param waitMs how long to wait for
+   * @throws InterruptedException if interrupted.
+   */
+  protected static void sleepBeforeRetry(TableId table, int attempt, String reason, long waitMs)
+      throws InterruptedException {
+    Span span = FlightRecorderEvents.get().retryWait(table, attempt, reason);
+    String outcome = FlightRecorderEvents.ERROR;
+    try {
+      Thread.sleep(waitMs);
+      outcome = FlightRecorderEvents.SUCCESS;
+    } finally {
+      span.end(outcome);
+    }
   }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import org.apache.kafka.common.utils.Time;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many write requests can be sent to BigQuery at once, optionally adjusting the limit based on how BigQuery
+ * responds.
+ *
+ * <p>An adaptive limit is adjusted using additive increase, multiplicative decrease: every successful request that
+ * completes while the limit is in use raises the limit by {@code 1 / limit} (so by one for each limit's worth of
+ * requests), as long as request latency has not risen well above the lowest latency seen recently. Whenever BigQuery
+ * responds that a quota or rate limit has been exceeded, or that its backend is struggling, the limit is halved;
+ * failures of requests that were already in flight the last time it was halved are ignored, so that a single burst only
+ * counts once.
+ *
+ * <p>Waiting is done with a {@link ReentrantLock} rather than a monitor so that virtual threads blocked on the limiter
+ * do not pin their carrier threads.
+ */
+public class ConcurrencyLimiter {
+
+  // How far smoothed latency can rise above the baseline before the limit stops being raised
+  private static final double LATENCY_TOLERANCE = 2.0;
+  // Weight given to each new sample when smoothing latency
+  private static final double LATENCY_SMOOTHING = 0.2;
+  // How quickly the baseline latency is allowed to creep back up, per request, so that it can recover from outliers
+  private static final double BASELINE_DRIFT = 1.01;
+  private static final double BACKOFF_RATIO = 0.5;
+
+  private final int maxLimit;
+  private final boolean adaptive;
+  private final Time time;
+  private final ReentrantLock lock;
+  private final Condition released;
+
+  private double limit;
+  private int inFlight;
+  private double smoothedLatencyNs;
+  private double baselineLatencyNs;
+  private long lastBackoffNs;
+
+  /**
+   * Create an adaptive limiter.
+   * @param maxLimit the highest the limit can be raised to
+   * @param time used to measure request latency
+   */
+  public ConcurrencyLimiter(int maxLimit, Time time) {
+    // Start in the middle, so that there is room to move in either direction before any requests have been sent
+    this(maxLimit, Math.max(1, (maxLimit + 1) / 2), true, time);
+  }
+
+  private ConcurrencyLimiter(int maxLimit, int initialLimit, boolean adaptive, Time time) {
+    this.maxLimit = maxLimit;
+    this.adaptive = adaptive;
+    this.time = time;
+    this.lock = new ReentrantLock();
+    this.released = lock.newCondition();
+    this.limit = initialLimit;
+    this.inFlight = 0;
+    this.lastBackoffNs = Long.MIN_VALUE;
+  }
+
+  /**
+   * Create a limiter whose limit never changes, regardless of how BigQuery responds.
+   * @param limit the number of requests that can be in flight at once
+   * @return the limiter
+   */
+  public static ConcurrencyLimiter fixed(int limit) {
+    return new ConcurrencyLimiter(limit, limit, false, Time.SYSTEM);
+  }
+
+  /**
+   * Block until a request can be sent without exceeding the limit. Every successful call must be followed by exactly
+   * one call to {@link #onSuccess(long)}, {@link #onOverload(long)}, or {@link #onIgnore()}.
+   * @return the time at which the request was allowed through, to be passed back once it has completed
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public long acquire() throws InterruptedException {
+    lock.lock();
+    try {
+      while (inFlight >= (int) limit) {
+        released.await();
+      }
+      inFlight++;
+      return time.nanoseconds();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Record that a request completed successfully.
+   * @param acquiredNs the value returned from {@link #acquire()} for the request
+   */
+  public void onSuccess(long acquiredNs) {
+    lock.lock();
+    try {
+      if (adaptive) {
+        double latencyNs = time.nanoseconds() - acquiredNs;
+        if (smoothedLatencyNs == 0) {
+          smoothedLatencyNs = latencyNs;
+          baselineLatencyNs = latencyNs;
+        } else {
+          smoothedLatencyNs += LATENCY_SMOOTHING * (latencyNs - smoothedLatencyNs);
+          baselineLatencyNs = Math.min(latencyNs, baselineLatencyNs * BASELINE_DRIFT);
+        }
+
+        // Only grow the limit if it's actually being used; otherwise it would grow without bound while idle
+        boolean limitInUse = inFlight >= limit / 2;
+        if (limitInUse && smoothedLatencyNs <= baselineLatencyNs * LATENCY_TOLERANCE) {
+          limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+      }
+      release();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Record that a request failed because BigQuery is overloaded or the request exceeded a quota or rate limit.
+   * @param acquiredNs the value returned from {@link #acquire()} for the request
+   */
+  public void onOverload(long acquiredNs) {
+    lock.lock();
+    try {
+      long now = time.nanoseconds();
+      // Requests sent before the last back off were sent at the old limit, and say nothing about the new one
+      if (adaptive && acquiredNs >= lastBackoffNs) {
+        limit = Math.max(1, limit * BACKOFF_RATIO);
+        lastBackoffNs = now;
+      }
+      release();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Record that a request completed in a way that says nothing about whether BigQuery can take more requests.
+   */
+  public void onIgnore() {
+    lock.lock();
+    try {
+      release();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the current limit on the number of requests that can be in flight at once
+   */
+  public int limit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the number of requests currently in flight
+   */
+  public int inFlight() {
+    lock.lock();
+    try {
+      return inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void release() {
+    inFlight--;
+    released.signalAll();
+  }
+}
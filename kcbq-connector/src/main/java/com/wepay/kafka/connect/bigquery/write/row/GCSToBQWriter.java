@@ -29,6 +29,7 @@ import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageException;
 import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
 
 import com.wepay.kafka.connect.bigquery.SchemaManager;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
@@ -40,14 +41,16 @@ import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.SortedMap;
 
 /**
  * A class for batch writing list of rows to BigQuery through GCS.
@@ -105,7 +108,7 @@ public class GCSToBQWriter {
    * @param blobName the name of the GCS blob to write.
    * @throws InterruptedException if interrupted.
    */
-  public void writeRows(SortedMap<SinkRecord, RowToInsert> rows,
+  public void writeRows(RowBatch rows,
                         TableId tableId,
                         String bucketName,
                         String blobName) throws InterruptedException {
@@ -119,10 +122,13 @@ public class GCSToBQWriter {
 
     // Check if the table specified exists
     // This error shouldn't be thrown. All tables should be created by the connector at startup
-    if (autoCreateTables && bigQuery.getTable(tableId) == null) {
-      attemptTableCreate(tableId, new ArrayList<>(rows.keySet()));
+    if (autoCreateTables && !schemaManager.tableExists(tableId)) {
+      attemptTableCreate(tableId, rows.schemaRecords());
     }
 
+    // Serialize the rows once up front, instead of again on every attempt
+    byte[] content = toJson(rows.rows());
+
     int attemptCount = 0;
     boolean success = false;
     while (!success && (attemptCount <= retries)) {
@@ -131,7 +137,7 @@ public class GCSToBQWriter {
       }
       // Perform GCS Upload
       try {
-        uploadRowsToGcs(rows, blobInfo);
+        uploadBlobToGcs(content, blobInfo);
         success = true;
       } catch (StorageException se) {
         logger.warn("Exceptions occurred for table {}, attempting retry", tableId.getTable());
@@ -159,37 +165,29 @@ public class GCSToBQWriter {
     return metadata;
   }
 
-  /**
-   * Creates a JSON string containing all records and uploads it as a blob to GCS.
-   * @return The blob uploaded to GCS
-   */
-  private Blob uploadRowsToGcs(SortedMap<SinkRecord, RowToInsert> rows, BlobInfo blobInfo) {
-    try {
-      Blob resultBlob = uploadBlobToGcs(toJson(rows.values()).getBytes("UTF-8"), blobInfo);
-      return resultBlob;
-    } catch (UnsupportedEncodingException uee) {
-      throw new GCSConnectException("Failed to upload blob to GCS", uee);
-    }
-  }
-
   private Blob uploadBlobToGcs(byte[] blobContent, BlobInfo blobInfo) {
     return storage.create(blobInfo, blobContent); // todo options: like a retention policy maybe?
   }
 
   /**
-   * Converts a list of rows to a serialized JSON string of records.
+   * Converts a list of rows to newline delimited JSON. Each row is streamed straight into a UTF-8
+   * encoded buffer, rather than building up the JSON for every row in one large string that then
+   * has to be encoded all over again.
    * @param rows rows to be serialized
-   * @return The resulting newline delimited JSON string containing all records in the original
-   *         list
+   * @return The resulting newline delimited JSON, encoded as UTF-8, containing all records in the
+   *         original list
    */
-  private String toJson(Collection<RowToInsert> rows) {
-    StringBuilder jsonRecordsBuilder = new StringBuilder("");
-    for (RowToInsert row : rows) {
-      Map<String, Object> record = row.getContent();
-      jsonRecordsBuilder.append(gson.toJson(record));
-      jsonRecordsBuilder.append("\n");
+  static byte[] toJson(Collection<RowToInsert> rows) {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    try (Writer writer = new OutputStreamWriter(content, StandardCharsets.UTF_8)) {
+      for (RowToInsert row : rows) {
+        gson.toJson(row.getContent(), writer);
+        writer.write('\n');
+      }
+    } catch (IOException | JsonIOException e) {
+      throw new GCSConnectException("Failed to serialize rows as JSON", e);
     }
-    return jsonRecordsBuilder.toString();
+    return content.toByteArray();
   }
 
   /**
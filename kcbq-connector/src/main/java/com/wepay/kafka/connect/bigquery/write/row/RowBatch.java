@@ -0,0 +1,463 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.wepay.kafka.connect.bigquery.utils.RecordSizeEstimator;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.sink.SinkRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable batch of rows to be written to BigQuery, ordered by Kafka partition and then by offset.
+ *
+ * <p>Rows are stored in flat arrays, so that the batch can be split into {@link #slice(int, int) slices} without
+ * copying, and the rows that failed to be written can be {@link #select(Collection) selected} by index. Batches are
+ * assembled with a {@link Builder}, which only has to sort the rows for a partition if they were not added in offset
+ * order.
+ *
+ * <p>The records that rows were converted from are not retained, since their values can be as large as the rows
+ * themselves. Only the partition, offset and timestamp of each row are kept, along with one representative record for each
+ * distinct combination of key and value schema, which is all that is needed to create or update the schema of a table.
+ * Table writers build their batch as soon as they are dispatched, so the full records are not held on to while they
+ * wait to run.
+ *
+ * <p>The estimated size of each row is computed at most once, when it is first asked for, and is shared with the slices
+ * and selections of the batch, so that splitting a batch into requests, rate limiting those requests and recording them
+ * all rely on the same estimates. Batches are not meant to be used by more than one thread at a time.
+ */
+public class RowBatch {
+
+  private static final RowBatch EMPTY = new RowBatch(
+      new RowToInsert[0], new int[0], new long[0], new long[0], new int[0], new long[0], new SinkRecord[0], 0, 0);
+
+  private final RowToInsert[] rows;
+  private final int[] partitions;
+  private final long[] offsets;
+  private final long[] timestamps;
+  private final int[] schemaIds;
+  // Estimated size of each row, or 0 if it has not been estimated yet
+  private final long[] sizes;
+  private final SinkRecord[] schemaRecords;
+  private final int from;
+  private final int to;
+  private long estimatedSize = -1;
+
+  private RowBatch(RowToInsert[] rows,
+                   int[] partitions,
+                   long[] offsets,
+                   long[] timestamps,
+                   int[] schemaIds,
+                   long[] sizes,
+                   SinkRecord[] schemaRecords,
+                   int from,
+                   int to) {
+    this.rows = rows;
+    this.partitions = partitions;
+    this.offsets = offsets;
+    this.timestamps = timestamps;
+    this.schemaIds = schemaIds;
+    this.sizes = sizes;
+    this.schemaRecords = schemaRecords;
+    this.from = from;
+    this.to = to;
+  }
+
+  /**
+   * @return a new builder for a batch
+   */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * @return the number of rows in the batch
+   */
+  public int size() {
+    return to - from;
+  }
+
+  /**
+   * @return whether the batch has no rows
+   */
+  public boolean isEmpty() {
+    return from == to;
+  }
+
+  /**
+   * @param index the index of a row in the batch
+   * @return the row
+   */
+  public RowToInsert row(int index) {
+    return rows[checkIndex(index)];
+  }
+
+  /**
+   * @param index the index of a row in the batch
+   * @return the Kafka partition of the record that the row was converted from
+   */
+  public int partition(int index) {
+    return partitions[checkIndex(index)];
+  }
+
+  /**
+   * @param index the index of a row in the batch
+   * @return the Kafka offset of the record that the row was converted from
+   */
+  public long offset(int index) {
+    return offsets[checkIndex(index)];
+  }
+
+  /**
+   * @param index the index of a row in the batch
+   * @return the Kafka timestamp of the record that the row was converted from, or {@link RecordBatch#NO_TIMESTAMP} if
+   *         it did not have one
+   */
+  public long timestamp(int index) {
+    return timestamps[checkIndex(index)];
+  }
+
+  /**
+   * @param index the index of a row in the batch
+   * @return the estimated size of the row in bytes, as computed by {@link RecordSizeEstimator}
+   */
+  public long estimatedSize(int index) {
+    int i = checkIndex(index);
+    if (sizes[i] == 0) {
+      sizes[i] = RecordSizeEstimator.estimate(rows[i]);
+    }
+    return sizes[i];
+  }
+
+  /**
+   * @return the estimated size of all rows in the batch in bytes
+   */
+  public long estimatedSize() {
+    if (estimatedSize < 0) {
+      long total = 0;
+      for (int i = 0; i < size(); i++) {
+        total += estimatedSize(i);
+      }
+      estimatedSize = total;
+    }
+    return estimatedSize;
+  }
+
+  /**
+   * @return the earliest Kafka timestamp of the records in the batch, or {@link RecordBatch#NO_TIMESTAMP} if none of
+   *         them had one
+   */
+  public long oldestTimestamp() {
+    long oldest = Long.MAX_VALUE;
+    for (int i = from; i < to; i++) {
+      if (timestamps[i] != RecordBatch.NO_TIMESTAMP && timestamps[i] < oldest) {
+        oldest = timestamps[i];
+      }
+    }
+    return oldest != Long.MAX_VALUE ? oldest : RecordBatch.NO_TIMESTAMP;
+  }
+
+  /**
+   * @return a view of the rows in the batch, in order
+   */
+  public List<RowToInsert> rows() {
+    return Collections.unmodifiableList(Arrays.asList(rows).subList(from, to));
+  }
+
+  /**
+   * @return one record for each distinct key and value schema among the rows in the batch, ordered by the last row
+   *         with that schema; suitable for determining the schema of the table the batch is written to
+   */
+  public List<SinkRecord> schemaRecords() {
+    if (schemaRecords.length == 1) {
+      return isEmpty() ? Collections.emptyList() : Collections.singletonList(schemaRecords[0]);
+    }
+    boolean[] seen = new boolean[schemaRecords.length];
+    List<SinkRecord> result = new ArrayList<>();
+    for (int i = to - 1; i >= from; i--) {
+      int schemaId = schemaIds[i];
+      if (!seen[schemaId]) {
+        seen[schemaId] = true;
+        result.add(schemaRecords[schemaId]);
+      }
+    }
+    Collections.reverse(result);
+    return result;
+  }
+
+  /**
+   * @param fromIndex the index of the first row to include, inclusive
+   * @param toIndex the index of the last row to include, exclusive
+   * @return a batch backed by this one that contains only the rows in the given range
+   */
+  public RowBatch slice(int fromIndex, int toIndex) {
+    if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+      throw new IndexOutOfBoundsException(
+          String.format("Invalid slice [%d, %d) of batch with %d rows", fromIndex, toIndex, size()));
+    }
+    return new RowBatch(
+        rows, partitions, offsets, timestamps, schemaIds, sizes, schemaRecords, from + fromIndex, from + toIndex);
+  }
+
+  /**
+   * @param indices the indices of the rows to include; indices outside of the batch are ignored
+   * @return a new batch containing only the rows at the given indices, in their original order
+   */
+  public RowBatch select(Collection<Long> indices) {
+    int count = 0;
+    boolean[] selected = new boolean[size()];
+    for (Long index : indices) {
+      if (index >= 0 && index < selected.length && !selected[index.intValue()]) {
+        selected[index.intValue()] = true;
+        count++;
+      }
+    }
+
+    RowToInsert[] selectedRows = new RowToInsert[count];
+    int[] selectedPartitions = new int[count];
+    long[] selectedOffsets = new long[count];
+    long[] selectedTimestamps = new long[count];
+    int[] selectedSchemaIds = new int[count];
+    long[] selectedSizes = new long[count];
+    int next = 0;
+    for (int i = 0; i < selected.length; i++) {
+      if (selected[i]) {
+        selectedRows[next] = rows[from + i];
+        selectedPartitions[next] = partitions[from + i];
+        selectedOffsets[next] = offsets[from + i];
+        selectedTimestamps[next] = timestamps[from + i];
+        selectedSchemaIds[next] = schemaIds[from + i];
+        selectedSizes[next] = sizes[from + i];
+        next++;
+      }
+    }
+    return new RowBatch(
+        selectedRows,
+        selectedPartitions,
+        selectedOffsets,
+        selectedTimestamps,
+        selectedSchemaIds,
+        selectedSizes,
+        schemaRecords,
+        0,
+        count);
+  }
+
+  private int checkIndex(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for batch of size %d", index, size()));
+    }
+    return from + index;
+  }
+
+  /**
+   * Assembles a {@link RowBatch}. Rows for each Kafka partition are appended to their own arrays; since records arrive
+   * in offset order within each partition, they are normally already in order once the batch is built. If a record is
+   * added more than once (for example, because it was redelivered after a rebalance), only the last row for it is kept.
+   *
+   * <p>Records are only retained as representatives of their schemas. Schemas are compared by identity, which is cheap
+   * and suffices because converters cache the schemas they produce; at worst, equal schemas that are distinct
+   * instances each get their own representative.
+   */
+  public static class Builder {
+
+    private final Map<Integer, PartitionRows> partitions = new TreeMap<>();
+    private final Map<SchemaKey, Integer> schemaIds = new HashMap<>();
+    private final List<SinkRecord> schemaRecords = new ArrayList<>();
+    private SchemaKey lastSchema;
+    private int lastSchemaId;
+    private int size = 0;
+
+    private Builder() {
+    }
+
+    /**
+     * @param record the record that the row was converted from
+     * @param row the row to add
+     * @return this builder
+     */
+    public Builder add(SinkRecord record, RowToInsert row) {
+      int partition = record.kafkaPartition();
+      partitions.computeIfAbsent(partition, p -> new PartitionRows(partition))
+          .add(row, record.kafkaOffset(), timestamp(record), schemaId(record));
+      size++;
+      return this;
+    }
+
+    private static long timestamp(SinkRecord record) {
+      Long timestamp = record.timestamp();
+      return timestamp != null ? timestamp : RecordBatch.NO_TIMESTAMP;
+    }
+
+    private int schemaId(SinkRecord record) {
+      if (lastSchema == null || !lastSchema.matches(record)) {
+        lastSchema = new SchemaKey(record.keySchema(), record.valueSchema());
+        lastSchemaId = schemaIds.computeIfAbsent(lastSchema, key -> {
+          schemaRecords.add(record);
+          return schemaRecords.size() - 1;
+        });
+      }
+      // Keep the latest record for each schema, so that older records can be garbage collected
+      schemaRecords.set(lastSchemaId, record);
+      return lastSchemaId;
+    }
+
+    /**
+     * @return the number of rows added so far, including any that will be dropped as duplicates
+     */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * @return a batch containing all rows added so far
+     */
+    public RowBatch build() {
+      if (size == 0) {
+        return EMPTY;
+      }
+      RowToInsert[] rows = new RowToInsert[size];
+      int[] partitions = new int[size];
+      long[] offsets = new long[size];
+      long[] timestamps = new long[size];
+      int[] schemaIds = new int[size];
+      int next = 0;
+      for (PartitionRows partition : this.partitions.values()) {
+        next = partition.copyTo(rows, partitions, offsets, timestamps, schemaIds, next);
+      }
+      return new RowBatch(rows,
+          partitions,
+          offsets,
+          timestamps,
+          schemaIds,
+          new long[next],
+          schemaRecords.toArray(new SinkRecord[0]),
+          0,
+          next);
+    }
+  }
+
+  private static class SchemaKey {
+    private final Schema keySchema;
+    private final Schema valueSchema;
+
+    SchemaKey(Schema keySchema, Schema valueSchema) {
+      this.keySchema = keySchema;
+      this.valueSchema = valueSchema;
+    }
+
+    boolean matches(SinkRecord record) {
+      return keySchema == record.keySchema() && valueSchema == record.valueSchema();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof SchemaKey)) {
+        return false;
+      }
+      SchemaKey that = (SchemaKey) o;
+      return keySchema == that.keySchema && valueSchema == that.valueSchema;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(keySchema) + System.identityHashCode(valueSchema);
+    }
+  }
+
+  private static class PartitionRows {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int partition;
+    private RowToInsert[] rows = new RowToInsert[INITIAL_CAPACITY];
+    private long[] offsets = new long[INITIAL_CAPACITY];
+    private long[] timestamps = new long[INITIAL_CAPACITY];
+    private int[] schemaIds = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    private boolean sorted = true;
+
+    PartitionRows(int partition) {
+      this.partition = partition;
+    }
+
+    void add(RowToInsert row, long offset, long timestamp, int schemaId) {
+      if (size == rows.length) {
+        int capacity = rows.length * 2;
+        rows = Arrays.copyOf(rows, capacity);
+        offsets = Arrays.copyOf(offsets, capacity);
+        timestamps = Arrays.copyOf(timestamps, capacity);
+        schemaIds = Arrays.copyOf(schemaIds, capacity);
+      }
+      if (size > 0 && offset <= offsets[size - 1]) {
+        sorted = false;
+      }
+      rows[size] = row;
+      offsets[size] = offset;
+      timestamps[size] = timestamp;
+      schemaIds[size] = schemaId;
+      size++;
+    }
+
+    int copyTo(RowToInsert[] rowsDest,
+               int[] partitionsDest,
+               long[] offsetsDest,
+               long[] timestampsDest,
+               int[] schemaIdsDest,
+               int destPos) {
+      if (sorted) {
+        System.arraycopy(rows, 0, rowsDest, destPos, size);
+        Arrays.fill(partitionsDest, destPos, destPos + size, partition);
+        System.arraycopy(offsets, 0, offsetsDest, destPos, size);
+        System.arraycopy(timestamps, 0, timestampsDest, destPos, size);
+        System.arraycopy(schemaIds, 0, schemaIdsDest, destPos, size);
+        return destPos + size;
+      }
+
+      // Stable sort by offset, so that the last of any duplicates is the one added last
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> Long.compare(offsets[a], offsets[b]));
+      int next = destPos;
+      for (int i = 0; i < size; i++) {
+        int index = order[i];
+        if (i + 1 < size && offsets[order[i + 1]] == offsets[index]) {
+          continue;
+        }
+        rowsDest[next] = rows[index];
+        partitionsDest[next] = partition;
+        offsetsDest[next] = offsets[index];
+        timestampsDest[next] = timestamps[index];
+        schemaIdsDest[next] = schemaIds[index];
+        next++;
+      }
+      return next;
+    }
+  }
+}
@@ -27,14 +27,12 @@ import com.google.cloud.bigquery.InsertAllResponse;
 import com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig;
 import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
 
-import org.apache.kafka.connect.sink.SinkRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
 
 /**
  * A simple BigQueryWriter implementation. Sends the request to BigQuery, and throws an exception if
@@ -58,12 +56,12 @@ public class SimpleBigQueryWriter extends BigQueryWriter {
   /**
    * Sends the request to BigQuery, and return a map of insertErrors in case of partial failure.
    * Throws an exception if any other errors occur as a result of doing so.
-   * @see BigQueryWriter#performWriteRequest(PartitionedTableId, SortedMap)
+   * @see BigQueryWriter#performWriteRequest(PartitionedTableId, RowBatch)
    */
   @Override
   public Map<Long, List<BigQueryError>> performWriteRequest(PartitionedTableId tableId,
-                                                            SortedMap<SinkRecord, InsertAllRequest.RowToInsert> rows) {
-    InsertAllRequest request = createInsertAllRequest(tableId, rows.values());
+                                                            RowBatch rows) {
+    InsertAllRequest request = createInsertAllRequest(tableId, rows.rows());
     InsertAllResponse writeResponse = bigQuery.insertAll(request);
     if (writeResponse.hasErrors()) {
       logger.warn(
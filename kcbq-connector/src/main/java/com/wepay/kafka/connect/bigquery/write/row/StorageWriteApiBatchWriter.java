@@ -0,0 +1,430 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.cloud.bigquery.storage.v1.BatchCommitWriteStreamsRequest;
+import com.google.cloud.bigquery.storage.v1.BatchCommitWriteStreamsResponse;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.cloud.bigquery.storage.v1.ProtoRows;
+import com.google.cloud.bigquery.storage.v1.StreamWriter;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import com.google.cloud.bigquery.storage.v1.WriteStream;
+import com.wepay.kafka.connect.bigquery.SchemaManager;
+import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import com.wepay.kafka.connect.bigquery.write.storage.ProtoRowEncoder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * A class for batch writing rows to BigQuery through pending streams of the Storage Write API. Rows written to a
+ * table are buffered by BigQuery in one or more pending streams, and only become visible once {@link #commit()} is
+ * invoked, at which point all of the rows written to each table since the last commit are committed atomically.
+ * Tables that are being written to when {@link #commit()} is invoked are left to be committed the next time around,
+ * so that committing never has to wait for writes in progress.
+ */
+public class StorageWriteApiBatchWriter {
+  private static final Logger logger = LoggerFactory.getLogger(StorageWriteApiBatchWriter.class);
+
+  private static final int WAIT_MAX_JITTER = 1000;
+
+  private static final Random random = new Random();
+
+  // The maximum number of attempts to write rows after updating a BQ table schema.
+  private static final int RETRY_LIMIT = 30;
+  // Wait for about 30s between each retry to avoid hammering BigQuery with requests
+  private static final int RETRY_WAIT_TIME = 30000;
+
+  private final BigQueryWriteClient writeClient;
+  private final SchemaManager schemaManager;
+  private final String defaultProject;
+  private final int retries;
+  private final long retryWaitMs;
+  private final boolean autoCreateTables;
+  private final boolean allowSchemaUpdates;
+  private final Map<TableId, TableStreams> streams;
+  private boolean closed;
+
+  /**
+   * @param writeClient Used to create, write to, and commit pending streams.
+   * @param schemaManager Used to convert record schemas and to create and update BigQuery tables.
+   * @param defaultProject The project to write to for tables that do not specify one.
+   * @param retries Maximum number of retries in the event of a transient error.
+   * @param retryWaitMs Minimum number of milliseconds to wait before retrying.
+   * @param autoCreateTables Whether tables should be automatically created.
+   * @param allowSchemaUpdates Whether the schemas of existing tables should be automatically updated.
+   */
+  public StorageWriteApiBatchWriter(BigQueryWriteClient writeClient,
+                                    SchemaManager schemaManager,
+                                    String defaultProject,
+                                    int retries,
+                                    long retryWaitMs,
+                                    boolean autoCreateTables,
+                                    boolean allowSchemaUpdates) {
+    this.writeClient = writeClient;
+    this.schemaManager = schemaManager;
+    this.defaultProject = defaultProject;
+    this.retries = retries;
+    this.retryWaitMs = retryWaitMs;
+    this.autoCreateTables = autoCreateTables;
+    this.allowSchemaUpdates = allowSchemaUpdates;
+    this.streams = new HashMap<>();
+  }
+
+  /**
+   * Write rows to a pending stream for the table. The rows will not be visible in the table until the next
+   * {@link #commit()}.
+   *
+   * @param rows the rows to write.
+   * @param tableId the BQ table to write to.
+   * @throws InterruptedException if interrupted.
+   */
+  public void writeRows(RowBatch rows, TableId tableId) throws InterruptedException {
+    writeRows(rows, tableId, () -> { });
+  }
+
+  /**
+   * Write rows to a pending stream for the table. The rows will not be visible in the table until the next
+   * {@link #commit()} that includes them.
+   *
+   * @param rows the rows to write.
+   * @param tableId the BQ table to write to.
+   * @param onCommit invoked once the rows have been committed.
+   * @throws InterruptedException if interrupted.
+   */
+  public void writeRows(RowBatch rows, TableId tableId, Runnable onCommit) throws InterruptedException {
+    writeRows(rows, tableId, onCommit, appended -> { });
+  }
+
+  /**
+   * Write rows to a pending stream for the table. The rows will not be visible in the table until the next
+   * {@link #commit()} that includes them.
+   *
+   * @param rows the rows to write.
+   * @param tableId the BQ table to write to.
+   * @param onCommit invoked once all of the rows have been committed.
+   * @param onAppended invoked with the number of rows appended each time some of the rows, in order, have been
+   *                   appended; once the rows have been written in full, they add up to their total number
+   * @throws TableNotReadyException if the schema of the table had to be updated before the remaining rows could be
+   *         written; they should be written again once the update has had time to take effect, and {@code onCommit}
+   *         is only invoked for the write that finishes them
+   * @throws InterruptedException if interrupted.
+   */
+  public void writeRows(RowBatch rows, TableId tableId, Runnable onCommit, IntConsumer onAppended)
+      throws InterruptedException {
+    List<SinkRecord> records = rows.schemaRecords();
+    Schema schema = schemaManager.convertRecordSchemas(records);
+    if (schema == null) {
+      throw new BigQueryConnectException("Could not convert to BigQuery schema with a batch of tombstone records.");
+    }
+
+    while (true) {
+      TableStreams tableStreams;
+      synchronized (this) {
+        if (closed) {
+          throw new BigQueryConnectException("Cannot write to pending streams after the writer has been closed");
+        }
+        tableStreams = streams.computeIfAbsent(tableId, TableStreams::new);
+      }
+      // Appends to a pending stream are made at explicit offsets, so writes to the same table have to be serialized
+      tableStreams.lock.lock();
+      try {
+        if (tableStreams.closed) {
+          // Committed since it was looked up; write to the streams for the next commit instead
+          continue;
+        }
+        ProtoRowEncoder encoder = tableStreams.encoder(schema);
+        for (ProtoRows request : encoder.encodeRows(rows.rows())) {
+          append(tableStreams, request, records);
+          onAppended.accept(request.getSerializedRowsCount());
+        }
+        tableStreams.onCommit.add(onCommit);
+      } finally {
+        tableStreams.lock.unlock();
+      }
+      logger.debug("Wrote {} rows to pending stream for {}", rows.size(), tableId);
+      return;
+    }
+  }
+
+  /**
+   * Commit all rows written since the last commit, except to tables that are being written to at the moment. Rows for
+   * each table are committed atomically, but there are no guarantees across tables. If committing fails, all rows that
+   * have not been committed yet are discarded.
+   */
+  public void commit() {
+    List<TableStreams> toCommit = new ArrayList<>();
+    synchronized (this) {
+      Iterator<TableStreams> iterator = streams.values().iterator();
+      while (iterator.hasNext()) {
+        TableStreams tableStreams = iterator.next();
+        // A table with a write in progress is committed next time, instead of waiting for the write to finish
+        if (tableStreams.lock.tryLock()) {
+          try {
+            tableStreams.close();
+          } finally {
+            tableStreams.lock.unlock();
+          }
+          iterator.remove();
+          toCommit.add(tableStreams);
+        }
+      }
+    }
+
+    for (TableStreams tableStreams : toCommit) {
+      if (tableStreams.committableStreams.isEmpty()) {
+        continue;
+      }
+      TableId table = tableStreams.table;
+      try {
+        for (String stream : tableStreams.committableStreams) {
+          writeClient.finalizeWriteStream(stream);
+        }
+        BatchCommitWriteStreamsResponse response = writeClient.batchCommitWriteStreams(
+            BatchCommitWriteStreamsRequest.newBuilder()
+                .setParent(tableName(table).toString())
+                .addAllWriteStreams(tableStreams.committableStreams)
+                .build()
+        );
+        if (!response.hasCommitTime()) {
+          throw new BigQueryConnectException(String.format(
+              "Failed to commit pending streams for %s: %s", table, response.getStreamErrorsList()));
+        }
+      } catch (ApiException e) {
+        throw new BigQueryConnectException("Failed to commit pending streams for " + table, e);
+      }
+      logger.info("Committed {} rows to {}", tableStreams.pendingRows, table);
+      tableStreams.onCommit.forEach(Runnable::run);
+    }
+  }
+
+  /**
+   * Close all connections opened by this writer. Any rows that have not been committed yet are discarded.
+   */
+  public synchronized void close() {
+    closed = true;
+    for (TableStreams tableStreams : streams.values()) {
+      tableStreams.lock.lock();
+      try {
+        tableStreams.close();
+      } finally {
+        tableStreams.lock.unlock();
+      }
+    }
+    streams.clear();
+  }
+
+  private void append(TableStreams tableStreams, ProtoRows request, List<SinkRecord> records)
+      throws InterruptedException {
+    int attemptCount = 0;
+    while (true) {
+      try {
+        if (tableStreams.writer == null) {
+          tableStreams.open(records);
+        }
+        AppendRowsResponse response;
+        try {
+          response = tableStreams.writer.append(request, tableStreams.offset).get();
+        } catch (ExecutionException e) {
+          throw StorageWriteApiErrorResponses.toStatusException(e.getCause());
+        } catch (ApiException e) {
+          throw StorageWriteApiErrorResponses.toStatusException(e);
+        }
+        if (response.hasError()) {
+          throw Status.fromCodeValue(response.getError().getCode())
+              .withDescription(response.getError().getMessage())
+              .asRuntimeException();
+        }
+        tableStreams.appended(request.getSerializedRowsCount());
+        return;
+      } catch (StatusRuntimeException exception) {
+        if (StorageWriteApiErrorResponses.isOffsetAlreadyExistsError(exception)) {
+          // A previous attempt succeeded but we never received its response
+          tableStreams.appended(request.getSerializedRowsCount());
+          return;
+        }
+        tableStreams.disconnect();
+
+        if (StorageWriteApiErrorResponses.isSchemaMismatchError(exception) && allowSchemaUpdates) {
+          // Pending streams are bound to the schema of the table at the time they were created, so a new stream has
+          // to be created after the schema is updated
+          attemptSchemaUpdate(tableStreams.table, records);
+          tableStreams.rotate();
+          // Rather than hold on to this thread, and to the lock on the table's streams, until the update takes
+          // effect, leave it to the caller to write the remaining rows again later
+          throw new TableNotReadyException(tableStreams.table, RETRY_WAIT_TIME, RETRY_LIMIT);
+        } else if (StorageWriteApiErrorResponses.isRetriableError(exception)) {
+          logger.warn("Failed to write to pending stream for {} ({}), attempting retry",
+              tableStreams.table, exception.getStatus().getCode());
+          if (++attemptCount > retries) {
+            throw new BigQueryConnectException(
+                String.format("Exceeded configured %d attempts for write request", retries), exception);
+          }
+          waitRandomTime();
+        } else {
+          throw new BigQueryConnectException("Failed to write rows to pending stream for " + tableStreams.table,
+              exception);
+        }
+      }
+    }
+  }
+
+  private String createPendingStream(TableId table, List<SinkRecord> records) {
+    WriteStream pendingStream = WriteStream.newBuilder().setType(WriteStream.Type.PENDING).build();
+    try {
+      try {
+        return writeClient.createWriteStream(tableName(table), pendingStream).getName();
+      } catch (ApiException e) {
+        if (!StorageWriteApiErrorResponses.isNonExistentTableError(StorageWriteApiErrorResponses.toStatusException(e))
+            || !autoCreateTables) {
+          throw e;
+        }
+        attemptTableCreate(table, records);
+        return writeClient.createWriteStream(tableName(table), pendingStream).getName();
+      }
+    } catch (ApiException e) {
+      throw new BigQueryConnectException("Failed to create pending stream for " + table, e);
+    }
+  }
+
+  private TableName tableName(TableId table) {
+    return TableName.of(
+        table.getProject() != null ? table.getProject() : defaultProject,
+        table.getDataset(),
+        table.getTable()
+    );
+  }
+
+  private void attemptSchemaUpdate(TableId table, List<SinkRecord> records) {
+    try {
+      schemaManager.updateSchema(table, records);
+    } catch (BigQueryException exception) {
+      throw new BigQueryConnectException("Failed to update table schema for: " + table, exception);
+    }
+  }
+
+  private void attemptTableCreate(TableId table, List<SinkRecord> records) {
+    try {
+      schemaManager.createTable(table, records);
+    } catch (BigQueryException exception) {
+      throw new BigQueryConnectException("Failed to create table " + table, exception);
+    }
+  }
+
+  /**
+   * Wait at least {@link #retryWaitMs}, with up to an additional 1 second of random jitter.
+   * @throws InterruptedException if interrupted.
+   */
+  private void waitRandomTime() throws InterruptedException {
+    Thread.sleep(retryWaitMs + random.nextInt(WAIT_MAX_JITTER));
+  }
+
+  /**
+   * The pending streams for a single table since the last commit. Rows are only ever appended to the most recent one;
+   * older ones are kept around so that they can be committed alongside it.
+   */
+  private class TableStreams {
+    private final TableId table;
+    private final List<String> committableStreams;
+    private final List<Runnable> onCommit;
+    private final ReentrantLock lock;
+    private String stream;
+    private ProtoRowEncoder encoder;
+    private StreamWriter writer;
+    private long offset;
+    private long pendingRows;
+    private boolean closed;
+
+    TableStreams(TableId table) {
+      this.table = table;
+      this.committableStreams = new ArrayList<>();
+      this.onCommit = new ArrayList<>();
+      this.lock = new ReentrantLock();
+    }
+
+    ProtoRowEncoder encoder(Schema schema) {
+      if (encoder == null || !encoder.schema().equals(schema)) {
+        // The writer schema is fixed for the lifetime of a connection
+        disconnect();
+        encoder = new ProtoRowEncoder(schema);
+      }
+      return encoder;
+    }
+
+    void open(List<SinkRecord> records) {
+      if (stream == null) {
+        stream = createPendingStream(table, records);
+        offset = 0;
+        logger.debug("Created pending stream {}", stream);
+      }
+      try {
+        writer = StreamWriter.newBuilder(stream, writeClient)
+            .setWriterSchema(encoder.protoSchema())
+            .build();
+      } catch (IOException | ApiException e) {
+        throw new BigQueryConnectException("Failed to open connection to " + stream, e);
+      }
+    }
+
+    void appended(int rows) {
+      if (offset == 0) {
+        committableStreams.add(stream);
+      }
+      offset += rows;
+      pendingRows += rows;
+    }
+
+    void rotate() {
+      disconnect();
+      stream = null;
+    }
+
+    void disconnect() {
+      if (writer != null) {
+        writer.close();
+        writer = null;
+      }
+    }
+
+    void close() {
+      disconnect();
+      closed = true;
+    }
+  }
+}
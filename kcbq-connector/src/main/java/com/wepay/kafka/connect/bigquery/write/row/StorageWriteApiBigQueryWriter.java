@@ -0,0 +1,352 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.cloud.bigquery.storage.v1.ProtoRows;
+import com.google.cloud.bigquery.storage.v1.StreamWriter;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import com.wepay.kafka.connect.bigquery.SchemaManager;
+import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
+import com.wepay.kafka.connect.bigquery.exception.ExpectedInterruptException;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
+import com.wepay.kafka.connect.bigquery.write.storage.ProtoRowEncoder;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A {@link BigQueryWriter} that writes rows to the default stream of each table via the BigQuery Storage Write API,
+ * instead of using the insertAll streaming API. Rows are encoded as protocol buffers using a descriptor derived from
+ * the BigQuery schema of the records being written, and are appended over a long-lived gRPC connection per table.
+ *
+ * <p>Like the {@link AdaptiveBigQueryWriter}, this writer is capable of creating tables that do not exist yet and
+ * updating the schemas of tables that are missing fields, if configured to do so.
+ */
+public class StorageWriteApiBigQueryWriter extends BigQueryWriter {
+  private static final Logger logger = LoggerFactory.getLogger(StorageWriteApiBigQueryWriter.class);
+
+  // The maximum number of retries we will attempt to write rows after creating a table or updating a BQ table schema.
+  private static final int RETRY_LIMIT = 30;
+  // Wait for about 30s between each retry to avoid hammering BigQuery with requests
+  private static final int RETRY_WAIT_TIME = 30000;
+  private static final String RETRY_REASON = "schema-change";
+
+  private static final int FORBIDDEN_CODE = 403;
+  private static final int SERVICE_UNAVAILABLE_CODE = 503;
+  private static final String BACKEND_ERROR_REASON = "backendError";
+  private static final String QUOTA_EXCEEDED_REASON = "quotaExceeded";
+
+  private final BigQueryWriteClient writeClient;
+  private final SchemaManager schemaManager;
+  private final String defaultProject;
+  private final boolean autoCreateTables;
+  private final boolean allowSchemaUpdates;
+  private final ConcurrentMap<TableId, TableStream> streams;
+
+  /**
+   * @param writeClient Used to open connections to the Storage Write API.
+   * @param schemaManager Used to convert record schemas and to create and update BigQuery tables.
+   * @param defaultProject The project to write to for tables that do not specify one.
+   * @param retry How many retries to make in the event of a 500/503 error.
+   * @param retryWait How long to wait in between retries.
+   * @param autoCreateTables Whether tables should be automatically created.
+   * @param allowSchemaUpdates Whether the schemas of existing tables should be automatically updated.
+   */
+  public StorageWriteApiBigQueryWriter(BigQueryWriteClient writeClient,
+                                       SchemaManager schemaManager,
+                                       String defaultProject,
+                                       int retry,
+                                       long retryWait,
+                                       boolean autoCreateTables,
+                                       boolean allowSchemaUpdates) {
+    super(retry, retryWait);
+    this.writeClient = writeClient;
+    this.schemaManager = schemaManager;
+    this.defaultProject = defaultProject;
+    this.autoCreateTables = autoCreateTables;
+    this.allowSchemaUpdates = allowSchemaUpdates;
+    this.streams = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Encodes the rows and appends them to the default stream of the table. If the table does not exist or its schema
+   * is missing fields present in the rows, attempts to create or update it and then performs the same append again.
+   * If {@link #setParkUntilTableReady(boolean) parking} is enabled, a {@link TableNotReadyException} is thrown instead
+   * of waiting for the change to take effect. Partition decorators are ignored; the default stream routes rows to
+   * partitions on its own.
+   * @see BigQueryWriter#performWriteRequest(PartitionedTableId, RowBatch)
+   */
+  @Override
+  protected Map<Long, List<BigQueryError>> performWriteRequest(
+      PartitionedTableId tableId,
+      RowBatch rows) {
+    TableId table = tableId.getBaseTableId();
+    List<SinkRecord> records = rows.schemaRecords();
+    Schema schema = schemaManager.convertRecordSchemas(records);
+    if (schema == null) {
+      throw new BigQueryConnectException("Could not convert to BigQuery schema with a batch of tombstone records.");
+    }
+
+    List<ProtoRows> requests = null;
+    boolean tableCreated = false;
+    boolean schemaUpdated = false;
+    int appendedRequests = 0;
+    int appendedRows = 0;
+    int attemptCount = 0;
+    while (true) {
+      TableStream stream = stream(table, schema);
+      try {
+        if (requests == null) {
+          requests = stream.encoder.encodeRows(rows.rows());
+        }
+        for (; appendedRequests < requests.size(); appendedRequests++) {
+          ProtoRows request = requests.get(appendedRequests);
+          append(stream, request);
+          appendedRows += request.getSerializedRowsCount();
+        }
+        logger.debug("table append completed successfully");
+        return new HashMap<>();
+      } catch (StatusRuntimeException exception) {
+        // The connection may be unusable after a failure; reconnect on the next attempt
+        closeStream(table, stream);
+
+        if (StorageWriteApiErrorResponses.isNonExistentTableError(exception) && autoCreateTables) {
+          // Should only perform one table creation attempt.
+          if (!tableCreated) {
+            attemptTableCreate(table, records);
+            tableCreated = true;
+          }
+        } else if (StorageWriteApiErrorResponses.isSchemaMismatchError(exception) && allowSchemaUpdates) {
+          // Should only perform one schema update attempt.
+          if (!schemaUpdated) {
+            attemptSchemaUpdate(table, records);
+            schemaUpdated = true;
+          }
+        } else if (appendedRows > 0 && StorageWriteApiErrorResponses.isRetriableError(exception)) {
+          // Report the rows that have not been appended yet as failures, so that only they get retried
+          return failedRows(appendedRows, rows.size(), exception);
+        } else {
+          throw toBigQueryException(table, exception);
+        }
+
+        if (appendedRows > 0) {
+          // Rows already appended to the default stream cannot be taken back, so only the rest may be written again
+          return failedRows(appendedRows, rows.size(), exception);
+        }
+      } finally {
+        stream.release();
+      }
+
+      if (parkUntilTableReady()) {
+        // Free up this thread, and any request slot it holds; the caller will write the rows again once the change
+        // has had time to take effect
+        throw new TableNotReadyException(table, RETRY_WAIT_TIME, RETRY_LIMIT);
+      }
+
+      // Creating tables or updating table schemas in BigQuery takes a while to take effect, so multiple append
+      // attempts may be necessary.
+      attemptCount++;
+      if (attemptCount >= RETRY_LIMIT) {
+        throw new BigQueryConnectException(
+            "Failed to write rows after BQ table creation or schema update within "
+                + RETRY_LIMIT + " attempts for: " + table);
+      }
+      try {
+        sleepBeforeRetry(table, attemptCount + 1, RETRY_REASON, RETRY_WAIT_TIME);
+      } catch (InterruptedException e) {
+        throw new ExpectedInterruptException("Interrupted while waiting to retry write");
+      }
+    }
+  }
+
+  /**
+   * Close all connections to the Storage Write API opened by this writer.
+   */
+  @Override
+  public void close() {
+    streams.values().forEach(TableStream::retire);
+    streams.clear();
+  }
+
+  /**
+   * Get the connection to the table's default stream, replacing it if it was opened for a different schema, since the
+   * writer schema of a connection cannot be changed. Only one connection is kept open per table; a replaced connection
+   * is closed once every write using it has {@link TableStream#release() released} it.
+   */
+  private TableStream stream(TableId table, Schema schema) {
+    return streams.compute(table, (t, current) -> {
+      TableStream result = current;
+      if (result == null || !result.encoder.schema().equals(schema)) {
+        if (current != null) {
+          current.retire();
+        }
+        result = openStream(t, schema);
+      }
+      result.acquire();
+      return result;
+    });
+  }
+
+  private TableStream openStream(TableId table, Schema schema) {
+    String streamName = TableName.of(
+        table.getProject() != null ? table.getProject() : defaultProject,
+        table.getDataset(),
+        table.getTable()
+    ) + "/streams/_default";
+    logger.debug("Opening connection to {}", streamName);
+    ProtoRowEncoder encoder = new ProtoRowEncoder(schema);
+    try {
+      StreamWriter writer = StreamWriter.newBuilder(streamName, writeClient)
+          .setWriterSchema(encoder.protoSchema())
+          .build();
+      return new TableStream(encoder, writer);
+    } catch (IOException | ApiException e) {
+      throw new BigQueryConnectException("Failed to open connection to " + streamName, e);
+    }
+  }
+
+  private void closeStream(TableId table, TableStream stream) {
+    if (streams.remove(table, stream)) {
+      stream.retire();
+    }
+  }
+
+  private void append(TableStream stream, ProtoRows rows) {
+    AppendRowsResponse response;
+    try {
+      response = stream.writer.append(rows).get();
+    } catch (ExecutionException e) {
+      throw StorageWriteApiErrorResponses.toStatusException(e.getCause());
+    } catch (ApiException e) {
+      throw StorageWriteApiErrorResponses.toStatusException(e);
+    } catch (InterruptedException e) {
+      throw new ExpectedInterruptException("Interrupted while waiting for append to complete");
+    }
+    if (response.hasError()) {
+      throw Status.fromCodeValue(response.getError().getCode())
+          .withDescription(response.getError().getMessage())
+          .asRuntimeException();
+    }
+  }
+
+  private void attemptSchemaUpdate(TableId table, List<SinkRecord> records) {
+    try {
+      schemaManager.updateSchema(table, records);
+    } catch (BigQueryException exception) {
+      throw new BigQueryConnectException("Failed to update table schema for: " + table, exception);
+    }
+  }
+
+  private void attemptTableCreate(TableId table, List<SinkRecord> records) {
+    try {
+      schemaManager.createTable(table, records);
+    } catch (BigQueryException exception) {
+      throw new BigQueryConnectException("Failed to create table " + table, exception);
+    }
+  }
+
+  /**
+   * Translate a gRPC error into the equivalent insertAll error, so that the retry logic in
+   * {@link BigQueryWriter#writeRows(PartitionedTableId, RowBatch)} can be reused as-is.
+   */
+  private static RuntimeException toBigQueryException(TableId table, StatusRuntimeException exception) {
+    String message = String.format("Failed to write rows to %s: %s", table, exception.getMessage());
+    if (StorageWriteApiErrorResponses.isQuotaExceededError(exception)) {
+      return new BigQueryException(FORBIDDEN_CODE, message, new BigQueryError(QUOTA_EXCEEDED_REASON, null, message));
+    } else if (StorageWriteApiErrorResponses.isRetriableError(exception)) {
+      return new BigQueryException(SERVICE_UNAVAILABLE_CODE, message, exception);
+    } else if (StorageWriteApiErrorResponses.isNonExistentTableError(exception)) {
+      return new BigQueryConnectException(message + " (table does not exist and automatic creation is disabled)",
+          exception);
+    }
+    return new BigQueryConnectException(message, exception);
+  }
+
+  private static Map<Long, List<BigQueryError>> failedRows(int appendedRows,
+                                                           int totalRows,
+                                                           StatusRuntimeException exception) {
+    String reason = StorageWriteApiErrorResponses.isQuotaExceededError(exception)
+        ? QUOTA_EXCEEDED_REASON
+        : BACKEND_ERROR_REASON;
+    List<BigQueryError> errors = Collections.singletonList(new BigQueryError(reason, null, exception.getMessage()));
+    Map<Long, List<BigQueryError>> result = new HashMap<>();
+    for (long index = appendedRows; index < totalRows; index++) {
+      result.put(index, errors);
+    }
+    return result;
+  }
+
+  private static class TableStream {
+    private final ProtoRowEncoder encoder;
+    private final StreamWriter writer;
+    // The number of writes currently using the connection
+    private int users;
+    private boolean retired;
+
+    TableStream(ProtoRowEncoder encoder, StreamWriter writer) {
+      this.encoder = encoder;
+      this.writer = writer;
+    }
+
+    synchronized void acquire() {
+      users++;
+    }
+
+    synchronized void release() {
+      users--;
+      maybeClose();
+    }
+
+    /**
+     * Close the connection once no writes are using it anymore. It will not be handed out again.
+     */
+    synchronized void retire() {
+      if (!retired) {
+        retired = true;
+        maybeClose();
+      }
+    }
+
+    private void maybeClose() {
+      if (retired && users == 0) {
+        writer.close();
+      }
+    }
+  }
+}
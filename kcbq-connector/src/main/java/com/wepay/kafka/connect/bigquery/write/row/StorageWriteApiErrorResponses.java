@@ -0,0 +1,90 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.cloud.bigquery.storage.v1.Exceptions;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import java.util.Objects;
+
+/**
+ * Handles the logic for classifying errors returned by the BigQuery Storage Write API, which are reported as gRPC
+ * statuses instead of the error responses classified by {@link BigQueryErrorResponses}.
+ */
+public class StorageWriteApiErrorResponses {
+
+  /**
+   * Errors may be reported either directly by gRPC or wrapped by the GAX client library; normalize them into a single
+   * representation.
+   * @param error the error to normalize
+   * @return the error as a gRPC status exception
+   */
+  public static StatusRuntimeException toStatusException(Throwable error) {
+    if (error instanceof StatusRuntimeException) {
+      return (StatusRuntimeException) error;
+    } else if (error instanceof ApiException) {
+      // gRPC and GAX share the same set of status codes
+      Status.Code code = Status.Code.valueOf(((ApiException) error).getStatusCode().getCode().name());
+      return Status.fromCode(code).withDescription(error.getMessage()).withCause(error).asRuntimeException();
+    }
+    return Status.UNKNOWN.withDescription(Objects.toString(error)).withCause(error).asRuntimeException();
+  }
+
+  public static boolean isNonExistentTableError(StatusRuntimeException exception) {
+    return Status.Code.NOT_FOUND == exception.getStatus().getCode();
+  }
+
+  public static boolean isSchemaMismatchError(StatusRuntimeException exception) {
+    if (exception instanceof Exceptions.SchemaMismatchedException) {
+      return true;
+    }
+    String description = exception.getStatus().getDescription();
+    return Status.Code.INVALID_ARGUMENT == exception.getStatus().getCode()
+        && description != null
+        && description.contains("schema");
+  }
+
+  public static boolean isQuotaExceededError(StatusRuntimeException exception) {
+    return Status.Code.RESOURCE_EXHAUSTED == exception.getStatus().getCode();
+  }
+
+  /**
+   * @return whether an append to an offset failed because rows had already been written to that offset, which is
+   * what happens when an append is retried after its response was lost
+   */
+  public static boolean isOffsetAlreadyExistsError(StatusRuntimeException exception) {
+    return Status.Code.ALREADY_EXISTS == exception.getStatus().getCode();
+  }
+
+  public static boolean isRetriableError(StatusRuntimeException exception) {
+    switch (exception.getStatus().getCode()) {
+      case UNAVAILABLE:
+      case INTERNAL:
+      case ABORTED:
+      case DEADLINE_EXCEEDED:
+      case RESOURCE_EXHAUSTED:
+        return true;
+      default:
+        return false;
+    }
+  }
+}
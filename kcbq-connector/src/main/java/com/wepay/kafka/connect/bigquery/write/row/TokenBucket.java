@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import org.apache.kafka.common.utils.Time;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that refills at a fixed rate and holds at most one second's worth of tokens.
+ *
+ * <p>Callers {@link #reserve(long) reserve} tokens up front and then wait for as long as they are told to. The bucket
+ * is allowed to go into debt, so that requests larger than its capacity can still be let through, and so that callers
+ * reserving concurrently each wait for their own share rather than all waking up at once.
+ */
+public class TokenBucket {
+
+  private final double tokensPerNs;
+  private final double capacity;
+  private final Time time;
+
+  private double tokens;
+  private long lastRefillNs;
+
+  /**
+   * @param tokensPerSecond the rate at which the bucket refills
+   * @param time used to track how much the bucket has refilled
+   */
+  public TokenBucket(long tokensPerSecond, Time time) {
+    this.tokensPerNs = (double) tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.capacity = tokensPerSecond;
+    this.time = time;
+    this.tokens = capacity;
+    this.lastRefillNs = time.nanoseconds();
+  }
+
+  /**
+   * Take tokens from the bucket, whether or not there are enough available.
+   * @param amount the number of tokens to take
+   * @return how long to wait, in nanoseconds, before the tokens can be used
+   */
+  public synchronized long reserve(long amount) {
+    long now = time.nanoseconds();
+    tokens = Math.min(capacity, tokens + (now - lastRefillNs) * tokensPerNs);
+    lastRefillNs = now;
+    tokens -= amount;
+    return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNs);
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.cloud.bigquery.TableId;
+import org.apache.kafka.common.utils.Time;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the rate at which rows are written to BigQuery, in both rows and estimated bytes per second, for each table
+ * and across all tables, so that writes stay under BigQuery's streaming quotas instead of being rejected by them.
+ * Each limit is optional, and is disabled by passing -1 for it.
+ */
+public class WriteRateLimiter {
+
+  private final long tableRowsPerSecond;
+  private final long tableBytesPerSecond;
+  private final TokenBucket projectRows;
+  private final TokenBucket projectBytes;
+  private final Map<TableId, TokenBucket> tableRows;
+  private final Map<TableId, TokenBucket> tableBytes;
+  private final Time time;
+
+  /**
+   * @param tableRowsPerSecond the maximum number of rows per second to write to a single table, or -1 for no limit
+   * @param tableBytesPerSecond the maximum estimated bytes per second to write to a single table, or -1 for no limit
+   * @param projectRowsPerSecond the maximum number of rows per second to write across all tables, or -1 for no limit
+   * @param projectBytesPerSecond the maximum estimated bytes per second to write across all tables, or -1 for no
+   *                              limit
+   * @param time used to track the rate of writes
+   */
+  public WriteRateLimiter(long tableRowsPerSecond,
+                          long tableBytesPerSecond,
+                          long projectRowsPerSecond,
+                          long projectBytesPerSecond,
+                          Time time) {
+    this.tableRowsPerSecond = tableRowsPerSecond;
+    this.tableBytesPerSecond = tableBytesPerSecond;
+    this.projectRows = projectRowsPerSecond != -1 ? new TokenBucket(projectRowsPerSecond, time) : null;
+    this.projectBytes = projectBytesPerSecond != -1 ? new TokenBucket(projectBytesPerSecond, time) : null;
+    this.tableRows = new ConcurrentHashMap<>();
+    this.tableBytes = new ConcurrentHashMap<>();
+    this.time = time;
+  }
+
+  /**
+   * Block until rows can be written to a table without exceeding any of the limits.
+   * @param table the table to be written to
+   * @param rows the number of rows to be written
+   * @param bytes the estimated size of the rows to be written
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void acquire(TableId table, int rows, long bytes) throws InterruptedException {
+    // Reserve from every bucket before waiting, so that the waits for different limits overlap instead of adding up
+    long waitNs = 0;
+    if (projectRows != null) {
+      waitNs = Math.max(waitNs, projectRows.reserve(rows));
+    }
+    if (projectBytes != null) {
+      waitNs = Math.max(waitNs, projectBytes.reserve(bytes));
+    }
+    if (tableRowsPerSecond != -1) {
+      waitNs = Math.max(waitNs, bucket(tableRows, table, tableRowsPerSecond).reserve(rows));
+    }
+    if (tableBytesPerSecond != -1) {
+      waitNs = Math.max(waitNs, bucket(tableBytes, table, tableBytesPerSecond).reserve(bytes));
+    }
+
+    if (waitNs > 0) {
+      time.sleep(TimeUnit.NANOSECONDS.toMillis(waitNs) + 1);
+      if (Thread.interrupted()) {
+        throw new InterruptedException("Interrupted while waiting to stay under write rate limits");
+      }
+    }
+  }
+
+  private TokenBucket bucket(Map<TableId, TokenBucket> buckets, TableId table, long tokensPerSecond) {
+    return buckets.computeIfAbsent(table, t -> new TokenBucket(tokensPerSecond, time));
+  }
+}
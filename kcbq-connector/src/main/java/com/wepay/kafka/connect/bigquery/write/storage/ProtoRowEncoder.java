@@ -0,0 +1,362 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.storage;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.InsertAllRequest;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+import com.google.cloud.bigquery.storage.v1.BQTableSchemaToProtoDescriptor;
+import com.google.cloud.bigquery.storage.v1.BigDecimalByteStringEncoder;
+import com.google.cloud.bigquery.storage.v1.CivilTimeEncoder;
+import com.google.cloud.bigquery.storage.v1.ProtoRows;
+import com.google.cloud.bigquery.storage.v1.ProtoSchema;
+import com.google.cloud.bigquery.storage.v1.ProtoSchemaConverter;
+import com.google.cloud.bigquery.storage.v1.StreamWriter;
+import com.google.cloud.bigquery.storage.v1.TableFieldSchema;
+import com.google.cloud.bigquery.storage.v1.TableSchema;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.DescriptorValidationException;
+import com.google.protobuf.Descriptors.FieldDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
+import com.wepay.kafka.connect.bigquery.exception.ConversionConnectException;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes rows produced by a {@link com.wepay.kafka.connect.bigquery.convert.RecordConverter} into protocol buffer
+ * messages that can be sent to the BigQuery Storage Write API. An encoder is built for a single BigQuery schema; the
+ * protocol buffer descriptor for that schema is derived once and reused for every row that is encoded.
+ *
+ * <p>Values are interpreted the same way the insertAll API interprets them in JSON rows, so that switching between
+ * the two write paths does not change what ends up in the table.
+ */
+public class ProtoRowEncoder {
+
+  // Accepts both the 'T' and ' ' separator used by the logical type converters, with an optional UTC offset
+  private static final DateTimeFormatter DATE_TIME_FORMAT = new DateTimeFormatterBuilder()
+      .append(DateTimeFormatter.ISO_LOCAL_DATE)
+      .optionalStart().appendLiteral('T').optionalEnd()
+      .optionalStart().appendLiteral(' ').optionalEnd()
+      .append(DateTimeFormatter.ISO_LOCAL_TIME)
+      .optionalStart().appendOffsetId().optionalEnd()
+      .optionalStart().appendLiteral(" UTC").optionalEnd()
+      .toFormatter();
+
+  // Leave some room under the maximum request size for the writer schema and the rest of the request
+  private static final long MAX_REQUEST_BYTES = StreamWriter.getApiMaxRequestBytes() * 9 / 10;
+
+  private final Schema schema;
+  private final ProtoSchema protoSchema;
+  private final MessageEncoder messageEncoder;
+
+  /**
+   * @param schema the BigQuery schema of the rows that will be encoded
+   */
+  public ProtoRowEncoder(Schema schema) {
+    this.schema = schema;
+    Descriptor descriptor;
+    try {
+      descriptor = BQTableSchemaToProtoDescriptor.convertBQTableSchemaToProtoDescriptor(toTableSchema(schema));
+    } catch (DescriptorValidationException e) {
+      throw new BigQueryConnectException("Failed to build protocol buffer descriptor for schema " + schema, e);
+    }
+    this.protoSchema = ProtoSchemaConverter.convert(descriptor);
+    this.messageEncoder = new MessageEncoder(descriptor, schema.getFields());
+  }
+
+  /**
+   * @return the BigQuery schema that this encoder was built for
+   */
+  public Schema schema() {
+    return schema;
+  }
+
+  /**
+   * @return the writer schema to send to the Storage Write API alongside rows encoded by this encoder
+   */
+  public ProtoSchema protoSchema() {
+    return protoSchema;
+  }
+
+  /**
+   * Encode a single row.
+   * @param row the row, as produced by the record converter
+   * @return the serialized protocol buffer message for the row
+   * @throws ConversionConnectException if the row does not match the schema of this encoder
+   */
+  public ByteString encode(Map<String, Object> row) {
+    return messageEncoder.encode(row).toByteString();
+  }
+
+  /**
+   * Encode a batch of rows, splitting it into as few append requests as possible without exceeding the maximum
+   * request size of the Storage Write API.
+   * @param rows the rows to encode
+   * @return the encoded rows, one element per append request
+   * @throws ConversionConnectException if any of the rows does not match the schema of this encoder
+   */
+  public List<ProtoRows> encodeRows(Collection<InsertAllRequest.RowToInsert> rows) {
+    List<ProtoRows> result = new ArrayList<>();
+    ProtoRows.Builder request = ProtoRows.newBuilder();
+    long requestBytes = 0;
+    for (InsertAllRequest.RowToInsert row : rows) {
+      ByteString encodedRow = encode(row.getContent());
+      if (request.getSerializedRowsCount() > 0 && requestBytes + encodedRow.size() > MAX_REQUEST_BYTES) {
+        result.add(request.build());
+        request = ProtoRows.newBuilder();
+        requestBytes = 0;
+      }
+      request.addSerializedRows(encodedRow);
+      requestBytes += encodedRow.size();
+    }
+    if (request.getSerializedRowsCount() > 0) {
+      result.add(request.build());
+    }
+    return result;
+  }
+
+  /**
+   * Convert a BigQuery schema into the equivalent Storage Write API table schema.
+   * @param schema the BigQuery schema to convert
+   * @return the table schema
+   */
+  public static TableSchema toTableSchema(Schema schema) {
+    TableSchema.Builder result = TableSchema.newBuilder();
+    for (Field field : schema.getFields()) {
+      result.addFields(toTableFieldSchema(field));
+    }
+    return result.build();
+  }
+
+  private static TableFieldSchema toTableFieldSchema(Field field) {
+    TableFieldSchema.Builder result = TableFieldSchema.newBuilder()
+        .setName(field.getName())
+        .setType(toTableFieldType(field.getType().getStandardType()))
+        .setMode(toTableFieldMode(field.getMode()));
+    if (field.getSubFields() != null) {
+      for (Field subField : field.getSubFields()) {
+        result.addFields(toTableFieldSchema(subField));
+      }
+    }
+    return result.build();
+  }
+
+  private static TableFieldSchema.Type toTableFieldType(StandardSQLTypeName type) {
+    switch (type) {
+      case FLOAT64:
+        return TableFieldSchema.Type.DOUBLE;
+      case ARRAY:
+        // Arrays are represented in BigQuery schemas via the REPEATED mode instead
+        throw new BigQueryConnectException("Unexpected array type in BigQuery schema");
+      default:
+        return TableFieldSchema.Type.valueOf(type.name());
+    }
+  }
+
+  private static TableFieldSchema.Mode toTableFieldMode(Field.Mode mode) {
+    if (mode == null) {
+      return TableFieldSchema.Mode.NULLABLE;
+    }
+    return TableFieldSchema.Mode.valueOf(mode.name());
+  }
+
+  private static class MessageEncoder {
+    private final Descriptor descriptor;
+    private final List<FieldEncoder> fields;
+
+    MessageEncoder(Descriptor descriptor, FieldList schemaFields) {
+      this.descriptor = descriptor;
+      this.fields = new ArrayList<>(schemaFields.size());
+      for (Field field : schemaFields) {
+        // Field names are lower-cased in generated descriptors; BigQuery column names are case-insensitive anyways
+        FieldDescriptor fieldDescriptor = descriptor.findFieldByName(field.getName().toLowerCase());
+        if (fieldDescriptor == null) {
+          throw new BigQueryConnectException(String.format(
+              "Could not find field %s in protocol buffer descriptor %s", field.getName(), descriptor.getFullName()));
+        }
+        fields.add(new FieldEncoder(field, fieldDescriptor));
+      }
+    }
+
+    DynamicMessage encode(Map<?, ?> row) {
+      DynamicMessage.Builder message = DynamicMessage.newBuilder(descriptor);
+      int encodedFields = 0;
+      for (FieldEncoder field : fields) {
+        Object value = row.get(field.name);
+        if (value != null) {
+          field.encode(message, value);
+          encodedFields++;
+        } else if (row.containsKey(field.name)) {
+          encodedFields++;
+        }
+      }
+      if (encodedFields < row.size()) {
+        List<Object> unknownFields = new ArrayList<>(row.keySet());
+        fields.forEach(field -> unknownFields.remove(field.name));
+        throw new ConversionConnectException("No such field(s) in schema: " + unknownFields);
+      }
+      try {
+        return message.build();
+      } catch (RuntimeException e) {
+        throw new ConversionConnectException("Failed to encode row: " + e.getMessage(), e);
+      }
+    }
+  }
+
+  private static class FieldEncoder {
+    private final String name;
+    private final StandardSQLTypeName type;
+    private final boolean repeated;
+    private final FieldDescriptor fieldDescriptor;
+    private final MessageEncoder nested;
+
+    FieldEncoder(Field field, FieldDescriptor fieldDescriptor) {
+      this.name = field.getName();
+      this.type = field.getType().getStandardType();
+      this.repeated = field.getMode() == Field.Mode.REPEATED;
+      this.fieldDescriptor = fieldDescriptor;
+      this.nested = type == StandardSQLTypeName.STRUCT
+          ? new MessageEncoder(fieldDescriptor.getMessageType(), field.getSubFields())
+          : null;
+    }
+
+    void encode(DynamicMessage.Builder message, Object value) {
+      try {
+        if (repeated) {
+          if (!(value instanceof Collection)) {
+            throw new ConversionConnectException("Expected a list of values for repeated field");
+          }
+          for (Object element : (Collection<?>) value) {
+            if (element != null) {
+              message.addRepeatedField(fieldDescriptor, convert(element));
+            }
+          }
+        } else {
+          message.setField(fieldDescriptor, convert(value));
+        }
+      } catch (ClassCastException | IllegalArgumentException | ArithmeticException | DateTimeParseException e) {
+        throw new ConversionConnectException(
+            String.format("Failed to encode value for field %s of type %s: %s", name, type, e.getMessage()), e);
+      } catch (ConversionConnectException e) {
+        throw new ConversionConnectException(
+            String.format("Failed to encode value for field %s: %s", name, e.getMessage()), e);
+      }
+    }
+
+    private Object convert(Object value) {
+      switch (type) {
+        case STRING:
+        case GEOGRAPHY:
+        case JSON:
+        case INTERVAL:
+          return value.toString();
+        case INT64:
+          return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+        case FLOAT64:
+          return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+        case BOOL:
+          return value instanceof Boolean ? value : Boolean.parseBoolean(value.toString());
+        case BYTES:
+          return convertBytes(value);
+        case NUMERIC:
+          return BigDecimalByteStringEncoder.encodeToNumericByteString(toBigDecimal(value));
+        case BIGNUMERIC:
+          return BigDecimalByteStringEncoder.encodeToBigNumericByteString(toBigDecimal(value));
+        case TIMESTAMP:
+          return timestampMicros(value);
+        case DATE:
+          return value instanceof Number
+              ? ((Number) value).intValue()
+              : Math.toIntExact(LocalDate.parse(value.toString()).toEpochDay());
+        case TIME:
+          return value instanceof Number ? ((Number) value).longValue() : packedTimeMicros(value.toString());
+        case DATETIME:
+          return value instanceof Number ? ((Number) value).longValue() : packedDateTimeMicros(value.toString());
+        case STRUCT:
+          return nested.encode((Map<?, ?>) value);
+        default:
+          throw new ConversionConnectException("Unsupported BigQuery type " + type);
+      }
+    }
+  }
+
+  private static ByteString convertBytes(Object value) {
+    if (value instanceof byte[]) {
+      return ByteString.copyFrom((byte[]) value);
+    } else if (value instanceof ByteBuffer) {
+      return ByteString.copyFrom(((ByteBuffer) value).duplicate());
+    }
+    // The record converter base64-encodes bytes for the JSON-based insertAll API
+    return ByteString.copyFrom(Base64.getDecoder().decode(value.toString()));
+  }
+
+  private static BigDecimal toBigDecimal(Object value) {
+    return value instanceof BigDecimal ? (BigDecimal) value : new BigDecimal(value.toString());
+  }
+
+  private static long timestampMicros(Object value) {
+    if (value instanceof Double || value instanceof Float || value instanceof BigDecimal) {
+      // Numeric timestamps are interpreted as (possibly fractional) seconds since the epoch, as with insertAll
+      return toBigDecimal(value).movePointRight(6).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    } else if (value instanceof Number) {
+      return Math.multiplyExact(((Number) value).longValue(), 1_000_000L);
+    }
+    TemporalAccessor parsed = DATE_TIME_FORMAT.parse(value.toString().trim());
+    Instant instant = parsed.isSupported(ChronoField.OFFSET_SECONDS)
+        ? OffsetDateTime.from(parsed).toInstant()
+        : LocalDateTime.from(parsed).toInstant(ZoneOffset.UTC);
+    return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000L), instant.getNano() / 1_000);
+  }
+
+  private static long packedTimeMicros(String value) {
+    LocalTime time = LocalTime.parse(value.trim());
+    return CivilTimeEncoder.encodePacked64TimeMicros(
+        org.threeten.bp.LocalTime.of(time.getHour(), time.getMinute(), time.getSecond(), time.getNano()));
+  }
+
+  private static long packedDateTimeMicros(String value) {
+    LocalDateTime dateTime = LocalDateTime.from(DATE_TIME_FORMAT.parse(value.trim()));
+    return CivilTimeEncoder.encodePacked64DatetimeMicros(org.threeten.bp.LocalDateTime.of(
+        dateTime.getYear(), dateTime.getMonthValue(), dateTime.getDayOfMonth(),
+        dateTime.getHour(), dateTime.getMinute(), dateTime.getSecond(), dateTime.getNano()));
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.metrics;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.utils.TableNameUtils;
+import com.wepay.kafka.connect.bigquery.write.row.RowBatch;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * {@link FlightRecorderEvents} backed by Java Flight Recorder. Loaded reflectively by
+ * {@link FlightRecorderEvents#get()}; see there for why.
+ *
+ * <p>Whether each type of event is enabled is checked before anything else is done, so that when
+ * no recording is running (or the events are disabled in it), no events are allocated and no
+ * fields, such as the size of the rows in a request, are computed.
+ */
+public class JfrFlightRecorderEvents extends FlightRecorderEvents {
+
+  private static final String NAME_PREFIX = "com.wepay.kafka.connect.bigquery.";
+  private static final String CATEGORY_CONNECT = "Kafka Connect";
+  private static final String CATEGORY_BIGQUERY = "BigQuery Sink";
+
+  private final EventType writeRequestType = EventType.getEventType(WriteRequestEvent.class);
+  private final EventType retryWaitType = EventType.getEventType(RetryWaitEvent.class);
+  private final EventType schemaChangeType = EventType.getEventType(SchemaChangeEvent.class);
+  private final EventType mergeFlushPrepareType = EventType.getEventType(MergeFlushPrepareEvent.class);
+
+  @Override
+  public Span writeRequest(TableId table, RowBatch rows, int attempt) {
+    if (!writeRequestType.isEnabled()) {
+      return Span.NO_OP;
+    }
+    WriteRequestEvent event = new WriteRequestEvent();
+    event.begin();
+    event.table = TableNameUtils.qualifiedName(table);
+    event.rows = rows.size();
+    event.bytes = rows.estimatedSize();
+    event.attempt = attempt;
+    return outcome -> {
+      event.end();
+      if (event.shouldCommit()) {
+        event.outcome = outcome;
+        event.commit();
+      }
+    };
+  }
+
+  @Override
+  public Span retryWait(TableId table, int attempt, String reason) {
+    if (!retryWaitType.isEnabled()) {
+      return Span.NO_OP;
+    }
+    RetryWaitEvent event = new RetryWaitEvent();
+    event.begin();
+    event.table = TableNameUtils.qualifiedName(table);
+    event.attempt = attempt;
+    event.reason = reason;
+    return outcome -> {
+      event.end();
+      if (event.shouldCommit()) {
+        event.outcome = outcome;
+        event.commit();
+      }
+    };
+  }
+
+  @Override
+  public Span schemaChange(TableId table, String operation, int records) {
+    if (!schemaChangeType.isEnabled()) {
+      return Span.NO_OP;
+    }
+    SchemaChangeEvent event = new SchemaChangeEvent();
+    event.begin();
+    long beganNs = System.nanoTime();
+    event.table = TableNameUtils.qualifiedName(table);
+    event.operation = operation;
+    event.records = records;
+    return new Span() {
+      @Override
+      public void lockAcquired() {
+        event.lockWait = System.nanoTime() - beganNs;
+      }
+
+      @Override
+      public void end(String outcome) {
+        event.end();
+        if (event.shouldCommit()) {
+          event.outcome = outcome;
+          event.commit();
+        }
+      }
+    };
+  }
+
+  @Override
+  public Span mergeFlushPrepare(TableId intermediateTable, int batchNumber) {
+    if (!mergeFlushPrepareType.isEnabled()) {
+      return Span.NO_OP;
+    }
+    MergeFlushPrepareEvent event = new MergeFlushPrepareEvent();
+    event.begin();
+    event.table = TableNameUtils.qualifiedName(intermediateTable);
+    event.batchNumber = batchNumber;
+    return new Span() {
+      @Override
+      public void rows(long rows) {
+        event.rows = rows;
+      }
+
+      @Override
+      public void end(String outcome) {
+        event.end();
+        if (event.shouldCommit()) {
+          event.outcome = outcome;
+          event.commit();
+        }
+      }
+    };
+  }
+
+  @Name(NAME_PREFIX + "WriteRequest")
+  @Label("BigQuery Write Request")
+  @Description("A single request to write rows to a BigQuery table, including any table creation or schema "
+      + "update performed by the writer before the request succeeded")
+  @Category({CATEGORY_CONNECT, CATEGORY_BIGQUERY})
+  static class WriteRequestEvent extends Event {
+    @Label("Table")
+    String table;
+
+    @Label("Rows")
+    int rows;
+
+    @Label("Estimated Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Attempt")
+    @Description("The number of the attempt to write the rows, starting at 1")
+    int attempt;
+
+    @Label("Outcome")
+    String outcome;
+  }
+
+  @Name(NAME_PREFIX + "RetryWait")
+  @Label("BigQuery Retry Wait")
+  @Description("Time spent sleeping before retrying a write request")
+  @Category({CATEGORY_CONNECT, CATEGORY_BIGQUERY})
+  static class RetryWaitEvent extends Event {
+    @Label("Table")
+    String table;
+
+    @Label("Attempt")
+    @Description("The number of the attempt that is made after waiting")
+    int attempt;
+
+    @Label("Reason")
+    String reason;
+
+    @Label("Outcome")
+    String outcome;
+  }
+
+  @Name(NAME_PREFIX + "SchemaChange")
+  @Label("BigQuery Schema Change")
+  @Description("Creation of a BigQuery table or an update to its schema, including time spent waiting for "
+      + "another thread to finish doing the same")
+  @Category({CATEGORY_CONNECT, CATEGORY_BIGQUERY})
+  static class SchemaChangeEvent extends Event {
+    @Label("Table")
+    String table;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Records")
+    @Description("The number of records the schema was derived from")
+    int records;
+
+    @Label("Lock Wait")
+    @Description("Time spent waiting for the lock for the table")
+    @Timespan(Timespan.NANOSECONDS)
+    long lockWait;
+
+    @Label("Outcome")
+    String outcome;
+  }
+
+  @Name(NAME_PREFIX + "MergeFlushPrepare")
+  @Label("BigQuery Merge Flush Preparation")
+  @Description("Time spent waiting for earlier merge flushes and outstanding writes to an intermediate table "
+      + "to complete, and for rows to become available in the streaming buffer, before a merge flush")
+  @Category({CATEGORY_CONNECT, CATEGORY_BIGQUERY})
+  static class MergeFlushPrepareEvent extends Event {
+    @Label("Intermediate Table")
+    String table;
+
+    @Label("Batch Number")
+    int batchNumber;
+
+    @Label("Rows")
+    long rows;
+
+    @Label("Outcome")
+    String outcome;
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery;
+
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.TableId;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class RecordSchemaTrackerTest {
+
+  private static final TableId TABLE = TableId.of("dataset", "table");
+
+  private static final Schema FIRST_SCHEMA = SchemaBuilder.struct()
+      .field("f1", Schema.STRING_SCHEMA)
+      .build();
+  private static final Schema SECOND_SCHEMA = SchemaBuilder.struct()
+      .field("f1", Schema.STRING_SCHEMA)
+      .field("f2", Schema.OPTIONAL_INT64_SCHEMA)
+      .build();
+
+  private SchemaManager schemaManager;
+
+  @Before
+  public void setUp() {
+    schemaManager = mock(SchemaManager.class);
+  }
+
+  @Test
+  public void testCompatibleSchemaCheckedOnce() {
+    when(schemaManager.isCompatible(any(), any())).thenReturn(true);
+    RecordSchemaTracker tracker = new RecordSchemaTracker(schemaManager, true, true);
+
+    SinkRecord first = record(FIRST_SCHEMA, 0);
+    for (int i = 0; i < 10; i++) {
+      tracker.add(TABLE, record(FIRST_SCHEMA, i));
+      tracker.prepareTables();
+    }
+
+    verify(schemaManager, times(1)).isCompatible(TABLE, Collections.singletonList(first));
+    verify(schemaManager, never()).createTable(any(), any());
+    verify(schemaManager, never()).updateSchema(any(), any());
+  }
+
+  @Test
+  public void testTableCreatedBeforeWrite() {
+    SinkRecord first = record(FIRST_SCHEMA, 0);
+    when(schemaManager.isCompatible(TABLE, Collections.singletonList(first))).thenReturn(false, true);
+    when(schemaManager.tableExists(TABLE)).thenReturn(false);
+    RecordSchemaTracker tracker = new RecordSchemaTracker(schemaManager, true, true);
+
+    tracker.add(TABLE, first);
+    tracker.add(TABLE, record(FIRST_SCHEMA, 1));
+    tracker.prepareTables();
+
+    verify(schemaManager, times(1)).createTable(TABLE, Collections.singletonList(first));
+    verify(schemaManager, never()).updateSchema(any(), any());
+  }
+
+  @Test
+  public void testSchemaUpdatedOncePerNewSchema() {
+    SinkRecord first = record(FIRST_SCHEMA, 0);
+    SinkRecord second = record(SECOND_SCHEMA, 1);
+    when(schemaManager.isCompatible(TABLE, Collections.singletonList(first))).thenReturn(true);
+    when(schemaManager.isCompatible(TABLE, Collections.singletonList(second))).thenReturn(false, true);
+    when(schemaManager.tableExists(TABLE)).thenReturn(true);
+    RecordSchemaTracker tracker = new RecordSchemaTracker(schemaManager, true, true);
+
+    tracker.add(TABLE, first);
+    tracker.prepareTables();
+    tracker.add(TABLE, record(FIRST_SCHEMA, 2));
+    tracker.add(TABLE, second);
+    tracker.add(TABLE, record(SECOND_SCHEMA, 3));
+    tracker.prepareTables();
+    tracker.add(TABLE, record(SECOND_SCHEMA, 4));
+    tracker.add(TABLE, record(FIRST_SCHEMA, 5));
+    tracker.prepareTables();
+
+    verify(schemaManager, times(1)).updateSchema(TABLE, Collections.singletonList(second));
+    verify(schemaManager, never()).createTable(any(), any());
+  }
+
+  @Test
+  public void testNothingDoneWhenNotAllowed() {
+    SinkRecord first = record(FIRST_SCHEMA, 0);
+    when(schemaManager.isCompatible(any(), any())).thenReturn(false);
+    when(schemaManager.tableExists(TABLE)).thenReturn(true);
+    RecordSchemaTracker tracker = new RecordSchemaTracker(schemaManager, true, false);
+
+    tracker.add(TABLE, first);
+    tracker.prepareTables();
+    // Schemas that were not accepted are checked again the next time they show up
+    tracker.add(TABLE, first);
+    tracker.prepareTables();
+
+    verify(schemaManager, times(2)).isCompatible(TABLE, Collections.singletonList(first));
+    verify(schemaManager, never()).updateSchema(any(), any());
+    verify(schemaManager, never()).createTable(any(), any());
+  }
+
+  @Test
+  public void testFailureLeftToWriter() {
+    when(schemaManager.isCompatible(any(), any())).thenReturn(false);
+    when(schemaManager.tableExists(TABLE)).thenReturn(true);
+    BigQueryException exception = new BigQueryException(400, "Provided Schema does not match Table");
+    doThrow(exception).when(schemaManager).updateSchema(eq(TABLE), any());
+    RecordSchemaTracker tracker = new RecordSchemaTracker(schemaManager, true, true);
+
+    tracker.add(TABLE, record(FIRST_SCHEMA, 0));
+    tracker.prepareTables();
+
+    verify(schemaManager, times(1)).updateSchema(eq(TABLE), any());
+  }
+
+  @Test
+  public void testSchemalessRecordsIgnored() {
+    RecordSchemaTracker tracker = new RecordSchemaTracker(schemaManager, true, true);
+
+    tracker.add(TABLE, new SinkRecord("topic", 0, null, null, null, null, 0));
+    tracker.add(TABLE, new SinkRecord("topic", 0, null, null, null, Collections.singletonMap("f1", "v"), 1));
+    tracker.prepareTables();
+
+    verify(schemaManager, never()).isCompatible(any(), any());
+  }
+
+  private static SinkRecord record(Schema valueSchema, long offset) {
+    Struct value = new Struct(valueSchema).put("f1", "value");
+    return new SinkRecord("topic", 0, null, null, valueSchema, value, offset);
+  }
+}
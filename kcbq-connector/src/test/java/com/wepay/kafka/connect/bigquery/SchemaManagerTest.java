@@ -20,9 +20,13 @@
 package com.wepay.kafka.connect.bigquery;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -63,6 +67,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
 import java.util.stream.Collectors;
 
 public class SchemaManagerTest {
@@ -723,6 +728,196 @@ public class SchemaManagerTest {
         Collections.singletonList(expandedSchema), expandedSchema, incomingSinkRecords);
   }
 
+  @Test
+  public void testUnionizedSchemaConvertedOncePerDistinctSchema() {
+    com.google.cloud.bigquery.Schema firstSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.NULLABLE).build()
+    );
+    com.google.cloud.bigquery.Schema secondSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f2", LegacySQLTypeName.INTEGER).setMode(Field.Mode.NULLABLE).build()
+    );
+    com.google.cloud.bigquery.Schema expectedSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.NULLABLE).build(),
+        Field.newBuilder("f2", LegacySQLTypeName.INTEGER).setMode(Field.Mode.NULLABLE).build()
+    );
+
+    Schema firstKafkaSchema = mock(Schema.class);
+    Schema secondKafkaSchema = mock(Schema.class);
+    when(mockSchemaConverter.convertSchema(firstKafkaSchema)).thenReturn(firstSchema);
+    when(mockSchemaConverter.convertSchema(secondKafkaSchema)).thenReturn(secondSchema);
+    when(mockBigQuery.getTable(tableId)).thenReturn(null);
+
+    SinkRecord firstRecord = recordWithValueSchema(firstKafkaSchema);
+    SinkRecord secondRecord = recordWithValueSchema(secondKafkaSchema);
+    List<SinkRecord> incomingSinkRecords = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      incomingSinkRecords.add(i % 3 == 2 ? secondRecord : firstRecord);
+    }
+
+    SchemaManager schemaManager = createSchemaManager(true, true, true);
+    assertEquals(expectedSchema, schemaManager.getAndValidateProposedSchema(tableId, incomingSinkRecords));
+    // Converted schemas are reused across batches as well
+    assertEquals(expectedSchema, schemaManager.getAndValidateProposedSchema(tableId, incomingSinkRecords));
+    assertEquals(expectedSchema, schemaManager.convertRecordSchemas(incomingSinkRecords));
+
+    verify(mockSchemaConverter, times(1)).convertSchema(firstKafkaSchema);
+    verify(mockSchemaConverter, times(1)).convertSchema(secondKafkaSchema);
+  }
+
+  @Test
+  public void testTableMetadataCachedAcrossSchemaUpdates() {
+    com.google.cloud.bigquery.Schema existingSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.NULLABLE).build()
+    );
+    com.google.cloud.bigquery.Schema expandedSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.NULLABLE).build(),
+        Field.newBuilder("f2", LegacySQLTypeName.INTEGER).setMode(Field.Mode.NULLABLE).build()
+    );
+    Table existingTable = tableWithSchema(existingSchema);
+    when(mockBigQuery.getTable(tableId)).thenReturn(existingTable);
+    when(mockSchemaConverter.convertSchema(mockKafkaSchema)).thenReturn(expandedSchema);
+
+    SchemaManager schemaManager = new SchemaManager(new IdentitySchemaRetriever(), mockSchemaConverter,
+        mockBigQuery, true, false, true, false, Optional.empty(), Optional.empty(), Optional.empty(),
+        Optional.empty(), Optional.empty(), Optional.of(TimePartitioning.Type.DAY), 60_000);
+    List<SinkRecord> incomingSinkRecords = Collections.singletonList(recordWithValueSchema(mockKafkaSchema));
+
+    assertTrue(schemaManager.tableExists(tableId));
+    schemaManager.updateSchema(tableId, incomingSinkRecords);
+    schemaManager.updateSchema(tableId, incomingSinkRecords);
+    assertEquals(expandedSchema, schemaManager.getAndValidateProposedSchema(tableId, incomingSinkRecords));
+
+    // The table is read once, and the schema it was updated to is remembered from then on
+    verify(mockBigQuery, times(1)).getTable(tableId);
+    verify(mockBigQuery, times(1)).update(any(TableInfo.class));
+  }
+
+  @Test
+  public void testCachedSchemaReadThroughTableMetadata() {
+    com.google.cloud.bigquery.Schema existingSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.NULLABLE).build()
+    );
+    when(mockBigQuery.getTable(tableId)).thenReturn(tableWithSchema(existingSchema));
+
+    SchemaManager schemaManager = createSchemaManager(true, true, true);
+    List<SinkRecord> incomingSinkRecords = Collections.singletonList(recordWithValueSchema(mockKafkaSchema));
+
+    // A table that was not created by this schema manager is still known to exist
+    assertEquals(existingSchema, schemaManager.cachedSchema(tableId));
+    assertFalse(schemaManager.createTable(tableId, incomingSinkRecords));
+    verify(mockBigQuery, never()).create(any(TableInfo.class));
+  }
+
+  @Test
+  public void testIsCompatible() {
+    com.google.cloud.bigquery.Schema tableSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build(),
+        Field.newBuilder("f2", LegacySQLTypeName.INTEGER).setMode(Field.Mode.NULLABLE).build(),
+        Field.newBuilder("f3", LegacySQLTypeName.RECORD,
+            Field.newBuilder("f4", LegacySQLTypeName.STRING).setMode(Field.Mode.NULLABLE).build()
+        ).setMode(Field.Mode.NULLABLE).build()
+    );
+    Table existingTable = tableWithSchema(tableSchema);
+    when(mockBigQuery.getTable(tableId)).thenReturn(existingTable);
+    SchemaManager schemaManager = createSchemaManager(true, true, false);
+
+    assertTrue(isCompatible(schemaManager, tableSchema));
+    // Optional fields may be left out
+    assertTrue(isCompatible(schemaManager, com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build()
+    )));
+    // Required fields may not be left out, or be optional in the records
+    assertFalse(isCompatible(schemaManager, com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f2", LegacySQLTypeName.INTEGER).setMode(Field.Mode.NULLABLE).build()
+    )));
+    assertFalse(isCompatible(schemaManager, com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.NULLABLE).build()
+    )));
+    // Fields the table does not have, including nested ones, need a schema update
+    assertFalse(isCompatible(schemaManager, com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build(),
+        Field.newBuilder("f5", LegacySQLTypeName.INTEGER).setMode(Field.Mode.NULLABLE).build()
+    )));
+    assertFalse(isCompatible(schemaManager, com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build(),
+        Field.newBuilder("f3", LegacySQLTypeName.RECORD,
+            Field.newBuilder("f5", LegacySQLTypeName.STRING).setMode(Field.Mode.NULLABLE).build()
+        ).setMode(Field.Mode.NULLABLE).build()
+    )));
+    assertFalse(isCompatible(schemaManager, com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.REQUIRED).build(),
+        Field.newBuilder("f2", LegacySQLTypeName.INTEGER).setMode(Field.Mode.REPEATED).build()
+    )));
+
+    when(mockBigQuery.getTable(tableId)).thenReturn(null);
+    assertFalse(isCompatible(schemaManager, tableSchema));
+  }
+
+  private boolean isCompatible(SchemaManager schemaManager, com.google.cloud.bigquery.Schema recordSchema) {
+    Schema kafkaSchema = mock(Schema.class);
+    when(mockSchemaConverter.convertSchema(kafkaSchema)).thenReturn(recordSchema);
+    return schemaManager.isCompatible(tableId, Collections.singletonList(recordWithValueSchema(kafkaSchema)));
+  }
+
+  @Test
+  public void testConcurrentSchemaUpdatesCoalesced() throws Exception {
+    com.google.cloud.bigquery.Schema existingSchema = com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.NULLABLE).build()
+    );
+    Table existingTable = tableWithSchema(existingSchema);
+    when(mockBigQuery.getTable(tableId)).thenReturn(existingTable);
+
+    CountDownLatch firstUpdateStarted = new CountDownLatch(1);
+    CountDownLatch firstUpdateReleased = new CountDownLatch(1);
+    List<TableInfo> updates = Collections.synchronizedList(new ArrayList<>());
+    when(mockBigQuery.update(any(TableInfo.class))).thenAnswer(invocation -> {
+      updates.add(invocation.getArgument(0));
+      if (updates.size() == 1) {
+        firstUpdateStarted.countDown();
+        firstUpdateReleased.await();
+      }
+      return null;
+    });
+
+    SchemaManager schemaManager = createSchemaManager(true, true, true);
+    Thread first = updateSchemaInBackground(schemaManager, "f2");
+    firstUpdateStarted.await();
+
+    // Both of these have to wait for the first update, so they are made together
+    Thread second = updateSchemaInBackground(schemaManager, "f3");
+    waitForState(second, Thread.State.BLOCKED);
+    Thread third = updateSchemaInBackground(schemaManager, "f4");
+    waitForState(third, Thread.State.WAITING);
+
+    firstUpdateReleased.countDown();
+    first.join();
+    second.join();
+    third.join();
+
+    assertEquals(2, updates.size());
+    com.google.cloud.bigquery.Schema coalescedSchema = updates.get(1).getDefinition().getSchema();
+    assertNotNull(coalescedSchema.getFields().get("f3"));
+    assertNotNull(coalescedSchema.getFields().get("f4"));
+  }
+
+  private Thread updateSchemaInBackground(SchemaManager schemaManager, String newField) {
+    Schema kafkaSchema = mock(Schema.class);
+    when(mockSchemaConverter.convertSchema(kafkaSchema)).thenReturn(com.google.cloud.bigquery.Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.BOOLEAN).setMode(Field.Mode.NULLABLE).build(),
+        Field.newBuilder(newField, LegacySQLTypeName.INTEGER).setMode(Field.Mode.NULLABLE).build()
+    ));
+    List<SinkRecord> records = Collections.singletonList(recordWithValueSchema(kafkaSchema));
+    Thread result = new Thread(() -> schemaManager.updateSchema(tableId, records));
+    result.start();
+    return result;
+  }
+
+  private void waitForState(Thread thread, Thread.State state) throws InterruptedException {
+    while (thread.getState() != state) {
+      Thread.sleep(1);
+    }
+  }
+
   @Test
   public void testGetUnionizedTableDescriptionFromTombstoneRecord() {
     SchemaManager schemaManager = createSchemaManager(false, true, true);
@@ -770,8 +965,15 @@ public class SchemaManagerTest {
       com.google.cloud.bigquery.Schema existingSchema,
       List<com.google.cloud.bigquery.Schema> newSchemas,
       com.google.cloud.bigquery.Schema expectedSchema) {
-    testGetAndValidateProposedSchema(schemaManager, existingSchema, newSchemas, expectedSchema,
-        Collections.nCopies(newSchemas.size(), recordWithValueSchema(mockKafkaSchema)));
+    // Converted schemas are cached, so each new schema has to come from a distinct Kafka schema
+    List<SinkRecord> incomingSinkRecords = new ArrayList<>();
+    for (com.google.cloud.bigquery.Schema newSchema : newSchemas) {
+      Schema kafkaSchema = mock(Schema.class);
+      when(mockSchemaConverter.convertSchema(kafkaSchema)).thenReturn(newSchema);
+      incomingSinkRecords.add(recordWithValueSchema(kafkaSchema));
+    }
+    testGetAndValidateProposedSchema(
+        schemaManager, existingSchema, null, expectedSchema, incomingSinkRecords);
   }
 
   private void testGetAndValidateProposedSchema(
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.LegacySQLTypeName;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableDefinition;
+import com.google.cloud.bigquery.TableId;
+import org.apache.kafka.common.utils.Time;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TableMetadataCacheTest {
+
+  private static final TableId TABLE = TableId.of("dataset", "table");
+  private static final long TTL_MS = 60_000;
+
+  private static final Schema FIRST_SCHEMA = Schema.of(Field.of("f1", LegacySQLTypeName.STRING));
+  private static final Schema SECOND_SCHEMA = Schema.of(
+      Field.of("f1", LegacySQLTypeName.STRING), Field.of("f2", LegacySQLTypeName.INTEGER));
+
+  private BigQuery bigQuery;
+  private Time time;
+  private long nowMs;
+
+  @Before
+  public void setUp() {
+    bigQuery = mock(BigQuery.class);
+    time = mock(Time.class);
+    when(time.milliseconds()).thenAnswer(invocation -> nowMs);
+  }
+
+  @Test
+  public void testReadOncePerTtl() {
+    Table firstTable = tableWithSchema(FIRST_SCHEMA);
+    Table secondTable = tableWithSchema(SECOND_SCHEMA);
+    when(bigQuery.getTable(TABLE)).thenReturn(firstTable, secondTable);
+    TableMetadataCache cache = new TableMetadataCache(bigQuery, TTL_MS, time);
+
+    assertTrue(cache.exists(TABLE));
+    assertEquals(FIRST_SCHEMA, cache.schema(TABLE));
+    nowMs = TTL_MS - 1;
+    assertEquals(FIRST_SCHEMA, cache.schema(TABLE));
+    verify(bigQuery, times(1)).getTable(TABLE);
+
+    // Changes made outside of the connector are picked up once the entry expires
+    nowMs = TTL_MS;
+    assertEquals(SECOND_SCHEMA, cache.schema(TABLE));
+    verify(bigQuery, times(2)).getTable(TABLE);
+  }
+
+  @Test
+  public void testMissingTableCached() {
+    when(bigQuery.getTable(TABLE)).thenReturn(null);
+    TableMetadataCache cache = new TableMetadataCache(bigQuery, TTL_MS, time);
+
+    assertFalse(cache.exists(TABLE));
+    assertNull(cache.schema(TABLE));
+    verify(bigQuery, times(1)).getTable(TABLE);
+  }
+
+  @Test
+  public void testPutAndInvalidate() {
+    when(bigQuery.getTable(TABLE)).thenReturn(null);
+    TableMetadataCache cache = new TableMetadataCache(bigQuery, TTL_MS, time);
+
+    assertFalse(cache.exists(TABLE));
+    cache.put(TABLE, FIRST_SCHEMA);
+    assertTrue(cache.exists(TABLE));
+    assertEquals(FIRST_SCHEMA, cache.schema(TABLE));
+    verify(bigQuery, times(1)).getTable(TABLE);
+
+    cache.invalidate(TABLE);
+    assertFalse(cache.exists(TABLE));
+    verify(bigQuery, times(2)).getTable(TABLE);
+  }
+
+  @Test
+  public void testZeroTtlDisablesCaching() {
+    Table table = tableWithSchema(FIRST_SCHEMA);
+    when(bigQuery.getTable(TABLE)).thenReturn(table);
+    TableMetadataCache cache = new TableMetadataCache(bigQuery, 0, time);
+
+    cache.put(TABLE, SECOND_SCHEMA);
+    assertEquals(FIRST_SCHEMA, cache.schema(TABLE));
+    assertEquals(FIRST_SCHEMA, cache.schema(TABLE));
+    verify(bigQuery, times(2)).getTable(TABLE);
+  }
+
+  @Test
+  public void testNoReadOnPut() {
+    TableMetadataCache cache = new TableMetadataCache(bigQuery, TTL_MS, time);
+
+    cache.put(TABLE, FIRST_SCHEMA);
+    assertEquals(FIRST_SCHEMA, cache.schema(TABLE));
+    verify(bigQuery, never()).getTable(TABLE);
+  }
+
+  private Table tableWithSchema(Schema schema) {
+    TableDefinition definition = mock(TableDefinition.class);
+    when(definition.getSchema()).thenReturn(schema);
+
+    Table result = mock(Table.class);
+    when(result.getDefinition()).thenReturn(definition);
+
+    return result;
+  }
+}
@@ -120,6 +120,13 @@ public class BigQuerySinkConfigTest {
     assertFalse(testConfig.getClusteringPartitionFieldNames().isPresent());
   }
 
+  @Test (expected = ConfigException.class)
+  public void testZeroWriteRateLimit() {
+    Map<String, String> configProperties = propertiesFactory.getProperties();
+    configProperties.put(BigQuerySinkConfig.MAX_WRITE_ROWS_PER_SECOND_PER_TABLE_CONFIG, "0");
+    new BigQuerySinkConfig(configProperties);
+  }
+
   /**
    * Test if the field names are more than four fields errors correctly.
    */
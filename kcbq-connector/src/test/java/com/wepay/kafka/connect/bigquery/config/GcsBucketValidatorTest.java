@@ -31,6 +31,7 @@ import java.util.Optional;
 
 import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.ENABLE_BATCH_CONFIG;
 import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.GCS_BUCKET_NAME_CONFIG;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.USE_STORAGE_WRITE_API_CONFIG;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.mockito.ArgumentMatchers.eq;
@@ -65,6 +66,18 @@ public class GcsBucketValidatorTest {
     );
   }
 
+  @Test
+  public void testStorageWriteApiBatchLoadingSkipsValidation() {
+    BigQuerySinkConfig config = mock(BigQuerySinkConfig.class);
+    when(config.getList(ENABLE_BATCH_CONFIG)).thenReturn(Collections.singletonList("t1"));
+    when(config.getBoolean(USE_STORAGE_WRITE_API_CONFIG)).thenReturn(true);
+
+    assertEquals(
+        Optional.empty(),
+        new GcsBucketValidator().doValidate(gcs, config)
+    );
+  }
+
   @Test
   public void testNullBucketWithBatchLoading() {
     BigQuerySinkConfig config = mock(BigQuerySinkConfig.class);
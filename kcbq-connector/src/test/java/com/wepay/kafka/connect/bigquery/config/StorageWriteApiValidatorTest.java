@@ -0,0 +1,85 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.config;
+
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.BIGQUERY_MESSAGE_TIME_PARTITIONING_CONFIG;
+import static com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig.USE_STORAGE_WRITE_API_CONFIG;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class StorageWriteApiValidatorTest {
+
+  @Test
+  public void testDisabledStorageWriteApiSkipsValidation() {
+    BigQuerySinkConfig config = mock(BigQuerySinkConfig.class);
+    when(config.getBoolean(USE_STORAGE_WRITE_API_CONFIG)).thenReturn(false);
+    when(config.isUpsertDeleteEnabled()).thenReturn(true);
+
+    assertEquals(
+        Optional.empty(),
+        new StorageWriteApiValidator().doValidate(config)
+    );
+  }
+
+  @Test
+  public void testStorageWriteApiWithoutConflicts() {
+    BigQuerySinkConfig config = mock(BigQuerySinkConfig.class);
+    when(config.getBoolean(USE_STORAGE_WRITE_API_CONFIG)).thenReturn(true);
+    when(config.isUpsertDeleteEnabled()).thenReturn(false);
+    when(config.getBoolean(BIGQUERY_MESSAGE_TIME_PARTITIONING_CONFIG)).thenReturn(false);
+
+    assertEquals(
+        Optional.empty(),
+        new StorageWriteApiValidator().doValidate(config)
+    );
+  }
+
+  @Test
+  public void testStorageWriteApiWithUpsertDelete() {
+    BigQuerySinkConfig config = mock(BigQuerySinkConfig.class);
+    when(config.getBoolean(USE_STORAGE_WRITE_API_CONFIG)).thenReturn(true);
+    when(config.isUpsertDeleteEnabled()).thenReturn(true);
+    when(config.getBoolean(BIGQUERY_MESSAGE_TIME_PARTITIONING_CONFIG)).thenReturn(false);
+
+    assertNotEquals(
+        Optional.empty(),
+        new StorageWriteApiValidator().doValidate(config)
+    );
+  }
+
+  @Test
+  public void testStorageWriteApiWithMessageTimePartitioning() {
+    BigQuerySinkConfig config = mock(BigQuerySinkConfig.class);
+    when(config.getBoolean(USE_STORAGE_WRITE_API_CONFIG)).thenReturn(true);
+    when(config.isUpsertDeleteEnabled()).thenReturn(false);
+    when(config.getBoolean(BIGQUERY_MESSAGE_TIME_PARTITIONING_CONFIG)).thenReturn(true);
+
+    assertNotEquals(
+        Optional.empty(),
+        new StorageWriteApiValidator().doValidate(config)
+    );
+  }
+}
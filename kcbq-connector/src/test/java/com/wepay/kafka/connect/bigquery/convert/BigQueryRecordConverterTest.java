@@ -38,6 +38,7 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -736,6 +737,62 @@ public class BigQueryRecordConverterTest {
     assertEquals(((Map)(convertedMap.get("f3"))).get("f4"), Base64.getEncoder().encodeToString(helloWorld));
   }
 
+  @Test
+  public void testPlanReusedAcrossRecords() {
+    Schema nestedSchema = SchemaBuilder.struct().optional().field("n", Schema.OPTIONAL_FLOAT64_SCHEMA).build();
+    Schema kafkaConnectSchema = SchemaBuilder
+        .struct()
+        .field("s", Schema.STRING_SCHEMA)
+        .field("nested", nestedSchema)
+        .field("list", SchemaBuilder.array(Schema.INT32_SCHEMA).build())
+        .build();
+    BigQueryRecordConverter converter = new BigQueryRecordConverter(SHOULD_CONVERT_DOUBLE);
+
+    for (int i = 0; i < 3; i++) {
+      Struct kafkaConnectStruct = new Struct(kafkaConnectSchema)
+          .put("s", "value" + i)
+          .put("list", Arrays.asList(i, i + 1));
+      if (i != 1) {
+        kafkaConnectStruct.put("nested", new Struct(nestedSchema).put("n", i == 2 ? Double.NaN : 1.5));
+      }
+
+      Map<String, Object> bigQueryExpectedRecord = new HashMap<>();
+      bigQueryExpectedRecord.put("s", "value" + i);
+      bigQueryExpectedRecord.put("list", Arrays.asList(i, i + 1));
+      if (i != 1) {
+        bigQueryExpectedRecord.put("nested", Collections.singletonMap("n", i == 2 ? Double.MIN_VALUE : 1.5));
+      }
+
+      SinkRecord kafkaConnectRecord = spoofSinkRecord(kafkaConnectSchema, kafkaConnectStruct, false);
+      assertEquals(bigQueryExpectedRecord, converter.convertRecord(kafkaConnectRecord, KafkaSchemaRecordType.VALUE));
+    }
+  }
+
+  @Test
+  public void testStructWithDifferentSchemaInstance() {
+    Schema recordSchema = SchemaBuilder
+        .struct()
+        .field("f1", Schema.STRING_SCHEMA)
+        .field("f2", Schema.INT32_SCHEMA)
+        .build();
+    // Same fields, in a different order, so fields can't be read by their position in the record's schema
+    Schema structSchema = SchemaBuilder
+        .struct()
+        .field("f2", Schema.INT32_SCHEMA)
+        .field("f1", Schema.STRING_SCHEMA)
+        .build();
+    Struct kafkaConnectStruct = new Struct(structSchema).put("f1", "value").put("f2", 42);
+
+    Map<String, Object> bigQueryExpectedRecord = new HashMap<>();
+    bigQueryExpectedRecord.put("f1", "value");
+    bigQueryExpectedRecord.put("f2", 42);
+
+    SinkRecord kafkaConnectRecord = spoofSinkRecord(recordSchema, kafkaConnectStruct, false);
+    Map<String, Object> bigQueryTestRecord =
+        new BigQueryRecordConverter(SHOULD_CONVERT_DOUBLE).convertRecord(kafkaConnectRecord, KafkaSchemaRecordType.VALUE);
+    assertEquals(bigQueryExpectedRecord, bigQueryTestRecord);
+  }
+
   private static SinkRecord spoofSinkRecord(Schema schema, Object struct, boolean isKey) {
     if (isKey) {
       return new SinkRecord(null, 0, schema, struct, null, null, 0);
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.convert.logicaltype;
+
+import io.debezium.time.ZonedTimestamp;
+import org.junit.Test;
+
+import java.text.SimpleDateFormat;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.function.LongFunction;
+
+import static org.junit.Assert.assertEquals;
+
+public class TemporalEncoderTest {
+
+  private static final long[] EDGE_CASES = {
+      0L, 1L, -1L, 999L, 1000L, -999L, -1000L, 86_399_999L, 86_400_000L, -86_400_000L,
+      // around the Gregorian cutover
+      -12_219_292_800_001L, -12_219_292_800_000L, -12_219_292_799_999L,
+      // around the end of year 9999
+      253_402_300_799_999L, 253_402_300_800_000L,
+      // leap days
+      951_782_400_000L, 4_107_542_400_000L, -2_203_891_200_000L,
+      Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE};
+
+  @Test
+  public void testDate() {
+    assertParity("yyyy-MM-dd", TemporalEncoder::date);
+  }
+
+  @Test
+  public void testSecondsTime() {
+    assertParity("HH:mm:ss", TemporalEncoder::secondsTime);
+  }
+
+  @Test
+  public void testMillisTime() {
+    assertParity("HH:mm:ss.SSS", TemporalEncoder::millisTime);
+  }
+
+  @Test
+  public void testSecondsTimestamp() {
+    assertParity("yyyy-MM-dd HH:mm:ss", TemporalEncoder::secondsTimestamp);
+  }
+
+  @Test
+  public void testMillisTimestamp() {
+    assertParity("yyyy-MM-dd HH:mm:ss.SSS", TemporalEncoder::millisTimestamp);
+  }
+
+  @Test
+  public void testZonedTimestamp() {
+    List<String> values = Arrays.asList(
+        "2020-01-02T03:04:05Z",
+        "2020-01-02T03:04:05.5Z",
+        "2020-01-02T03:04:05.500Z",
+        "2020-01-02T03:04:05.123456789Z",
+        "2020-01-02T03:04:05.000000000Z",
+        "2020-01-02T03:04:05.Z",
+        "2020-01-02T03:04Z",
+        "2020-01-02T03:04:05+05:30",
+        "2020-01-02T03:04:05-08:00",
+        "2020-01-02T03:04:05+00:00",
+        "2020-01-02T03:04:05-00:00",
+        "2020-01-02T03:04:05+18:00",
+        "2020-01-02T03:04:05+05:30:15",
+        "2020-01-02t03:04:05z",
+        "2020-02-29T00:00:00Z",
+        "0000-01-01T00:00:00Z",
+        "9999-12-31T23:59:59.999999999Z");
+    for (String value : values) {
+      assertEquals(value, legacyZonedTimestamp(value), TemporalEncoder.zonedTimestamp(value));
+    }
+  }
+
+  @Test
+  public void testInvalidZonedTimestamps() {
+    List<String> values = Arrays.asList(
+        "2019-02-29T00:00:00Z",
+        "2020-04-31T00:00:00Z",
+        "2020-13-01T00:00:00Z",
+        "2020-01-01T24:00:00Z",
+        "2020-01-01T00:60:00Z",
+        "2020-01-01T00:00:60Z",
+        "2020-01-01T00:00:00+19:00",
+        "2020-01-01T00:00:00.1234567891Z",
+        "2020-01-01T00:00:00",
+        "2020-01-01 00:00:00Z");
+    for (String value : values) {
+      try {
+        TemporalEncoder.zonedTimestamp(value);
+        throw new AssertionError("Expected " + value + " to be rejected");
+      } catch (DateTimeParseException e) {
+        // expected
+      }
+    }
+  }
+
+  private static void assertParity(String pattern, LongFunction<String> encoder) {
+    for (long value : EDGE_CASES) {
+      assertEquals(legacy(pattern, value), encoder.apply(value));
+    }
+    Random random = new Random(42);
+    for (int i = 0; i < 100_000; i++) {
+      // Mostly within a few hundred years of the epoch, but also well beyond either end of it
+      long value = i % 10 == 0
+          ? random.nextLong() / 1000
+          : (long) ((random.nextDouble() - 0.5) * 2 * 20_000_000_000_000L);
+      assertEquals(String.valueOf(value), legacy(pattern, value), encoder.apply(value));
+    }
+  }
+
+  private static String legacy(String pattern, long epochMillis) {
+    SimpleDateFormat format = new SimpleDateFormat(pattern);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format.format(new Date(epochMillis));
+  }
+
+  private static String legacyZonedTimestamp(String value) {
+    DateTimeFormatter format = new DateTimeFormatterBuilder()
+        .append(DateTimeFormatter.ISO_LOCAL_DATE)
+        .appendLiteral(' ')
+        .append(DateTimeFormatter.ISO_TIME)
+        .toFormatter();
+    return format.format(ZonedTimestamp.FORMATTER.parse(value));
+  }
+}
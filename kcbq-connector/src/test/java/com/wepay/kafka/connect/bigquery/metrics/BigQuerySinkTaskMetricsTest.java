@@ -0,0 +1,127 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.metrics;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.metrics.BigQuerySinkTaskMetrics.RetryReason;
+import org.apache.kafka.common.metrics.Metrics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class BigQuerySinkTaskMetricsTest {
+
+  private BigQuerySinkTaskMetrics metrics;
+
+  @Before
+  public void setUp() {
+    metrics = new BigQuerySinkTaskMetrics(new Metrics(), "connector", 0);
+  }
+
+  @After
+  public void tearDown() {
+    metrics.close();
+  }
+
+  @Test
+  public void testWriteRequests() {
+    metrics.recordWriteRequest(10, 500, 1000);
+    metrics.recordWriteRequest(30, 1000, 1000);
+
+    assertEquals(20.0, value("write-request-rows-avg"), 0.0);
+    assertEquals(30.0, value("write-request-rows-max"), 0.0);
+    assertEquals(2.0, value("write-request-total"), 0.0);
+    assertEquals(750.0, value("write-request-bytes-avg"), 0.0);
+    assertEquals(0.75, value("write-request-fill-ratio-avg"), 0.0);
+    assertEquals(1.0, value("write-request-fill-ratio-max"), 0.0);
+  }
+
+  @Test
+  public void testBatchSizeErrors() {
+    metrics.recordBatchSizeError();
+    assertEquals(1.0, value("write-request-batch-size-error-total"), 0.0);
+  }
+
+  @Test
+  public void testConcurrencyLimit() {
+    metrics.registerConcurrencyLimit(() -> 4, () -> 3);
+    assertEquals(4.0, value("write-concurrency-limit"), 0.0);
+    assertEquals(3.0, value("write-requests-in-flight"), 0.0);
+  }
+
+  @Test
+  public void testWriteQueueAndPausedPartitions() {
+    metrics.registerWriteQueue(() -> 7);
+    metrics.registerPausedPartitions(() -> 2);
+    metrics.recordPartitionPause(100);
+    metrics.recordPartitionPause(300);
+
+    assertEquals(7.0, value("write-queue-depth"), 0.0);
+    assertEquals(2.0, value("paused-partitions"), 0.0);
+    assertEquals(400.0, value("partition-pause-time-ms-total"), 0.0);
+    assertEquals(300.0, value("partition-pause-time-ms-max"), 0.0);
+  }
+
+  @Test
+  public void testTableMetrics() {
+    TableId table = TableId.of("dataset", "table");
+    TableId other = TableId.of("project", "dataset", "other");
+    BigQuerySinkTaskMetrics.TableMetrics tableMetrics = metrics.table(table);
+    assertSame(tableMetrics, metrics.table(table));
+
+    // Sampled stats discard samples that are too old, so use the current time
+    long now = System.currentTimeMillis();
+    tableMetrics.recordWrite(10, 1000, now - 1000, now);
+    tableMetrics.recordWrite(20, 3000, -1, now);
+    tableMetrics.recordWrite(5, 500, now - 300, now);
+    tableMetrics.recordRequestLatency(40);
+    tableMetrics.recordRequestLatency(80);
+    tableMetrics.recordRetry(RetryReason.QUOTA_EXCEEDED);
+    tableMetrics.recordRetry(RetryReason.QUOTA_EXCEEDED);
+    tableMetrics.recordRetry(RetryReason.BACKEND_ERROR);
+    tableMetrics.recordBatchSizeError();
+    metrics.table(other).recordWrite(1, 1, -1, now);
+
+    assertEquals(35.0, tableValue(table, "write-rows-total"), 0.0);
+    assertEquals(4500.0, tableValue(table, "write-bytes-total"), 0.0);
+    assertEquals(1.0, tableValue(other, "write-rows-total"), 0.0);
+    // Requests with no timestamped records do not count towards the lag
+    assertEquals(650.0, tableValue(table, "record-lag-ms-avg"), 0.0);
+    assertEquals(1000.0, tableValue(table, "record-lag-ms-max"), 0.0);
+    assertEquals(60.0, tableValue(table, "write-request-latency-ms-avg"), 0.0);
+    assertEquals(80.0, tableValue(table, "write-request-latency-ms-max"), 0.0);
+    assertEquals(80.0, tableValue(table, "write-request-latency-ms-p99"), 20.0);
+    assertEquals(2.0, tableValue(table, "write-retry-quota-exceeded-total"), 0.0);
+    assertEquals(1.0, tableValue(table, "write-retry-backend-error-total"), 0.0);
+    assertEquals(0.0, tableValue(table, "write-retry-io-error-total"), 0.0);
+    assertEquals(1.0, tableValue(table, "write-request-batch-size-error-total"), 0.0);
+  }
+
+  private double tableValue(TableId table, String name) {
+    return ((Number) metrics.metrics().metric(metrics.tableMetricName(table, name, "")).metricValue())
+        .doubleValue();
+  }
+
+  private double value(String name) {
+    return ((Number) metrics.metrics().metric(metrics.metricName(name, "")).metricValue()).doubleValue();
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.metrics;
+
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.metrics.FlightRecorderEvents.Span;
+import com.wepay.kafka.connect.bigquery.write.row.RowBatch;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+public class FlightRecorderEventsTest {
+
+  private static final TableId TABLE = TableId.of("dataset", "table");
+
+  @Test
+  public void testSingleInstance() {
+    assertNotNull(FlightRecorderEvents.get());
+    assertSame(FlightRecorderEvents.get(), FlightRecorderEvents.get());
+  }
+
+  @Test
+  public void testSpans() {
+    // Whether or not Flight Recorder is available, and whether or not a recording is running, every span can be used
+    FlightRecorderEvents events = FlightRecorderEvents.get();
+    RowBatch rows = RowBatch.builder()
+        .add(new SinkRecord("topic", 0, null, null, null, "value", 0),
+            RowToInsert.of(Collections.singletonMap("field", "value")))
+        .build();
+
+    events.writeRequest(TABLE, rows, 1).end(FlightRecorderEvents.SUCCESS);
+    events.retryWait(TABLE, 2, "quota-exceeded").end(FlightRecorderEvents.SUCCESS);
+
+    Span schemaChange = events.schemaChange(TABLE, "update", 1);
+    schemaChange.lockAcquired();
+    schemaChange.end(FlightRecorderEvents.SKIPPED);
+
+    Span mergeFlush = events.mergeFlushPrepare(TABLE, 0);
+    mergeFlush.rows(10);
+    mergeFlush.end(FlightRecorderEvents.ERROR);
+  }
+}
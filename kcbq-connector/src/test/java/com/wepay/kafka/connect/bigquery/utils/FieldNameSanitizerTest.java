@@ -27,6 +27,7 @@ import org.junit.Test;
 import java.util.HashMap;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class FieldNameSanitizerTest {
@@ -117,4 +118,45 @@ public class FieldNameSanitizerTest {
         FieldNameSanitizer.replaceInvalidKeys(testMap)
     );
   }
+
+  @Test
+  public void testSanitizeName() {
+    assertEquals("valid_Name_1", FieldNameSanitizer.sanitizeName("valid_Name_1"));
+    assertEquals("_valid", FieldNameSanitizer.sanitizeName("_valid"));
+    assertEquals("", FieldNameSanitizer.sanitizeName(""));
+    assertEquals("_1abc", FieldNameSanitizer.sanitizeName("1abc"));
+    assertEquals("_abc", FieldNameSanitizer.sanitizeName("-abc"));
+    assertEquals("a_b_c", FieldNameSanitizer.sanitizeName("a.b c"));
+    assertEquals("caf_", FieldNameSanitizer.sanitizeName("caf\u00e9"));
+    // A character outside the BMP is replaced with a single underscore, as it is by a regex
+    assertEquals("a_b", FieldNameSanitizer.sanitizeName("a\ud83d\ude00b"));
+    assertEquals("a__", FieldNameSanitizer.sanitizeName("a\n\r"));
+
+    // Repeated lookups give the same result
+    assertEquals("_1abc", FieldNameSanitizer.sanitizeName("1abc"));
+  }
+
+  @Test
+  public void testValidKeysNotCopied() {
+    Map<String, Object> nested = new HashMap<>();
+    nested.put("inner_1", "value");
+    Map<String, Object> map = new HashMap<>();
+    map.put("outer", nested);
+    map.put("other", 1);
+    assertSame(map, FieldNameSanitizer.replaceInvalidKeys(map));
+  }
+
+  @Test
+  public void testOnlyNestedKeyInvalid() {
+    Map<String, Object> map = new HashMap<>();
+    map.put("a", 1);
+    map.put("b", Collections.singletonMap("c.d", 2));
+    map.put("e", 3);
+
+    Map<String, Object> expected = new HashMap<>();
+    expected.put("a", 1);
+    expected.put("b", Collections.singletonMap("c_d", 2));
+    expected.put("e", 3);
+    assertEquals(expected, FieldNameSanitizer.replaceInvalidKeys(map));
+  }
 }
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.utils;
+
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.data.Struct;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RecordSizeEstimatorTest {
+
+  @Test
+  public void testStructAndMapEstimatesMatch() {
+    Schema schema = SchemaBuilder.struct()
+        .field("f1", Schema.STRING_SCHEMA)
+        .field("f2", Schema.INT64_SCHEMA)
+        .build();
+    Struct struct = new Struct(schema).put("f1", "value").put("f2", 12L);
+
+    Map<String, Object> map = new HashMap<>();
+    map.put("f1", "value");
+    map.put("f2", 12L);
+
+    assertEquals(RecordSizeEstimator.estimate(map), RecordSizeEstimator.estimate(struct));
+  }
+
+  @Test
+  public void testEstimateGrowsWithContent() {
+    long small = RecordSizeEstimator.estimate(Collections.singletonList("a"));
+    long large = RecordSizeEstimator.estimate(Arrays.asList("a", new String(new char[1000])));
+    assertTrue(large > small + 1000);
+  }
+
+  @Test
+  public void testBytesEstimatedAsBase64() {
+    assertEquals(
+        RecordSizeEstimator.estimate(new byte[30]),
+        RecordSizeEstimator.estimate(ByteBuffer.wrap(new byte[30])));
+    assertEquals(42, RecordSizeEstimator.estimate(new byte[30]));
+  }
+
+  @Test
+  public void testRowToInsertIncludesId() {
+    Map<String, Object> content = Collections.singletonMap("f1", "value");
+    long withoutId = RecordSizeEstimator.estimate(RowToInsert.of(content));
+    assertTrue(withoutId > RecordSizeEstimator.estimate(content));
+    assertEquals(withoutId + 10, RecordSizeEstimator.estimate(RowToInsert.of("0123456789", content)));
+  }
+}
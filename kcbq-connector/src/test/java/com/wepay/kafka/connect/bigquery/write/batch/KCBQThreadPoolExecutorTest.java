@@ -0,0 +1,184 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.SinkPropertiesFactory;
+import com.wepay.kafka.connect.bigquery.config.BigQuerySinkTaskConfig;
+import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import org.apache.kafka.common.config.ConfigException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class KCBQThreadPoolExecutorTest {
+
+  private KCBQThreadPoolExecutor executor;
+
+  @After
+  public void tearDown() throws InterruptedException {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @Test
+  public void testAwaitCurrentTasks() throws Exception {
+    executor = platformExecutor(2);
+    testAwaitCurrentTasks(executor);
+  }
+
+  @Test
+  public void testAwaitCurrentTasksVirtualThreads() throws Exception {
+    assumeTrue(virtualThreadsSupported());
+    executor = KCBQThreadPoolExecutor.withVirtualThreads();
+    testAwaitCurrentTasks(executor);
+  }
+
+  @Test
+  public void testVirtualThreadsUnsupported() {
+    assumeTrue(!virtualThreadsSupported());
+    assertThrows(ConfigException.class, KCBQThreadPoolExecutor::withVirtualThreads);
+  }
+
+  @Test
+  public void testEncounteredError() throws InterruptedException {
+    executor = platformExecutor(1);
+    executor.execute(() -> {
+      throw new RuntimeException("Write failed");
+    });
+    assertThrows(BigQueryConnectException.class, executor::awaitCurrentTasks);
+    assertThrows(BigQueryConnectException.class, executor::maybeThrowEncounteredError);
+  }
+
+  @Test
+  public void testParkedTaskRunAgain() throws Exception {
+    executor = platformExecutor(1);
+    AtomicInteger runs = new AtomicInteger();
+    CountDownLatch otherTaskDone = new CountDownLatch(1);
+    executor.execute(() -> {
+      if (runs.incrementAndGet() == 1) {
+        throw new TableNotReadyException(TableId.of("d", "t"), 200, 30);
+      }
+      // The only thread was free to run other tasks while this one was parked
+      assertEquals(0, otherTaskDone.getCount());
+    });
+    executor.execute(otherTaskDone::countDown);
+
+    assertTrue(otherTaskDone.await(10, TimeUnit.SECONDS));
+    executor.awaitCurrentTasks();
+    assertEquals(2, runs.get());
+    executor.maybeThrowEncounteredError();
+  }
+
+  @Test
+  public void testWaitingTaskCount() throws Exception {
+    executor = platformExecutor(1);
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    executor.execute(() -> {
+      started.countDown();
+      await(release);
+    });
+    executor.execute(() -> {
+      throw new TableNotReadyException(TableId.of("d", "t"), 60_000, 30);
+    });
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+    // The running task is not counted, but the one queued behind it is
+    assertEquals(1, executor.waitingTaskCount());
+
+    release.countDown();
+    long deadline = System.currentTimeMillis() + 10_000;
+    while (executor.getCompletedTaskCount() < 2 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    // The second task is now parked, which still counts as waiting
+    assertEquals(2, executor.getCompletedTaskCount());
+    assertEquals(1, executor.waitingTaskCount());
+  }
+
+  private void testAwaitCurrentTasks(KCBQThreadPoolExecutor executor) throws Exception {
+    CountDownLatch releaseFirst = new CountDownLatch(1);
+    AtomicBoolean firstDone = new AtomicBoolean();
+    executor.execute(() -> {
+      await(releaseFirst);
+      firstDone.set(true);
+    });
+
+    CountDownLatch awaited = new CountDownLatch(1);
+    Thread waiter = new Thread(() -> {
+      try {
+        executor.awaitCurrentTasks();
+        awaited.countDown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    waiter.start();
+    assertFalse(awaited.await(100, TimeUnit.MILLISECONDS));
+
+    // Tasks submitted after the wait began are not waited for
+    CountDownLatch never = new CountDownLatch(1);
+    executor.execute(() -> await(never));
+
+    releaseFirst.countDown();
+    assertTrue(awaited.await(10, TimeUnit.SECONDS));
+    assertTrue(firstDone.get());
+    waiter.join();
+    never.countDown();
+  }
+
+  private static KCBQThreadPoolExecutor platformExecutor(int threads) {
+    Map<String, String> properties = new SinkPropertiesFactory().getProperties();
+    properties.put(BigQuerySinkTaskConfig.THREAD_POOL_SIZE_CONFIG, Integer.toString(threads));
+    properties.put(BigQuerySinkTaskConfig.TASK_ID_CONFIG, "0");
+    return new KCBQThreadPoolExecutor(new BigQuerySinkTaskConfig(properties), new LinkedBlockingQueue<>());
+  }
+
+  private static boolean virtualThreadsSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
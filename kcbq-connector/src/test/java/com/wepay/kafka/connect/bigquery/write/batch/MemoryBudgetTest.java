@@ -0,0 +1,46 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MemoryBudgetTest {
+
+  @Test
+  public void testHysteresis() {
+    MemoryBudget budget = new MemoryBudget(100);
+    assertFalse(budget.isExceeded());
+    assertTrue(budget.isRelieved());
+
+    budget.reserve(101);
+    assertTrue(budget.isExceeded());
+    assertFalse(budget.isRelieved());
+
+    // Under the limit, but not by enough to lift backpressure
+    budget.release(30);
+    assertFalse(budget.isExceeded());
+    assertFalse(budget.isRelieved());
+
+    budget.release(21);
+    assertTrue(budget.isRelieved());
+  }
+}
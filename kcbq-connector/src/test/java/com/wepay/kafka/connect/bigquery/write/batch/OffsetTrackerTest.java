@@ -0,0 +1,145 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OffsetTrackerTest {
+
+  private static final TopicPartition TP0 = new TopicPartition("topic", 0);
+  private static final TopicPartition TP1 = new TopicPartition("topic", 1);
+
+  private final OffsetTracker tracker = new OffsetTracker();
+
+  @Test
+  public void testNothingReceived() {
+    assertEquals(Collections.emptyMap(), tracker.safeOffsets(current(TP0, 10)));
+  }
+
+  @Test
+  public void testUnwrittenBatchesHoldBackOffsets() {
+    OffsetTracker.Batch first = batch(TP0, 0, 1, 2);
+    OffsetTracker.Batch second = batch(TP0, 3, 4);
+    assertEquals(current(TP0, 0), tracker.safeOffsets(current(TP0, 5)));
+
+    // Later batches completing first must not advance the offset
+    second.written();
+    assertEquals(current(TP0, 0), tracker.safeOffsets(current(TP0, 5)));
+
+    first.written();
+    assertEquals(current(TP0, 5), tracker.safeOffsets(current(TP0, 5)));
+  }
+
+  @Test
+  public void testInterleavedBatches() {
+    OffsetTracker.Batch first = batch(TP0, 0, 2);
+    OffsetTracker.Batch second = batch(TP0, 1, 3);
+
+    first.written();
+    assertEquals(current(TP0, 1), tracker.safeOffsets(current(TP0, 4)));
+    second.written();
+    assertEquals(current(TP0, 4), tracker.safeOffsets(current(TP0, 4)));
+  }
+
+  @Test
+  public void testPartitionsTrackedIndependently() {
+    batch(TP0, 0, 1);
+    OffsetTracker.Batch other = batch(TP1, 7, 8);
+    other.written();
+
+    Map<TopicPartition, OffsetAndMetadata> expected = new HashMap<>();
+    expected.put(TP0, new OffsetAndMetadata(0));
+    expected.put(TP1, new OffsetAndMetadata(9));
+
+    Map<TopicPartition, OffsetAndMetadata> current = new HashMap<>();
+    current.put(TP0, new OffsetAndMetadata(2));
+    current.put(TP1, new OffsetAndMetadata(9));
+    assertEquals(expected, tracker.safeOffsets(current));
+  }
+
+  @Test
+  public void testSkippedRecordsAreSafe() {
+    OffsetTracker.Batch batch = batch(TP0, 0);
+    // Received but never added to a batch, as is the case for tombstones
+    tracker.received(record(TP0, 1));
+
+    batch.written();
+    assertEquals(current(TP0, 2), tracker.safeOffsets(current(TP0, 2)));
+  }
+
+  @Test
+  public void testNeverAheadOfCurrentOffsets() {
+    batch(TP0, 0, 1, 2).written();
+    assertEquals(current(TP0, 1), tracker.safeOffsets(current(TP0, 1)));
+  }
+
+  @Test
+  public void testForgetRevokedPartitions() {
+    OffsetTracker.Batch first = batch(TP0, 0, 1);
+    batch(TP1, 0).written();
+    assertTrue(tracker.hasPending(Collections.singleton(TP0)));
+    assertFalse(tracker.hasPending(Collections.singleton(TP1)));
+
+    tracker.forget(Collections.singleton(TP0));
+    assertFalse(tracker.hasPending());
+    assertEquals(Collections.emptyMap(), tracker.safeOffsets(current(TP0, 2)));
+
+    // Batches that were still outstanding no longer affect the partition once it has been forgotten
+    batch(TP0, 5);
+    first.written();
+    assertEquals(current(TP0, 5), tracker.safeOffsets(current(TP0, 6)));
+  }
+
+  @Test
+  public void testDiscardedBatchNoLongerHoldsBackOffsets() {
+    OffsetTracker.Batch first = batch(TP0, 0, 1);
+    first.discard();
+    assertFalse(tracker.hasPending());
+    assertEquals(current(TP0, 2), tracker.safeOffsets(current(TP0, 2)));
+  }
+
+  private OffsetTracker.Batch batch(TopicPartition partition, long... offsets) {
+    OffsetTracker.Batch batch = tracker.newBatch();
+    for (long offset : offsets) {
+      SinkRecord record = record(partition, offset);
+      tracker.received(record);
+      batch.add(record);
+    }
+    return batch;
+  }
+
+  private static SinkRecord record(TopicPartition partition, long offset) {
+    return new SinkRecord(partition.topic(), partition.partition(), null, null, null, "value", offset);
+  }
+
+  private static Map<TopicPartition, OffsetAndMetadata> current(TopicPartition partition, long offset) {
+    return Collections.singletonMap(partition, new OffsetAndMetadata(offset));
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.TableId;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class TableBacklogTest {
+
+  private static final TableId TABLE_1 = TableId.of("d", "t1");
+  private static final TableId TABLE_2 = TableId.of("d", "t2");
+  private static final TopicPartition PARTITION_1 = new TopicPartition("topic1", 0);
+  private static final TopicPartition PARTITION_2 = new TopicPartition("topic2", 0);
+  private static final TopicPartition PARTITION_3 = new TopicPartition("topic3", 0);
+
+  @Test
+  public void testPendingWriters() {
+    TableBacklog backlog = new TableBacklog(() -> 0, -1, 2, null);
+    for (int i = 0; i < 3; i++) {
+      backlog.buffered(TABLE_1, PARTITION_1, 0);
+      backlog.dispatched(TABLE_1);
+    }
+    backlog.buffered(TABLE_2, PARTITION_2, 0);
+    backlog.dispatched(TABLE_2);
+
+    // Only the partitions feeding the backed up table are paused
+    assertEquals(Collections.singleton(PARTITION_1), backlog.backedUpPartitions());
+
+    // Still over half of the limit
+    backlog.finished(TABLE_1, 1, 0);
+    assertEquals(Collections.singleton(PARTITION_1), backlog.backedUpPartitions());
+
+    backlog.finished(TABLE_1, 1, 0);
+    assertEquals(Collections.emptySet(), backlog.backedUpPartitions());
+  }
+
+  @Test
+  public void testQueuedWrites() {
+    AtomicInteger queued = new AtomicInteger();
+    TableBacklog backlog = new TableBacklog(queued::get, 2, -1, null);
+    for (int i = 0; i < 3; i++) {
+      backlog.buffered(TABLE_1, PARTITION_1, 0);
+      backlog.dispatched(TABLE_1);
+    }
+    backlog.buffered(TABLE_2, PARTITION_2, 0);
+    backlog.dispatched(TABLE_2);
+    assertEquals(Collections.emptySet(), backlog.backedUpPartitions());
+
+    // Only the table with more than its share of the queue is paused
+    queued.set(3);
+    assertEquals(Collections.singleton(PARTITION_1), backlog.backedUpPartitions());
+
+    // The queue is no longer over its limit, but is still over half of it
+    queued.set(2);
+    assertEquals(Collections.singleton(PARTITION_1), backlog.backedUpPartitions());
+
+    queued.set(1);
+    assertEquals(Collections.emptySet(), backlog.backedUpPartitions());
+  }
+
+  @Test
+  public void testSourcesAreTrackedPerTable() {
+    TableBacklog backlog = new TableBacklog(() -> 0, -1, 0, null);
+    backlog.buffered(TABLE_1, PARTITION_1, 0);
+    backlog.buffered(TABLE_1, PARTITION_2, 0);
+    backlog.buffered(TABLE_2, PARTITION_3, 0);
+    assertEquals(Collections.emptySet(), backlog.backedUpPartitions());
+
+    backlog.dispatched(TABLE_1);
+    assertEquals(new HashSet<>(Arrays.asList(PARTITION_1, PARTITION_2)), backlog.backedUpPartitions());
+
+    backlog.finished(TABLE_1, 2, 0);
+    assertEquals(Collections.emptySet(), backlog.backedUpPartitions());
+
+    // Once a table has drained, partitions that used to feed it are forgotten
+    backlog.buffered(TABLE_1, PARTITION_3, 0);
+    backlog.dispatched(TABLE_1);
+    assertEquals(Collections.singleton(PARTITION_3), backlog.backedUpPartitions());
+  }
+
+  @Test
+  public void testMemoryBudget() {
+    MemoryBudget memoryBudget = new MemoryBudget(100);
+    TableBacklog backlog = new TableBacklog(() -> 0, -1, -1, memoryBudget);
+    buffer(backlog, memoryBudget, TABLE_1, PARTITION_1, 45);
+    buffer(backlog, memoryBudget, TABLE_1, PARTITION_1, 45);
+    buffer(backlog, memoryBudget, TABLE_2, PARTITION_2, 20);
+    backlog.dispatched(TABLE_1);
+    backlog.dispatched(TABLE_1);
+    backlog.dispatched(TABLE_2);
+
+    // Only the table using more than its share of the budget is paused
+    assertEquals(Collections.singleton(PARTITION_1), backlog.backedUpPartitions());
+
+    // Budget is no longer exceeded, but the table is still using more than half of its share
+    backlog.finished(TABLE_1, 1, 45);
+    memoryBudget.release(45);
+    assertEquals(Collections.singleton(PARTITION_1), backlog.backedUpPartitions());
+
+    backlog.finished(TABLE_2, 1, 20);
+    memoryBudget.release(20);
+    assertEquals(Collections.emptySet(), backlog.backedUpPartitions());
+  }
+
+  @Test
+  public void testDiscarded() {
+    TableBacklog backlog = new TableBacklog(() -> 0, -1, -1, null);
+    backlog.buffered(TABLE_1, PARTITION_1, 10);
+    backlog.discarded(TABLE_1, 1, 10);
+    assertEquals(Collections.emptySet(), backlog.backedUpPartitions());
+  }
+
+  private static void buffer(
+      TableBacklog backlog, MemoryBudget memoryBudget, TableId table, TopicPartition partition, long bytes) {
+    backlog.buffered(table, partition, bytes);
+    memoryBudget.reserve(bytes);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
+import com.wepay.kafka.connect.bigquery.write.row.RowBatch;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TableRowsTest {
+
+  private static final TableId TABLE = TableId.of("scratch", "test_table");
+
+  @Test
+  public void testConversionDeferred() {
+    SinkRecordConverter converter = converter(false);
+    TableRows rows = new TableRows(converter);
+    SinkRecord second = record(0, 2);
+    SinkRecord first = record(0, 1);
+    rows.add(second, TABLE);
+    rows.add(first, TABLE);
+
+    verify(converter, never()).getRecordRow(any(), any());
+
+    RowBatch result = rows.rows();
+    verify(converter, times(2)).getRecordRow(any(), any());
+    assertEquals(2, result.size());
+    assertEquals(1, result.offset(0));
+    assertEquals(2, result.offset(1));
+    // Both records have the same schema, so only the most recent is kept to represent it
+    assertEquals(Collections.singletonList(first), result.schemaRecords());
+
+    // Records are only ever converted once
+    rows.rows();
+    verify(converter, times(2)).getRecordRow(any(), any());
+  }
+
+  @Test
+  public void testConversionResumedAfterFailure() {
+    SinkRecordConverter converter = converter(false);
+    SinkRecord first = record(0, 1);
+    SinkRecord second = record(0, 2);
+    when(converter.getRecordRow(second, TABLE))
+        .thenThrow(new RuntimeException("boom"))
+        .thenAnswer(invocation -> RowToInsert.of(Collections.singletonMap("f1", "v1")));
+    TableRows rows = new TableRows(converter);
+    rows.add(first, TABLE);
+    rows.add(second, TABLE);
+
+    assertThrows(RuntimeException.class, rows::rows);
+
+    RowBatch result = rows.rows();
+    assertEquals(2, result.size());
+    // The record converted before the failure is not converted again
+    verify(converter, times(1)).getRecordRow(first, TABLE);
+    verify(converter, times(2)).getRecordRow(second, TABLE);
+  }
+
+  @Test
+  public void testOrderedConversionNotDeferred() {
+    SinkRecordConverter converter = converter(true);
+    TableRows rows = new TableRows(converter);
+    SinkRecord record = record(0, 1);
+    rows.add(record, TABLE);
+
+    verify(converter).getRecordRow(record, TABLE);
+    assertEquals(Collections.singletonList(record), rows.rows().schemaRecords());
+  }
+
+  private static SinkRecordConverter converter(boolean requiresOrderedConversion) {
+    SinkRecordConverter converter = mock(SinkRecordConverter.class);
+    when(converter.requiresOrderedConversion()).thenReturn(requiresOrderedConversion);
+    when(converter.getRecordRow(any(), any()))
+        .thenAnswer(invocation -> RowToInsert.of(Collections.singletonMap("f1", "v1")));
+    return converter;
+  }
+
+  private static SinkRecord record(int partition, long offset) {
+    return new SinkRecord("topic", partition, null, null, null, "value", offset);
+  }
+}
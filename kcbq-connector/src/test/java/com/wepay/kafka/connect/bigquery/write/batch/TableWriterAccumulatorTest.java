@@ -0,0 +1,291 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.utils.Time;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TableWriterAccumulatorTest {
+
+  private static final PartitionedTableId TABLE_1 = new PartitionedTableId.Builder(TableId.of("d", "t1")).build();
+  private static final PartitionedTableId TABLE_2 = new PartitionedTableId.Builder(TableId.of("d", "t2")).build();
+
+  private Time time;
+  private long nowMs;
+  private List<RecordingBuilder> builders;
+  private List<Runnable> dispatched;
+  private MemoryBudget memoryBudget;
+  private OffsetTracker offsetTracker;
+
+  @Before
+  public void setUp() {
+    time = mock(Time.class);
+    when(time.milliseconds()).thenAnswer(invocation -> nowMs);
+    builders = new ArrayList<>();
+    dispatched = new ArrayList<>();
+    memoryBudget = new MemoryBudget(1000);
+    offsetTracker = new OffsetTracker();
+  }
+
+  @Test
+  public void testNoLingerDispatchesEveryCall() {
+    TableWriterAccumulator accumulator = accumulator(-1, -1, 0);
+    accumulator.add(TABLE_1, record("value"));
+    accumulator.add(TABLE_2, record("value"));
+    accumulator.add(TABLE_1, record("value"));
+    assertTrue(dispatched.isEmpty());
+
+    accumulator.dispatchExpired();
+    assertEquals(2, dispatched.size());
+    assertEquals(2, builders.get(0).records.size());
+    assertEquals(1, builders.get(1).records.size());
+    assertTrue(accumulator.isEmpty());
+  }
+
+  @Test
+  public void testLinger() {
+    TableWriterAccumulator accumulator = accumulator(-1, -1, 100);
+    accumulator.add(TABLE_1, record("value"));
+    accumulator.dispatchExpired();
+    assertTrue(dispatched.isEmpty());
+
+    nowMs += 50;
+    accumulator.add(TABLE_1, record("value"));
+    accumulator.add(TABLE_2, record("value"));
+    accumulator.dispatchExpired();
+    assertTrue(dispatched.isEmpty());
+
+    nowMs += 50;
+    accumulator.dispatchExpired();
+    assertEquals(1, dispatched.size());
+    assertEquals(2, builders.get(0).records.size());
+    assertFalse(accumulator.isEmpty());
+
+    accumulator.dispatchAll();
+    assertEquals(2, dispatched.size());
+    assertTrue(accumulator.isEmpty());
+  }
+
+  @Test
+  public void testMaxRows() {
+    TableWriterAccumulator accumulator = accumulator(2, -1, Long.MAX_VALUE);
+    accumulator.add(TABLE_1, record("value"));
+    assertTrue(dispatched.isEmpty());
+    accumulator.add(TABLE_1, record("value"));
+    assertEquals(1, dispatched.size());
+
+    accumulator.add(TABLE_1, record("value"));
+    assertEquals(1, dispatched.size());
+    assertEquals(2, builders.size());
+  }
+
+  @Test
+  public void testMaxBytes() {
+    TableWriterAccumulator accumulator = accumulator(-1, 100, Long.MAX_VALUE);
+    accumulator.add(TABLE_1, record("small"));
+    assertTrue(dispatched.isEmpty());
+    accumulator.add(TABLE_1, record(new String(new char[100])));
+    assertEquals(1, dispatched.size());
+    assertEquals(2, builders.get(0).records.size());
+  }
+
+  @Test
+  public void testMemoryBudget() {
+    TableWriterAccumulator accumulator = accumulator(-1, -1, Long.MAX_VALUE);
+    accumulator.add(TABLE_1, record("value"));
+    accumulator.add(TABLE_2, record("value"));
+    long used = memoryBudget.used();
+    assertTrue(used > 0);
+
+    accumulator.dispatchAll();
+    assertEquals(used, memoryBudget.used());
+
+    // Budget is released once the table writer has run, even if it fails
+    dispatched.get(0).run();
+    assertTrue(memoryBudget.used() > 0);
+    assertTrue(memoryBudget.used() < used);
+    try {
+      failNextWrite = true;
+      dispatched.get(1).run();
+    } catch (RuntimeException e) {
+      // Expected
+    }
+    assertEquals(0, memoryBudget.used());
+  }
+
+  @Test
+  public void testParkedBatchStaysOutstanding() {
+    TableWriterAccumulator accumulator = accumulator(-1, -1, Long.MAX_VALUE);
+    accumulator.add(TABLE_1, record("value"));
+    long used = memoryBudget.used();
+    accumulator.dispatchAll();
+
+    tableNotReady = true;
+    assertThrows(TableNotReadyException.class, dispatched.get(0)::run);
+    assertEquals(used, memoryBudget.used());
+
+    // Budget is released once the table writer has been run again and finished
+    tableNotReady = false;
+    dispatched.get(0).run();
+    assertEquals(0, memoryBudget.used());
+  }
+
+  @Test
+  public void testOffsetsHeldBackUntilRowsVisible() {
+    TableWriterAccumulator accumulator = accumulator(-1, -1, Long.MAX_VALUE);
+    SinkRecord record = record("value");
+    offsetTracker.received(record);
+    deferVisibility = true;
+    accumulator.add(TABLE_1, record);
+    accumulator.dispatchAll();
+    dispatched.get(0).run();
+
+    TopicPartition partition = new TopicPartition("topic", 0);
+    Map<TopicPartition, OffsetAndMetadata> current =
+        Collections.singletonMap(partition, new OffsetAndMetadata(1));
+    assertEquals(0, offsetTracker.safeOffsets(current).get(partition).offset());
+    assertEquals(0, memoryBudget.used());
+
+    builders.get(0).onVisible.run();
+    assertEquals(1, offsetTracker.safeOffsets(current).get(partition).offset());
+  }
+
+  @Test
+  public void testDiscardRevokedPartitions() {
+    TableWriterAccumulator accumulator = accumulator(-1, -1, Long.MAX_VALUE);
+    SinkRecord revoked = new SinkRecord("topic", 1, null, null, null, "value", 0);
+    SinkRecord retained = record("value");
+    offsetTracker.received(revoked);
+    offsetTracker.received(retained);
+    accumulator.add(TABLE_1, revoked);
+    accumulator.add(TABLE_1, retained);
+    accumulator.add(TABLE_2, record("value"));
+    long used = memoryBudget.used();
+
+    accumulator.discard(Collections.singleton(new TopicPartition("topic", 1)));
+    assertTrue(memoryBudget.used() < used);
+    assertFalse(offsetTracker.hasPending(Collections.singleton(new TopicPartition("topic", 1))));
+
+    // Rows from other partitions are still written
+    accumulator.dispatchAll();
+    assertEquals(2, dispatched.size());
+    assertEquals(Collections.singletonList(retained), builders.get(builders.size() - 1).records);
+    dispatched.forEach(Runnable::run);
+    assertEquals(0, memoryBudget.used());
+    assertFalse(offsetTracker.hasPending());
+  }
+
+  @Test
+  public void testRowsConvertedOnceDispatched() {
+    TableWriterAccumulator accumulator = accumulator(1, -1, Long.MAX_VALUE);
+    accumulator.add(TABLE_1, record("value"));
+
+    // Converted while the table writer is still waiting to run
+    assertEquals(1, dispatched.size());
+    assertTrue(builders.get(0).converted);
+  }
+
+  @Test
+  public void testClearReleasesMemoryBudget() {
+    TableWriterAccumulator accumulator = accumulator(-1, -1, Long.MAX_VALUE);
+    accumulator.add(TABLE_1, record("value"));
+    accumulator.clear();
+    assertEquals(0, memoryBudget.used());
+  }
+
+  private TableWriterAccumulator accumulator(int maxRows, long maxBytes, long lingerMs) {
+    return new TableWriterAccumulator(
+        (table, record) -> {
+          RecordingBuilder builder = new RecordingBuilder();
+          builders.add(builder);
+          return builder;
+        },
+        dispatched::add,
+        Runnable::run,
+        offsetTracker,
+        memoryBudget,
+        new TableBacklog(() -> 0, -1, -1, memoryBudget),
+        maxRows,
+        maxBytes,
+        lingerMs,
+        time
+    );
+  }
+
+  private static SinkRecord record(String value) {
+    return new SinkRecord("topic", 0, null, null, null, value, 0);
+  }
+
+  private boolean failNextWrite;
+  private boolean tableNotReady;
+  private boolean deferVisibility;
+
+  private class RecordingBuilder implements TableWriterBuilder {
+    private final List<SinkRecord> records = new ArrayList<>();
+    private Runnable onVisible;
+    private boolean converted;
+
+    @Override
+    public void addRow(SinkRecord sinkRecord, TableId table) {
+      records.add(sinkRecord);
+    }
+
+    @Override
+    public boolean onVisible(Runnable onVisible) {
+      this.onVisible = onVisible;
+      return deferVisibility;
+    }
+
+    @Override
+    public void convertRows() {
+      converted = true;
+    }
+
+    @Override
+    public Runnable build() {
+      return () -> {
+        if (failNextWrite) {
+          throw new RuntimeException("Write failed");
+        }
+        if (tableNotReady) {
+          throw new TableNotReadyException(TABLE_1.getBaseTableId(), 0, 30);
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.batch;
+
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.TableId;
+import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import com.wepay.kafka.connect.bigquery.metrics.BigQuerySinkTaskMetrics;
+import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
+import com.wepay.kafka.connect.bigquery.utils.SinkRecordConverter;
+import com.wepay.kafka.connect.bigquery.write.row.BigQueryWriter;
+import com.wepay.kafka.connect.bigquery.write.row.RowBatch;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TableWriterTest {
+
+  private static final PartitionedTableId TABLE = new PartitionedTableId.Builder(TableId.of("d", "t")).build();
+  private static final int LARGE_VALUE_SIZE = 4 * 1024 * 1024;
+
+  private BigQueryWriter writer;
+  private SinkRecordConverter converter;
+  private BigQuerySinkTaskMetrics metrics;
+  private BigQuerySinkTaskMetrics.TableMetrics tableMetrics;
+
+  @Before
+  public void setUp() {
+    writer = mock(BigQueryWriter.class);
+    converter = mock(SinkRecordConverter.class);
+    when(converter.getRecordRow(any(), any())).thenAnswer(invocation -> {
+      SinkRecord record = invocation.getArgument(0);
+      return RowToInsert.of(Collections.singletonMap("f1", record.value()));
+    });
+    metrics = mock(BigQuerySinkTaskMetrics.class);
+    tableMetrics = mock(BigQuerySinkTaskMetrics.TableMetrics.class);
+    when(metrics.table(TABLE.getBaseTableId())).thenReturn(tableMetrics);
+  }
+
+  @Test
+  public void testNextBatchEnd() {
+    long half = TableWriter.MAX_REQUEST_BYTES / 2;
+    assertEquals(3, TableWriter.nextBatchEnd(new long[] {1, 1, 1}, 0, 3));
+    assertEquals(2, TableWriter.nextBatchEnd(new long[] {1, 1, 1}, 0, 2));
+    assertEquals(3, TableWriter.nextBatchEnd(new long[] {1, 1, 1}, 2, 2));
+    assertEquals(2, TableWriter.nextBatchEnd(new long[] {half, half, 1}, 0, 3));
+    // Rows too large for a request of their own are still sent, one at a time
+    assertEquals(1, TableWriter.nextBatchEnd(new long[] {2 * half, 1}, 0, 2));
+    assertEquals(TableWriter.MAX_REQUEST_ROWS, TableWriter.nextBatchEnd(new long[TableWriter.MAX_REQUEST_ROWS + 1], 0,
+        Integer.MAX_VALUE));
+  }
+
+  @Test
+  public void testLargeBatchSplitBeforeWriting() throws Exception {
+    TableWriter tableWriter = tableWriter(largeValue(), largeValue(), largeValue());
+    tableWriter.run();
+
+    assertEquals(Arrays.asList(2, 1), writtenBatchSizes(2));
+    verify(metrics).recordWriteRequest(eq(2), anyLong(), eq(TableWriter.MAX_REQUEST_BYTES));
+    verify(metrics).recordWriteRequest(eq(1), anyLong(), eq(TableWriter.MAX_REQUEST_BYTES));
+    verify(tableMetrics).recordWrite(eq(2), anyLong(), eq(RecordBatch.NO_TIMESTAMP), anyLong());
+    verify(tableMetrics).recordWrite(eq(1), anyLong(), eq(RecordBatch.NO_TIMESTAMP), anyLong());
+  }
+
+  @Test
+  public void testSmallBatchWrittenAtOnce() throws Exception {
+    TableWriter tableWriter = tableWriter("a", "b", "c");
+    tableWriter.run();
+
+    assertEquals(Collections.singletonList(3), writtenBatchSizes(1));
+  }
+
+  @Test
+  public void testBatchSizeErrorFallsBackOnHalving() throws Exception {
+    doThrow(new BigQueryException(400, null))
+        .doNothing()
+        .when(writer).writeRows(any(), any());
+
+    TableWriter tableWriter = tableWriter("a", "b", "c", "d");
+    tableWriter.run();
+
+    assertEquals(Arrays.asList(4, 2, 2), writtenBatchSizes(3));
+    verify(metrics).recordBatchSizeError();
+    verify(tableMetrics).recordBatchSizeError();
+  }
+
+  @Test
+  public void testResumedAfterTableNotReady() throws Exception {
+    TableNotReadyException notReady = new TableNotReadyException(TABLE.getBaseTableId(), 0, 30);
+    doNothing()
+        .doThrow(notReady)
+        .doNothing()
+        .when(writer).writeRows(any(), any());
+
+    TableWriter tableWriter = tableWriter(largeValue(), largeValue(), largeValue());
+    assertThrows(TableNotReadyException.class, tableWriter::run);
+
+    // Only the rows that have not been written yet are written when run again
+    tableWriter.run();
+    assertEquals(Arrays.asList(2, 1, 1), writtenBatchSizes(3));
+  }
+
+  @Test
+  public void testTableNotReadyRetryLimit() throws Exception {
+    TableNotReadyException notReady = new TableNotReadyException(TABLE.getBaseTableId(), 0, 2);
+    doThrow(notReady).when(writer).writeRows(any(), any());
+
+    TableWriter tableWriter = tableWriter("a");
+    assertThrows(TableNotReadyException.class, tableWriter::run);
+    BigQueryConnectException err = assertThrows(BigQueryConnectException.class, tableWriter::run);
+    assertEquals(notReady, err.getCause());
+  }
+
+  private TableWriter tableWriter(String... values) {
+    TableWriter.Builder builder = new TableWriter.Builder(writer, TABLE, converter);
+    builder.metrics(metrics);
+    for (int i = 0; i < values.length; i++) {
+      builder.addRow(new SinkRecord("topic", 0, null, null, null, values[i], i), TABLE.getBaseTableId());
+    }
+    return builder.build();
+  }
+
+  private List<Integer> writtenBatchSizes(int expectedWrites) throws Exception {
+    ArgumentCaptor<RowBatch> captor = ArgumentCaptor.forClass(RowBatch.class);
+    verify(writer, times(expectedWrites)).writeRows(eq(TABLE), captor.capture());
+    return Arrays.asList(captor.getAllValues().stream().map(RowBatch::size).toArray(Integer[]::new));
+  }
+
+  private static String largeValue() {
+    return new String(new char[LARGE_VALUE_SIZE]);
+  }
+}
@@ -23,6 +23,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Matchers.anyObject;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
@@ -45,7 +46,11 @@ import com.wepay.kafka.connect.bigquery.api.SchemaRetriever;
 import com.wepay.kafka.connect.bigquery.config.BigQuerySinkConfig;
 import com.wepay.kafka.connect.bigquery.config.BigQuerySinkTaskConfig;
 import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import com.wepay.kafka.connect.bigquery.metrics.BigQuerySinkTaskMetrics;
+import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
 
+import org.apache.kafka.common.utils.Time;
 import org.apache.kafka.connect.data.Schema;
 import org.apache.kafka.connect.data.SchemaBuilder;
 import org.apache.kafka.connect.data.Struct;
@@ -134,6 +139,8 @@ public class BigQueryWriterTest {
     Storage storage = mock(Storage.class);
     SchemaRetriever schemaRetriever = mock(SchemaRetriever.class);
     SchemaManager schemaManager = mock(SchemaManager.class);
+    // The table only turns out to be missing once rows are written to it
+    when(schemaManager.tableExists(anyObject())).thenReturn(true);
     Map<TableId, Table> cache = new HashMap<>();
 
     BigQuerySinkTask testTask = new BigQuerySinkTask(bigQuery, schemaRetriever, storage, schemaManager, cache);
@@ -147,6 +154,81 @@ public class BigQueryWriterTest {
     verify(bigQuery, times(2)).insertAll(anyObject());
   }
 
+  @Test
+  public void testParkedUntilCreatedTableReady() {
+    BigQuery bigQuery = mock(BigQuery.class);
+    String errorMessage = "Not found: Table project.scratch.test_topic";
+    BigQueryError error = new BigQueryError("notFound", "global", errorMessage);
+    when(bigQuery.insertAll(anyObject())).thenThrow(new BigQueryException(404, errorMessage, error));
+    SchemaManager schemaManager = mock(SchemaManager.class);
+
+    AdaptiveBigQueryWriter writer = new AdaptiveBigQueryWriter(bigQuery, schemaManager, 0, 0, true);
+    writer.setParkUntilTableReady(true);
+    TableId table = TableId.of("scratch", "test_topic");
+    RowBatch rows = RowBatch.builder()
+        .add(spoofSinkRecord("test_topic", 0, 0, "field", "value"),
+            InsertAllRequest.RowToInsert.of(Collections.emptyMap()))
+        .build();
+
+    // The write is given up on right away instead of waiting for the new table to become visible
+    TableNotReadyException err = assertThrows(TableNotReadyException.class,
+        () -> writer.writeRows(new PartitionedTableId.Builder(table).build(), rows));
+    assertEquals(table, err.getTable());
+    verify(schemaManager).createTable(anyObject(), anyObject());
+    // The rows are not written again until the task is resumed
+    verify(bigQuery, times(1)).insertAll(anyObject());
+  }
+
+  @Test
+  public void testConcurrencyLimiterBacksOffOnQuotaExceeded() throws InterruptedException {
+    BigQuery bigQuery = mock(BigQuery.class);
+    InsertAllResponse insertAllResponse = mock(InsertAllResponse.class);
+    when(insertAllResponse.hasErrors()).thenReturn(false);
+
+    BigQueryError error = new BigQueryError("quotaExceeded", "global", "Quota exceeded");
+    BigQueryException quotaExceededException = new BigQueryException(403, "Quota exceeded", error);
+    when(bigQuery.insertAll(anyObject())).thenThrow(quotaExceededException).thenReturn(insertAllResponse);
+
+    ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter(8, Time.SYSTEM);
+    BigQueryWriter writer = new SimpleBigQueryWriter(bigQuery, 1, 0);
+    writer.setConcurrencyLimiter(concurrencyLimiter);
+
+    RowBatch rows = RowBatch.builder()
+        .add(spoofSinkRecord("topic", 0, 0, "field", "value"), InsertAllRequest.RowToInsert.of(Collections.emptyMap()))
+        .build();
+    writer.writeRows(new PartitionedTableId.Builder(TableId.of("dataset", "table")).build(), rows);
+
+    verify(bigQuery, times(2)).insertAll(anyObject());
+    assertEquals(2, concurrencyLimiter.limit());
+    assertEquals(0, concurrencyLimiter.inFlight());
+  }
+
+  @Test
+  public void testRetriesAndLatencyRecorded() throws InterruptedException {
+    BigQuery bigQuery = mock(BigQuery.class);
+    InsertAllResponse insertAllResponse = mock(InsertAllResponse.class);
+    when(insertAllResponse.hasErrors()).thenReturn(false);
+
+    BigQueryError error = new BigQueryError("quotaExceeded", "global", "Quota exceeded");
+    BigQueryException quotaExceededException = new BigQueryException(403, "Quota exceeded", error);
+    when(bigQuery.insertAll(anyObject())).thenThrow(quotaExceededException).thenReturn(insertAllResponse);
+
+    BigQuerySinkTaskMetrics metrics = mock(BigQuerySinkTaskMetrics.class);
+    BigQuerySinkTaskMetrics.TableMetrics tableMetrics = mock(BigQuerySinkTaskMetrics.TableMetrics.class);
+    TableId table = TableId.of("dataset", "table");
+    when(metrics.table(table)).thenReturn(tableMetrics);
+    BigQueryWriter writer = new SimpleBigQueryWriter(bigQuery, 1, 0);
+    writer.setMetrics(metrics);
+
+    RowBatch rows = RowBatch.builder()
+        .add(spoofSinkRecord("topic", 0, 0, "field", "value"), InsertAllRequest.RowToInsert.of(Collections.emptyMap()))
+        .build();
+    writer.writeRows(new PartitionedTableId.Builder(table).setPartition("20200101").build(), rows);
+
+    verify(tableMetrics).recordRetry(BigQuerySinkTaskMetrics.RetryReason.QUOTA_EXCEEDED);
+    verify(tableMetrics, times(2)).recordRequestLatency(anyLong());
+  }
+
   @Test(expected = BigQueryConnectException.class)
   public void testNonAutoCreateTables() {
     final String topic = "test_topic";
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import org.apache.kafka.common.utils.Time;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ConcurrencyLimiterTest {
+
+  private Time time;
+  private long nowNs;
+
+  @Before
+  public void setUp() {
+    time = mock(Time.class);
+    when(time.nanoseconds()).thenAnswer(invocation -> nowNs);
+  }
+
+  @Test
+  public void testAdditiveIncrease() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, time);
+    assertEquals(2, limiter.limit());
+
+    // Roughly one limit's worth of requests with stable latency raises the limit by one
+    for (int i = 0; i < 3; i++) {
+      completeAtLimit(limiter, 100);
+    }
+    assertEquals(3, limiter.limit());
+
+    for (int i = 0; i < 20; i++) {
+      completeAtLimit(limiter, 100);
+    }
+    assertEquals(4, limiter.limit());
+  }
+
+  @Test
+  public void testNoIncreaseWhenLatencyRises() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, time);
+    completeAtLimit(limiter, 100);
+    for (int i = 0; i < 20; i++) {
+      completeAtLimit(limiter, 1000);
+    }
+    assertEquals(2, limiter.limit());
+  }
+
+  @Test
+  public void testNoIncreaseWhenIdle() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, time);
+    for (int i = 0; i < 20; i++) {
+      long acquiredNs = limiter.acquire();
+      nowNs += 100;
+      limiter.onSuccess(acquiredNs);
+    }
+    assertEquals(5, limiter.limit());
+  }
+
+  @Test
+  public void testMultiplicativeDecrease() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(16, time);
+    assertEquals(8, limiter.limit());
+
+    long first = limiter.acquire();
+    long second = limiter.acquire();
+    nowNs += 100;
+    limiter.onOverload(first);
+    assertEquals(4, limiter.limit());
+
+    // Sent before the limit was lowered, so doesn't lower it again
+    limiter.onOverload(second);
+    assertEquals(4, limiter.limit());
+
+    long third = limiter.acquire();
+    nowNs += 100;
+    limiter.onOverload(third);
+    assertEquals(2, limiter.limit());
+
+    for (int i = 0; i < 5; i++) {
+      limiter.onOverload(limiter.acquire());
+      nowNs += 100;
+    }
+    assertEquals(1, limiter.limit());
+    assertEquals(0, limiter.inFlight());
+  }
+
+  @Test
+  public void testFixed() throws InterruptedException {
+    ConcurrencyLimiter limiter = ConcurrencyLimiter.fixed(3);
+    assertEquals(3, limiter.limit());
+    for (int i = 0; i < 10; i++) {
+      completeAtLimit(limiter, 100);
+    }
+    limiter.onOverload(limiter.acquire());
+    assertEquals(3, limiter.limit());
+  }
+
+  @Test
+  public void testIgnore() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, time);
+    limiter.acquire();
+    assertEquals(1, limiter.inFlight());
+    limiter.onIgnore();
+    assertEquals(0, limiter.inFlight());
+    assertEquals(2, limiter.limit());
+  }
+
+  @Test
+  public void testAcquireBlocksAtLimit() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, time);
+    long acquiredNs = limiter.acquire();
+
+    CountDownLatch acquired = new CountDownLatch(1);
+    Thread waiter = new Thread(() -> {
+      try {
+        limiter.acquire();
+        acquired.countDown();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    waiter.start();
+    assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+
+    limiter.onSuccess(acquiredNs);
+    assertTrue(acquired.await(10, TimeUnit.SECONDS));
+    waiter.join();
+  }
+
+  private void completeAtLimit(ConcurrencyLimiter limiter, long latencyNs) throws InterruptedException {
+    int limit = limiter.limit();
+    long[] acquired = new long[limit];
+    for (int i = 0; i < limit; i++) {
+      acquired[i] = limiter.acquire();
+    }
+    nowNs += latencyNs;
+    // Only the first request is completed; the rest are returned without affecting the limit
+    limiter.onSuccess(acquired[0]);
+    for (int i = 1; i < limit; i++) {
+      limiter.onIgnore();
+    }
+  }
+}
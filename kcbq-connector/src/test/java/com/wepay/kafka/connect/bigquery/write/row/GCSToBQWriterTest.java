@@ -20,11 +20,13 @@
 package com.wepay.kafka.connect.bigquery.write.row;
 
 import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
 import com.google.cloud.bigquery.Table;
 import com.google.cloud.bigquery.TableId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageException;
+import com.google.gson.Gson;
 import com.wepay.kafka.connect.bigquery.BigQuerySinkTask;
 import com.wepay.kafka.connect.bigquery.SchemaManager;
 import com.wepay.kafka.connect.bigquery.SinkPropertiesFactory;
@@ -41,8 +43,11 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static org.mockito.Matchers.anyObject;
@@ -148,6 +153,29 @@ public class GCSToBQWriterTest {
     }
   }
 
+  @Test
+  public void testToJson() {
+    Map<String, Object> first = new HashMap<>();
+    first.put("string", "caf\u00e9 <&> \"quoted\"\n\ud83d\ude00");
+    first.put("number", 42L);
+    first.put("double", 1.5);
+    first.put("null", null);
+    first.put("list", Arrays.asList(true, false));
+    first.put("nested", Collections.singletonMap("key", "value"));
+    Map<String, Object> second = Collections.singletonMap("string", "second");
+    List<RowToInsert> rows = Arrays.asList(RowToInsert.of(first), RowToInsert.of(second));
+
+    StringBuilder expected = new StringBuilder();
+    Gson gson = new Gson();
+    for (RowToInsert row : rows) {
+      expected.append(gson.toJson(row.getContent())).append("\n");
+    }
+
+    byte[] json = GCSToBQWriter.toJson(rows);
+    Assert.assertArrayEquals(expected.toString().getBytes(StandardCharsets.UTF_8), json);
+    Assert.assertArrayEquals(new byte[0], GCSToBQWriter.toJson(Collections.emptyList()));
+  }
+
   private void expectTable(BigQuery mockBigQuery) {
     Table mockTable = mock(Table.class);
     when(mockBigQuery.getTable(anyObject())).thenReturn(mockTable);
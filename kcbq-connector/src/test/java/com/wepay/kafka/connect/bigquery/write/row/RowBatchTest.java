@@ -0,0 +1,206 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.wepay.kafka.connect.bigquery.utils.RecordSizeEstimator;
+import org.apache.kafka.common.record.RecordBatch;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.connect.data.Schema;
+import org.apache.kafka.connect.data.SchemaBuilder;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RowBatchTest {
+
+  @Test
+  public void testOrderedByPartitionAndOffset() {
+    RowBatch batch = RowBatch.builder()
+        .add(record(1, 0), row("a"))
+        .add(record(0, 5), row("b"))
+        .add(record(1, 1), row("c"))
+        .add(record(0, 6), row("d"))
+        .build();
+
+    assertEquals(4, batch.size());
+    assertEquals(Arrays.asList("b", "d", "a", "c"), values(batch));
+    assertEquals(0, batch.partition(0));
+    assertEquals(5, batch.offset(0));
+    assertEquals(1, batch.partition(3));
+    assertEquals(1, batch.offset(3));
+  }
+
+  @Test
+  public void testOutOfOrderAndDuplicateOffsets() {
+    RowBatch batch = RowBatch.builder()
+        .add(record(0, 2), row("a"))
+        .add(record(0, 1), row("b"))
+        .add(record(0, 2), row("c"))
+        .add(record(0, 0), row("d"))
+        .build();
+
+    // The last row added for a duplicate offset wins
+    assertEquals(Arrays.asList("d", "b", "c"), values(batch));
+    assertEquals(0, batch.offset(0));
+    assertEquals(1, batch.offset(1));
+    assertEquals(2, batch.offset(2));
+  }
+
+  @Test
+  public void testEmpty() {
+    RowBatch batch = RowBatch.builder().build();
+    assertTrue(batch.isEmpty());
+    assertEquals(0, batch.size());
+    assertTrue(batch.rows().isEmpty());
+  }
+
+  @Test
+  public void testSlice() {
+    RowBatch batch = batch("a", "b", "c", "d", "e");
+
+    RowBatch slice = batch.slice(1, 4);
+    assertEquals(Arrays.asList("b", "c", "d"), values(slice));
+    assertSame(batch.row(1), slice.row(0));
+    assertEquals(batch.offset(3), slice.offset(2));
+
+    RowBatch nested = slice.slice(1, 3);
+    assertEquals(Arrays.asList("c", "d"), values(nested));
+    assertTrue(slice.slice(2, 2).isEmpty());
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testSliceOutOfBounds() {
+    batch("a", "b", "c").slice(1, 3).slice(0, 3);
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testRowOutOfBounds() {
+    batch("a", "b", "c").slice(0, 2).row(2);
+  }
+
+  @Test
+  public void testSelect() {
+    RowBatch slice = batch("a", "b", "c", "d", "e").slice(1, 5);
+
+    RowBatch selected = slice.select(Arrays.asList(3L, 0L, 3L, 7L));
+    assertEquals(Arrays.asList("b", "e"), values(selected));
+    assertEquals(1, selected.offset(0));
+    assertEquals(4, selected.offset(1));
+
+    assertTrue(slice.select(Collections.emptySet()).isEmpty());
+  }
+
+  @Test
+  public void testSchemaRecords() {
+    Schema first = SchemaBuilder.struct().field("f1", Schema.STRING_SCHEMA).build();
+    Schema second = SchemaBuilder.struct().field("f2", Schema.STRING_SCHEMA).build();
+    SinkRecord a = record(0, 0, first);
+    SinkRecord b = record(0, 1, second);
+    SinkRecord c = record(0, 2, first);
+    SinkRecord d = record(1, 0, null);
+    RowBatch batch = RowBatch.builder()
+        .add(a, row("a"))
+        .add(b, row("b"))
+        .add(c, row("c"))
+        .add(d, row("d"))
+        .build();
+
+    // One record per schema, the most recent one added, ordered by the last row with that schema
+    assertEquals(Arrays.asList(b, c, d), batch.schemaRecords());
+    assertEquals(Arrays.asList(b, c), batch.slice(0, 3).schemaRecords());
+    assertEquals(Collections.singletonList(c), batch.slice(0, 1).schemaRecords());
+    assertEquals(Arrays.asList(c, b), batch.select(Arrays.asList(0L, 1L)).schemaRecords());
+    assertTrue(batch.slice(1, 1).schemaRecords().isEmpty());
+  }
+
+  @Test
+  public void testTimestamps() {
+    RowBatch batch = RowBatch.builder()
+        .add(timestampedRecord(0, 1, 300L), row("a"))
+        .add(timestampedRecord(0, 0, 200L), row("b"))
+        .add(timestampedRecord(1, 0, null), row("c"))
+        .add(timestampedRecord(1, 1, 100L), row("d"))
+        .build();
+
+    // Timestamps follow their rows when out of order rows are sorted
+    assertEquals(200L, batch.timestamp(0));
+    assertEquals(300L, batch.timestamp(1));
+    assertEquals(RecordBatch.NO_TIMESTAMP, batch.timestamp(2));
+    assertEquals(100L, batch.oldestTimestamp());
+    assertEquals(200L, batch.slice(0, 3).oldestTimestamp());
+    assertEquals(300L, batch.select(Arrays.asList(1L, 2L)).oldestTimestamp());
+    assertEquals(RecordBatch.NO_TIMESTAMP, batch.slice(2, 3).oldestTimestamp());
+    assertEquals(RecordBatch.NO_TIMESTAMP, RowBatch.builder().build().oldestTimestamp());
+  }
+
+  @Test
+  public void testEstimatedSizeSharedWithSlicesAndSelections() {
+    RowBatch batch = batch("a", "bb", "ccc", "dddd");
+    long[] sizes = new long[batch.size()];
+    long total = 0;
+    for (int i = 0; i < sizes.length; i++) {
+      sizes[i] = RecordSizeEstimator.estimate(batch.row(i));
+      total += sizes[i];
+    }
+
+    assertEquals(total, batch.estimatedSize());
+    assertEquals(sizes[1] + sizes[2], batch.slice(1, 3).estimatedSize());
+    assertEquals(sizes[3], batch.slice(1, 4).estimatedSize(2));
+    assertEquals(sizes[0] + sizes[3], batch.select(Arrays.asList(0L, 3L)).estimatedSize());
+    assertEquals(0, RowBatch.builder().build().estimatedSize());
+  }
+
+  private static RowBatch batch(String... values) {
+    RowBatch.Builder builder = RowBatch.builder();
+    for (int i = 0; i < values.length; i++) {
+      builder.add(record(0, i), row(values[i]));
+    }
+    return builder.build();
+  }
+
+  private static List<Object> values(RowBatch batch) {
+    return batch.rows().stream().map(row -> row.getContent().get("f1")).collect(Collectors.toList());
+  }
+
+  private static SinkRecord record(int partition, long offset) {
+    return record(partition, offset, null);
+  }
+
+  private static SinkRecord record(int partition, long offset, Schema valueSchema) {
+    return new SinkRecord("topic", partition, null, null, valueSchema, null, offset);
+  }
+
+  private static SinkRecord timestampedRecord(int partition, long offset, Long timestamp) {
+    return new SinkRecord(
+        "topic", partition, null, null, null, null, offset, timestamp, TimestampType.CREATE_TIME);
+  }
+
+  private static RowToInsert row(String value) {
+    return RowToInsert.of(Collections.singletonMap("f1", value));
+  }
+}
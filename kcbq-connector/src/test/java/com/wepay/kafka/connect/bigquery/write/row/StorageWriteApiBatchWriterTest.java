@@ -0,0 +1,354 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.LegacySQLTypeName;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.storage.v1.AppendRowsRequest;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.cloud.bigquery.storage.v1.BatchCommitWriteStreamsRequest;
+import com.google.cloud.bigquery.storage.v1.BatchCommitWriteStreamsResponse;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteGrpc;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteSettings;
+import com.google.cloud.bigquery.storage.v1.CreateWriteStreamRequest;
+import com.google.cloud.bigquery.storage.v1.FinalizeWriteStreamRequest;
+import com.google.cloud.bigquery.storage.v1.FinalizeWriteStreamResponse;
+import com.google.cloud.bigquery.storage.v1.StorageError;
+import com.google.cloud.bigquery.storage.v1.WriteStream;
+import com.google.protobuf.Timestamp;
+import com.wepay.kafka.connect.bigquery.SchemaManager;
+import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StorageWriteApiBatchWriterTest {
+
+  private static final String PROJECT = "project";
+  private static final TableId TABLE = TableId.of("scratch", "test_table");
+  private static final String TABLE_NAME = "projects/project/datasets/scratch/tables/test_table";
+  private static final Schema SCHEMA = Schema.of(
+      Field.of("f1", LegacySQLTypeName.STRING),
+      Field.of("f2", LegacySQLTypeName.INTEGER)
+  );
+
+  private FakeBigQueryWrite fakeService;
+  private Server server;
+  private ManagedChannel channel;
+  private BigQueryWriteClient client;
+  private SchemaManager schemaManager;
+
+  @Before
+  public void setUp() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    fakeService = new FakeBigQueryWrite();
+    server = InProcessServerBuilder.forName(serverName)
+        .directExecutor()
+        .addService(fakeService)
+        .build()
+        .start();
+    channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    client = BigQueryWriteClient.create(BigQueryWriteSettings.newBuilder()
+        .setCredentialsProvider(NoCredentialsProvider.create())
+        .setTransportChannelProvider(FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel)))
+        .build());
+
+    schemaManager = mock(SchemaManager.class);
+    when(schemaManager.convertRecordSchemas(any())).thenReturn(SCHEMA);
+  }
+
+  @After
+  public void tearDown() {
+    client.close();
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  @Test
+  public void testWriteAndCommit() throws Exception {
+    StorageWriteApiBatchWriter writer = newWriter(false);
+    writer.writeRows(rows(0, 3), TABLE);
+    writer.writeRows(rows(3, 2), TABLE);
+
+    assertTrue(fakeService.committed.isEmpty());
+    writer.commit();
+    writer.close();
+
+    assertEquals(Collections.singletonList(TABLE_NAME), fakeService.created);
+    assertEquals(2, fakeService.requests.size());
+    String stream = TABLE_NAME + "/streams/pending0";
+    assertEquals(stream, fakeService.requests.get(0).getWriteStream());
+    assertEquals(0, fakeService.requests.get(0).getOffset().getValue());
+    assertEquals(3, fakeService.requests.get(1).getOffset().getValue());
+    assertEquals(Collections.singletonList(stream), fakeService.finalized);
+    assertEquals(Collections.singletonList(Collections.singletonList(stream)), fakeService.committed);
+  }
+
+  @Test
+  public void testCommitCallbacksInvokedOnCommit() throws Exception {
+    AtomicInteger commits = new AtomicInteger();
+    StorageWriteApiBatchWriter writer = newWriter(false);
+    writer.writeRows(rows(0, 1), TABLE, commits::incrementAndGet);
+    writer.writeRows(rows(1, 1), TABLE, commits::incrementAndGet);
+
+    assertEquals(0, commits.get());
+    writer.commit();
+    assertEquals(2, commits.get());
+    writer.commit();
+    writer.close();
+    assertEquals(2, commits.get());
+  }
+
+  @Test
+  public void testCommitWithoutWritesIsNoop() {
+    StorageWriteApiBatchWriter writer = newWriter(false);
+    writer.commit();
+    writer.close();
+
+    assertTrue(fakeService.created.isEmpty());
+    assertTrue(fakeService.committed.isEmpty());
+  }
+
+  @Test
+  public void testWritesAfterCommitUseNewStream() throws Exception {
+    StorageWriteApiBatchWriter writer = newWriter(false);
+    writer.writeRows(rows(0, 1), TABLE);
+    writer.commit();
+    writer.writeRows(rows(1, 1), TABLE);
+    writer.commit();
+    writer.close();
+
+    assertEquals(Arrays.asList(
+        Collections.singletonList(TABLE_NAME + "/streams/pending0"),
+        Collections.singletonList(TABLE_NAME + "/streams/pending1")
+    ), fakeService.committed);
+    assertEquals(0, fakeService.requests.get(1).getOffset().getValue());
+  }
+
+  @Test
+  public void testAlreadyExistsTreatedAsSuccess() throws Exception {
+    fakeService.errors.add(Status.ALREADY_EXISTS);
+
+    StorageWriteApiBatchWriter writer = newWriter(false);
+    writer.writeRows(rows(0, 2), TABLE);
+    writer.writeRows(rows(2, 1), TABLE);
+    writer.commit();
+    writer.close();
+
+    assertEquals(2, fakeService.requests.size());
+    assertEquals(2, fakeService.requests.get(1).getOffset().getValue());
+  }
+
+  @Test
+  public void testRetryOnUnavailable() throws Exception {
+    fakeService.errors.add(Status.UNAVAILABLE);
+
+    StorageWriteApiBatchWriter writer = newWriter(false);
+    writer.writeRows(rows(0, 2), TABLE);
+    writer.commit();
+    writer.close();
+
+    assertEquals(2, fakeService.requests.size());
+    assertEquals(0, fakeService.requests.get(1).getOffset().getValue());
+    assertEquals(1, fakeService.committed.size());
+  }
+
+  @Test
+  public void testCreateTableOnNotFound() throws Exception {
+    fakeService.createErrors.add(Status.NOT_FOUND.withDescription("Table not found"));
+
+    StorageWriteApiBatchWriter writer = newWriter(true);
+    writer.writeRows(rows(0, 1), TABLE);
+    writer.commit();
+    writer.close();
+
+    verify(schemaManager).createTable(eq(TABLE), any());
+    assertEquals(1, fakeService.committed.size());
+  }
+
+  @Test
+  public void testParkedAfterSchemaUpdate() throws Exception {
+    fakeService.errors.add(Status.INVALID_ARGUMENT.withDescription("Input schema has more fields"));
+
+    StorageWriteApiBatchWriter writer =
+        new StorageWriteApiBatchWriter(client, schemaManager, PROJECT, 1, 0, false, true);
+    AtomicInteger appended = new AtomicInteger();
+    // The write is given up on right away instead of waiting for the schema update to take effect
+    TableNotReadyException err = assertThrows(TableNotReadyException.class,
+        () -> writer.writeRows(rows(0, 2), TABLE, () -> { }, appended::addAndGet));
+    assertEquals(TABLE, err.getTable());
+    assertEquals(0, appended.get());
+    verify(schemaManager).updateSchema(eq(TABLE), any());
+
+    // The table's streams are not left locked, and the rows are written to a new stream once tried again
+    writer.commit();
+    writer.writeRows(rows(0, 2), TABLE, () -> { }, appended::addAndGet);
+    writer.commit();
+    writer.close();
+
+    assertEquals(2, appended.get());
+    assertEquals(Collections.singletonList(Collections.singletonList(TABLE_NAME + "/streams/pending1")),
+        fakeService.committed);
+  }
+
+  @Test
+  public void testFailedCommit() throws Exception {
+    fakeService.commitError = true;
+
+    StorageWriteApiBatchWriter writer = newWriter(false);
+    writer.writeRows(rows(0, 1), TABLE);
+    assertThrows(BigQueryConnectException.class, writer::commit);
+    writer.close();
+  }
+
+  private StorageWriteApiBatchWriter newWriter(boolean autoCreateTables) {
+    return new StorageWriteApiBatchWriter(client, schemaManager, PROJECT, 1, 0, autoCreateTables, false);
+  }
+
+  private static RowBatch rows(int start, int count) {
+    RowBatch.Builder result = RowBatch.builder();
+    for (int i = start; i < start + count; i++) {
+      Map<String, Object> content = new HashMap<>();
+      content.put("f1", "value" + i);
+      content.put("f2", i);
+      SinkRecord record = new SinkRecord("topic", 0, null, null, null, null, i);
+      result.add(record, RowToInsert.of(content));
+    }
+    return result.build();
+  }
+
+  private static class FakeBigQueryWrite extends BigQueryWriteGrpc.BigQueryWriteImplBase {
+    private final List<String> created = new CopyOnWriteArrayList<>();
+    private final List<AppendRowsRequest> requests = new CopyOnWriteArrayList<>();
+    private final List<String> finalized = new CopyOnWriteArrayList<>();
+    private final List<List<String>> committed = new CopyOnWriteArrayList<>();
+    private final Queue<Status> errors = new ConcurrentLinkedQueue<>();
+    private final Queue<Status> createErrors = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger streamCount = new AtomicInteger();
+    private volatile boolean commitError;
+
+    @Override
+    public void createWriteStream(CreateWriteStreamRequest request, StreamObserver<WriteStream> responseObserver) {
+      Status error = createErrors.poll();
+      if (error != null) {
+        responseObserver.onError(error.asRuntimeException());
+        return;
+      }
+      created.add(request.getParent());
+      responseObserver.onNext(WriteStream.newBuilder()
+          .setName(request.getParent() + "/streams/pending" + streamCount.getAndIncrement())
+          .setType(WriteStream.Type.PENDING)
+          .build());
+      responseObserver.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<AppendRowsRequest> appendRows(StreamObserver<AppendRowsResponse> responseObserver) {
+      return new StreamObserver<AppendRowsRequest>() {
+        private String stream;
+
+        @Override
+        public void onNext(AppendRowsRequest request) {
+          // Only the first request on a connection is guaranteed to carry the stream name
+          if (!request.getWriteStream().isEmpty()) {
+            stream = request.getWriteStream();
+          }
+          requests.add(request.toBuilder().setWriteStream(stream).build());
+          Status error = errors.poll();
+          AppendRowsResponse.Builder response = AppendRowsResponse.newBuilder();
+          if (error != null) {
+            response.setError(com.google.rpc.Status.newBuilder()
+                .setCode(error.getCode().value())
+                .setMessage(String.valueOf(error.getDescription())));
+          } else {
+            response.setAppendResult(AppendRowsResponse.AppendResult.newBuilder().setOffset(request.getOffset()));
+          }
+          responseObserver.onNext(response.build());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+          responseObserver.onCompleted();
+        }
+      };
+    }
+
+    @Override
+    public void finalizeWriteStream(FinalizeWriteStreamRequest request,
+                                    StreamObserver<FinalizeWriteStreamResponse> responseObserver) {
+      finalized.add(request.getName());
+      responseObserver.onNext(FinalizeWriteStreamResponse.getDefaultInstance());
+      responseObserver.onCompleted();
+    }
+
+    @Override
+    public void batchCommitWriteStreams(BatchCommitWriteStreamsRequest request,
+                                        StreamObserver<BatchCommitWriteStreamsResponse> responseObserver) {
+      BatchCommitWriteStreamsResponse.Builder response = BatchCommitWriteStreamsResponse.newBuilder();
+      if (commitError) {
+        response.addStreamErrors(StorageError.newBuilder()
+            .setCode(StorageError.StorageErrorCode.STREAM_NOT_FOUND)
+            .setEntity(request.getWriteStreams(0)));
+      } else {
+        committed.add(request.getWriteStreamsList());
+        response.setCommitTime(Timestamp.newBuilder().setSeconds(1));
+      }
+      responseObserver.onNext(response.build());
+      responseObserver.onCompleted();
+    }
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.InsertAllRequest.RowToInsert;
+import com.google.cloud.bigquery.LegacySQLTypeName;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.storage.v1.AppendRowsRequest;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteGrpc;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteSettings;
+import com.google.cloud.bigquery.storage.v1.ProtoSchema;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.wepay.kafka.connect.bigquery.SchemaManager;
+import com.wepay.kafka.connect.bigquery.exception.BigQueryConnectException;
+import com.wepay.kafka.connect.bigquery.exception.TableNotReadyException;
+import com.wepay.kafka.connect.bigquery.utils.PartitionedTableId;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.apache.kafka.connect.sink.SinkRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StorageWriteApiBigQueryWriterTest {
+
+  private static final String PROJECT = "project";
+  private static final TableId TABLE = TableId.of("scratch", "test_table");
+  private static final Schema SCHEMA = Schema.of(
+      Field.of("f1", LegacySQLTypeName.STRING),
+      Field.of("f2", LegacySQLTypeName.INTEGER)
+  );
+
+  private FakeBigQueryWrite fakeService;
+  private Server server;
+  private ManagedChannel channel;
+  private SchemaManager schemaManager;
+  private BigQueryWriteClient client;
+
+  @Before
+  public void setUp() throws Exception {
+    String serverName = InProcessServerBuilder.generateName();
+    fakeService = new FakeBigQueryWrite();
+    server = InProcessServerBuilder.forName(serverName)
+        .directExecutor()
+        .addService(fakeService)
+        .build()
+        .start();
+    channel = InProcessChannelBuilder.forName(serverName).directExecutor().build();
+    client = BigQueryWriteClient.create(BigQueryWriteSettings.newBuilder()
+        .setCredentialsProvider(NoCredentialsProvider.create())
+        .setTransportChannelProvider(FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel)))
+        .build());
+
+    schemaManager = mock(SchemaManager.class);
+    when(schemaManager.convertRecordSchemas(any())).thenReturn(SCHEMA);
+  }
+
+  @After
+  public void tearDown() {
+    client.close();
+    channel.shutdownNow();
+    server.shutdownNow();
+  }
+
+  @Test
+  public void testWriteToDefaultStream() throws Exception {
+    StorageWriteApiBigQueryWriter writer = newWriter(false, false);
+    writer.writeRows(partitionedTable(), rows(3));
+    writer.close();
+
+    assertEquals(1, fakeService.requests.size());
+    AppendRowsRequest request = fakeService.requests.get(0);
+    assertEquals("projects/project/datasets/scratch/tables/test_table/streams/_default", request.getWriteStream());
+
+    Descriptor descriptor = descriptor(request.getProtoRows().getWriterSchema());
+    List<DynamicMessage> rows = new ArrayList<>();
+    for (com.google.protobuf.ByteString row : request.getProtoRows().getRows().getSerializedRowsList()) {
+      rows.add(DynamicMessage.parseFrom(descriptor, row));
+    }
+    assertEquals(3, rows.size());
+    for (int i = 0; i < rows.size(); i++) {
+      assertEquals("value" + i, rows.get(i).getField(descriptor.findFieldByName("f1")));
+      assertEquals((long) i, rows.get(i).getField(descriptor.findFieldByName("f2")));
+    }
+  }
+
+  @Test
+  public void testRetryOnUnavailable() throws Exception {
+    fakeService.errors.add(Status.UNAVAILABLE);
+
+    StorageWriteApiBigQueryWriter writer = newWriter(false, false);
+    writer.writeRows(partitionedTable(), rows(2));
+    writer.close();
+
+    assertEquals(2, fakeService.requests.size());
+    assertEquals(2, fakeService.requests.get(1).getProtoRows().getRows().getSerializedRowsCount());
+  }
+
+  @Test
+  public void testRetriesExhausted() {
+    fakeService.errors.add(Status.RESOURCE_EXHAUSTED);
+    fakeService.errors.add(Status.RESOURCE_EXHAUSTED);
+
+    StorageWriteApiBigQueryWriter writer = newWriter(false, false);
+    BigQueryConnectException e = assertThrows(
+        BigQueryConnectException.class,
+        () -> writer.writeRows(partitionedTable(), rows(1)));
+    writer.close();
+
+    assertEquals(BigQueryException.class, e.getCause().getClass());
+  }
+
+  @Test
+  public void testNonExistentTableWithoutAutoCreate() {
+    fakeService.errors.add(Status.NOT_FOUND.withDescription("Table not found"));
+
+    StorageWriteApiBigQueryWriter writer = newWriter(false, false);
+    assertThrows(
+        BigQueryConnectException.class,
+        () -> writer.writeRows(partitionedTable(), rows(1)));
+    writer.close();
+
+    verify(schemaManager, never()).createTable(any(), any());
+  }
+
+  @Test
+  public void testInvalidRowsFailImmediately() {
+    fakeService.errors.add(Status.INVALID_ARGUMENT.withDescription("Invalid value"));
+
+    StorageWriteApiBigQueryWriter writer = newWriter(true, true);
+    assertThrows(
+        BigQueryConnectException.class,
+        () -> writer.writeRows(partitionedTable(), rows(1)));
+    writer.close();
+
+    assertEquals(1, fakeService.requests.size());
+    verify(schemaManager, never()).updateSchema(any(), any());
+  }
+
+  @Test
+  public void testParkedUntilCreatedTableReady() {
+    fakeService.errors.add(Status.NOT_FOUND.withDescription("Table not found"));
+
+    StorageWriteApiBigQueryWriter writer = newWriter(true, false);
+    writer.setParkUntilTableReady(true);
+    // The write is given up on right away instead of waiting for the new table to become visible
+    TableNotReadyException e = assertThrows(
+        TableNotReadyException.class,
+        () -> writer.writeRows(partitionedTable(), rows(1)));
+    writer.close();
+
+    assertEquals(TABLE, e.getTable());
+    assertEquals(1, fakeService.requests.size());
+    verify(schemaManager).createTable(any(), any());
+  }
+
+  @Test
+  public void testNewConnectionForChangedSchema() throws Exception {
+    StorageWriteApiBigQueryWriter writer = newWriter(false, false);
+    writer.writeRows(partitionedTable(), rows(1));
+    Schema newSchema = Schema.of(
+        Field.of("f1", LegacySQLTypeName.STRING),
+        Field.of("f2", LegacySQLTypeName.INTEGER),
+        Field.of("f3", LegacySQLTypeName.STRING)
+    );
+    when(schemaManager.convertRecordSchemas(any())).thenReturn(newSchema);
+    writer.writeRows(partitionedTable(), rows(1));
+    writer.close();
+
+    assertEquals(2, fakeService.requests.size());
+    // The writer schema is only sent on the first request over each connection
+    Descriptor descriptor = descriptor(fakeService.requests.get(1).getProtoRows().getWriterSchema());
+    assertEquals(3, descriptor.getFields().size());
+  }
+
+  private StorageWriteApiBigQueryWriter newWriter(boolean autoCreateTables, boolean allowSchemaUpdates) {
+    return new StorageWriteApiBigQueryWriter(
+        client, schemaManager, PROJECT, 1, 0, autoCreateTables, allowSchemaUpdates);
+  }
+
+  private static PartitionedTableId partitionedTable() {
+    return new PartitionedTableId.Builder(TABLE).build();
+  }
+
+  private static Descriptor descriptor(ProtoSchema protoSchema) throws Exception {
+    FileDescriptor file = FileDescriptor.buildFrom(
+        FileDescriptorProto.newBuilder().addMessageType(protoSchema.getProtoDescriptor()).build(),
+        new FileDescriptor[0]);
+    return file.findMessageTypeByName(protoSchema.getProtoDescriptor().getName());
+  }
+
+  private static RowBatch rows(int count) {
+    RowBatch.Builder result = RowBatch.builder();
+    for (int i = 0; i < count; i++) {
+      Map<String, Object> content = new HashMap<>();
+      content.put("f1", "value" + i);
+      content.put("f2", i);
+      SinkRecord record = new SinkRecord("topic", 0, null, null, null, null, i);
+      result.add(record, RowToInsert.of(content));
+    }
+    return result.build();
+  }
+
+  private static class FakeBigQueryWrite extends BigQueryWriteGrpc.BigQueryWriteImplBase {
+    private final List<AppendRowsRequest> requests = new CopyOnWriteArrayList<>();
+    private final Queue<Status> errors = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public StreamObserver<AppendRowsRequest> appendRows(StreamObserver<AppendRowsResponse> responseObserver) {
+      return new StreamObserver<AppendRowsRequest>() {
+        @Override
+        public void onNext(AppendRowsRequest request) {
+          requests.add(request);
+          Status error = errors.poll();
+          AppendRowsResponse.Builder response = AppendRowsResponse.newBuilder();
+          if (error != null) {
+            response.setError(com.google.rpc.Status.newBuilder()
+                .setCode(error.getCode().value())
+                .setMessage(String.valueOf(error.getDescription())));
+          } else {
+            response.setAppendResult(AppendRowsResponse.AppendResult.getDefaultInstance());
+          }
+          responseObserver.onNext(response.build());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+
+        @Override
+        public void onCompleted() {
+          responseObserver.onCompleted();
+        }
+      };
+    }
+  }
+}
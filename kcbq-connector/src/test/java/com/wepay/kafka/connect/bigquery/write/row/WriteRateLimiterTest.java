@@ -0,0 +1,106 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.wepay.kafka.connect.bigquery.write.row;
+
+import com.google.cloud.bigquery.TableId;
+import org.apache.kafka.common.utils.Time;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WriteRateLimiterTest {
+
+  private static final TableId TABLE_1 = TableId.of("dataset", "table1");
+  private static final TableId TABLE_2 = TableId.of("dataset", "table2");
+
+  private Time time;
+  private long nowNs;
+  private long sleptMs;
+
+  @Before
+  public void setUp() {
+    time = mock(Time.class);
+    when(time.nanoseconds()).thenAnswer(invocation -> nowNs);
+    doAnswer(invocation -> {
+      long ms = invocation.getArgument(0);
+      sleptMs += ms;
+      nowNs += TimeUnit.MILLISECONDS.toNanos(ms);
+      return null;
+    }).when(time).sleep(anyLong());
+  }
+
+  @Test
+  public void testTokenBucket() {
+    TokenBucket bucket = new TokenBucket(100, time);
+    // Starts out full
+    assertEquals(0, bucket.reserve(100));
+    // Goes into debt for requests that there aren't enough tokens for
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.reserve(50));
+    assertEquals(TimeUnit.SECONDS.toNanos(1), bucket.reserve(50));
+
+    nowNs += TimeUnit.SECONDS.toNanos(1);
+    assertEquals(0, bucket.reserve(0));
+
+    // Never holds more than a second's worth of tokens
+    nowNs += TimeUnit.SECONDS.toNanos(10);
+    assertEquals(TimeUnit.MILLISECONDS.toNanos(10), bucket.reserve(101));
+  }
+
+  @Test
+  public void testTableLimits() throws InterruptedException {
+    WriteRateLimiter limiter = new WriteRateLimiter(100, -1, -1, -1, time);
+    limiter.acquire(TABLE_1, 100, 0);
+    assertEquals(0, sleptMs);
+
+    // Other tables have their own limit
+    limiter.acquire(TABLE_2, 100, 0);
+    assertEquals(0, sleptMs);
+
+    limiter.acquire(TABLE_1, 50, 0);
+    assertEquals(501, sleptMs);
+  }
+
+  @Test
+  public void testProjectLimits() throws InterruptedException {
+    WriteRateLimiter limiter = new WriteRateLimiter(-1, -1, -1, 1000, time);
+    limiter.acquire(TABLE_1, 1, 1000);
+    assertEquals(0, sleptMs);
+
+    limiter.acquire(TABLE_2, 1, 500);
+    assertEquals(501, sleptMs);
+  }
+
+  @Test
+  public void testWaitsForSlowestLimit() throws InterruptedException {
+    WriteRateLimiter limiter = new WriteRateLimiter(10, 1000, 100, 10000, time);
+    limiter.acquire(TABLE_1, 10, 1000);
+    assertEquals(0, sleptMs);
+
+    // The table row limit requires the longest wait; waits for the other limits overlap with it
+    limiter.acquire(TABLE_1, 10, 100);
+    assertEquals(1001, sleptMs);
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2020 Confluent, Inc.
+ *
+ * This software contains code derived from the WePay BigQuery Kafka Connector, Copyright WePay, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.wepay.kafka.connect.bigquery.write.storage;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.LegacySQLTypeName;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.storage.v1.CivilTimeEncoder;
+import com.google.cloud.bigquery.storage.v1.ProtoSchema;
+import com.google.cloud.bigquery.storage.v1.TableFieldSchema;
+import com.google.cloud.bigquery.storage.v1.TableSchema;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.Descriptors.Descriptor;
+import com.google.protobuf.Descriptors.FileDescriptor;
+import com.google.protobuf.DynamicMessage;
+import com.wepay.kafka.connect.bigquery.exception.ConversionConnectException;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ProtoRowEncoderTest {
+
+  @Test
+  public void testTableSchemaConversion() {
+    Schema schema = Schema.of(
+        Field.newBuilder("f1", LegacySQLTypeName.FLOAT).setMode(Field.Mode.REQUIRED).build(),
+        Field.newBuilder("f2", LegacySQLTypeName.RECORD,
+            Field.of("f3", LegacySQLTypeName.STRING)
+        ).setMode(Field.Mode.REPEATED).build()
+    );
+
+    TableSchema tableSchema = ProtoRowEncoder.toTableSchema(schema);
+
+    assertEquals(2, tableSchema.getFieldsCount());
+    TableFieldSchema f1 = tableSchema.getFields(0);
+    assertEquals("f1", f1.getName());
+    assertEquals(TableFieldSchema.Type.DOUBLE, f1.getType());
+    assertEquals(TableFieldSchema.Mode.REQUIRED, f1.getMode());
+    TableFieldSchema f2 = tableSchema.getFields(1);
+    assertEquals(TableFieldSchema.Type.STRUCT, f2.getType());
+    assertEquals(TableFieldSchema.Mode.REPEATED, f2.getMode());
+    assertEquals(TableFieldSchema.Type.STRING, f2.getFields(0).getType());
+    assertEquals(TableFieldSchema.Mode.NULLABLE, f2.getFields(0).getMode());
+  }
+
+  @Test
+  public void testPrimitiveValues() throws Exception {
+    Schema schema = Schema.of(
+        Field.of("string", LegacySQLTypeName.STRING),
+        Field.of("integer", LegacySQLTypeName.INTEGER),
+        Field.of("float", LegacySQLTypeName.FLOAT),
+        Field.of("boolean", LegacySQLTypeName.BOOLEAN),
+        Field.of("bytes", LegacySQLTypeName.BYTES),
+        Field.of("numeric", LegacySQLTypeName.NUMERIC),
+        Field.of("missing", LegacySQLTypeName.STRING)
+    );
+    Map<String, Object> row = new HashMap<>();
+    row.put("string", "value");
+    row.put("integer", 42);
+    row.put("float", 4.5);
+    row.put("boolean", true);
+    row.put("bytes", Base64.getEncoder().encodeToString("bytes".getBytes(StandardCharsets.UTF_8)));
+    row.put("numeric", new BigDecimal("1.5"));
+    row.put("missing", null);
+
+    ProtoRowEncoder encoder = new ProtoRowEncoder(schema);
+    DynamicMessage message = decode(encoder, encoder.encode(row));
+
+    assertEquals("value", get(message, "string"));
+    assertEquals(42L, get(message, "integer"));
+    assertEquals(4.5, get(message, "float"));
+    assertEquals(true, get(message, "boolean"));
+    assertEquals(ByteString.copyFromUtf8("bytes"), get(message, "bytes"));
+    assertFalse(message.hasField(message.getDescriptorForType().findFieldByName("missing")));
+  }
+
+  @Test
+  public void testTemporalValues() throws Exception {
+    Schema schema = Schema.of(
+        Field.of("timestamp", LegacySQLTypeName.TIMESTAMP),
+        Field.of("zonedTimestamp", LegacySQLTypeName.TIMESTAMP),
+        Field.of("secondsTimestamp", LegacySQLTypeName.TIMESTAMP),
+        Field.of("date", LegacySQLTypeName.DATE),
+        Field.of("time", LegacySQLTypeName.TIME)
+    );
+    Map<String, Object> row = new HashMap<>();
+    row.put("timestamp", "1970-01-02 00:00:01.500");
+    row.put("zonedTimestamp", "1970-01-01 01:00:00+01:00");
+    row.put("secondsTimestamp", 1.25);
+    row.put("date", "1970-01-11");
+    row.put("time", "01:02:03.004");
+
+    ProtoRowEncoder encoder = new ProtoRowEncoder(schema);
+    DynamicMessage message = decode(encoder, encoder.encode(row));
+
+    assertEquals(86_401_500_000L, get(message, "timestamp"));
+    assertEquals(0L, get(message, "zonedtimestamp"));
+    assertEquals(1_250_000L, get(message, "secondstimestamp"));
+    assertEquals(10, get(message, "date"));
+    assertEquals(
+        CivilTimeEncoder.encodePacked64TimeMicros(org.threeten.bp.LocalTime.of(1, 2, 3, 4_000_000)),
+        get(message, "time"));
+  }
+
+  @Test
+  public void testNestedAndRepeatedValues() throws Exception {
+    Schema schema = Schema.of(
+        Field.newBuilder("list", LegacySQLTypeName.INTEGER).setMode(Field.Mode.REPEATED).build(),
+        Field.of("struct", LegacySQLTypeName.RECORD,
+            Field.of("inner", LegacySQLTypeName.STRING)
+        )
+    );
+    Map<String, Object> inner = new HashMap<>();
+    inner.put("inner", "value");
+    Map<String, Object> row = new HashMap<>();
+    row.put("list", Arrays.asList(1, 2, 3));
+    row.put("struct", inner);
+
+    ProtoRowEncoder encoder = new ProtoRowEncoder(schema);
+    DynamicMessage message = decode(encoder, encoder.encode(row));
+
+    assertEquals(Arrays.asList(1L, 2L, 3L), get(message, "list"));
+    DynamicMessage struct = (DynamicMessage) get(message, "struct");
+    assertEquals("value", get(struct, "inner"));
+  }
+
+  @Test(expected = ConversionConnectException.class)
+  public void testUnknownField() {
+    Schema schema = Schema.of(Field.of("f1", LegacySQLTypeName.STRING));
+    Map<String, Object> row = new HashMap<>();
+    row.put("f1", "value");
+    row.put("f2", "value");
+
+    new ProtoRowEncoder(schema).encode(row);
+  }
+
+  @Test(expected = ConversionConnectException.class)
+  public void testInvalidValue() {
+    Schema schema = Schema.of(Field.of("f1", LegacySQLTypeName.DATE));
+    Map<String, Object> row = new HashMap<>();
+    row.put("f1", "not a date");
+
+    new ProtoRowEncoder(schema).encode(row);
+  }
+
+  private static DynamicMessage decode(ProtoRowEncoder encoder, ByteString row) throws Exception {
+    return DynamicMessage.parseFrom(descriptor(encoder.protoSchema()), row);
+  }
+
+  private static Descriptor descriptor(ProtoSchema protoSchema) throws Exception {
+    FileDescriptor file = FileDescriptor.buildFrom(
+        FileDescriptorProto.newBuilder().addMessageType(protoSchema.getProtoDescriptor()).build(),
+        new FileDescriptor[0]);
+    return file.findMessageTypeByName(protoSchema.getProtoDescriptor().getName());
+  }
+
+  private static Object get(DynamicMessage message, String field) {
+    return message.getField(message.getDescriptorForType().findFieldByName(field));
+  }
+}